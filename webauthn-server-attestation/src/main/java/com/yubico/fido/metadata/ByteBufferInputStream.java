@@ -0,0 +1,35 @@
+package com.yubico.fido.metadata;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+/** An {@link InputStream} that reads the remaining contents of a {@link ByteBuffer}. */
+@AllArgsConstructor
+class ByteBufferInputStream extends InputStream {
+
+  @NonNull private final ByteBuffer buffer;
+
+  @Override
+  public int read() {
+    return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) {
+      return 0;
+    } else if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    final int n = Math.min(len, buffer.remaining());
+    buffer.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+}
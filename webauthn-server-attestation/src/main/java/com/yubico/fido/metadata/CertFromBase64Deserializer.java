@@ -0,0 +1,34 @@
+package com.yubico.fido.metadata;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Deserializes an {@link X509Certificate} from a Base64 encoded DER string, sharing instances
+ * through the {@link MetadataInterner} of the current parse, if any.
+ */
+class CertFromBase64Deserializer extends StdScalarDeserializer<X509Certificate> {
+
+  CertFromBase64Deserializer() {
+    super(X509Certificate.class);
+  }
+
+  @Override
+  public X509Certificate deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+    final String base64 = StringDeserializer.instance.deserialize(p, ctxt);
+    final byte[] der = ByteArray.fromBase64(base64.replaceAll("\\s+", "")).getBytes();
+    final MetadataInterner interner = MetadataInterner.from(ctxt);
+    try {
+      return interner == null ? CertificateParser.parseDer(der) : interner.internCertificate(der);
+    } catch (CertificateException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
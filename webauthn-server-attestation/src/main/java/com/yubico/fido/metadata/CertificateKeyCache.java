@@ -0,0 +1,149 @@
+package com.yubico.fido.metadata;
+
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.webauthn.data.ByteArray;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded cache of the lookup keys that {@link FidoMetadataService} computes from attestation
+ * certificates: the subject key identifier, the encoded public key, and the value of the
+ * id-fido-gen-ce-aaguid extension.
+ *
+ * <p>The same few attestation certificates appear across many registrations, so this saves hashing
+ * the public key and parsing the extension for each of them. Certificates are compared by {@link
+ * X509Certificate#equals(Object)}, which compares their DER encodings.
+ *
+ * <p>Lookups do not take a lock. Eviction is approximately least recently used: when the cache
+ * grows past its maximum size, entries that have not been used since the previous eviction are
+ * removed first. The cache may briefly hold more than its maximum size while entries are added
+ * concurrently.
+ */
+final class CertificateKeyCache {
+
+  private final int maximumSize;
+  private final ConcurrentHashMap<X509Certificate, Keys> cache = new ConcurrentHashMap<>();
+  private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+  CertificateKeyCache(int maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * @return the SHA-1 subject key identifier of <code>cert</code>.
+   */
+  ByteArray getSubjectKeyIdentifier(X509Certificate cert) {
+    return get(cert).subjectKeyIdentifier;
+  }
+
+  /**
+   * @return the DER encoded SubjectPublicKeyInfo of <code>cert</code>.
+   */
+  ByteArray getPublicKey(X509Certificate cert) {
+    return get(cert).publicKey;
+  }
+
+  /**
+   * @return the value of the id-fido-gen-ce-aaguid extension of <code>cert</code>, if any.
+   * @throws IllegalArgumentException if the extension is marked critical.
+   */
+  Optional<AAGUID> getAaguidExtension(X509Certificate cert) {
+    return get(cert).getAaguidExtension(cert);
+  }
+
+  private Keys get(X509Certificate cert) {
+    final Keys cached = cache.get(cert);
+    if (cached != null) {
+      cached.markUsed();
+      return cached;
+    }
+    final Keys keys =
+        new Keys(
+            computeSubjectKeyIdentifier(cert), CompromisedAttestationKeys.encodePublicKey(cert));
+    if (maximumSize == 0) {
+      return keys;
+    }
+    final Keys existing = cache.putIfAbsent(cert, keys);
+    if (existing != null) {
+      existing.markUsed();
+      return existing;
+    }
+    if (cache.size() > maximumSize) {
+      evict();
+    }
+    return keys;
+  }
+
+  /**
+   * Remove entries until the cache is within its maximum size. The first pass gives entries used
+   * since the previous eviction a second chance, and the second pass removes entries regardless.
+   * Only one thread evicts at a time; others return immediately.
+   */
+  private void evict() {
+    if (!evicting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      for (int pass = 0; pass < 2 && cache.size() > maximumSize; ++pass) {
+        final Iterator<Keys> it = cache.values().iterator();
+        while (it.hasNext() && cache.size() > maximumSize) {
+          final Keys keys = it.next();
+          if (pass == 0 && keys.used) {
+            keys.used = false;
+          } else {
+            it.remove();
+          }
+        }
+      }
+    } finally {
+      evicting.set(false);
+    }
+  }
+
+  private static ByteArray computeSubjectKeyIdentifier(X509Certificate cert) {
+    try {
+      return new ByteArray(CertificateParser.computeSubjectKeyIdentifier(cert));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("SHA-1 hash algorithm is not available in JCA context.", e);
+    }
+  }
+
+  private static class Keys {
+    private final ByteArray subjectKeyIdentifier;
+    private final ByteArray publicKey;
+
+    /** Whether this entry has been used since the previous eviction. */
+    private volatile boolean used = true;
+
+    /**
+     * Parsed on first use, since it is only needed when no AAGUID is given. Left unset if parsing
+     * fails, so that the failure is reported again on the next lookup.
+     */
+    private volatile Optional<AAGUID> aaguidExtension = null;
+
+    private Keys(ByteArray subjectKeyIdentifier, ByteArray publicKey) {
+      this.subjectKeyIdentifier = subjectKeyIdentifier;
+      this.publicKey = publicKey;
+    }
+
+    private void markUsed() {
+      if (!used) {
+        used = true;
+      }
+    }
+
+    private Optional<AAGUID> getAaguidExtension(X509Certificate cert) {
+      Optional<AAGUID> result = aaguidExtension;
+      if (result == null) {
+        result =
+            CertificateParser.parseFidoAaguidExtension(cert).map(ByteArray::new).map(AAGUID::new);
+        aaguidExtension = result;
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.yubico.fido.metadata;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+/**
+ * The attestation public keys that the {@link StatusReport}s of a metadata entry report as
+ * compromised, for {@link FidoMetadataService.Filters#noAttestationKeyCompromise()}.
+ *
+ * <p>Public keys are represented by their DER encoded SubjectPublicKeyInfo.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+final class CompromisedAttestationKeys {
+
+  private static final CompromisedAttestationKeys NONE =
+      new CompromisedAttestationKeys(false, Collections.emptySet());
+
+  /**
+   * <code>true</code> if a status report with {@link AuthenticatorStatus#ATTESTATION_KEY_COMPROMISE
+   * ATTESTATION_KEY_COMPROMISE} status has no certificate, meaning that all attestation keys are
+   * compromised.
+   */
+  private final boolean allCompromised;
+
+  private final Set<ByteArray> publicKeys;
+
+  static CompromisedAttestationKeys of(@NonNull MetadataBLOBPayloadEntry entry) {
+    boolean allCompromised = false;
+    Set<ByteArray> publicKeys = null;
+    for (StatusReport statusReport : entry.getStatusReports()) {
+      if (AuthenticatorStatus.ATTESTATION_KEY_COMPROMISE.equals(statusReport.getStatus())) {
+        if (statusReport.getCertificate().isPresent()) {
+          if (publicKeys == null) {
+            publicKeys = new HashSet<>();
+          }
+          publicKeys.add(encodePublicKey(statusReport.getCertificate().get()));
+        } else {
+          allCompromised = true;
+        }
+      }
+    }
+    if (!allCompromised && publicKeys == null) {
+      return NONE;
+    } else {
+      return new CompromisedAttestationKeys(
+          allCompromised, publicKeys == null ? Collections.emptySet() : publicKeys);
+    }
+  }
+
+  /**
+   * @param attestationPublicKeys the encoded public keys of an attestation certificate chain.
+   * @return <code>true</code> if any of <code>attestationPublicKeys</code> is compromised.
+   */
+  boolean anyCompromised(@NonNull Collection<ByteArray> attestationPublicKeys) {
+    if (allCompromised) {
+      return true;
+    }
+    if (publicKeys.isEmpty()) {
+      return false;
+    }
+    for (ByteArray publicKey : attestationPublicKeys) {
+      if (publicKeys.contains(publicKey)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static ByteArray encodePublicKey(@NonNull X509Certificate cert) {
+    return new ByteArray(cert.getPublicKey().getEncoded());
+  }
+}
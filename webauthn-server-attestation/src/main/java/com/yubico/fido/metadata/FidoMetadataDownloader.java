@@ -25,24 +25,28 @@
 package com.yubico.fido.metadata;
 
 import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.yubico.fido.metadata.FidoMetadataDownloaderException.Reason;
 import com.yubico.internal.util.BinaryUtil;
 import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.JcaEngines;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.exception.Base64UrlException;
 import com.yubico.webauthn.data.exception.HexException;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.DigestException;
 import java.security.InvalidAlgorithmParameterException;
@@ -67,19 +71,21 @@ import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -94,9 +100,10 @@ import lombok.extern.slf4j.Slf4j;
  * Utility for downloading, caching and verifying Fido Metadata Service BLOBs and associated
  * certificates.
  *
- * <p>This class is NOT THREAD SAFE since it reads and writes caches. However, it has no internal
- * mutable state, so instances MAY be reused in single-threaded or externally synchronized contexts.
- * See also the {@link #loadCachedBlob()} and {@link #refreshBlob()} methods.
+ * <p>This class is NOT THREAD SAFE since it reads and writes caches. However, its only internal
+ * mutable state is the HTTP cache validators of the most recently downloaded BLOB, so instances MAY
+ * be reused in single-threaded or externally synchronized contexts. See also the {@link
+ * #loadCachedBlob()} and {@link #refreshBlob()} methods.
  *
  * <p>Use the {@link #builder() builder} to configure settings, then use the {@link
  * #loadCachedBlob()} and {@link #refreshBlob()} methods to load the metadata BLOB.
@@ -121,6 +128,20 @@ public final class FidoMetadataDownloader {
   @NonNull private final Clock clock;
   private final KeyStore httpsTrustStore;
   private final boolean verifyDownloadsOnly;
+  private final Duration connectTimeout;
+  private final Duration readTimeout;
+
+  private final BlobValidators blobValidators = new BlobValidators();
+
+  /**
+   * The <code>ETag</code> and <code>Last-Modified</code> response headers of the most recent BLOB
+   * download, and the <code>"no"</code> of the BLOB they belong to.
+   */
+  private static class BlobValidators {
+    private Integer no = null;
+    private String etag = null;
+    private String lastModified = null;
+  }
 
   /**
    * Begin configuring a {@link FidoMetadataDownloader} instance. See the {@link
@@ -151,6 +172,8 @@ public final class FidoMetadataDownloader {
     @NonNull private Clock clock = Clock.systemUTC();
     private KeyStore httpsTrustStore = null;
     private boolean verifyDownloadsOnly = false;
+    private Duration connectTimeout = null;
+    private Duration readTimeout = null;
 
     public FidoMetadataDownloader build() {
       return new FidoMetadataDownloader(
@@ -169,7 +192,9 @@ public final class FidoMetadataDownloader {
           certStore,
           clock,
           httpsTrustStore,
-          verifyDownloadsOnly);
+          verifyDownloadsOnly,
+          connectTimeout,
+          readTimeout);
     }
 
     /**
@@ -635,6 +660,44 @@ public final class FidoMetadataDownloader {
       this.verifyDownloadsOnly = verifyDownloadsOnly;
       return this;
     }
+
+    /**
+     * Set the timeout for opening a connection when downloading the trust root certificate, the
+     * metadata BLOB or the BLOB signing certificate chain.
+     *
+     * <p>If not set, the default of the {@link URLConnection} implementation is used, which is
+     * usually to wait indefinitely.
+     *
+     * @param connectTimeout the connect timeout. Must be positive.
+     * @throws IllegalArgumentException if <code>connectTimeout</code> is zero or negative.
+     * @see URLConnection#setConnectTimeout(int)
+     */
+    public FidoMetadataDownloaderBuilder connectTimeout(@NonNull Duration connectTimeout) {
+      if (connectTimeout.isZero() || connectTimeout.isNegative()) {
+        throw new IllegalArgumentException("connectTimeout must be positive: " + connectTimeout);
+      }
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /**
+     * Set the timeout for reading from an open connection when downloading the trust root
+     * certificate, the metadata BLOB or the BLOB signing certificate chain.
+     *
+     * <p>If not set, the default of the {@link URLConnection} implementation is used, which is
+     * usually to wait indefinitely.
+     *
+     * @param readTimeout the read timeout. Must be positive.
+     * @throws IllegalArgumentException if <code>readTimeout</code> is zero or negative.
+     * @see URLConnection#setReadTimeout(int)
+     */
+    public FidoMetadataDownloaderBuilder readTimeout(@NonNull Duration readTimeout) {
+      if (readTimeout.isZero() || readTimeout.isNegative()) {
+        throw new IllegalArgumentException("readTimeout must be positive: " + readTimeout);
+      }
+      this.readTimeout = readTimeout;
+      return this;
+    }
   }
 
   /**
@@ -667,12 +730,19 @@ public final class FidoMetadataDownloader {
    *       Consumer} (see {@link FidoMetadataDownloaderBuilder.Step5}).
    * </ol>
    *
-   * No internal mutable state is maintained between invocations of this method; each invocation
-   * will reload/rewrite caches, perform downloads and check the <code>"legalHeader"
-   * </code> as necessary. You may therefore reuse a {@link FidoMetadataDownloader} instance and,
-   * for example, call this method periodically to refresh the BLOB when appropriate. Each call will
-   * return a new {@link MetadataBLOB} instance; ones already returned will not be updated by
-   * subsequent calls.
+   * Apart from the HTTP cache validators described below, no internal mutable state is maintained
+   * between invocations of this method; each invocation will reload/rewrite caches, perform
+   * downloads and check the <code>"legalHeader"</code> as necessary. You may therefore reuse a
+   * {@link FidoMetadataDownloader} instance and, for example, call this method periodically to
+   * refresh the BLOB when appropriate. Each call will return a new {@link MetadataBLOB} instance;
+   * ones already returned will not be updated by subsequent calls.
+   *
+   * <p>When downloading the BLOB, the request accepts gzip content encoding and, if a cached BLOB
+   * at least as new as the BLOB last downloaded by this instance is present, is made conditional on
+   * the <code>ETag</code> and <code>Last-Modified</code> headers of that download. A <code>304
+   * Not Modified</code> response is treated like a downloaded BLOB whose <code>"no"</code> is not
+   * greater than that of the cached BLOB. The <code>"no"</code> of a downloaded BLOB is compared
+   * with that of the cached BLOB before the downloaded BLOB is fully parsed and verified.
    *
    * @return the successfully retrieved and validated metadata BLOB.
    * @throws Base64UrlException if the explicitly configured or newly downloaded BLOB is not a
@@ -771,11 +841,19 @@ public final class FidoMetadataDownloader {
    *       {@link FidoMetadataDownloaderBuilder.Step5}).
    * </ol>
    *
-   * No internal mutable state is maintained between invocations of this method; each invocation
-   * will reload/rewrite caches, perform downloads and check the <code>"legalHeader"
-   * </code> as necessary. You may therefore reuse a {@link FidoMetadataDownloader} instance and,
-   * for example, call this method periodically to refresh the BLOB. Each call will return a new
-   * {@link MetadataBLOB} instance; ones already returned will not be updated by subsequent calls.
+   * Apart from the HTTP cache validators described below, no internal mutable state is maintained
+   * between invocations of this method; each invocation will reload/rewrite caches, perform
+   * downloads and check the <code>"legalHeader"</code> as necessary. You may therefore reuse a
+   * {@link FidoMetadataDownloader} instance and, for example, call this method periodically to
+   * refresh the BLOB. Each call will return a new {@link MetadataBLOB} instance; ones already
+   * returned will not be updated by subsequent calls.
+   *
+   * <p>When downloading the BLOB, the request accepts gzip content encoding and, if a cached BLOB
+   * at least as new as the BLOB last downloaded by this instance is present, is made conditional on
+   * the <code>ETag</code> and <code>Last-Modified</code> headers of that download. A <code>304
+   * Not Modified</code> response is treated like a downloaded BLOB whose <code>"no"</code> is not
+   * greater than that of the cached BLOB. The <code>"no"</code> of a downloaded BLOB is compared
+   * with that of the cached BLOB before the downloaded BLOB is fully parsed and verified.
    *
    * @return the successfully retrieved and validated metadata BLOB.
    * @throws Base64UrlException if the explicitly configured or newly downloaded BLOB is not a
@@ -848,7 +926,22 @@ public final class FidoMetadataDownloader {
 
     try {
       log.debug("Attempting to download new BLOB...");
-      final ByteArray downloadedBytes = download(blobUrl);
+      final BlobDownload download = downloadBlob(cached);
+      if (!download.getContent().isPresent()) {
+        log.debug("BLOB not modified since last download - using cached BLOB.");
+        return cached;
+      }
+      final ByteArray downloadedBytes = download.getContent().get();
+
+      if (cached.isPresent()) {
+        final Optional<Integer> downloadedNo = peekBlobNo(downloadedBytes);
+        if (downloadedNo.isPresent() && downloadedNo.get() <= cached.get().getPayload().getNo()) {
+          log.debug("New BLOB does not have a higher \"no\" - using cached BLOB instead.");
+          download.saveValidators(downloadedNo.get());
+          return cached;
+        }
+      }
+
       final MetadataBLOB downloadedBlob = parseAndVerifyBlob(downloadedBytes, trustRoot);
       log.debug("New BLOB downloaded.");
 
@@ -856,6 +949,7 @@ public final class FidoMetadataDownloader {
         log.debug("Cached BLOB exists - checking if new BLOB has a higher \"no\"...");
         if (downloadedBlob.getPayload().getNo() <= cached.get().getPayload().getNo()) {
           log.debug("New BLOB does not have a higher \"no\" - using cached BLOB instead.");
+          download.saveValidators(downloadedBlob.getPayload().getNo());
           return cached;
         }
         log.debug("New BLOB has a higher \"no\" - proceeding with new BLOB.");
@@ -877,6 +971,7 @@ public final class FidoMetadataDownloader {
         blobCacheConsumer.accept(downloadedBytes);
       }
 
+      download.saveValidators(downloadedBlob.getPayload().getNo());
       return Optional.of(downloadedBlob);
     } catch (FidoMetadataDownloaderException e) {
       if (e.getReason() == Reason.BAD_SIGNATURE && cached.isPresent()) {
@@ -1033,8 +1128,67 @@ public final class FidoMetadataDownloader {
   }
 
   private ByteArray download(URL url) throws IOException {
+    return readBody(openConnection(url));
+  }
+
+  /**
+   * Download the metadata BLOB, conditional on the cache validators of the previous download if
+   * <code>cached</code> is at least as new as the BLOB from the previous download.
+   */
+  private BlobDownload downloadBlob(Optional<MetadataBLOB> cached) throws IOException {
+    final URLConnection conn = openConnection(blobUrl);
+
+    if (cached.isPresent()
+        && blobValidators.no != null
+        && cached.get().getPayload().getNo() >= blobValidators.no) {
+      if (blobValidators.etag != null) {
+        conn.setRequestProperty("If-None-Match", blobValidators.etag);
+      }
+      if (blobValidators.lastModified != null) {
+        conn.setRequestProperty("If-Modified-Since", blobValidators.lastModified);
+      }
+    }
+
+    if (conn instanceof HttpURLConnection
+        && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      return new BlobDownload(null, null, null);
+    }
+
+    return new BlobDownload(
+        readBody(conn), conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+  }
+
+  @Value
+  private class BlobDownload {
+    private ByteArray content;
+    private String etag;
+    private String lastModified;
+
+    private Optional<ByteArray> getContent() {
+      return Optional.ofNullable(content);
+    }
+
+    /**
+     * Remember the cache validators of this download, which contained BLOB number <code>no</code>.
+     */
+    private void saveValidators(int no) {
+      blobValidators.no = no;
+      blobValidators.etag = etag;
+      blobValidators.lastModified = lastModified;
+    }
+  }
+
+  private URLConnection openConnection(URL url) throws IOException {
     URLConnection conn = url.openConnection();
 
+    if (connectTimeout != null) {
+      conn.setConnectTimeout((int) Math.min(Integer.MAX_VALUE, connectTimeout.toMillis()));
+    }
+    if (readTimeout != null) {
+      conn.setReadTimeout((int) Math.min(Integer.MAX_VALUE, readTimeout.toMillis()));
+    }
+    conn.setRequestProperty("Accept-Encoding", "gzip");
+
     if (conn instanceof HttpsURLConnection) {
       HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
       if (httpsTrustStore != null) {
@@ -1055,7 +1209,17 @@ public final class FidoMetadataDownloader {
       httpsConn.setRequestMethod("GET");
     }
 
-    return readAll(conn.getInputStream());
+    return conn;
+  }
+
+  private static ByteArray readBody(URLConnection conn) throws IOException {
+    try (InputStream is = conn.getInputStream()) {
+      if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+        return readAll(new GZIPInputStream(is));
+      } else {
+        return readAll(is);
+      }
+    }
   }
 
   private MetadataBLOB parseAndVerifyBlob(ByteArray jwt, X509Certificate trustRootCertificate)
@@ -1131,11 +1295,11 @@ public final class FidoMetadataDownloader {
     final Signature signature;
     switch (header.getAlg()) {
       case "RS256":
-        signature = Signature.getInstance("SHA256withRSA");
+        signature = JcaEngines.borrowSignature("SHA256withRSA");
         break;
 
       case "ES256":
-        signature = Signature.getInstance("SHA256withECDSA");
+        signature = JcaEngines.borrowSignature("SHA256withECDSA");
         break;
 
       default:
@@ -1143,17 +1307,24 @@ public final class FidoMetadataDownloader {
             "Unimplemented JWT verification algorithm: " + header.getAlg());
     }
 
-    signature.initVerify(leafCert.getPublicKey());
-    signature.update(
-        (parseResult.jwtHeader.getBase64Url() + "." + parseResult.jwtPayload.getBase64Url())
-            .getBytes(StandardCharsets.UTF_8));
-    if (!signature.verify(parseResult.jwtSignature.getBytes())) {
-      throw new FidoMetadataDownloaderException(Reason.BAD_SIGNATURE);
+    try {
+      signature.initVerify(leafCert.getPublicKey());
+      signature.update(parseResult.signingInput.asReadOnlyByteBuffer());
+      if (!signature.verify(parseResult.jwtSignature.getBytes())) {
+        throw new FidoMetadataDownloaderException(Reason.BAD_SIGNATURE);
+      }
+    } finally {
+      JcaEngines.releaseSignature(signature);
     }
 
-    final CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+    final CertPath blobCertPath;
+    final CertificateFactory certFactory = JcaEngines.borrowCertificateFactory("X.509");
+    try {
+      blobCertPath = certFactory.generateCertPath(certChain);
+    } finally {
+      JcaEngines.releaseCertificateFactory(certFactory);
+    }
     final CertPathValidator cpv = CertPathValidator.getInstance("PKIX");
-    final CertPath blobCertPath = certFactory.generateCertPath(certChain);
     final PKIXParameters pathParams =
         new PKIXParameters(Collections.singleton(new TrustAnchor(trustRootCertificate, null)));
     if (certStore != null) {
@@ -1165,25 +1336,106 @@ public final class FidoMetadataDownloader {
     return parseResult.blob;
   }
 
+  /**
+   * Parse <code>jwt</code> without copying or decoding the whole payload at once: the payload is
+   * Base64Url-decoded as a stream directly into the JSON parser, and the signing input is kept as a
+   * view into <code>jwt</code>.
+   */
   private static ParseResult parseBlob(ByteArray jwt) throws IOException, Base64UrlException {
-    Scanner s = new Scanner(new ByteArrayInputStream(jwt.getBytes())).useDelimiter("\\.");
-    final ByteArray jwtHeader = ByteArray.fromBase64Url(s.next());
-    final ByteArray jwtPayload = ByteArray.fromBase64Url(s.next());
-    final ByteArray jwtSignature = ByteArray.fromBase64Url(s.next());
-
-    final ObjectMapper headerJsonMapper =
-        com.yubico.internal.util.JacksonCodecs.json()
-            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, true)
-            .setBase64Variant(Base64Variants.MIME_NO_LINEFEEDS);
+    final JwtParts parts = splitJwt(jwt);
+
+    final ObjectReader headerJsonReader =
+        com.yubico.internal.util.JacksonCodecs.jsonReaderFor(MetadataBLOBHeader.class)
+            .with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .with(Base64Variants.MIME_NO_LINEFEEDS);
+
+    final MetadataBLOBHeader header =
+        headerJsonReader.readValue(decodeBase64Url(parts.header).getBytes());
+    final MetadataBLOBPayload payload;
+    try (InputStream payloadStream = decodeBase64UrlStream(parts.payload)) {
+      payload =
+          JacksonCodecs.interningJsonReaderFor(MetadataBLOBPayload.class).readValue(payloadStream);
+    }
 
     return new ParseResult(
-        new MetadataBLOB(
-            headerJsonMapper.readValue(jwtHeader.getBytes(), MetadataBLOBHeader.class),
-            JacksonCodecs.jsonWithDefaultEnums()
-                .readValue(jwtPayload.getBytes(), MetadataBLOBPayload.class)),
-        jwtHeader,
-        jwtPayload,
-        jwtSignature);
+        new MetadataBLOB(header, payload), parts.signingInput, decodeBase64Url(parts.signature));
+  }
+
+  /**
+   * Read the <code>"no"</code> property of the payload of <code>jwt</code> without parsing the rest
+   * of the BLOB, or return empty if that fails.
+   */
+  private static Optional<Integer> peekBlobNo(ByteArray jwt) {
+    try (JsonParser parser =
+        com.yubico.internal.util.JacksonCodecs.jsonReader()
+            .getFactory()
+            .createParser(decodeBase64UrlStream(splitJwt(jwt).payload))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return Optional.empty();
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String fieldName = parser.getCurrentName();
+        final JsonToken value = parser.nextToken();
+        if ("no".equals(fieldName) && value == JsonToken.VALUE_NUMBER_INT) {
+          return Optional.of(parser.getIntValue());
+        }
+        parser.skipChildren();
+      }
+      return Optional.empty();
+    } catch (Exception e) {
+      log.debug("Failed to read \"no\" of downloaded BLOB - falling back to full parsing.", e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Split <code>jwt</code> in JWS compact serialization into views of its Base64Url encoded parts,
+   * without copying.
+   *
+   * @throws Base64UrlException if <code>jwt</code> has fewer than three parts, or if any part
+   *     contains characters outside the Base64Url alphabet.
+   */
+  private static JwtParts splitJwt(ByteArray jwt) throws Base64UrlException {
+    final ByteBuffer bytes = jwt.asReadOnlyByteBuffer();
+    final int[] partEnds = new int[3];
+    int part = 0;
+    for (int i = 0; i < bytes.limit() && part < 3; ++i) {
+      final byte b = bytes.get(i);
+      if (b == '.') {
+        partEnds[part++] = i;
+      } else if (!isBase64UrlCharacter(b)) {
+        throw new Base64UrlException(
+            String.format("Invalid Base64Url character in JWT at index %d: 0x%02x", i, b), null);
+      }
+    }
+    if (part < 2) {
+      throw new Base64UrlException("Malformed JWT: expected 3 parts, found " + (part + 1), null);
+    } else if (part == 2) {
+      partEnds[2] = bytes.limit();
+    }
+
+    return new JwtParts(
+        jwt.slice(0, partEnds[0]),
+        jwt.slice(partEnds[0] + 1, partEnds[1] - partEnds[0] - 1),
+        jwt.slice(partEnds[1] + 1, partEnds[2] - partEnds[1] - 1),
+        jwt.slice(0, partEnds[1]));
+  }
+
+  private static boolean isBase64UrlCharacter(byte b) {
+    return (b >= 'A' && b <= 'Z')
+        || (b >= 'a' && b <= 'z')
+        || (b >= '0' && b <= '9')
+        || b == '-'
+        || b == '_'
+        || b == '=';
+  }
+
+  private static ByteArray decodeBase64Url(ByteArray base64url) throws Base64UrlException {
+    return ByteArray.fromBase64Url(new String(base64url.getBytes(), StandardCharsets.US_ASCII));
+  }
+
+  private static InputStream decodeBase64UrlStream(ByteArray base64url) {
+    return Base64.getUrlDecoder().wrap(new ByteBufferInputStream(base64url.asReadOnlyByteBuffer()));
   }
 
   private static ByteArray readAll(InputStream is) throws IOException {
@@ -1196,8 +1448,14 @@ public final class FidoMetadataDownloader {
    */
   private static ByteArray verifyHash(ByteArray contents, Set<ByteArray> acceptedCertSha256)
       throws NoSuchAlgorithmException {
-    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    final ByteArray hash = new ByteArray(digest.digest(contents.getBytes()));
+    final MessageDigest digest = JcaEngines.borrowMessageDigest("SHA-256");
+    final ByteArray hash;
+    try {
+      digest.update(contents.asReadOnlyByteBuffer());
+      hash = new ByteArray(digest.digest());
+    } finally {
+      JcaEngines.releaseMessageDigest(digest);
+    }
     if (acceptedCertSha256.stream().anyMatch(hash::equals)) {
       return contents;
     } else {
@@ -1208,8 +1466,18 @@ public final class FidoMetadataDownloader {
   @Value
   private static class ParseResult {
     private MetadataBLOB blob;
-    private ByteArray jwtHeader;
-    private ByteArray jwtPayload;
+    private ByteArray signingInput;
     private ByteArray jwtSignature;
   }
+
+  /** Views of the parts of a JWT in JWS compact serialization, still Base64Url encoded. */
+  @Value
+  private static class JwtParts {
+    private ByteArray header;
+    private ByteArray payload;
+    private ByteArray signature;
+
+    /** The header and payload parts including the separating period. */
+    private ByteArray signingInput;
+  }
 }
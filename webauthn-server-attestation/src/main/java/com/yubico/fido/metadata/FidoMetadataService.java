@@ -25,7 +25,6 @@
 package com.yubico.fido.metadata;
 
 import com.yubico.fido.metadata.FidoMetadataService.Filters.AuthenticatorToBeFiltered;
-import com.yubico.internal.util.CertificateParser;
 import com.yubico.internal.util.OptionalUtil;
 import com.yubico.webauthn.RegistrationResult;
 import com.yubico.webauthn.RelyingParty;
@@ -33,6 +32,8 @@ import com.yubico.webauthn.RelyingParty.RelyingPartyBuilder;
 import com.yubico.webauthn.attestation.AttestationTrustSource;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.exception.Base64UrlException;
+import com.yubico.webauthn.data.exception.HexException;
+import com.yubico.webauthn.extension.uvm.KeyProtectionType;
 import java.io.IOException;
 import java.security.DigestException;
 import java.security.InvalidAlgorithmParameterException;
@@ -42,24 +43,29 @@ import java.security.SignatureException;
 import java.security.cert.CertPathValidatorException;
 import java.security.cert.CertStore;
 import java.security.cert.CertificateException;
+import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.ToString;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
@@ -91,39 +97,83 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public final class FidoMetadataService implements AttestationTrustSource {
 
-  private final HashMap<String, HashSet<MetadataBLOBPayloadEntry>>
-      prefilteredEntriesByCertificateKeyIdentifier;
-  private final HashMap<AAGUID, HashSet<MetadataBLOBPayloadEntry>> prefilteredEntriesByAaguid;
-  private final HashSet<MetadataBLOBPayloadEntry> prefilteredUnindexedEntries;
+  private final MetadataEntryStore entries;
+  private final HashMap<ByteArray, List<Integer>> prefilteredEntriesByCertificateKeyIdentifier;
+  private final HashMap<AAGUID, List<Integer>> prefilteredEntriesByAaguid;
+  private final BitSet prefilteredEntries;
+  private final EnumMap<AuthenticatorStatus, BitSet> prefilteredEntriesByStatus =
+      new EnumMap<>(AuthenticatorStatus.class);
+  private final EnumMap<ProtocolFamily, BitSet> prefilteredEntriesByProtocolFamily =
+      new EnumMap<>(ProtocolFamily.class);
+  private final EnumMap<AttachmentHint, BitSet> prefilteredEntriesByAttachmentHint =
+      new EnumMap<>(AttachmentHint.class);
+  private final EnumMap<KeyProtectionType, BitSet> prefilteredEntriesByKeyProtection =
+      new EnumMap<>(KeyProtectionType.class);
+  private final CompromisedAttestationKeys[] compromisedKeysByEntry;
+  private final HashMap<X509Certificate, TrustAnchor> trustAnchorsByRootCertificate;
 
   private final Predicate<AuthenticatorToBeFiltered> filter;
   private final CertStore certStore;
+  private final CertificateKeyCache certificateKeys;
 
   private FidoMetadataService(
-      @NonNull MetadataBLOBPayload blob,
+      @NonNull MetadataEntryStore entries,
+      @NonNull Map<AAGUID, List<Integer>> entryIndicesByAaguid,
+      @NonNull Map<String, List<Integer>> entryIndicesByCertificateKeyIdentifier,
       @NonNull Predicate<MetadataBLOBPayloadEntry> prefilter,
       @NonNull Predicate<AuthenticatorToBeFiltered> filter,
-      CertStore certStore) {
-    final List<MetadataBLOBPayloadEntry> prefilteredEntries =
-        blob.getEntries().stream()
-            .filter(FidoMetadataService::ignoreInvalidUpdateAvailableAuthenticatorVersion)
-            .filter(prefilter)
-            .collect(Collectors.toList());
-
-    this.prefilteredEntriesByCertificateKeyIdentifier = buildCkiMap(prefilteredEntries);
-    this.prefilteredEntriesByAaguid = buildAaguidMap(prefilteredEntries);
-
-    this.prefilteredUnindexedEntries = new HashSet<>(prefilteredEntries);
-    for (HashSet<MetadataBLOBPayloadEntry> byAaguid : prefilteredEntriesByAaguid.values()) {
-      prefilteredUnindexedEntries.removeAll(byAaguid);
-    }
-    for (HashSet<MetadataBLOBPayloadEntry> byCski :
-        prefilteredEntriesByCertificateKeyIdentifier.values()) {
-      prefilteredUnindexedEntries.removeAll(byCski);
+      CertStore certStore,
+      int certificateKeyCacheSize) {
+    this.entries = entries;
+    this.trustAnchorsByRootCertificate = new HashMap<>();
+
+    // Each entry is loaded once here, but not retained if its metadata statement is serialized.
+    this.prefilteredEntries = new BitSet(entries.size());
+    this.compromisedKeysByEntry = new CompromisedAttestationKeys[entries.size()];
+    for (int i = 0; i < entries.size(); ++i) {
+      final MetadataBLOBPayloadEntry entry = entries.load(i);
+      if (ignoreInvalidUpdateAvailableAuthenticatorVersion(entry) && prefilter.test(entry)) {
+        prefilteredEntries.set(i);
+        compromisedKeysByEntry[i] = CompromisedAttestationKeys.of(entry);
+        for (StatusReport statusReport : entry.getStatusReports()) {
+          addToIndex(prefilteredEntriesByStatus, statusReport.getStatus(), i);
+        }
+        final int index = i;
+        entry
+            .getMetadataStatement()
+            .ifPresent(
+                metadataStatement -> {
+                  for (X509Certificate rootCert :
+                      metadataStatement.getAttestationRootCertificates()) {
+                    trustAnchorsByRootCertificate.computeIfAbsent(
+                        rootCert, cert -> new TrustAnchor(cert, null));
+                  }
+                  addToIndex(
+                      prefilteredEntriesByProtocolFamily,
+                      metadataStatement.getProtocolFamily(),
+                      index);
+                  for (AttachmentHint attachmentHint :
+                      metadataStatement.getAttachmentHint().orElseGet(Collections::emptySet)) {
+                    addToIndex(prefilteredEntriesByAttachmentHint, attachmentHint, index);
+                  }
+                  for (KeyProtectionType keyProtection : metadataStatement.getKeyProtection()) {
+                    addToIndex(prefilteredEntriesByKeyProtection, keyProtection, index);
+                  }
+                });
+      }
     }
 
+    this.prefilteredEntriesByCertificateKeyIdentifier =
+        selectIncludedEntries(
+            entries.size(),
+            prefilteredEntries,
+            decodeHexKeys(entryIndicesByCertificateKeyIdentifier));
+    this.prefilteredEntriesByAaguid =
+        selectIncludedEntries(entries.size(), prefilteredEntries, entryIndicesByAaguid);
+
     this.filter = filter;
     this.certStore = certStore;
+    this.certificateKeys = new CertificateKeyCache(certificateKeyCacheSize);
   }
 
   private static boolean ignoreInvalidUpdateAvailableAuthenticatorVersion(
@@ -146,71 +196,86 @@ public final class FidoMetadataService implements AttestationTrustSource {
         .orElse(true);
   }
 
-  private static HashMap<String, HashSet<MetadataBLOBPayloadEntry>> buildCkiMap(
-      @NonNull List<MetadataBLOBPayloadEntry> entries) {
+  /** The AAGUIDs by which <code>entry</code> is indexed: those that are present and not zero. */
+  static Stream<AAGUID> indexedAaguids(@NonNull MetadataBLOBPayloadEntry entry) {
+    return Stream.concat(
+            OptionalUtil.stream(entry.getAaguid()),
+            OptionalUtil.stream(entry.getMetadataStatement().flatMap(MetadataStatement::getAaguid)))
+        .filter(aaguid -> !aaguid.isZero());
+  }
 
-    return entries.stream()
-        .collect(
-            HashMap::new,
-            (result, metadataBLOBPayloadEntry) -> {
-              for (String acki :
-                  metadataBLOBPayloadEntry.getAttestationCertificateKeyIdentifiers()) {
-                result.computeIfAbsent(acki, o -> new HashSet<>()).add(metadataBLOBPayloadEntry);
-              }
-              for (String acki :
-                  metadataBLOBPayloadEntry
-                      .getMetadataStatement()
-                      .map(MetadataStatement::getAttestationCertificateKeyIdentifiers)
-                      .orElseGet(Collections::emptySet)) {
-                result.computeIfAbsent(acki, o -> new HashSet<>()).add(metadataBLOBPayloadEntry);
-              }
-            },
-            (mapA, mapB) -> {
-              for (Map.Entry<String, HashSet<MetadataBLOBPayloadEntry>> e : mapB.entrySet()) {
-                mapA.merge(
-                    e.getKey(),
-                    e.getValue(),
-                    (entriesA, entriesB) -> {
-                      entriesA.addAll(entriesB);
-                      return entriesA;
-                    });
-              }
-            });
+  /**
+   * The attestation certificate key identifiers by which <code>entry</code> is indexed: those of
+   * the entry itself and those of its metadata statement, if any.
+   */
+  static Stream<String> indexedCertificateKeyIdentifiers(@NonNull MetadataBLOBPayloadEntry entry) {
+    return Stream.concat(
+        entry.getAttestationCertificateKeyIdentifiers().stream(),
+        entry
+            .getMetadataStatement()
+            .map(MetadataStatement::getAttestationCertificateKeyIdentifiers)
+            .orElseGet(Collections::emptySet)
+            .stream());
   }
 
-  private static HashMap<AAGUID, HashSet<MetadataBLOBPayloadEntry>> buildAaguidMap(
-      @NonNull List<MetadataBLOBPayloadEntry> entries) {
-
-    return entries.stream()
-        .collect(
-            HashMap::new,
-            (result, metadataBLOBPayloadEntry) -> {
-              final Consumer<AAGUID> appendToAaguidEntry =
-                  aaguid ->
-                      result
-                          .computeIfAbsent(aaguid, o -> new HashSet<>())
-                          .add(metadataBLOBPayloadEntry);
-              metadataBLOBPayloadEntry
-                  .getAaguid()
-                  .filter(aaguid -> !aaguid.isZero())
-                  .ifPresent(appendToAaguidEntry);
-              metadataBLOBPayloadEntry
-                  .getMetadataStatement()
-                  .flatMap(MetadataStatement::getAaguid)
-                  .filter(aaguid -> !aaguid.isZero())
-                  .ifPresent(appendToAaguidEntry);
-            },
-            (mapA, mapB) -> {
-              for (Map.Entry<AAGUID, HashSet<MetadataBLOBPayloadEntry>> e : mapB.entrySet()) {
-                mapA.merge(
-                    e.getKey(),
-                    e.getValue(),
-                    (entriesA, entriesB) -> {
-                      entriesA.addAll(entriesB);
-                      return entriesA;
-                    });
-              }
-            });
+  /**
+   * Build an index from the keys returned by <code>getKeys</code> to the positions in <code>
+   * entries</code> of the entries with that key.
+   */
+  static <K> Map<K, List<Integer>> buildIndex(
+      @NonNull List<MetadataBLOBPayloadEntry> entries,
+      @NonNull Function<MetadataBLOBPayloadEntry, Stream<K>> getKeys) {
+    final Map<K, List<Integer>> result = new HashMap<>();
+    for (int i = 0; i < entries.size(); ++i) {
+      final Integer index = i;
+      getKeys
+          .apply(entries.get(i))
+          .distinct()
+          .forEach(key -> result.computeIfAbsent(key, k -> new ArrayList<>()).add(index));
+    }
+    return result;
+  }
+
+  /**
+   * Convert the hexadecimal attestation certificate key identifiers in <code>index</code> to binary
+   * keys. Keys that are not valid hexadecimal cannot match any certificate, and are ignored.
+   */
+  private static Map<ByteArray, List<Integer>> decodeHexKeys(Map<String, List<Integer>> index) {
+    final Map<ByteArray, List<Integer>> result = new HashMap<>();
+    for (Map.Entry<String, List<Integer>> e : index.entrySet()) {
+      final ByteArray key;
+      try {
+        key = ByteArray.fromHex(e.getKey());
+      } catch (HexException ex) {
+        log.debug("Ignoring invalid attestation certificate key identifier: {}", e.getKey());
+        continue;
+      }
+      result.computeIfAbsent(key, k -> new ArrayList<>()).addAll(e.getValue());
+    }
+    return result;
+  }
+
+  private static <K extends Enum<K>> void addToIndex(EnumMap<K, BitSet> index, K key, int i) {
+    if (key != null) {
+      index.computeIfAbsent(key, k -> new BitSet()).set(i);
+    }
+  }
+
+  private static <K> HashMap<K, List<Integer>> selectIncludedEntries(
+      int numEntries, BitSet included, Map<K, List<Integer>> index) {
+    final HashMap<K, List<Integer>> result = new HashMap<>();
+    for (Map.Entry<K, List<Integer>> e : index.entrySet()) {
+      for (int i : e.getValue()) {
+        if (i < 0 || i >= numEntries) {
+          throw new IllegalArgumentException(
+              String.format("Metadata entry index out of bounds: %d", i));
+        }
+        if (included.get(i)) {
+          result.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(i);
+        }
+      }
+    }
+    return result;
   }
 
   public static FidoMetadataServiceBuilder.Step1 builder() {
@@ -219,11 +284,16 @@ public final class FidoMetadataService implements AttestationTrustSource {
 
   @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
   public static class FidoMetadataServiceBuilder {
-    @NonNull private final MetadataBLOBPayload blob;
+    @NonNull private final List<MetadataBLOBPayloadEntry> entries;
+    private final List<byte[]> metadataStatements;
+    @NonNull private final Map<AAGUID, List<Integer>> entryIndicesByAaguid;
+    @NonNull private final Map<String, List<Integer>> entryIndicesByCertificateKeyIdentifier;
 
     private Predicate<MetadataBLOBPayloadEntry> prefilter = Filters.notRevoked();
     private Predicate<AuthenticatorToBeFiltered> filter = Filters.noAttestationKeyCompromise();
     private CertStore certStore = null;
+    private int metadataStatementCacheSize = 256;
+    private int certificateKeyCacheSize = 1024;
 
     public static class Step1 {
       /**
@@ -251,7 +321,35 @@ public final class FidoMetadataService implements AttestationTrustSource {
        * @see #useBlob(MetadataBLOB)
        */
       public FidoMetadataServiceBuilder useBlob(@NonNull MetadataBLOBPayload blobPayload) {
-        return new FidoMetadataServiceBuilder(blobPayload);
+        final List<MetadataBLOBPayloadEntry> entries = new ArrayList<>(blobPayload.getEntries());
+        return new FidoMetadataServiceBuilder(
+            entries,
+            null,
+            buildIndex(entries, FidoMetadataService::indexedAaguids),
+            buildIndex(entries, FidoMetadataService::indexedCertificateKeyIdentifiers));
+      }
+
+      /**
+       * Use the given <code>snapshot</code> as the data source.
+       *
+       * <p>This uses the metadata entries and the entry indices stored in the snapshot, so the
+       * indices need not be computed again. The signature of the metadata BLOB it was created from
+       * is not verified again; instead, {@link FidoMetadataSnapshot#read(java.nio.file.Path,
+       * javax.crypto.SecretKey)} authenticates the snapshot file with the operator's snapshot key.
+       *
+       * <p>The metadata statements of the entries are kept in their serialized form, and are
+       * deserialized when the entries are returned from {@link #findEntries(List, Optional)} and
+       * its overloads. See {@link FidoMetadataServiceBuilder#metadataStatementCacheSize(int)}.
+       *
+       * @see FidoMetadataSnapshot#read(java.nio.file.Path, javax.crypto.SecretKey)
+       * @see #useBlob(MetadataBLOB)
+       */
+      public FidoMetadataServiceBuilder useSnapshot(@NonNull FidoMetadataSnapshot snapshot) {
+        return new FidoMetadataServiceBuilder(
+            snapshot.getEntries(),
+            snapshot.getMetadataStatements(),
+            snapshot.getEntryIndicesByAaguid(),
+            snapshot.getEntryIndicesByCertificateKeyIdentifier());
       }
     }
 
@@ -324,6 +422,47 @@ public final class FidoMetadataService implements AttestationTrustSource {
       return this;
     }
 
+    /**
+     * Set the maximum number of deserialized metadata statements to keep in memory.
+     *
+     * <p>This setting only has an effect when using {@link Step1#useSnapshot(FidoMetadataSnapshot)}
+     * as the data source. Metadata statements not in this cache are deserialized again from the
+     * snapshot when their entries are looked up.
+     *
+     * <p>The default is 256.
+     *
+     * @param metadataStatementCacheSize the maximum number of deserialized metadata statements to
+     *     keep in memory. Zero disables the cache.
+     * @throws IllegalArgumentException if <code>metadataStatementCacheSize</code> is negative.
+     */
+    public FidoMetadataServiceBuilder metadataStatementCacheSize(int metadataStatementCacheSize) {
+      if (metadataStatementCacheSize < 0) {
+        throw new IllegalArgumentException(
+            "metadataStatementCacheSize must not be negative, was: " + metadataStatementCacheSize);
+      }
+      this.metadataStatementCacheSize = metadataStatementCacheSize;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of attestation certificates for which to remember the subject key
+     * identifier and AAGUID extension value computed in {@link #findEntries(List, Optional)}.
+     *
+     * <p>The default is 1024.
+     *
+     * @param certificateKeyCacheSize the maximum number of attestation certificates to remember
+     *     lookup keys for. Zero disables the cache.
+     * @throws IllegalArgumentException if <code>certificateKeyCacheSize</code> is negative.
+     */
+    public FidoMetadataServiceBuilder certificateKeyCacheSize(int certificateKeyCacheSize) {
+      if (certificateKeyCacheSize < 0) {
+        throw new IllegalArgumentException(
+            "certificateKeyCacheSize must not be negative, was: " + certificateKeyCacheSize);
+      }
+      this.certificateKeyCacheSize = certificateKeyCacheSize;
+      return this;
+    }
+
     public FidoMetadataService build()
         throws CertPathValidatorException,
             InvalidAlgorithmParameterException,
@@ -336,7 +475,17 @@ public final class FidoMetadataService implements AttestationTrustSource {
             NoSuchAlgorithmException,
             SignatureException,
             InvalidKeyException {
-      return new FidoMetadataService(blob, prefilter, filter, certStore);
+      return new FidoMetadataService(
+          metadataStatements == null
+              ? MetadataEntryStore.of(entries)
+              : MetadataEntryStore.serialized(
+                  entries, metadataStatements, metadataStatementCacheSize),
+          entryIndicesByAaguid,
+          entryIndicesByCertificateKeyIdentifier,
+          prefilter,
+          filter,
+          certStore,
+          certificateKeyCacheSize);
     }
   }
 
@@ -390,28 +539,15 @@ public final class FidoMetadataService implements AttestationTrustSource {
      * {@link AuthenticatorToBeFiltered#getAttestationCertificateChain() attestation certificate
      * chain}.
      *
+     * <p>The compromised public keys of each metadata entry are collected when the {@link
+     * FidoMetadataService} is built, so this filter only looks up the public keys of the
+     * attestation certificate chain in a hash set.
+     *
      * @see AuthenticatorStatus#ATTESTATION_KEY_COMPROMISE
      */
     public static Predicate<AuthenticatorToBeFiltered> noAttestationKeyCompromise() {
       return (params) ->
-          params.getMetadataEntry().getStatusReports().stream()
-              .filter(
-                  statusReport ->
-                      AuthenticatorStatus.ATTESTATION_KEY_COMPROMISE.equals(
-                          statusReport.getStatus()))
-              .noneMatch(
-                  statusReport ->
-                      !statusReport.getCertificate().isPresent()
-                          || (params.getAttestationCertificateChain().stream()
-                              .anyMatch(
-                                  cert ->
-                                      Arrays.equals(
-                                          statusReport
-                                              .getCertificate()
-                                              .get()
-                                              .getPublicKey()
-                                              .getEncoded(),
-                                          cert.getPublicKey().getEncoded()))));
+          !params.getCompromisedKeys().anyCompromised(params.getAttestationCertificatePublicKeys());
     }
 
     /**
@@ -437,6 +573,23 @@ public final class FidoMetadataService implements AttestationTrustSource {
 
       AAGUID aaguid;
 
+      /**
+       * The compromised attestation keys of {@link #metadataEntry}, precomputed when the {@link
+       * FidoMetadataService} was built.
+       */
+      @Getter(AccessLevel.PACKAGE)
+      @EqualsAndHashCode.Exclude
+      @ToString.Exclude
+      @NonNull
+      CompromisedAttestationKeys compromisedKeys;
+
+      /** The encoded public keys of {@link #attestationCertificateChain}. */
+      @Getter(AccessLevel.PACKAGE)
+      @EqualsAndHashCode.Exclude
+      @ToString.Exclude
+      @NonNull
+      Set<ByteArray> attestationCertificatePublicKeys;
+
       /**
        * The AAGUID from the <a
        * href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#sctn-attested-credential-data">attested
@@ -498,18 +651,13 @@ public final class FidoMetadataService implements AttestationTrustSource {
       @NonNull final List<X509Certificate> attestationCertificateChain,
       @NonNull final Optional<AAGUID> aaguid) {
 
-    final Set<String> certSubjectKeyIdentifiers =
+    final Set<ByteArray> certSubjectKeyIdentifiers =
         attestationCertificateChain.stream()
-            .map(
-                cert -> {
-                  try {
-                    return new ByteArray(CertificateParser.computeSubjectKeyIdentifier(cert))
-                        .getHex();
-                  } catch (NoSuchAlgorithmException e) {
-                    throw new RuntimeException(
-                        "SHA-1 hash algorithm is not available in JCA context.", e);
-                  }
-                })
+            .map(certificateKeys::getSubjectKeyIdentifier)
+            .collect(Collectors.toSet());
+    final Set<ByteArray> attestationCertificatePublicKeys =
+        attestationCertificateChain.stream()
+            .map(certificateKeys::getPublicKey)
             .collect(Collectors.toSet());
 
     final Optional<AAGUID> nonzeroAaguid =
@@ -520,10 +668,7 @@ public final class FidoMetadataService implements AttestationTrustSource {
               if (attestationCertificateChain.isEmpty()) {
                 return Optional.empty();
               } else {
-                return CertificateParser.parseFidoAaguidExtension(
-                        attestationCertificateChain.get(0))
-                    .map(ByteArray::new)
-                    .map(AAGUID::new);
+                return certificateKeys.getAaguidExtension(attestationCertificateChain.get(0));
               }
             });
 
@@ -546,13 +691,17 @@ public final class FidoMetadataService implements AttestationTrustSource {
                                     prefilteredEntriesByCertificateKeyIdentifier.get(cski))
                                 .map(Collection::stream)
                                 .orElseGet(Stream::empty)))
-            .filter(
-                metadataBLOBPayloadEntry ->
-                    this.filter.test(
-                        new AuthenticatorToBeFiltered(
-                            attestationCertificateChain,
-                            metadataBLOBPayloadEntry,
-                            nonzeroAaguid.orElse(null))))
+            .distinct()
+            .map(
+                i ->
+                    new AuthenticatorToBeFiltered(
+                        attestationCertificateChain,
+                        entries.get(i),
+                        nonzeroAaguid.orElse(null),
+                        compromisedKeysByEntry[i],
+                        attestationCertificatePublicKeys))
+            .filter(this.filter)
+            .map(AuthenticatorToBeFiltered::getMetadataEntry)
             .collect(Collectors.toSet());
 
     log.debug(
@@ -618,6 +767,9 @@ public final class FidoMetadataService implements AttestationTrustSource {
    * <p>Note: The result MAY include fewer results than the number of times the <code>filter</code>
    * returned <code>true</code>, because of possible duplication in the underlying data store.
    *
+   * <p>Note: When using {@link FidoMetadataServiceBuilder.Step1#useSnapshot(FidoMetadataSnapshot)}
+   * as the data source, this deserializes the metadata statements of all entries.
+   *
    * @param filter a {@link Predicate} which returns <code>true</code> for metadata entries to
    *     include in the result.
    * @return All metadata entries which satisfy the {@link
@@ -627,27 +779,136 @@ public final class FidoMetadataService implements AttestationTrustSource {
    */
   public Set<MetadataBLOBPayloadEntry> findEntries(
       @NonNull Predicate<MetadataBLOBPayloadEntry> filter) {
-    return Stream.concat(
-            Stream.concat(
-                prefilteredEntriesByAaguid.values().stream().flatMap(Collection::stream),
-                prefilteredEntriesByCertificateKeyIdentifier.values().stream()
-                    .flatMap(Collection::stream)),
-            prefilteredUnindexedEntries.stream())
-        .filter(filter)
-        .collect(Collectors.toSet());
+    return query().filter(filter).find();
+  }
+
+  /**
+   * Start a query for metadata entries by properties indexed when this {@link FidoMetadataService}
+   * was built.
+   *
+   * <p>For example:
+   *
+   * <pre>
+   * Set&lt;MetadataBLOBPayloadEntry&gt; entries = mds.query()
+   *     .status(AuthenticatorStatus.FIDO_CERTIFIED_L2)
+   *     .keyProtection(KeyProtectionType.KEY_PROTECTION_SECURE_ELEMENT)
+   *     .find();
+   * </pre>
+   *
+   * @see EntryQuery
+   */
+  public EntryQuery query() {
+    return new EntryQuery(this);
+  }
+
+  /**
+   * A query for metadata entries of a {@link FidoMetadataService}, created by {@link
+   * FidoMetadataService#query()}.
+   *
+   * <p>The result of a query is the set of entries which satisfy the {@link
+   * FidoMetadataServiceBuilder#prefilter(Predicate) prefilter} AND ALL of the criteria added to the
+   * query. Criteria other than {@link #filter(Predicate)} are looked up in indices built when the
+   * {@link FidoMetadataService} was built, and combined before any {@link #filter(Predicate)}
+   * predicates are evaluated. The predicates are therefore only evaluated for entries that satisfy
+   * all indexed criteria.
+   *
+   * <p>Note: The {@link FidoMetadataServiceBuilder#filter(Predicate) filter} setting of the {@link
+   * FidoMetadataService} does not apply to queries, since there is no authenticator to filter.
+   */
+  public static final class EntryQuery {
+    private static final BitSet EMPTY = new BitSet();
+
+    private final FidoMetadataService service;
+    private final List<BitSet> indices = new ArrayList<>();
+    private Predicate<MetadataBLOBPayloadEntry> filter = entry -> true;
+
+    private EntryQuery(FidoMetadataService service) {
+      this.service = service;
+    }
+
+    /**
+     * Match entries with any {@link MetadataBLOBPayloadEntry#getStatusReports() status report} with
+     * the given <code>status</code>. This includes certification levels, for example {@link
+     * AuthenticatorStatus#FIDO_CERTIFIED_L2}.
+     */
+    public EntryQuery status(@NonNull AuthenticatorStatus status) {
+      return addIndex(service.prefilteredEntriesByStatus, status);
+    }
+
+    /**
+     * Match entries with a {@link MetadataBLOBPayloadEntry#getMetadataStatement() metadata
+     * statement} with the given {@link MetadataStatement#getProtocolFamily() protocolFamily}.
+     */
+    public EntryQuery protocolFamily(@NonNull ProtocolFamily protocolFamily) {
+      return addIndex(service.prefilteredEntriesByProtocolFamily, protocolFamily);
+    }
+
+    /**
+     * Match entries with a {@link MetadataBLOBPayloadEntry#getMetadataStatement() metadata
+     * statement} whose {@link MetadataStatement#getAttachmentHint() attachmentHint} contains the
+     * given <code>attachmentHint</code>.
+     */
+    public EntryQuery attachmentHint(@NonNull AttachmentHint attachmentHint) {
+      return addIndex(service.prefilteredEntriesByAttachmentHint, attachmentHint);
+    }
+
+    /**
+     * Match entries with a {@link MetadataBLOBPayloadEntry#getMetadataStatement() metadata
+     * statement} whose {@link MetadataStatement#getKeyProtection() keyProtection} contains the
+     * given <code>keyProtection</code>.
+     */
+    public EntryQuery keyProtection(@NonNull KeyProtectionType keyProtection) {
+      return addIndex(service.prefilteredEntriesByKeyProtection, keyProtection);
+    }
+
+    /**
+     * Match entries for which <code>filter</code> returns <code>true</code>.
+     *
+     * <p>This is evaluated only for entries that satisfy all other criteria of this query.
+     */
+    public EntryQuery filter(@NonNull Predicate<MetadataBLOBPayloadEntry> filter) {
+      this.filter = this.filter.and(filter);
+      return this;
+    }
+
+    /**
+     * @return All metadata entries which satisfy all criteria of this query.
+     */
+    public Set<MetadataBLOBPayloadEntry> find() {
+      final BitSet matches = (BitSet) service.prefilteredEntries.clone();
+      for (BitSet index : indices) {
+        matches.and(index);
+      }
+      return matches.stream()
+          .mapToObj(service.entries::get)
+          .filter(filter)
+          .collect(Collectors.toSet());
+    }
+
+    private <K extends Enum<K>> EntryQuery addIndex(EnumMap<K, BitSet> index, K key) {
+      indices.add(index.getOrDefault(key, EMPTY));
+      return this;
+    }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The returned trust roots include precomputed {@link TrustRootsResult#getTrustAnchors() trust
+   * anchors}, which are created once when this {@link FidoMetadataService} is constructed.
+   */
   @Override
   public TrustRootsResult findTrustRoots(
       List<X509Certificate> attestationCertificateChain, Optional<ByteArray> aaguid) {
     return TrustRootsResult.builder()
-        .trustRoots(
+        .trustAnchors(
             findEntries(attestationCertificateChain, aaguid.map(AAGUID::new)).stream()
                 .map(MetadataBLOBPayloadEntry::getMetadataStatement)
                 .flatMap(OptionalUtil::stream)
                 .flatMap(
                     metadataStatement ->
                         metadataStatement.getAttestationRootCertificates().stream())
+                .map(trustAnchorsByRootCertificate::get)
                 .collect(Collectors.toSet()))
         .certStore(certStore)
         .enableRevocationChecking(false)
@@ -0,0 +1,385 @@
+package com.yubico.fido.metadata;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yubico.internal.util.JcaEngines;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.exception.HexException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * A pre-indexed binary snapshot of a verified metadata BLOB, for building a {@link
+ * FidoMetadataService} without parsing and verifying the BLOB JWT again.
+ *
+ * <p>A snapshot contains the BLOB header, the BLOB payload entries in a compact binary (CBOR)
+ * encoding, and the indices of the entries by AAGUID and by attestation certificate key identifier
+ * that {@link FidoMetadataService} would otherwise compute from the entries. The metadata
+ * statements of the entries are kept serialized separately, so that a {@link FidoMetadataService}
+ * using the snapshot only needs to deserialize the statements that are looked up. It also records
+ * the <code>"no"</code> and the SHA-256 hash of the original BLOB JWT.
+ *
+ * <p>The signature of the original BLOB is NOT verified again when a snapshot is read. Instead, a
+ * snapshot file is authenticated with an HMAC-SHA256 tag over all of its contents, including the
+ * BLOB <code>"no"</code> and hash, computed with a secret key supplied by the operator. {@link
+ * #read(Path, SecretKey)} memory-maps the snapshot file and rejects it unless the tag is valid for
+ * the given key, so a snapshot can only be created by a holder of the key. The key MUST be kept
+ * secret from anyone who can write snapshot files, and SHOULD be at least 256 bits long. As an
+ * additional precaution, snapshot files should be stored where only the snapshot producer can write
+ * them, and {@link #getBlobNo()} and {@link #getBlobSha256()} can be used to check that a snapshot
+ * was created from the expected BLOB.
+ *
+ * <p>Use {@link #create(MetadataBLOB, ByteArray)} to create a snapshot of a BLOB that has been
+ * verified by {@link FidoMetadataDownloader}, and {@link
+ * FidoMetadataService.FidoMetadataServiceBuilder.Step1#useSnapshot(FidoMetadataSnapshot)} to use a
+ * snapshot as the data source of a {@link FidoMetadataService}.
+ *
+ * @see FidoMetadataService.FidoMetadataServiceBuilder.Step1#useSnapshot(FidoMetadataSnapshot)
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class FidoMetadataSnapshot {
+
+  private static final byte[] MAGIC = {'F', 'M', 'D', 'S'};
+  private static final int FORMAT_VERSION = 2;
+  private static final int SHA256_LENGTH = 32;
+  private static final int PREFIX_LENGTH = MAGIC.length + 4 + 4 + SHA256_LENGTH + 4;
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  private static final int MAC_LENGTH = 32;
+
+  private static final ObjectMapper CBOR =
+      JacksonCodecs.cborWithDefaultEnums().registerModule(MetadataInterner.module());
+
+  @NonNull private final MetadataBLOBHeader header;
+  private final String legalHeader;
+  private final int blobNo;
+  @NonNull private final LocalDate nextUpdate;
+
+  /** The SHA-256 hash of the BLOB JWT this snapshot was created from. */
+  @Getter @NonNull private final ByteArray blobSha256;
+
+  /**
+   * The entries of the BLOB without their metadata statements, in the order referenced by {@link
+   * #metadataStatements}, {@link #entryIndicesByAaguid} and {@link
+   * #entryIndicesByCertificateKeyIdentifier}.
+   */
+  @Getter(AccessLevel.PACKAGE)
+  @NonNull
+  private final List<MetadataBLOBPayloadEntry> entries;
+
+  /**
+   * The serialized metadata statements of {@link #entries}, or <code>null</code> for entries
+   * without one.
+   *
+   * @see MetadataEntryStore
+   */
+  @Getter(AccessLevel.PACKAGE)
+  @NonNull
+  private final List<byte[]> metadataStatements;
+
+  @Getter(AccessLevel.PACKAGE)
+  @NonNull
+  private final Map<AAGUID, List<Integer>> entryIndicesByAaguid;
+
+  @Getter(AccessLevel.PACKAGE)
+  @NonNull
+  private final Map<String, List<Integer>> entryIndicesByCertificateKeyIdentifier;
+
+  /** The contents of a snapshot file after the fixed-size prefix, encoded as CBOR. */
+  @Value
+  @Builder
+  @Jacksonized
+  private static class Body {
+    @NonNull MetadataBLOBHeader header;
+    String legalHeader;
+    @NonNull LocalDate nextUpdate;
+    @NonNull List<MetadataBLOBPayloadEntry> entries;
+    @NonNull List<byte[]> metadataStatements;
+    @NonNull Map<String, List<Integer>> aaguidIndex;
+    @NonNull Map<String, List<Integer>> certificateKeyIdentifierIndex;
+  }
+
+  /**
+   * Create a snapshot of <code>blob</code>.
+   *
+   * <p><code>blob</code> SHOULD have been verified, for example by {@link
+   * FidoMetadataDownloader#loadCachedBlob()}, since the signature is not verified again when the
+   * snapshot is read.
+   *
+   * @param blob the verified metadata BLOB.
+   * @param blobJwt the JWT that <code>blob</code> was parsed from. Its SHA-256 hash is recorded in
+   *     the snapshot.
+   */
+  public static FidoMetadataSnapshot create(
+      @NonNull MetadataBLOB blob, @NonNull ByteArray blobJwt) {
+    final List<MetadataBLOBPayloadEntry> entries = new ArrayList<>(blob.getPayload().getEntries());
+    final List<MetadataBLOBPayloadEntry> strippedEntries = new ArrayList<>(entries.size());
+    final List<byte[]> metadataStatements = new ArrayList<>(entries.size());
+    for (MetadataBLOBPayloadEntry entry : entries) {
+      strippedEntries.add(MetadataEntryStore.stripStatement(entry));
+      metadataStatements.add(MetadataEntryStore.serializeStatement(entry));
+    }
+
+    return new FidoMetadataSnapshot(
+        blob.getHeader(),
+        blob.getPayload().getLegalHeader(),
+        blob.getPayload().getNo(),
+        blob.getPayload().getNextUpdate(),
+        sha256(blobJwt.asReadOnlyByteBuffer()),
+        Collections.unmodifiableList(strippedEntries),
+        Collections.unmodifiableList(metadataStatements),
+        Collections.unmodifiableMap(
+            FidoMetadataService.buildIndex(entries, FidoMetadataService::indexedAaguids)),
+        Collections.unmodifiableMap(
+            FidoMetadataService.buildIndex(
+                entries, FidoMetadataService::indexedCertificateKeyIdentifiers)));
+  }
+
+  /**
+   * @return the <code>"no"</code> property of the metadata BLOB this snapshot was created from.
+   */
+  public int getBlobNo() {
+    return blobNo;
+  }
+
+  /**
+   * Reconstruct the metadata BLOB this snapshot was created from.
+   *
+   * <p>This deserializes all metadata statements in the snapshot, and the result is not retained by
+   * this object. Use {@link
+   * FidoMetadataService.FidoMetadataServiceBuilder.Step1#useSnapshot(FidoMetadataSnapshot)} to look
+   * up metadata entries without deserializing them all.
+   *
+   * @return the metadata BLOB this snapshot was created from.
+   */
+  public MetadataBLOB getBlob() {
+    return new MetadataBLOB(
+        header,
+        MetadataBLOBPayload.builder()
+            .legalHeader(legalHeader)
+            .no(blobNo)
+            .nextUpdate(nextUpdate)
+            .entries(
+                Collections.unmodifiableSet(
+                    new LinkedHashSet<>(
+                        MetadataEntryStore.serialized(entries, metadataStatements, 0).loadAll())))
+            .build());
+  }
+
+  /**
+   * Write this snapshot to <code>out</code>, authenticated with <code>key</code>.
+   *
+   * @param key the HMAC-SHA256 key that readers of the snapshot will use to authenticate it.
+   * @throws IllegalArgumentException if <code>key</code> is not a valid HMAC-SHA256 key.
+   */
+  public void write(@NonNull OutputStream out, @NonNull SecretKey key) throws IOException {
+    final Map<String, List<Integer>> aaguidIndex = new HashMap<>();
+    for (Map.Entry<AAGUID, List<Integer>> e : entryIndicesByAaguid.entrySet()) {
+      aaguidIndex.put(e.getKey().asHexString(), e.getValue());
+    }
+    final byte[] body =
+        CBOR.writeValueAsBytes(
+            Body.builder()
+                .header(header)
+                .legalHeader(legalHeader)
+                .nextUpdate(nextUpdate)
+                .entries(entries)
+                .metadataStatements(metadataStatements)
+                .aaguidIndex(aaguidIndex)
+                .certificateKeyIdentifierIndex(entryIndicesByCertificateKeyIdentifier)
+                .build());
+
+    final ByteArrayOutputStream prefixBytes = new ByteArrayOutputStream(PREFIX_LENGTH);
+    try (DataOutputStream prefixOut = new DataOutputStream(prefixBytes)) {
+      prefixOut.write(MAGIC);
+      prefixOut.writeInt(FORMAT_VERSION);
+      prefixOut.writeInt(getBlobNo());
+      prefixOut.write(blobSha256.getBytes());
+      prefixOut.writeInt(body.length);
+    }
+
+    final byte[] prefix = prefixBytes.toByteArray();
+    final ByteBuffer authenticated = ByteBuffer.allocate(prefix.length + body.length);
+    authenticated.put(prefix).put(body).flip();
+    final byte[] tag = hmacSha256(key, authenticated);
+    out.write(prefix);
+    out.write(body);
+    out.write(tag);
+  }
+
+  /**
+   * Write this snapshot to the file at <code>path</code>, authenticated with <code>key</code>,
+   * replacing the file if it exists.
+   *
+   * <p>The snapshot is first written to a temporary file in the same directory, which is then
+   * atomically moved to <code>path</code>. A process that has the previous file open or {@link
+   * #read(Path, SecretKey) memory-mapped} therefore keeps reading the previous snapshot, and never
+   * sees a partially written file.
+   *
+   * @param key the HMAC-SHA256 key that readers of the snapshot will use to authenticate it.
+   * @throws java.nio.file.AtomicMoveNotSupportedException if the file system does not support
+   *     atomically replacing <code>path</code>.
+   * @throws IllegalArgumentException if <code>key</code> is not a valid HMAC-SHA256 key.
+   */
+  public void write(@NonNull Path path, @NonNull SecretKey key) throws IOException {
+    final Path target = path.toAbsolutePath();
+    final Path temp =
+        Files.createTempFile(target.getParent(), target.getFileName().toString() + ".", ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        write(Channels.newOutputStream(channel), key);
+        channel.force(true);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Read a snapshot from the file at <code>path</code>, and authenticate it with <code>key</code>.
+   *
+   * <p>The file is memory-mapped, and its HMAC-SHA256 tag is verified before its contents are
+   * parsed.
+   *
+   * @param key the HMAC-SHA256 key that the snapshot was written with.
+   * @throws IOException if the file cannot be read, is not a snapshot in a supported format, or its
+   *     tag is not valid for <code>key</code>.
+   * @throws IllegalArgumentException if <code>key</code> is not a valid HMAC-SHA256 key.
+   */
+  public static FidoMetadataSnapshot read(@NonNull Path path, @NonNull SecretKey key)
+      throws IOException {
+    final MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Metadata snapshot is too large: " + path);
+      }
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    return read(mapped, key);
+  }
+
+  private static FidoMetadataSnapshot read(ByteBuffer buffer, SecretKey key) throws IOException {
+    if (buffer.remaining() < PREFIX_LENGTH + MAC_LENGTH) {
+      throw new IOException("Metadata snapshot is truncated.");
+    }
+
+    final byte[] magic = new byte[MAGIC.length];
+    buffer.get(magic);
+    if (!MessageDigest.isEqual(magic, MAGIC)) {
+      throw new IOException("Not a metadata snapshot.");
+    }
+    final int formatVersion = buffer.getInt();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("Unsupported metadata snapshot format version: " + formatVersion);
+    }
+    final int blobNo = buffer.getInt();
+    final byte[] blobSha256 = new byte[SHA256_LENGTH];
+    buffer.get(blobSha256);
+    final int bodyLength = buffer.getInt();
+    if (bodyLength < 0 || bodyLength != buffer.remaining() - MAC_LENGTH) {
+      throw new IOException("Metadata snapshot is truncated or has trailing data.");
+    }
+
+    final ByteBuffer authenticated = buffer.duplicate();
+    authenticated.position(0);
+    authenticated.limit(PREFIX_LENGTH + bodyLength);
+    final byte[] tag = new byte[MAC_LENGTH];
+    final ByteBuffer tagBytes = buffer.duplicate();
+    tagBytes.position(PREFIX_LENGTH + bodyLength);
+    tagBytes.get(tag);
+    if (!MessageDigest.isEqual(hmacSha256(key, authenticated), tag)) {
+      throw new IOException("Metadata snapshot authentication failed.");
+    }
+
+    final ByteBuffer bodyBytes = buffer.duplicate();
+    bodyBytes.limit(PREFIX_LENGTH + bodyLength);
+    final Body body;
+    try (InputStream in = new ByteBufferInputStream(bodyBytes)) {
+      body = MetadataInterner.attachNew(CBOR.readerFor(Body.class)).readValue(in);
+    }
+
+    final Map<AAGUID, List<Integer>> byAaguid = new HashMap<>();
+    for (Map.Entry<String, List<Integer>> e : body.getAaguidIndex().entrySet()) {
+      try {
+        byAaguid.put(new AAGUID(ByteArray.fromHex(e.getKey())), e.getValue());
+      } catch (HexException ex) {
+        throw new IOException("Invalid AAGUID in metadata snapshot: " + e.getKey(), ex);
+      }
+    }
+
+    if (body.getMetadataStatements().size() != body.getEntries().size()) {
+      throw new IOException("Metadata snapshot has mismatched entries and metadata statements.");
+    }
+
+    return new FidoMetadataSnapshot(
+        body.getHeader(),
+        body.getLegalHeader(),
+        blobNo,
+        body.getNextUpdate(),
+        new ByteArray(blobSha256),
+        Collections.unmodifiableList(body.getEntries()),
+        Collections.unmodifiableList(body.getMetadataStatements()),
+        Collections.unmodifiableMap(byAaguid),
+        Collections.unmodifiableMap(body.getCertificateKeyIdentifierIndex()));
+  }
+
+  private static byte[] hmacSha256(SecretKey key, ByteBuffer data) {
+    final Mac mac;
+    try {
+      mac = Mac.getInstance(MAC_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("HMAC-SHA256 algorithm is not available in JCA context.", e);
+    }
+    try {
+      mac.init(key);
+    } catch (InvalidKeyException e) {
+      throw new IllegalArgumentException("Invalid metadata snapshot key.", e);
+    }
+    mac.update(data);
+    return mac.doFinal();
+  }
+
+  private static ByteArray sha256(ByteBuffer data) {
+    final MessageDigest digest;
+    try {
+      digest = JcaEngines.borrowMessageDigest("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("SHA-256 hash algorithm is not available in JCA context.", e);
+    }
+    try {
+      digest.update(data);
+      return new ByteArray(digest.digest());
+    } finally {
+      JcaEngines.releaseMessageDigest(digest);
+    }
+  }
+}
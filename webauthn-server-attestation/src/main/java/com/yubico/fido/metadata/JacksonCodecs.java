@@ -2,11 +2,28 @@ package com.yubico.fido.metadata;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 class JacksonCodecs {
 
+  private static final ObjectMapper INTERNING_JSON =
+      jsonWithDefaultEnums().registerModule(MetadataInterner.module());
+
   static ObjectMapper jsonWithDefaultEnums() {
     return com.yubico.internal.util.JacksonCodecs.json()
         .configure(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE, true);
   }
+
+  static ObjectMapper cborWithDefaultEnums() {
+    return com.yubico.internal.util.JacksonCodecs.cborLikeJson()
+        .configure(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE, true);
+  }
+
+  /**
+   * @return a JSON reader for <code>type</code> configured like {@link #jsonWithDefaultEnums()},
+   *     which shares repeated certificates and strings through a new {@link MetadataInterner}.
+   */
+  static ObjectReader interningJsonReaderFor(Class<?> type) {
+    return MetadataInterner.attachNew(INTERNING_JSON.readerFor(type));
+  }
 }
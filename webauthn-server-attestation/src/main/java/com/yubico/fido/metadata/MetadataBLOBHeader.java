@@ -51,7 +51,7 @@ public class MetadataBLOBHeader {
    * @see <a href="https://datatracker.ietf.org/doc/html/rfc7515#section-4.1.6">RFC 7515 §4.1.6.
    *     "x5c" (X.509 Certificate Chain) Header Parameter</a>
    */
-  @JsonDeserialize(contentConverter = CertFromBase64Converter.class)
+  @JsonDeserialize(contentUsing = CertFromBase64Deserializer.class)
   @JsonSerialize(contentConverter = CertToBase64Converter.class)
   List<X509Certificate> x5c;
 
@@ -0,0 +1,157 @@
+package com.yubico.fido.metadata;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.NonNull;
+
+/**
+ * The metadata entries of a {@link FidoMetadataService}, addressed by position.
+ *
+ * <p>The entries may keep their {@link MetadataStatement}s in serialized form. In that case, a
+ * statement is deserialized when its entry is first accessed, and the most recently accessed
+ * entries are kept in a bounded cache. Most metadata statements are never looked up, so this keeps
+ * their icons, certificates and other large properties out of the heap.
+ */
+final class MetadataEntryStore {
+
+  private static final ObjectMapper CBOR = JacksonCodecs.cborWithDefaultEnums();
+
+  /** The entries, with {@link #serializedStatements} (if any) removed. */
+  private final List<MetadataBLOBPayloadEntry> entries;
+
+  /**
+   * The serialized metadata statements of {@link #entries}, in the same order, or <code>null
+   * </code> if {@link #entries} are stored with their metadata statements.
+   */
+  private final List<byte[]> serializedStatements;
+
+  private final Map<Integer, MetadataBLOBPayloadEntry> cache;
+
+  private MetadataEntryStore(
+      List<MetadataBLOBPayloadEntry> entries, List<byte[]> serializedStatements, int cacheSize) {
+    this.entries = entries;
+    this.serializedStatements = serializedStatements;
+    this.cache =
+        new LinkedHashMap<Integer, MetadataBLOBPayloadEntry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Integer, MetadataBLOBPayloadEntry> eldest) {
+            return size() > cacheSize;
+          }
+        };
+  }
+
+  /** Store <code>entries</code> as is. */
+  static MetadataEntryStore of(@NonNull List<MetadataBLOBPayloadEntry> entries) {
+    return new MetadataEntryStore(entries, null, 0);
+  }
+
+  /**
+   * Store <code>strippedEntries</code> with their metadata statements in serialized form.
+   *
+   * @param strippedEntries entries without a metadata statement, as returned by {@link
+   *     #stripStatement(MetadataBLOBPayloadEntry)}.
+   * @param serializedStatements the metadata statements of <code>strippedEntries</code>, in the
+   *     same order, as returned by {@link #serializeStatement(MetadataBLOBPayloadEntry)}.
+   * @param cacheSize the maximum number of deserialized entries to keep.
+   */
+  static MetadataEntryStore serialized(
+      @NonNull List<MetadataBLOBPayloadEntry> strippedEntries,
+      @NonNull List<byte[]> serializedStatements,
+      int cacheSize) {
+    if (strippedEntries.size() != serializedStatements.size()) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Number of metadata statements (%d) does not match number of entries (%d).",
+              serializedStatements.size(), strippedEntries.size()));
+    }
+    return new MetadataEntryStore(strippedEntries, serializedStatements, cacheSize);
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the entry at position <code>index</code>, with its metadata statement, deserializing it
+   *     if it is not in the cache.
+   */
+  MetadataBLOBPayloadEntry get(int index) {
+    if (serializedStatements == null) {
+      return entries.get(index);
+    }
+    synchronized (cache) {
+      final MetadataBLOBPayloadEntry cached = cache.get(index);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    final MetadataBLOBPayloadEntry loaded = load(index);
+    synchronized (cache) {
+      cache.put(index, loaded);
+    }
+    return loaded;
+  }
+
+  /**
+   * @return the entry at position <code>index</code>, with its metadata statement, without adding
+   *     it to the cache.
+   */
+  MetadataBLOBPayloadEntry load(int index) {
+    if (serializedStatements == null) {
+      return entries.get(index);
+    }
+    final byte[] statement = serializedStatements.get(index);
+    if (statement == null) {
+      return entries.get(index);
+    }
+    try {
+      return entries.get(index).toBuilder()
+          .metadataStatement(CBOR.readValue(statement, MetadataStatement.class))
+          .build();
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          String.format("Failed to deserialize metadata statement of entry %d.", index), e);
+    }
+  }
+
+  /**
+   * @return all entries, with their metadata statements, without adding them to the cache.
+   */
+  List<MetadataBLOBPayloadEntry> loadAll() {
+    final List<MetadataBLOBPayloadEntry> result = new ArrayList<>(entries.size());
+    for (int i = 0; i < entries.size(); ++i) {
+      result.add(load(i));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * @return <code>entry</code> without its metadata statement.
+   */
+  static MetadataBLOBPayloadEntry stripStatement(@NonNull MetadataBLOBPayloadEntry entry) {
+    return entry.toBuilder().metadataStatement(null).build();
+  }
+
+  /**
+   * @return the serialized metadata statement of <code>entry</code>, or <code>null</code> if it has
+   *     none.
+   */
+  static byte[] serializeStatement(@NonNull MetadataBLOBPayloadEntry entry) {
+    if (entry.getMetadataStatement().isPresent()) {
+      try {
+        return CBOR.writeValueAsBytes(entry.getMetadataStatement().get());
+      } catch (JsonProcessingException e) {
+        throw new UncheckedIOException("Failed to serialize metadata statement.", e);
+      }
+    } else {
+      return null;
+    }
+  }
+}
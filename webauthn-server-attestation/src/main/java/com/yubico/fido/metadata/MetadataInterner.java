@@ -0,0 +1,103 @@
+package com.yubico.fido.metadata;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.JcaEngines;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares one instance of each certificate and string that repeats across the entries of a metadata
+ * BLOB.
+ *
+ * <p>Many metadata statements have the same attestation root certificates, and vendor names and
+ * other strings repeat across entries. A new interner is attached to the {@link ObjectReader} of
+ * each parse by {@link #attachNew(ObjectReader)}, and used by {@link CertFromBase64Deserializer}
+ * and by the string deserializer in {@link #module()}. Certificates are canonicalized by the
+ * SHA-256 hash of their DER encoding, so each distinct certificate is also parsed only once.
+ *
+ * <p>Instances are not thread-safe, and are discarded after the parse.
+ */
+final class MetadataInterner {
+
+  private final Map<ByteArray, X509Certificate> certificatesBySha256 = new HashMap<>();
+  private final Map<String, String> strings = new HashMap<>();
+
+  /**
+   * @return <code>reader</code> with a new {@link MetadataInterner} attached.
+   */
+  static ObjectReader attachNew(ObjectReader reader) {
+    return reader.withAttribute(MetadataInterner.class, new MetadataInterner());
+  }
+
+  /**
+   * @return the {@link MetadataInterner} attached to <code>ctxt</code>, or <code>null</code>.
+   */
+  static MetadataInterner from(DeserializationContext ctxt) {
+    return (MetadataInterner) ctxt.getAttribute(MetadataInterner.class);
+  }
+
+  /**
+   * @return a Jackson module that interns all deserialized strings through the {@link
+   *     MetadataInterner} attached to the current parse, if any.
+   */
+  static Module module() {
+    return new SimpleModule("MetadataInterner")
+        .addDeserializer(String.class, new InterningStringDeserializer());
+  }
+
+  X509Certificate internCertificate(byte[] der) throws CertificateException {
+    final ByteArray sha256 = sha256(der);
+    final X509Certificate existing = certificatesBySha256.get(sha256);
+    if (existing != null) {
+      return existing;
+    }
+    final X509Certificate cert = CertificateParser.parseDer(der);
+    certificatesBySha256.put(sha256, cert);
+    return cert;
+  }
+
+  String intern(String value) {
+    final String existing = strings.putIfAbsent(value, value);
+    return existing == null ? value : existing;
+  }
+
+  private static ByteArray sha256(byte[] data) {
+    final MessageDigest digest;
+    try {
+      digest = JcaEngines.borrowMessageDigest("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("SHA-256 hash algorithm is not available in JCA context.", e);
+    }
+    try {
+      return new ByteArray(digest.digest(data));
+    } finally {
+      JcaEngines.releaseMessageDigest(digest);
+    }
+  }
+
+  private static class InterningStringDeserializer extends StdScalarDeserializer<String> {
+    private InterningStringDeserializer() {
+      super(String.class);
+    }
+
+    @Override
+    public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      final String value = StringDeserializer.instance.deserialize(p, ctxt);
+      final MetadataInterner interner = from(ctxt);
+      return interner == null || value == null ? value : interner.intern(value);
+    }
+  }
+}
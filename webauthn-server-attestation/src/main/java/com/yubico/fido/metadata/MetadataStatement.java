@@ -199,7 +199,7 @@ public class MetadataStatement {
    *     Metadata Statement</a>
    */
   @NonNull
-  @JsonDeserialize(contentConverter = CertFromBase64Converter.class)
+  @JsonDeserialize(contentUsing = CertFromBase64Deserializer.class)
   @JsonSerialize(contentConverter = CertToBase64Converter.class)
   Set<X509Certificate> attestationRootCertificates;
 
@@ -0,0 +1,476 @@
+package com.yubico.fido.metadata;
+
+import com.yubico.fido.metadata.FidoMetadataService.Filters;
+import com.yubico.fido.metadata.FidoMetadataService.Filters.AuthenticatorToBeFiltered;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.RelyingParty.RelyingPartyBuilder;
+import com.yubico.webauthn.attestation.AttestationTrustSource;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.exception.Base64UrlException;
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link FidoMetadataService} that keeps itself up to date by periodically refreshing the
+ * metadata BLOB using a {@link FidoMetadataDownloader}.
+ *
+ * <p>Like {@link FidoMetadataService}, this class implements {@link AttestationTrustSource}, so it
+ * can be configured as the {@link
+ * RelyingPartyBuilder#attestationTrustSource(AttestationTrustSource) attestationTrustSource}
+ * setting in {@link RelyingParty}.
+ *
+ * <p>The metadata BLOB is loaded once using {@link FidoMetadataDownloader#loadCachedBlob()} when
+ * this instance is {@link RefreshingFidoMetadataServiceBuilder#build() built}. After that, a
+ * refresh using {@link FidoMetadataDownloader#refreshBlob()} is scheduled for the start of the day
+ * given by the <code>"nextUpdate"</code> property of the current BLOB. If the refresh fails, or
+ * does not yield a BLOB with a future <code>"nextUpdate"</code>, another refresh is scheduled after
+ * the {@link RefreshingFidoMetadataServiceBuilder#retryInterval(Duration) retry interval}.
+ *
+ * <p>Refreshes run on the {@link RefreshingFidoMetadataServiceBuilder#scheduler(
+ * ScheduledExecutorService) scheduler} thread. When a refresh yields a BLOB with a greater <code>
+ * "no"</code> than the current one, a new {@link FidoMetadataService} is built from it and then
+ * published atomically, replacing the previous one. Lookups always read the most recently published
+ * {@link FidoMetadataService} without locking, and are never blocked by a refresh. If a refresh
+ * fails, the previous {@link FidoMetadataService} remains in use.
+ *
+ * <p>Call {@link #close()} to stop refreshing.
+ *
+ * @see FidoMetadataService
+ * @see FidoMetadataDownloader
+ */
+@Slf4j
+public final class RefreshingFidoMetadataService implements AttestationTrustSource, AutoCloseable {
+
+  private final FidoMetadataDownloader downloader;
+  private final Predicate<MetadataBLOBPayloadEntry> prefilter;
+  private final Predicate<AuthenticatorToBeFiltered> filter;
+  private final CertStore certStore;
+  private final Clock clock;
+  private final Duration retryInterval;
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+
+  private final Object refreshLock = new Object();
+  private volatile Snapshot snapshot;
+  private volatile Instant nextRefreshTime = null;
+  private ScheduledFuture<?> scheduledRefresh = null;
+  private boolean closed = false;
+
+  @Value
+  private static class Snapshot {
+    MetadataBLOB blob;
+    FidoMetadataService service;
+    Instant refreshTime;
+  }
+
+  private RefreshingFidoMetadataService(
+      FidoMetadataDownloader downloader,
+      Predicate<MetadataBLOBPayloadEntry> prefilter,
+      Predicate<AuthenticatorToBeFiltered> filter,
+      CertStore certStore,
+      Clock clock,
+      Duration retryInterval,
+      ScheduledExecutorService scheduler,
+      boolean ownsScheduler,
+      MetadataBLOB initialBlob)
+      throws CertPathValidatorException,
+          InvalidAlgorithmParameterException,
+          Base64UrlException,
+          DigestException,
+          FidoMetadataDownloaderException,
+          CertificateException,
+          UnexpectedLegalHeader,
+          IOException,
+          NoSuchAlgorithmException,
+          SignatureException,
+          InvalidKeyException {
+    this.downloader = downloader;
+    this.prefilter = prefilter;
+    this.filter = filter;
+    this.certStore = certStore;
+    this.clock = clock;
+    this.retryInterval = retryInterval;
+    this.scheduler = scheduler;
+    this.ownsScheduler = ownsScheduler;
+    this.snapshot = new Snapshot(initialBlob, buildService(initialBlob), clock.instant());
+  }
+
+  public static RefreshingFidoMetadataServiceBuilder.Step1 builder() {
+    return new RefreshingFidoMetadataServiceBuilder.Step1();
+  }
+
+  @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+  public static class RefreshingFidoMetadataServiceBuilder {
+    @NonNull private final FidoMetadataDownloader downloader;
+
+    private Predicate<MetadataBLOBPayloadEntry> prefilter = Filters.notRevoked();
+    private Predicate<AuthenticatorToBeFiltered> filter = Filters.noAttestationKeyCompromise();
+    private CertStore certStore = null;
+    @NonNull private Clock clock = Clock.systemUTC();
+    @NonNull private Duration retryInterval = Duration.ofHours(1);
+    private ScheduledExecutorService scheduler = null;
+
+    public static class Step1 {
+      /**
+       * Use <code>downloader</code> to load and refresh the metadata BLOB.
+       *
+       * <p>The {@link RefreshingFidoMetadataService} takes ownership of <code>downloader</code>.
+       * Since {@link FidoMetadataDownloader} is not thread safe, <code>downloader</code> must not
+       * be used elsewhere after this.
+       */
+      public RefreshingFidoMetadataServiceBuilder useDownloader(
+          @NonNull FidoMetadataDownloader downloader) {
+        return new RefreshingFidoMetadataServiceBuilder(downloader);
+      }
+    }
+
+    /**
+     * Set the {@link FidoMetadataService.FidoMetadataServiceBuilder#prefilter(Predicate) prefilter}
+     * setting of each {@link FidoMetadataService} built from the metadata BLOB.
+     *
+     * <p>The default is {@link Filters#notRevoked() Filters.notRevoked()}.
+     *
+     * @see FidoMetadataService.FidoMetadataServiceBuilder#prefilter(Predicate)
+     */
+    public RefreshingFidoMetadataServiceBuilder prefilter(
+        @NonNull Predicate<MetadataBLOBPayloadEntry> prefilter) {
+      this.prefilter = prefilter;
+      return this;
+    }
+
+    /**
+     * Set the {@link FidoMetadataService.FidoMetadataServiceBuilder#filter(Predicate) filter}
+     * setting of each {@link FidoMetadataService} built from the metadata BLOB.
+     *
+     * <p>The default is {@link Filters#noAttestationKeyCompromise()
+     * Filters.noAttestationKeyCompromise()}.
+     *
+     * @see FidoMetadataService.FidoMetadataServiceBuilder#filter(Predicate)
+     */
+    public RefreshingFidoMetadataServiceBuilder filter(
+        @NonNull Predicate<AuthenticatorToBeFiltered> filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    /**
+     * Set the {@link FidoMetadataService.FidoMetadataServiceBuilder#certStore(CertStore) certStore}
+     * setting of each {@link FidoMetadataService} built from the metadata BLOB.
+     *
+     * @see FidoMetadataService.FidoMetadataServiceBuilder#certStore(CertStore)
+     */
+    public RefreshingFidoMetadataServiceBuilder certStore(@NonNull CertStore certStore) {
+      this.certStore = certStore;
+      return this;
+    }
+
+    /**
+     * Use <code>clock</code> as the source of the current time when scheduling refreshes.
+     *
+     * <p>The start of the day given by the <code>"nextUpdate"</code> property of the metadata BLOB
+     * is computed in the time zone of this clock.
+     *
+     * <p>The default is {@link Clock#systemUTC()}.
+     */
+    public RefreshingFidoMetadataServiceBuilder clock(@NonNull Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /**
+     * Set how long to wait before trying again after a refresh fails or does not yield a metadata
+     * BLOB with a <code>"nextUpdate"</code> in the future.
+     *
+     * <p>The default is 1 hour.
+     *
+     * @throws IllegalArgumentException if <code>retryInterval</code> is zero or negative.
+     */
+    public RefreshingFidoMetadataServiceBuilder retryInterval(@NonNull Duration retryInterval) {
+      if (retryInterval.isZero() || retryInterval.isNegative()) {
+        throw new IllegalArgumentException("retryInterval must be positive: " + retryInterval);
+      }
+      this.retryInterval = retryInterval;
+      return this;
+    }
+
+    /**
+     * Run refreshes on <code>scheduler</code>.
+     *
+     * <p>{@link RefreshingFidoMetadataService#close()} cancels any scheduled refresh but does not
+     * shut down <code>scheduler</code>.
+     *
+     * <p>By default, a single daemon thread is created for each {@link
+     * RefreshingFidoMetadataService} and shut down by {@link
+     * RefreshingFidoMetadataService#close()}.
+     */
+    public RefreshingFidoMetadataServiceBuilder scheduler(
+        @NonNull ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Load the metadata BLOB using {@link FidoMetadataDownloader#loadCachedBlob()}, build the
+     * initial {@link FidoMetadataService} and schedule the first refresh.
+     *
+     * @throws Base64UrlException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws CertPathValidatorException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws CertificateException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws DigestException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws FidoMetadataDownloaderException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws IOException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws InvalidAlgorithmParameterException see {@link
+     *     FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws InvalidKeyException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws NoSuchAlgorithmException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws SignatureException see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     * @throws UnexpectedLegalHeader see {@link FidoMetadataDownloader#loadCachedBlob()}.
+     */
+    public RefreshingFidoMetadataService build()
+        throws CertPathValidatorException,
+            InvalidAlgorithmParameterException,
+            Base64UrlException,
+            DigestException,
+            FidoMetadataDownloaderException,
+            CertificateException,
+            UnexpectedLegalHeader,
+            IOException,
+            NoSuchAlgorithmException,
+            SignatureException,
+            InvalidKeyException {
+      final MetadataBLOB initialBlob = downloader.loadCachedBlob();
+      final RefreshingFidoMetadataService result =
+          new RefreshingFidoMetadataService(
+              downloader,
+              prefilter,
+              filter,
+              certStore,
+              clock,
+              retryInterval,
+              scheduler == null ? newDefaultScheduler() : scheduler,
+              scheduler == null,
+              initialBlob);
+      result.scheduleRefresh(result.computeNextRefreshTime(initialBlob));
+      return result;
+    }
+
+    private static ScheduledExecutorService newDefaultScheduler() {
+      return Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "fido-metadata-refresh");
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+  }
+
+  private FidoMetadataService buildService(MetadataBLOB blob)
+      throws CertPathValidatorException,
+          InvalidAlgorithmParameterException,
+          Base64UrlException,
+          DigestException,
+          FidoMetadataDownloaderException,
+          CertificateException,
+          UnexpectedLegalHeader,
+          IOException,
+          NoSuchAlgorithmException,
+          SignatureException,
+          InvalidKeyException {
+    final FidoMetadataService.FidoMetadataServiceBuilder builder =
+        FidoMetadataService.builder().useBlob(blob).prefilter(prefilter).filter(filter);
+    if (certStore != null) {
+      builder.certStore(certStore);
+    }
+    return builder.build();
+  }
+
+  private Instant computeNextRefreshTime(MetadataBLOB blob) {
+    final Instant now = clock.instant();
+    final Instant nextUpdate =
+        blob.getPayload().getNextUpdate().atStartOfDay(clock.getZone()).toInstant();
+    if (nextUpdate.isAfter(now)) {
+      return nextUpdate;
+    } else {
+      return now.plus(retryInterval);
+    }
+  }
+
+  private void scheduleRefresh(Instant time) {
+    synchronized (refreshLock) {
+      if (closed) {
+        return;
+      }
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+      }
+      final long delayMillis = Math.max(0, Duration.between(clock.instant(), time).toMillis());
+      log.debug("Scheduling next metadata BLOB refresh at {}", time);
+      nextRefreshTime = time;
+      scheduledRefresh =
+          scheduler.schedule(this::runScheduledRefresh, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void runScheduledRefresh() {
+    try {
+      refresh();
+    } catch (Exception e) {
+      log.warn("Failed to refresh metadata BLOB - keeping BLOB no. {}.", getBlobNo(), e);
+    }
+  }
+
+  /**
+   * Refresh the metadata BLOB now using {@link FidoMetadataDownloader#refreshBlob()}, and publish a
+   * new {@link FidoMetadataService} if the result has a greater <code>"no"</code> than the current
+   * BLOB.
+   *
+   * <p>This runs on the calling thread, and then reschedules the next refresh. If the refresh
+   * fails, the current {@link FidoMetadataService} remains in use and the next refresh is scheduled
+   * after the {@link RefreshingFidoMetadataServiceBuilder#retryInterval(Duration) retry interval}.
+   *
+   * @return <code>true</code> if and only if a new {@link FidoMetadataService} was published.
+   * @throws Base64UrlException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws CertPathValidatorException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws CertificateException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws DigestException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws FidoMetadataDownloaderException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws IOException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws InvalidAlgorithmParameterException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws InvalidKeyException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws NoSuchAlgorithmException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws SignatureException see {@link FidoMetadataDownloader#refreshBlob()}.
+   * @throws UnexpectedLegalHeader see {@link FidoMetadataDownloader#refreshBlob()}.
+   */
+  public boolean refresh()
+      throws CertPathValidatorException,
+          InvalidAlgorithmParameterException,
+          Base64UrlException,
+          DigestException,
+          FidoMetadataDownloaderException,
+          CertificateException,
+          UnexpectedLegalHeader,
+          IOException,
+          NoSuchAlgorithmException,
+          SignatureException,
+          InvalidKeyException {
+    synchronized (refreshLock) {
+      Instant nextRefresh = clock.instant().plus(retryInterval);
+      try {
+        final MetadataBLOB blob = downloader.refreshBlob();
+        nextRefresh = computeNextRefreshTime(blob);
+
+        final int currentNo = snapshot.getBlob().getPayload().getNo();
+        if (blob.getPayload().getNo() > currentNo) {
+          log.debug(
+              "Publishing metadata BLOB no. {} to replace no. {}.",
+              blob.getPayload().getNo(),
+              currentNo);
+          snapshot = new Snapshot(blob, buildService(blob), clock.instant());
+          return true;
+        } else {
+          log.debug("Metadata BLOB no. {} is still the newest.", currentNo);
+          return false;
+        }
+      } finally {
+        scheduleRefresh(nextRefresh);
+      }
+    }
+  }
+
+  /**
+   * @return the most recently published {@link FidoMetadataService}.
+   */
+  public FidoMetadataService getService() {
+    return snapshot.getService();
+  }
+
+  /**
+   * @return the metadata BLOB that the {@link #getService() current} {@link FidoMetadataService}
+   *     was built from.
+   */
+  public MetadataBLOB getBlob() {
+    return snapshot.getBlob();
+  }
+
+  /**
+   * @return the <code>"no"</code> property of the {@link #getBlob() current} metadata BLOB.
+   */
+  public int getBlobNo() {
+    return snapshot.getBlob().getPayload().getNo();
+  }
+
+  /**
+   * @return the time when the {@link #getService() current} {@link FidoMetadataService} was
+   *     published, according to the {@link RefreshingFidoMetadataServiceBuilder#clock(Clock) clock}
+   *     setting.
+   */
+  public Instant getLastRefreshTime() {
+    return snapshot.getRefreshTime();
+  }
+
+  /**
+   * @return the time when the next refresh is scheduled, according to the {@link
+   *     RefreshingFidoMetadataServiceBuilder#clock(Clock) clock} setting, or empty if this instance
+   *     has been {@link #close() closed}.
+   */
+  public Optional<Instant> getNextRefreshTime() {
+    return Optional.ofNullable(nextRefreshTime);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This delegates to the {@link #getService() current} {@link FidoMetadataService}.
+   */
+  @Override
+  public TrustRootsResult findTrustRoots(
+      List<X509Certificate> attestationCertificateChain, Optional<ByteArray> aaguid) {
+    return snapshot.getService().findTrustRoots(attestationCertificateChain, aaguid);
+  }
+
+  /**
+   * Stop refreshing the metadata BLOB.
+   *
+   * <p>This cancels any scheduled refresh and, unless a {@link
+   * RefreshingFidoMetadataServiceBuilder#scheduler(ScheduledExecutorService) scheduler} was given,
+   * shuts down the refresh thread. The {@link #getService() current} {@link FidoMetadataService}
+   * remains usable.
+   */
+  @Override
+  public void close() {
+    synchronized (refreshLock) {
+      closed = true;
+      nextRefreshTime = null;
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+        scheduledRefresh = null;
+      }
+      if (ownsScheduler) {
+        scheduler.shutdown();
+      }
+    }
+  }
+}
@@ -56,7 +56,7 @@ public class StatusReport {
    *     href="https://fidoalliance.org/specs/mds/fido-metadata-service-v3.0-ps-20210518.html#statusreport-dictionary">FIDO
    *     Metadata Service §3.1.3. StatusReport dictionary</a>
    */
-  @JsonDeserialize(converter = CertFromBase64Converter.class)
+  @JsonDeserialize(using = CertFromBase64Deserializer.class)
   @JsonSerialize(converter = CertToBase64Converter.class)
   X509Certificate certificate;
 
@@ -39,6 +39,8 @@ import java.time.Clock
 import java.time.Instant
 import java.time.ZoneOffset
 import java.util.Collections
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import scala.collection.mutable
 import scala.jdk.CollectionConverters.SeqHasAsJava
 import scala.jdk.CollectionConverters.SetHasAsJava
@@ -989,4 +991,165 @@ class FidoMds3Spec extends AnyFunSpec with Matchers {
 
   }
 
+  describe("FidoMetadataService.findTrustRoots") {
+    val (rootCert, _) = TestAuthenticator.generateAttestationCaCertificate()
+    val rootCertBase64 = new ByteArray(rootCert.getEncoded).getBase64
+    val aaguid =
+      new AAGUID(ByteArray.fromHex("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"))
+
+    val blob: MetadataBLOBPayload =
+      JacksonCodecs.jsonWithDefaultEnums.readValue(
+        s"""{
+        "legalHeader" : "Kom ihåg att du aldrig får snyta dig i mattan!",
+        "nextUpdate" : "2022-12-01",
+        "no" : 0,
+        "entries": [
+          {
+            "aaguid": "${aaguid.asGuidString()}",
+            "metadataStatement": {
+              "aaguid": "${aaguid.asGuidString()}",
+              "authenticatorVersion": 1,
+              "attachmentHint" : ["internal"],
+              "attestationRootCertificates": ["${rootCertBase64}"],
+              "attestationTypes" : ["basic_full"],
+              "authenticationAlgorithms" : ["secp256r1_ecdsa_sha256_raw"],
+              "description" : "Test authenticator",
+              "keyProtection" : ["software"],
+              "matcherProtection" : ["software"],
+              "protocolFamily" : "fido2",
+              "publicKeyAlgAndEncodings" : ["ecc_x962_raw"],
+              "schema" : 3,
+              "tcDisplay" : [],
+              "upv" : [{ "major" : 1, "minor" : 1 }],
+              "userVerificationDetails" : [[{ "userVerificationMethod" : "presence_internal" }]]
+            },
+            "statusReports": [],
+            "timeOfLastStatusChange": "2022-02-15"
+          }
+        ]
+      }""".stripMargin,
+        classOf[MetadataBLOBPayload],
+      )
+
+    it("returns trust anchors precomputed when the service was built.") {
+      val mds = FidoMetadataService.builder().useBlob(blob).build()
+
+      val result1 = mds.findTrustRoots(
+        Collections.emptyList(),
+        Some(aaguid.asBytes).toJava,
+      )
+      val result2 = mds.findTrustRoots(
+        Collections.emptyList(),
+        Some(aaguid.asBytes).toJava,
+      )
+
+      result1.getTrustRoots.asScala should equal(Set(rootCert))
+      result1.getTrustAnchors.asScala.map(_.getTrustedCert) should equal(
+        Set(rootCert)
+      )
+      result1.getTrustAnchors.asScala.head should be theSameInstanceAs
+        result2.getTrustAnchors.asScala.head
+    }
+  }
+
+  describe("FidoMetadataService.findEntries") {
+    val (attestationCert, _) = TestAuthenticator.generateAttestationCertificate()
+    val cki = new ByteArray(
+      CertificateParser.computeSubjectKeyIdentifier(attestationCert)
+    )
+
+    def makeBlob(certificateKeyIdentifier: String): MetadataBLOBPayload =
+      JacksonCodecs.jsonWithDefaultEnums.readValue(
+        s"""{
+        "legalHeader" : "Kom ihåg att du aldrig får snyta dig i mattan!",
+        "nextUpdate" : "2022-12-01",
+        "no" : 0,
+        "entries": [
+          {
+            "attestationCertificateKeyIdentifiers": ["${certificateKeyIdentifier}"],
+            "statusReports": [],
+            "timeOfLastStatusChange": "2022-02-15"
+          }
+        ]
+      }""",
+        classOf[MetadataBLOBPayload],
+      )
+
+    it("finds entries by attestation certificate key identifier.") {
+      val mds =
+        FidoMetadataService.builder().useBlob(makeBlob(cki.getHex)).build()
+      val chain = List(attestationCert).asJava
+
+      mds.findEntries(chain).asScala should have size 1
+      mds.findEntries(chain) should equal(mds.findEntries(chain))
+    }
+
+    it("finds entries by attestation certificate key identifiers in upper case.") {
+      val mds = FidoMetadataService
+        .builder()
+        .useBlob(makeBlob(cki.getHex.toUpperCase))
+        .build()
+
+      mds.findEntries(List(attestationCert).asJava).asScala should have size 1
+    }
+
+    it("ignores attestation certificate key identifiers that are not hexadecimal.") {
+      val mds =
+        FidoMetadataService.builder().useBlob(makeBlob("not hex")).build()
+
+      mds.findEntries(List(attestationCert).asJava).asScala should be(empty)
+    }
+
+    it("finds entries without a certificate key cache.") {
+      val mds = FidoMetadataService
+        .builder()
+        .useBlob(makeBlob(cki.getHex))
+        .certificateKeyCacheSize(0)
+        .build()
+      val chain = List(attestationCert).asJava
+
+      mds.findEntries(chain).asScala should have size 1
+      mds.findEntries(chain).asScala should have size 1
+    }
+
+    it("finds entries concurrently with a certificate key cache smaller than the number of certificates.") {
+      val mds = FidoMetadataService
+        .builder()
+        .useBlob(makeBlob(cki.getHex))
+        .certificateKeyCacheSize(2)
+        .build()
+      val otherCerts =
+        List.fill(6)(TestAuthenticator.generateAttestationCertificate()._1)
+      val executor = Executors.newFixedThreadPool(4)
+      try {
+        val results = (1 to 100)
+          .map(i =>
+            executor.submit(() => {
+              val cert =
+                if (i % 2 == 0) attestationCert
+                else otherCerts(i % otherCerts.length)
+              (cert, mds.findEntries(List(cert).asJava).size)
+            })
+          )
+          .map(_.get(10, TimeUnit.SECONDS))
+
+        results.foreach {
+          case (cert, found) =>
+            found should equal(if (cert == attestationCert) 1 else 0)
+        }
+      } finally {
+        executor.shutdown()
+      }
+    }
+
+    it("rejects a negative certificate key cache size.") {
+      an[IllegalArgumentException] should be thrownBy {
+        FidoMetadataService
+          .builder()
+          .useBlob(makeBlob(cki.getHex))
+          .certificateKeyCacheSize(-1)
+      }
+    }
+  }
+
 }
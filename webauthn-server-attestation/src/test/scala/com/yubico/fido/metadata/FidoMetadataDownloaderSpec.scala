@@ -2,12 +2,14 @@ package com.yubico.fido.metadata
 
 import com.fasterxml.jackson.databind.node.IntNode
 import com.fasterxml.jackson.databind.node.ObjectNode
+import com.yubico.fido.metadata.FidoMetadataDownloader.FidoMetadataDownloaderBuilder
 import com.yubico.fido.metadata.FidoMetadataDownloaderException.Reason
 import com.yubico.internal.util.BinaryUtil
 import com.yubico.internal.util.JacksonCodecs
 import com.yubico.webauthn.TestAuthenticator
 import com.yubico.webauthn.data.ByteArray
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier
+import com.yubico.webauthn.data.exception.Base64UrlException
 import org.bouncycastle.asn1.x500.X500Name
 import org.eclipse.jetty.http.HttpStatus
 import org.eclipse.jetty.server.HttpConfiguration
@@ -30,6 +32,7 @@ import org.scalatestplus.junit.JUnitRunner
 import java.io.File
 import java.io.FileInputStream
 import java.io.FileOutputStream
+import java.net.SocketTimeoutException
 import java.net.URL
 import java.nio.charset.StandardCharsets
 import java.security.DigestException
@@ -42,13 +45,18 @@ import java.security.cert.CertPathValidatorException.BasicReason
 import java.security.cert.CertificateExpiredException
 import java.security.cert.X509Certificate
 import java.time.Clock
+import java.time.Duration
 import java.time.Instant
 import java.time.LocalDate
 import java.time.ZoneOffset
 import java.time.temporal.ChronoUnit
 import java.util.Optional
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicReference
+import java.util.zip.GZIPOutputStream
 import javax.servlet.http.HttpServletRequest
 import javax.servlet.http.HttpServletResponse
+import scala.jdk.CollectionConverters.CollectionHasAsScala
 import scala.jdk.CollectionConverters.ListHasAsScala
 import scala.jdk.CollectionConverters.SeqHasAsJava
 import scala.jdk.CollectionConverters.SetHasAsJava
@@ -230,6 +238,18 @@ class FidoMetadataDownloaderSpec
     makeHttpServer(Map(path -> (200, response)))
   private def makeHttpServer(
       responses: Map[String, (Int, Array[Byte])]
+  ): (Server, String, X509Certificate) =
+    makeHttpServerWithHandler { (target, request, response) =>
+      responses.get(target) match {
+        case Some((status, responseBody)) => {
+          response.getOutputStream.write(responseBody)
+          response.setStatus(status)
+        }
+        case None => response.setStatus(404)
+      }
+    }
+  private def makeHttpServerWithHandler(
+      handler: (String, HttpServletRequest, HttpServletResponse) => Unit
   ): (Server, String, X509Certificate) = {
     val tlsKey = TestAuthenticator.generateEcKeypair()
     val tlsCert = TestAuthenticator.buildCertificate(
@@ -271,14 +291,7 @@ class FidoMetadataDownloaderSpec
           request: HttpServletRequest,
           response: HttpServletResponse,
       ): Unit = {
-        responses.get(target) match {
-          case Some((status, responseBody)) => {
-            response.getOutputStream.write(responseBody)
-            response.setStatus(status)
-          }
-          case None => response.setStatus(404)
-        }
-
+        handler(target, request, response)
         jettyRequest.setHandled(true)
       }
     })
@@ -2291,4 +2304,296 @@ class FidoMetadataDownloaderSpec
     }
   }
 
+  describe("Downloading the BLOB") {
+    val legalHeader = "Kom ihåg att du aldrig får snyta dig i mattan!"
+    val (trustRootCert, caKeypair, caName) = makeTrustRootCert()
+    val (blobCert, blobKeypair, _) = makeCert(caKeypair, caName)
+    val crls = List[CRL](
+      TestAuthenticator.buildCrl(
+        caName,
+        caKeypair.getPrivate,
+        "SHA256withECDSA",
+        CertValidFrom,
+        CertValidTo,
+      )
+    )
+    def makeBlobJwt(no: Int): String =
+      makeBlob(
+        List(blobCert),
+        blobKeypair,
+        CertValidTo.atOffset(ZoneOffset.UTC).toLocalDate,
+        no = no,
+      )
+
+    def makeDownloader(
+        serverUrl: String,
+        httpsCert: X509Certificate,
+        cache: AtomicReference[Option[ByteArray]],
+        writeCache: Boolean = true,
+    ): FidoMetadataDownloaderBuilder =
+      FidoMetadataDownloader
+        .builder()
+        .expectLegalHeader(legalHeader)
+        .useTrustRoot(trustRootCert)
+        .downloadBlob(new URL(s"${serverUrl}/blob.jwt"))
+        .useBlobCache(
+          () => Optional.ofNullable(cache.get.orNull),
+          blob => if (writeCache) cache.set(Some(blob)),
+        )
+        .clock(Clock.fixed(CertValidFrom, ZoneOffset.UTC))
+        .useCrls(crls.asJava)
+        .trustHttpsCerts(httpsCert)
+
+    it("A conditional request is made using the ETag and Last-Modified of the previous download, and a 304 Not Modified response uses the cached BLOB.") {
+      val blobJwt = makeBlobJwt(2).getBytes(StandardCharsets.UTF_8)
+      val etag = "\"blob-2\""
+      val lastModified = "Fri, 18 Feb 2022 12:00:00 GMT"
+      val requests = new ConcurrentLinkedQueue[(String, String)]()
+
+      val (server, serverUrl, httpsCert) = makeHttpServerWithHandler {
+        (_, request, response) =>
+          requests.add(
+            (
+              request.getHeader("If-None-Match"),
+              request.getHeader("If-Modified-Since"),
+            )
+          )
+          if (etag == request.getHeader("If-None-Match")) {
+            response.setStatus(HttpStatus.NOT_MODIFIED_304)
+          } else {
+            response.setHeader("ETag", etag)
+            response.setHeader("Last-Modified", lastModified)
+            response.getOutputStream.write(blobJwt)
+          }
+      }
+      startServer(server)
+
+      val cache = new AtomicReference[Option[ByteArray]](None)
+      val downloader = makeDownloader(serverUrl, httpsCert, cache).build()
+
+      downloader.refreshBlob().getPayload.getNo should equal(2)
+      cache.get should not be empty
+      downloader.refreshBlob().getPayload.getNo should equal(2)
+
+      requests.asScala.toList should equal(
+        List((null, null), (etag, lastModified))
+      )
+    }
+
+    it("A request is not conditional if there is no cached BLOB.") {
+      val blobJwt = makeBlobJwt(2).getBytes(StandardCharsets.UTF_8)
+      val etag = "\"blob-2\""
+      val requests = new ConcurrentLinkedQueue[Option[String]]()
+
+      val (server, serverUrl, httpsCert) = makeHttpServerWithHandler {
+        (_, request, response) =>
+          requests.add(Option(request.getHeader("If-None-Match")))
+          response.setHeader("ETag", etag)
+          response.getOutputStream.write(blobJwt)
+      }
+      startServer(server)
+
+      val cache = new AtomicReference[Option[ByteArray]](None)
+      val downloader =
+        makeDownloader(serverUrl, httpsCert, cache, writeCache = false).build()
+
+      downloader.refreshBlob().getPayload.getNo should equal(2)
+      downloader.refreshBlob().getPayload.getNo should equal(2)
+
+      requests.asScala.toList should equal(List(None, None))
+    }
+
+    it("The cache validators are remembered also if the downloaded BLOB is not newer than the cached one.") {
+      val oldBlobJwt = makeBlobJwt(1).getBytes(StandardCharsets.UTF_8)
+      val etag = "\"blob-1\""
+      val requests = new ConcurrentLinkedQueue[Option[String]]()
+
+      val (server, serverUrl, httpsCert) = makeHttpServerWithHandler {
+        (_, request, response) =>
+          requests.add(Option(request.getHeader("If-None-Match")))
+          if (etag == request.getHeader("If-None-Match")) {
+            response.setStatus(HttpStatus.NOT_MODIFIED_304)
+          } else {
+            response.setHeader("ETag", etag)
+            response.getOutputStream.write(oldBlobJwt)
+          }
+      }
+      startServer(server)
+
+      val cache = new AtomicReference[Option[ByteArray]](
+        Some(new ByteArray(makeBlobJwt(2).getBytes(StandardCharsets.UTF_8)))
+      )
+      val downloader = makeDownloader(serverUrl, httpsCert, cache).build()
+
+      downloader.refreshBlob().getPayload.getNo should equal(2)
+      downloader.refreshBlob().getPayload.getNo should equal(2)
+
+      requests.asScala.toList should equal(List(None, Some(etag)))
+    }
+
+    it("A gzip encoded response is decoded.") {
+      val blobJwt = makeBlobJwt(2).getBytes(StandardCharsets.UTF_8)
+      val acceptEncodings = new ConcurrentLinkedQueue[String]()
+
+      val (server, serverUrl, httpsCert) = makeHttpServerWithHandler {
+        (_, request, response) =>
+          acceptEncodings.add(request.getHeader("Accept-Encoding"))
+          response.setHeader("Content-Encoding", "gzip")
+          val gzip = new GZIPOutputStream(response.getOutputStream)
+          gzip.write(blobJwt)
+          gzip.finish()
+      }
+      startServer(server)
+
+      val downloader = makeDownloader(
+        serverUrl,
+        httpsCert,
+        new AtomicReference[Option[ByteArray]](None),
+      ).build()
+
+      downloader.refreshBlob().getPayload.getNo should equal(2)
+      acceptEncodings.asScala.toList should equal(List("gzip"))
+    }
+
+    it("The download fails if the read timeout elapses.") {
+      val blobJwt = makeBlobJwt(2).getBytes(StandardCharsets.UTF_8)
+
+      val (server, serverUrl, httpsCert) = makeHttpServerWithHandler {
+        (_, _, response) =>
+          Thread.sleep(2000)
+          response.getOutputStream.write(blobJwt)
+      }
+      startServer(server)
+
+      val downloader = makeDownloader(
+        serverUrl,
+        httpsCert,
+        new AtomicReference[Option[ByteArray]](None),
+      )
+        .readTimeout(Duration.ofMillis(200))
+        .build()
+
+      a[SocketTimeoutException] should be thrownBy {
+        downloader.refreshBlob()
+      }
+    }
+
+    it("Timeouts must be positive.") {
+      val builder = makeDownloader(
+        "https://localhost",
+        trustRootCert,
+        new AtomicReference[Option[ByteArray]](None),
+      )
+      an[IllegalArgumentException] should be thrownBy {
+        builder.connectTimeout(Duration.ZERO)
+      }
+      an[IllegalArgumentException] should be thrownBy {
+        builder.readTimeout(Duration.ofSeconds(-1))
+      }
+    }
+  }
+
+  describe("Parsing the BLOB") {
+    val (trustRootCert, caKeypair, caName) = makeTrustRootCert()
+    val (blobCert, blobKeypair, _) = makeCert(caKeypair, caName)
+    val crls = List[CRL](
+      TestAuthenticator.buildCrl(
+        caName,
+        caKeypair.getPrivate,
+        "SHA256withECDSA",
+        CertValidFrom,
+        CertValidTo,
+      )
+    )
+    val blobJwt = makeBlob(
+      List(blobCert),
+      blobKeypair,
+      CertValidTo.atOffset(ZoneOffset.UTC).toLocalDate,
+      no = 7,
+    )
+
+    def load(blobJwt: String): MetadataBLOB =
+      FidoMetadataDownloader
+        .builder()
+        .expectLegalHeader("Kom ihåg att du aldrig får snyta dig i mattan!")
+        .useTrustRoot(trustRootCert)
+        .useBlob(blobJwt)
+        .clock(Clock.fixed(CertValidFrom, ZoneOffset.UTC))
+        .useCrls(crls.asJava)
+        .build()
+        .loadCachedBlob()
+
+    it("A well-formed BLOB is parsed and verified.") {
+      load(blobJwt).getPayload.getNo should equal(7)
+    }
+
+    it("A BLOB with fewer than three parts is rejected.") {
+      a[Base64UrlException] should be thrownBy {
+        load(blobJwt.substring(0, blobJwt.lastIndexOf('.')))
+      }
+    }
+
+    it("A BLOB with characters outside the Base64Url alphabet is rejected.") {
+      a[Base64UrlException] should be thrownBy {
+        load(blobJwt.replaceFirst("\\.", "+."))
+      }
+    }
+
+    it("A BLOB with a modified payload fails signature verification.") {
+      val Array(header, payload, signature) = blobJwt.split('.')
+      val modifiedPayload = new ByteArray(
+        new String(
+          ByteArray.fromBase64Url(payload).getBytes,
+          StandardCharsets.UTF_8,
+        ).replace("\"no\": 7", "\"no\": 8")
+          .getBytes(StandardCharsets.UTF_8)
+      ).getBase64Url
+      val result = Try(load(s"${header}.${modifiedPayload}.${signature}"))
+      result.failed.get shouldBe a[FidoMetadataDownloaderException]
+      result.failed.get
+        .asInstanceOf[FidoMetadataDownloaderException]
+        .getReason should equal(Reason.BAD_SIGNATURE)
+    }
+
+    it("Certificates and strings repeated across entries share one instance.") {
+      val (reportCert, _) = TestAuthenticator.generateAttestationCertificate()
+      val reportCertB64 = new ByteArray(reportCert.getEncoded).getBase64
+      def entry(aaguid: String): String = s"""{
+        "aaguid": "${aaguid}",
+        "statusReports": [{
+          "status": "FIDO_CERTIFIED",
+          "certificate": "${reportCertB64}",
+          "certificationDescriptor": "Yubico YubiKey"
+        }],
+        "timeOfLastStatusChange": "2022-02-15"
+      }"""
+      val blobHeader =
+        s"""{"alg":"ES256","x5c": ["${new ByteArray(
+          blobCert.getEncoded
+        ).getBase64}"]}"""
+      val blobBody = s"""{
+        "legalHeader": "Kom ihåg att du aldrig får snyta dig i mattan!",
+        "no": 7,
+        "nextUpdate": "${CertValidTo.atOffset(ZoneOffset.UTC).toLocalDate}",
+        "entries": [
+          ${entry("aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa")},
+          ${entry("bbbbbbbb-bbbb-bbbb-bbbb-bbbbbbbbbbbb")}
+        ]
+      }"""
+
+      val reports = load(
+        makeBlob(blobKeypair, blobHeader, blobBody)
+      ).getPayload.getEntries.asScala.toList
+        .map(_.getStatusReports.get(0))
+      reports should have length 2
+      val List(reportA, reportB) = reports
+
+      reportA.getCertificate.get should equal(reportCert)
+      reportA.getCertificate.get should be theSameInstanceAs
+        reportB.getCertificate.get
+      reportA.getCertificationDescriptor.get should be theSameInstanceAs
+        reportB.getCertificationDescriptor.get
+    }
+  }
+
 }
@@ -0,0 +1,120 @@
+package com.yubico.fido.metadata
+
+import com.yubico.fido.metadata.Generators._
+import com.yubico.webauthn.extension.uvm.KeyProtectionType
+import org.junit.runner.RunWith
+import org.scalacheck.Arbitrary.arbitrary
+import org.scalacheck.Gen
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+import scala.jdk.CollectionConverters.SeqHasAsJava
+import scala.jdk.CollectionConverters.SetHasAsJava
+import scala.jdk.CollectionConverters.SetHasAsScala
+import scala.jdk.OptionConverters.RichOptional
+
+@RunWith(classOf[JUnitRunner])
+class FidoMetadataServiceSpec
+    extends AnyFunSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  private def statement(
+      entry: MetadataBLOBPayloadEntry
+  ): Option[MetadataStatement] =
+    entry.getMetadataStatement.toScala
+
+  describe("FidoMetadataService.query") {
+    it("finds the same entries as findEntries with the equivalent predicate.") {
+      forAll(
+        arbitrary[MetadataBLOBPayload],
+        Gen.option(Gen.oneOf(AuthenticatorStatus.values.toIndexedSeq)),
+        Gen.option(Gen.oneOf(ProtocolFamily.values.toIndexedSeq)),
+        Gen.option(Gen.oneOf(AttachmentHint.values.toIndexedSeq)),
+        Gen.option(Gen.oneOf(KeyProtectionType.values.toIndexedSeq)),
+        minSuccessful(8),
+      ) {
+        (payload, status, protocolFamily, attachmentHint, keyProtection) =>
+          // Make sure that the status criterion matches at least one entry
+          val extraEntries = payload.getEntries.asScala
+            .take(1)
+            .map(entry =>
+              entry.toBuilder
+                .statusReports(
+                  status.toList
+                    .map(st => StatusReport.builder().status(st).build())
+                    .asJava
+                )
+                .build()
+            )
+          val blobPayload = payload.toBuilder
+            .entries((payload.getEntries.asScala ++ extraEntries).asJava)
+            .build()
+          val mds = FidoMetadataService
+            .builder()
+            .useBlob(blobPayload)
+            .prefilter(_ => true)
+            .build()
+
+          val expected = mds.findEntries(entry =>
+            status.forall(st =>
+              entry.getStatusReports.stream.anyMatch(_.getStatus == st)
+            ) &&
+              protocolFamily.forall(pf =>
+                statement(entry).exists(_.getProtocolFamily == pf)
+              ) &&
+              attachmentHint.forall(ah =>
+                statement(entry).exists(
+                  _.getAttachmentHint.toScala.exists(_.contains(ah))
+                )
+              ) &&
+              keyProtection.forall(kp =>
+                statement(entry).exists(_.getKeyProtection.contains(kp))
+              )
+          )
+
+          val query = mds.query()
+          status.foreach(query.status)
+          protocolFamily.foreach(query.protocolFamily)
+          attachmentHint.foreach(query.attachmentHint)
+          keyProtection.foreach(query.keyProtection)
+          query.find() should equal(expected)
+      }
+    }
+
+    it("evaluates the predicate only for entries matching the indexed criteria.") {
+      forAll(arbitrary[MetadataBLOBPayload], minSuccessful(4)) { payload =>
+        val mds = FidoMetadataService
+          .builder()
+          .useBlob(payload)
+          .prefilter(_ => true)
+          .build()
+        val status = AuthenticatorStatus.FIDO_CERTIFIED_L1
+        var tested = List.empty[MetadataBLOBPayloadEntry]
+
+        val result = mds
+          .query()
+          .status(status)
+          .filter(entry => {
+            tested = entry :: tested
+            true
+          })
+          .find()
+
+        result.asScala.toSet should equal(tested.toSet)
+        tested.forall(
+          _.getStatusReports.stream.anyMatch(_.getStatus == status)
+        ) should be(true)
+      }
+    }
+
+    it("finds all entries if no criteria are given.") {
+      forAll(arbitrary[MetadataBLOBPayload], minSuccessful(4)) { payload =>
+        val mds = FidoMetadataService.builder().useBlob(payload).build()
+        mds.query().find() should equal(mds.findEntries(_ => true))
+      }
+    }
+  }
+}
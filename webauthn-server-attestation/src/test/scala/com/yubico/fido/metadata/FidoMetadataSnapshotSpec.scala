@@ -0,0 +1,212 @@
+package com.yubico.fido.metadata
+
+import com.yubico.fido.metadata.Generators._
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.Generators.arbitraryByteArray
+import org.junit.runner.RunWith
+import org.scalacheck.Arbitrary.arbitrary
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.security.MessageDigest
+import javax.crypto.KeyGenerator
+import javax.crypto.SecretKey
+import scala.jdk.CollectionConverters.IteratorHasAsScala
+import scala.jdk.CollectionConverters.SetHasAsScala
+
+@RunWith(classOf[JUnitRunner])
+class FidoMetadataSnapshotSpec
+    extends AnyFunSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  private def withTempFile[A](body: Path => A): A = {
+    val file = Files.createTempFile("FidoMetadataSnapshotSpec", ".bin")
+    try {
+      body(file)
+    } finally {
+      Files.deleteIfExists(file)
+    }
+  }
+
+  private def hmacKey(): SecretKey =
+    KeyGenerator.getInstance("HmacSHA256").generateKey()
+
+  private val snapshotKey = hmacKey()
+
+  private def sha256(bytes: ByteArray): ByteArray =
+    new ByteArray(MessageDigest.getInstance("SHA-256").digest(bytes.getBytes))
+
+  private def writeSampleSnapshot(file: Path): Unit =
+    FidoMetadataSnapshot
+      .create(
+        new MetadataBLOB(
+          arbitrary[MetadataBLOBHeader].sample.get,
+          arbitrary[MetadataBLOBPayload].sample.get,
+        ),
+        new ByteArray(Array()),
+      )
+      .write(file, snapshotKey)
+
+  describe("FidoMetadataSnapshot") {
+    it("is identical to the original BLOB after a write and read round-trip.") {
+      forAll(
+        arbitrary[MetadataBLOBHeader],
+        arbitrary[MetadataBLOBPayload],
+        arbitrary[ByteArray],
+        minSuccessful(5),
+      ) { (header, payload, jwt) =>
+        withTempFile { file =>
+          val blob = new MetadataBLOB(header, payload)
+          FidoMetadataSnapshot.create(blob, jwt).write(file, snapshotKey)
+
+          val snapshot = FidoMetadataSnapshot.read(file, snapshotKey)
+          snapshot.getBlob should equal(blob)
+          snapshot.getBlobNo should equal(payload.getNo.intValue)
+          snapshot.getBlobSha256 should equal(sha256(jwt))
+        }
+      }
+    }
+
+    it("replaces an existing file without disturbing readers of the previous snapshot.") {
+      val dir = Files.createTempDirectory("FidoMetadataSnapshotSpec")
+      val file = dir.resolve("snapshot.bin")
+      try {
+        def blob() =
+          new MetadataBLOB(
+            arbitrary[MetadataBLOBHeader].sample.get,
+            arbitrary[MetadataBLOBPayload].sample.get,
+          )
+        val (blob1, blob2) = (blob(), blob())
+
+        FidoMetadataSnapshot
+          .create(blob1, new ByteArray(Array()))
+          .write(file, snapshotKey)
+        val snapshot1 = FidoMetadataSnapshot.read(file, snapshotKey)
+        FidoMetadataSnapshot
+          .create(blob2, new ByteArray(Array()))
+          .write(file, snapshotKey)
+
+        snapshot1.getBlob should equal(blob1)
+        FidoMetadataSnapshot.read(file, snapshotKey).getBlob should equal(blob2)
+        Files.list(dir).iterator.asScala.toList should equal(List(file))
+      } finally {
+        Files.list(dir).iterator.asScala.foreach(Files.delete)
+        Files.delete(dir)
+      }
+    }
+
+    it("is rejected when read if a byte is corrupted.") {
+      withTempFile { file =>
+        writeSampleSnapshot(file)
+        val bytes = Files.readAllBytes(file)
+        for {
+          i <- (0 until 48) ++ (48 until bytes.length by 101) :+
+            (bytes.length - 1)
+        } {
+          val corrupted = bytes.clone()
+          corrupted(i) = (corrupted(i) ^ 0x01).toByte
+          Files.write(file, corrupted)
+          an[IOException] should be thrownBy FidoMetadataSnapshot.read(
+            file,
+            snapshotKey,
+          )
+        }
+      }
+    }
+
+    it("is rejected when read with a different key.") {
+      withTempFile { file =>
+        writeSampleSnapshot(file)
+        an[IOException] should be thrownBy FidoMetadataSnapshot.read(
+          file,
+          hmacKey(),
+        )
+      }
+    }
+
+    it("is rejected when read if modified and given a new unkeyed checksum.") {
+      withTempFile { file =>
+        writeSampleSnapshot(file)
+        val bytes = Files.readAllBytes(file)
+        val content = bytes.take(bytes.length - 32)
+        content(8) = (content(8) ^ 0x01).toByte // BLOB "no"
+        Files.write(
+          file,
+          content ++ MessageDigest.getInstance("SHA-256").digest(content),
+        )
+        an[IOException] should be thrownBy FidoMetadataSnapshot.read(
+          file,
+          snapshotKey,
+        )
+      }
+    }
+
+    it("is rejected when read if truncated.") {
+      withTempFile { file =>
+        writeSampleSnapshot(file)
+        val bytes = Files.readAllBytes(file)
+        Files.write(file, bytes.take(bytes.length - 1))
+        an[IOException] should be thrownBy FidoMetadataSnapshot.read(
+          file,
+          snapshotKey,
+        )
+      }
+    }
+
+    it("gives a FidoMetadataService that finds the same entries as one using the original BLOB.") {
+      forAll(
+        arbitrary[MetadataBLOBHeader],
+        arbitrary[MetadataBLOBPayload],
+        minSuccessful(5),
+      ) { (header, payload) =>
+        withTempFile { file =>
+          val blob = new MetadataBLOB(header, payload)
+          FidoMetadataSnapshot
+            .create(blob, new ByteArray(Array()))
+            .write(file, snapshotKey)
+
+          val snapshot = FidoMetadataSnapshot.read(file, snapshotKey)
+          val fromBlob = FidoMetadataService.builder().useBlob(blob).build()
+
+          for { cacheSize <- List(0, 1, 256) } {
+            val fromSnapshot = FidoMetadataService
+              .builder()
+              .useSnapshot(snapshot)
+              .metadataStatementCacheSize(cacheSize)
+              .build()
+
+            for {
+              entry <- payload.getEntries.asScala
+              aaguid <- FidoMetadataService.indexedAaguids(entry).iterator.asScala
+            } {
+              fromSnapshot.findEntries(aaguid) should equal(
+                fromBlob.findEntries(aaguid)
+              )
+            }
+            fromSnapshot.findEntries(_ => true) should equal(
+              fromBlob.findEntries(_ => true)
+            )
+          }
+        }
+      }
+    }
+
+    it("rejects a negative metadata statement cache size.") {
+      withTempFile { file =>
+        writeSampleSnapshot(file)
+        an[IllegalArgumentException] should be thrownBy {
+          FidoMetadataService
+            .builder()
+            .useSnapshot(FidoMetadataSnapshot.read(file, snapshotKey))
+            .metadataStatementCacheSize(-1)
+        }
+      }
+    }
+  }
+}
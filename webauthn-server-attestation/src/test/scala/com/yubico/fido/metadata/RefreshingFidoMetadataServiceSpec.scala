@@ -0,0 +1,284 @@
+package com.yubico.fido.metadata
+
+import com.yubico.webauthn.TestAuthenticator
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier
+import org.bouncycastle.asn1.x500.X500Name
+import org.junit.runner.RunWith
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.security.KeyPair
+import java.security.cert.CRL
+import java.security.cert.X509Certificate
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneOffset
+import java.util.Optional
+import java.util.concurrent.Executors
+import scala.jdk.CollectionConverters.SeqHasAsJava
+
+@RunWith(classOf[JUnitRunner])
+class RefreshingFidoMetadataServiceSpec extends AnyFunSpec with Matchers {
+
+  private val CertValidFrom: Instant = Instant.parse("2022-02-18T12:00:00Z")
+  private val CertValidTo: Instant = Instant.parse("2022-03-20T12:00:00Z")
+  private val LegalHeader = "Kom ihåg att du aldrig får snyta dig i mattan!"
+  private val clock = Clock.fixed(CertValidFrom, ZoneOffset.UTC)
+
+  private val caName = new X500Name(
+    "CN=Yubico java-webauthn-server unit tests CA, O=Yubico"
+  )
+  private val caKeypair: KeyPair = TestAuthenticator.generateEcKeypair()
+  private val trustRootCert: X509Certificate =
+    TestAuthenticator.buildCertificate(
+      publicKey = caKeypair.getPublic,
+      issuerName = caName,
+      subjectName = caName,
+      signingKey = caKeypair.getPrivate,
+      signingAlg = COSEAlgorithmIdentifier.ES256,
+      isCa = true,
+      validFrom = CertValidFrom,
+      validTo = CertValidTo,
+    )
+  private val blobKeypair: KeyPair = TestAuthenticator.generateEcKeypair()
+  private val blobCert: X509Certificate = TestAuthenticator.buildCertificate(
+    publicKey = blobKeypair.getPublic,
+    issuerName = caName,
+    subjectName = new X500Name(
+      "CN=Yubico java-webauthn-server unit tests blob cert, O=Yubico"
+    ),
+    signingKey = caKeypair.getPrivate,
+    signingAlg = COSEAlgorithmIdentifier.ES256,
+    validFrom = CertValidFrom,
+    validTo = CertValidTo,
+  )
+  private val crls = List[CRL](
+    TestAuthenticator.buildCrl(
+      caName,
+      caKeypair.getPrivate,
+      "SHA256withECDSA",
+      CertValidFrom,
+      CertValidTo,
+    )
+  )
+
+  private def makeBlob(no: Int, nextUpdate: LocalDate): String = {
+    val header =
+      s"""{"alg":"ES256","x5c": ["${new ByteArray(blobCert.getEncoded).getBase64}"]}"""
+    val body = s"""{
+      "legalHeader": "${LegalHeader}",
+      "no": ${no},
+      "nextUpdate": "${nextUpdate}",
+      "entries": []
+    }"""
+    val tbs = new ByteArray(
+      header.getBytes(StandardCharsets.UTF_8)
+    ).getBase64Url + "." + new ByteArray(
+      body.getBytes(StandardCharsets.UTF_8)
+    ).getBase64Url
+    val signature = TestAuthenticator.sign(
+      new ByteArray(tbs.getBytes(StandardCharsets.UTF_8)),
+      blobKeypair.getPrivate,
+      COSEAlgorithmIdentifier.ES256,
+    )
+    tbs + "." + signature.getBase64Url
+  }
+
+  private def writeBlob(file: File, no: Int, nextUpdate: LocalDate): Unit =
+    Files.write(
+      file.toPath,
+      makeBlob(no, nextUpdate).getBytes(StandardCharsets.UTF_8),
+    )
+
+  private def makeDownloader(blobFile: File): FidoMetadataDownloader =
+    FidoMetadataDownloader
+      .builder()
+      .expectLegalHeader(LegalHeader)
+      .useTrustRoot(trustRootCert)
+      .downloadBlob(blobFile.toURI.toURL)
+      .useBlobCache(() => Optional.empty(), _ => {})
+      .clock(clock)
+      .useCrls(crls.asJava)
+      .build()
+
+  private def withBlobFile[A](body: File => A): A = {
+    val blobFile = File.createTempFile(
+      "RefreshingFidoMetadataServiceSpec",
+      ".jwt",
+    )
+    try {
+      body(blobFile)
+    } finally {
+      blobFile.delete()
+    }
+  }
+
+  private val Yesterday = LocalDate.parse("2022-02-17")
+  private val NextWeek = LocalDate.parse("2022-02-25")
+
+  describe("RefreshingFidoMetadataService") {
+    it("loads the initial BLOB when built.") {
+      withBlobFile { blobFile =>
+        writeBlob(blobFile, 3, NextWeek)
+        val service = RefreshingFidoMetadataService
+          .builder()
+          .useDownloader(makeDownloader(blobFile))
+          .clock(clock)
+          .build()
+        try {
+          service.getBlobNo should equal(3)
+          service.getLastRefreshTime should equal(CertValidFrom)
+          service.getService should not be null
+        } finally {
+          service.close()
+        }
+      }
+    }
+
+    it("schedules the next refresh at the start of the nextUpdate day.") {
+      withBlobFile { blobFile =>
+        writeBlob(blobFile, 3, NextWeek)
+        val service = RefreshingFidoMetadataService
+          .builder()
+          .useDownloader(makeDownloader(blobFile))
+          .clock(clock)
+          .build()
+        try {
+          service.getNextRefreshTime.get should equal(
+            Instant.parse("2022-02-25T00:00:00Z")
+          )
+        } finally {
+          service.close()
+        }
+      }
+    }
+
+    it("schedules the next refresh after the retry interval if nextUpdate has passed.") {
+      withBlobFile { blobFile =>
+        writeBlob(blobFile, 3, Yesterday)
+        val service = RefreshingFidoMetadataService
+          .builder()
+          .useDownloader(makeDownloader(blobFile))
+          .clock(clock)
+          .retryInterval(Duration.ofMinutes(10))
+          .build()
+        try {
+          service.getNextRefreshTime.get should equal(
+            CertValidFrom.plus(Duration.ofMinutes(10))
+          )
+        } finally {
+          service.close()
+        }
+      }
+    }
+
+    it("publishes a new FidoMetadataService when a newer BLOB is available.") {
+      withBlobFile { blobFile =>
+        writeBlob(blobFile, 3, Yesterday)
+        val service = RefreshingFidoMetadataService
+          .builder()
+          .useDownloader(makeDownloader(blobFile))
+          .clock(clock)
+          .build()
+        try {
+          val oldService = service.getService
+
+          writeBlob(blobFile, 4, NextWeek)
+          service.refresh() should be(true)
+
+          service.getBlobNo should equal(4)
+          service.getService should not be theSameInstanceAs(oldService)
+          service.getNextRefreshTime.get should equal(
+            Instant.parse("2022-02-25T00:00:00Z")
+          )
+        } finally {
+          service.close()
+        }
+      }
+    }
+
+    it("keeps the current FidoMetadataService if the BLOB is not newer.") {
+      withBlobFile { blobFile =>
+        writeBlob(blobFile, 3, Yesterday)
+        val service = RefreshingFidoMetadataService
+          .builder()
+          .useDownloader(makeDownloader(blobFile))
+          .clock(clock)
+          .build()
+        try {
+          val oldService = service.getService
+          service.refresh() should be(false)
+          service.getBlobNo should equal(3)
+          service.getService should be theSameInstanceAs oldService
+        } finally {
+          service.close()
+        }
+      }
+    }
+
+    it("keeps the current FidoMetadataService if the refresh fails.") {
+      withBlobFile { blobFile =>
+        writeBlob(blobFile, 3, Yesterday)
+        val service = RefreshingFidoMetadataService
+          .builder()
+          .useDownloader(makeDownloader(blobFile))
+          .clock(clock)
+          .retryInterval(Duration.ofMinutes(10))
+          .build()
+        try {
+          val oldService = service.getService
+
+          blobFile.delete()
+          an[Exception] should be thrownBy { service.refresh() }
+
+          service.getBlobNo should equal(3)
+          service.getService should be theSameInstanceAs oldService
+          service.getNextRefreshTime.get should equal(
+            CertValidFrom.plus(Duration.ofMinutes(10))
+          )
+        } finally {
+          service.close()
+        }
+      }
+    }
+
+    it("does not shut down a given scheduler when closed.") {
+      withBlobFile { blobFile =>
+        writeBlob(blobFile, 3, NextWeek)
+        val scheduler = Executors.newSingleThreadScheduledExecutor()
+        try {
+          val service = RefreshingFidoMetadataService
+            .builder()
+            .useDownloader(makeDownloader(blobFile))
+            .clock(clock)
+            .scheduler(scheduler)
+            .build()
+          service.close()
+
+          service.getNextRefreshTime should equal(Optional.empty())
+          scheduler.isShutdown should be(false)
+        } finally {
+          scheduler.shutdown()
+        }
+      }
+    }
+
+    it("rejects a retry interval that is not positive.") {
+      withBlobFile { blobFile =>
+        an[IllegalArgumentException] should be thrownBy {
+          RefreshingFidoMetadataService
+            .builder()
+            .useDownloader(makeDownloader(blobFile))
+            .retryInterval(Duration.ZERO)
+        }
+      }
+    }
+  }
+}
@@ -53,6 +53,10 @@ configurations.jmhRuntimeClasspath {
   exclude(module = "slf4j-test")
 }
 
+jmh {
+  profilers.add("gc")
+}
+
 tasks.withType(Jar::class) {
   manifest {
     attributes(mapOf(
@@ -0,0 +1,81 @@
+package com.yubico.webauthn.benchmark;
+
+import com.yubico.webauthn.FinishRegistrationOptions;
+import com.yubico.webauthn.RegistrationTestData;
+import com.yubico.webauthn.RegistrationTestData.AndroidSafetynet$;
+import com.yubico.webauthn.RegistrationTestData.FidoU2f$;
+import com.yubico.webauthn.RegistrationTestData.NoneAttestation$;
+import com.yubico.webauthn.RegistrationTestData.Packed$;
+import com.yubico.webauthn.RegistrationTestData.Tpm$;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.exception.RegistrationFailedException;
+import com.yubico.webauthn.test.Helpers.CredentialRepository$;
+import com.yubico.webauthn.test.RealExamples$;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link RelyingParty#finishRegistration(FinishRegistrationOptions)} for each supported
+ * attestation statement format.
+ *
+ * <p>No attestation trust source is configured, so this measures parsing and attestation signature
+ * verification but not certificate path validation. Apple attestation uses a real iOS example,
+ * since there is no generated fixture for it.
+ */
+public class AttestationFormatBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class FormatState {
+    @Param({"none", "packed-self", "packed-x5c", "fido-u2f", "tpm", "android-safetynet", "apple"})
+    public String format;
+
+    public RelyingParty rp;
+    public FinishRegistrationOptions fro;
+
+    @Setup
+    public void setup() {
+      final RegistrationTestData testData = testData(format);
+      rp =
+          RelyingParty.builder()
+              .identity(testData.rpId())
+              .credentialRepository(CredentialRepository$.MODULE$.empty())
+              .build();
+      fro =
+          FinishRegistrationOptions.builder()
+              .request(testData.request())
+              .response(testData.response())
+              .build();
+    }
+
+    private static RegistrationTestData testData(String format) {
+      switch (format) {
+        case "none":
+          return NoneAttestation$.MODULE$.Default();
+        case "packed-self":
+          return Packed$.MODULE$.SelfAttestation();
+        case "packed-x5c":
+          return Packed$.MODULE$.BasicAttestation();
+        case "fido-u2f":
+          return FidoU2f$.MODULE$.BasicAttestation();
+        case "tpm":
+          return Tpm$.MODULE$.ValidEs256();
+        case "android-safetynet":
+          return AndroidSafetynet$.MODULE$.BasicAttestation();
+        case "apple":
+          return RealExamples$.MODULE$.AppleAttestationIos().asRegistrationTestData();
+        default:
+          throw new IllegalArgumentException("Unknown attestation format: " + format);
+      }
+    }
+  }
+
+  @Benchmark
+  public void finishRegistration(Blackhole bh, FormatState state)
+      throws RegistrationFailedException {
+    bh.consume(state.rp.finishRegistration(state.fro));
+  }
+}
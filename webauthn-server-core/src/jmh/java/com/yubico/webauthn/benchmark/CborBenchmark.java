@@ -0,0 +1,93 @@
+package com.yubico.webauthn.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.upokecenter.cbor.CBORObject;
+import com.yubico.internal.util.CborReader;
+import com.yubico.internal.util.JacksonCodecs;
+import com.yubico.webauthn.RegistrationTestData;
+import com.yubico.webauthn.RegistrationTestData.Packed$;
+import com.yubico.webauthn.data.AttestationObject;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the {@link CborReader} based decoding of attestation objects and COSE keys against the
+ * previous approach of decoding with Jackson CBOR and upokecenter {@link CBORObject}.
+ *
+ * <p>Run with <code>-prof gc</code> to compare allocation rates.
+ */
+public class CborBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class CborState {
+    public final RegistrationTestData testData = Packed$.MODULE$.BasicAttestation();
+
+    public final ByteArray attestationObject =
+        testData.response().getResponse().getAttestationObject();
+
+    public final byte[] credentialPublicKey =
+        testData
+            .response()
+            .getResponse()
+            .getAttestation()
+            .getAuthenticatorData()
+            .getAttestedCredentialData()
+            .get()
+            .getCredentialPublicKey()
+            .getBytes();
+  }
+
+  @Benchmark
+  public void attestationObjectCborReader(Blackhole bh, CborState state) throws IOException {
+    bh.consume(new AttestationObject(state.attestationObject));
+  }
+
+  /** Equivalent to how {@link AttestationObject} and its authenticator data used to be decoded. */
+  @Benchmark
+  public void attestationObjectJacksonAndCborObject(Blackhole bh, CborState state)
+      throws IOException {
+    final JsonNode decoded =
+        JacksonCodecs.cborReader().readTree(state.attestationObject.getBytes());
+    bh.consume(decoded.get("fmt").textValue());
+    bh.consume(decoded.get("attStmt"));
+
+    final byte[] authData = decoded.get("authData").binaryValue();
+    final int credentialIdLength = ((authData[53] & 0xff) << 8) | (authData[54] & 0xff);
+    final int credentialPublicKeyIndex = 55 + credentialIdLength;
+    bh.consume(Arrays.copyOfRange(authData, 32, 33));
+    bh.consume(Arrays.copyOfRange(authData, 37, 53));
+    bh.consume(Arrays.copyOfRange(authData, 55, credentialPublicKeyIndex));
+
+    final ByteArrayInputStream rest =
+        new ByteArrayInputStream(
+            Arrays.copyOfRange(authData, credentialPublicKeyIndex, authData.length));
+    bh.consume(CBORObject.Read(rest).EncodeToBytes());
+  }
+
+  @Benchmark
+  public void coseKeyTypeCborReader(Blackhole bh, CborState state) {
+    final CborReader cbor = new CborReader(state.credentialPublicKey);
+    final int numEntries = cbor.readMapHeader();
+    for (int i = 0; cbor.hasNextItem(numEntries, i); ++i) {
+      final long label = cbor.readInteger();
+      if (label == 1 || label == 3) {
+        bh.consume(cbor.readInteger());
+      } else {
+        cbor.skipItem();
+      }
+    }
+  }
+
+  @Benchmark
+  public void coseKeyTypeCborObject(Blackhole bh, CborState state) {
+    final CBORObject cose = CBORObject.DecodeFromBytes(state.credentialPublicKey);
+    bh.consume(cose.get(CBORObject.FromObject(1)).AsInt32());
+    bh.consume(cose.get(CBORObject.FromObject(3)).AsInt32());
+  }
+}
@@ -0,0 +1,153 @@
+package com.yubico.webauthn.benchmark;
+
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.FinishAssertionOptions;
+import com.yubico.webauthn.FinishRegistrationOptions;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.RegistrationTestData;
+import com.yubico.webauthn.RegistrationTestData$;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.TestAuthenticator;
+import com.yubico.webauthn.TestAuthenticator$;
+import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.ClientRegistrationExtensionOutputs;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import com.yubico.webauthn.exception.AssertionFailedException;
+import com.yubico.webauthn.exception.RegistrationFailedException;
+import com.yubico.webauthn.test.Helpers.CredentialRepository$;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import scala.Tuple2;
+import scala.Tuple3;
+import scala.collection.immutable.List;
+
+/**
+ * Measures {@link RelyingParty#finishRegistration(FinishRegistrationOptions)} and {@link
+ * RelyingParty#finishAssertion(FinishAssertionOptions)} for each supported COSE algorithm.
+ *
+ * <p>Every credential is created with <code>packed</code> self attestation, so that the only
+ * difference between the parameters is the credential key algorithm.
+ */
+public class CoseAlgorithmBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class AlgorithmState {
+    @Param({"ES256", "ES384", "ES512", "RS256", "RS384", "RS512", "RS1", "EdDSA"})
+    public String algorithm;
+
+    public RelyingParty registrationRp;
+    public FinishRegistrationOptions fro;
+
+    public RelyingParty assertionRp;
+    public FinishAssertionOptions fao;
+
+    @Setup
+    public void setup() {
+      final COSEAlgorithmIdentifier alg = COSEAlgorithmIdentifier.valueOf(algorithm);
+      final Tuple3<
+              PublicKeyCredential<
+                  AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs>,
+              KeyPair,
+              List<Tuple2<X509Certificate, PrivateKey>>>
+          credential =
+              TestAuthenticator.createSelfAttestedCredential(
+                  TestAuthenticator.AttestationMaker$.MODULE$::packed, alg);
+      final RegistrationTestData testData =
+          RegistrationTestData$.MODULE$.from(credential._1(), credential._2(), credential._3());
+
+      registrationRp =
+          RelyingParty.builder()
+              .identity(testData.rpId())
+              .credentialRepository(CredentialRepository$.MODULE$.empty())
+              .build();
+      fro =
+          FinishRegistrationOptions.builder()
+              .request(
+                  testData.request().toBuilder()
+                      .pubKeyCredParams(
+                          Arrays.asList(
+                              PublicKeyCredentialParameters.ES256,
+                              PublicKeyCredentialParameters.ES384,
+                              PublicKeyCredentialParameters.ES512,
+                              PublicKeyCredentialParameters.RS256,
+                              PublicKeyCredentialParameters.RS384,
+                              PublicKeyCredentialParameters.RS512,
+                              PublicKeyCredentialParameters.RS1,
+                              PublicKeyCredentialParameters.EdDSA))
+                      .build())
+              .response(testData.response())
+              .build();
+
+      final PublicKeyCredentialRequestOptions pkcro =
+          PublicKeyCredentialRequestOptions.builder()
+              .challenge(new ByteArray(new byte[] {0, 1, 2, 3}))
+              .rpId(testData.rpId().getId())
+              .build();
+      assertionRp =
+          RelyingParty.builder()
+              .identity(testData.rpId())
+              .credentialRepository(
+                  CredentialRepository$.MODULE$.withUser(
+                      testData.userId(),
+                      RegisteredCredential.builder()
+                          .credentialId(testData.response().getId())
+                          .userHandle(testData.userId().getId())
+                          .publicKeyCose(
+                              testData
+                                  .response()
+                                  .getResponse()
+                                  .getParsedAuthenticatorData()
+                                  .getAttestedCredentialData()
+                                  .get()
+                                  .getCredentialPublicKey())
+                          .build()))
+              .build();
+      fao =
+          FinishAssertionOptions.builder()
+              .request(
+                  AssertionRequest.builder()
+                      .publicKeyCredentialRequestOptions(pkcro)
+                      .username(testData.userId().getName())
+                      .build())
+              .response(
+                  TestAuthenticator.createAssertion(
+                      alg,
+                      TestAuthenticator$.MODULE$.createAssertion$default$2(),
+                      pkcro.getChallenge(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$4(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$5(),
+                      testData.response().getId(),
+                      credential._2(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$8(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$9(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$10(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$11(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$12(),
+                      TestAuthenticator$.MODULE$.createAssertion$default$13()))
+              .build();
+    }
+  }
+
+  @Benchmark
+  public void finishRegistration(Blackhole bh, AlgorithmState state)
+      throws RegistrationFailedException {
+    bh.consume(state.registrationRp.finishRegistration(state.fro));
+  }
+
+  @Benchmark
+  public void finishAssertion(Blackhole bh, AlgorithmState state) throws AssertionFailedException {
+    bh.consume(state.assertionRp.finishAssertion(state.fao));
+  }
+}
@@ -0,0 +1,84 @@
+package com.yubico.webauthn.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.yubico.internal.util.JacksonCodecs;
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.RegistrationTestData;
+import com.yubico.webauthn.RegistrationTestData.Packed$;
+import com.yubico.webauthn.data.AuthenticatorAssertionResponse;
+import com.yubico.webauthn.data.ClientAssertionExtensionOutputs;
+import com.yubico.webauthn.data.CollectedClientData;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import com.yubico.webauthn.data.exception.Base64UrlException;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the per-ceremony JSON decoding done with a freshly constructed mapper per call against
+ * the shared reader/writer registry in {@link JacksonCodecs}.
+ *
+ * <p>Run with <code>-prof gc</code> to compare allocation rates.
+ */
+public class JacksonCodecsBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class CodecsState {
+    public final RegistrationTestData testData = Packed$.MODULE$.BasicAttestationEdDsa();
+
+    public final AssertionRequest request = testData.assertion().get().request();
+    public final String requestJson;
+    public final String responseJson;
+
+    public CodecsState() {
+      try {
+        requestJson = request.toJson();
+        responseJson =
+            JacksonCodecs.json().writeValueAsString(testData.assertion().get().response());
+      } catch (JsonProcessingException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  @Benchmark
+  public void parseAssertionResponseNewMapper(Blackhole bh, CodecsState state) throws IOException {
+    bh.consume(
+        JacksonCodecs.json()
+            .readValue(
+                state.responseJson,
+                new TypeReference<
+                    PublicKeyCredential<
+                        AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs>>() {}));
+  }
+
+  @Benchmark
+  public void parseAssertionResponseShared(Blackhole bh, CodecsState state) throws IOException {
+    bh.consume(PublicKeyCredential.parseAssertionResponseJson(state.responseJson));
+  }
+
+  @Benchmark
+  public void assertionRequestRoundTripNewMapper(Blackhole bh, CodecsState state)
+      throws JsonProcessingException {
+    bh.consume(JacksonCodecs.json().writeValueAsString(state.request));
+    bh.consume(JacksonCodecs.json().readValue(state.requestJson, AssertionRequest.class));
+  }
+
+  @Benchmark
+  public void assertionRequestRoundTripShared(Blackhole bh, CodecsState state)
+      throws JsonProcessingException {
+    bh.consume(state.request.toJson());
+    bh.consume(AssertionRequest.fromJson(state.requestJson));
+  }
+
+  @Benchmark
+  public void collectedClientData(Blackhole bh, CodecsState state)
+      throws IOException, Base64UrlException {
+    bh.consume(
+        new CollectedClientData(
+            state.testData.assertion().get().response().getResponse().getClientDataJSON()));
+  }
+}
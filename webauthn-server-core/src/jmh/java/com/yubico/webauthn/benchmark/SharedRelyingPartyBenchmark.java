@@ -0,0 +1,108 @@
+package com.yubico.webauthn.benchmark;
+
+import com.yubico.webauthn.FinishAssertionOptions;
+import com.yubico.webauthn.FinishRegistrationOptions;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.RegistrationTestData;
+import com.yubico.webauthn.RegistrationTestData.Packed$;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.StartAssertionOptions;
+import com.yubico.webauthn.StartRegistrationOptions;
+import com.yubico.webauthn.exception.AssertionFailedException;
+import com.yubico.webauthn.exception.RegistrationFailedException;
+import com.yubico.webauthn.test.Helpers.CredentialRepository$;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how the throughput of one {@link RelyingParty} instance scales when it is shared by many
+ * threads.
+ *
+ * <p>Each nested subclass runs the same benchmarks with a different number of {@link Threads
+ * threads}. The {@link RelyingParty} and all inputs are shared by all threads, so that any
+ * contention on shared state in the {@link RelyingParty} - such as the {@link
+ * java.security.SecureRandom} used to generate challenges, JCA provider lookups or Jackson object
+ * mappers - shows up as sublinear scaling.
+ */
+public abstract class SharedRelyingPartyBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class SharedState {
+    private final RegistrationTestData registrationTestData = Packed$.MODULE$.BasicAttestation();
+    private final RegistrationTestData assertionTestData = Packed$.MODULE$.BasicAttestationEdDsa();
+
+    public final RelyingParty rp =
+        RelyingParty.builder()
+            .identity(registrationTestData.rpId())
+            .credentialRepository(
+                CredentialRepository$.MODULE$.withUser(
+                    assertionTestData.userId(),
+                    RegisteredCredential.builder()
+                        .credentialId(assertionTestData.response().getId())
+                        .userHandle(assertionTestData.userId().getId())
+                        .publicKeyCose(
+                            assertionTestData
+                                .response()
+                                .getResponse()
+                                .getParsedAuthenticatorData()
+                                .getAttestedCredentialData()
+                                .get()
+                                .getCredentialPublicKey())
+                        .build()))
+            .build();
+
+    public final StartRegistrationOptions sro =
+        StartRegistrationOptions.builder().user(registrationTestData.userId()).build();
+
+    public final StartAssertionOptions sao =
+        StartAssertionOptions.builder().username(assertionTestData.userId().getName()).build();
+
+    public final FinishRegistrationOptions fro =
+        FinishRegistrationOptions.builder()
+            .request(registrationTestData.request())
+            .response(registrationTestData.response())
+            .build();
+
+    public final FinishAssertionOptions fao =
+        FinishAssertionOptions.builder()
+            .request(assertionTestData.assertion().get().request())
+            .response(assertionTestData.assertion().get().response())
+            .build();
+  }
+
+  @Benchmark
+  public void startRegistration(Blackhole bh, SharedState state) {
+    bh.consume(state.rp.startRegistration(state.sro));
+  }
+
+  @Benchmark
+  public void startAssertion(Blackhole bh, SharedState state) {
+    bh.consume(state.rp.startAssertion(state.sao));
+  }
+
+  @Benchmark
+  public void finishRegistration(Blackhole bh, SharedState state)
+      throws RegistrationFailedException {
+    bh.consume(state.rp.finishRegistration(state.fro));
+  }
+
+  @Benchmark
+  public void finishAssertion(Blackhole bh, SharedState state) throws AssertionFailedException {
+    bh.consume(state.rp.finishAssertion(state.fao));
+  }
+
+  @Threads(1)
+  public static class Threads1 extends SharedRelyingPartyBenchmark {}
+
+  @Threads(4)
+  public static class Threads4 extends SharedRelyingPartyBenchmark {}
+
+  @Threads(16)
+  public static class Threads16 extends SharedRelyingPartyBenchmark {}
+
+  @Threads(64)
+  public static class Threads64 extends SharedRelyingPartyBenchmark {}
+}
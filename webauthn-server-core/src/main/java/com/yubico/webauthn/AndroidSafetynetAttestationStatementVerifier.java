@@ -1,12 +1,13 @@
 package com.yubico.webauthn;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.yubico.internal.util.CertificateParser;
 import com.yubico.internal.util.ExceptionUtil;
 import com.yubico.internal.util.JacksonCodecs;
+import com.yubico.internal.util.JcaEngines;
 import com.yubico.webauthn.data.AttestationObject;
 import com.yubico.webauthn.data.AttestationType;
 import com.yubico.webauthn.data.ByteArray;
@@ -112,36 +113,40 @@ class AndroidSafetynetAttestationStatementVerifier
     String signatureAlgorithmName =
         WebAuthnCodecs.jwsAlgorithmNameToJavaAlgorithmName(jws.getAlgorithm());
 
-    Signature signatureVerifier;
+    final Signature signatureVerifier;
     try {
-      signatureVerifier = Signature.getInstance(signatureAlgorithmName);
+      signatureVerifier = JcaEngines.borrowSignature(signatureAlgorithmName);
     } catch (NoSuchAlgorithmException e) {
       throw ExceptionUtil.wrapAndLog(
           log, "Failed to get a Signature instance for " + signatureAlgorithmName, e);
     }
     try {
-      signatureVerifier.initVerify(attestationCertificate.getPublicKey());
-    } catch (InvalidKeyException e) {
-      throw ExceptionUtil.wrapAndLog(
-          log, "Attestation key is invalid: " + attestationCertificate, e);
-    }
-    try {
-      signatureVerifier.update(jws.getSignedBytes().getBytes());
-    } catch (SignatureException e) {
-      throw ExceptionUtil.wrapAndLog(
-          log, "Signature object in invalid state: " + signatureVerifier, e);
-    }
+      try {
+        signatureVerifier.initVerify(attestationCertificate.getPublicKey());
+      } catch (InvalidKeyException e) {
+        throw ExceptionUtil.wrapAndLog(
+            log, "Attestation key is invalid: " + attestationCertificate, e);
+      }
+      try {
+        signatureVerifier.update(jws.getSignedBytes().asReadOnlyByteBuffer());
+      } catch (SignatureException e) {
+        throw ExceptionUtil.wrapAndLog(
+            log, "Signature object in invalid state: " + signatureVerifier, e);
+      }
 
-    // Verify the hostname of the certificate.
-    ExceptionUtil.assertTrue(
-        verifyHostname(attestationCertificate),
-        "Certificate isn't issued for the hostname attest.android.com: %s",
-        attestationCertificate);
+      // Verify the hostname of the certificate.
+      ExceptionUtil.assertTrue(
+          verifyHostname(attestationCertificate),
+          "Certificate isn't issued for the hostname attest.android.com: %s",
+          attestationCertificate);
 
-    try {
-      return signatureVerifier.verify(jws.getSignature().getBytes());
-    } catch (SignatureException e) {
-      throw ExceptionUtil.wrapAndLog(log, "Failed to verify signature of JWS: " + jws, e);
+      try {
+        return signatureVerifier.verify(jws.getSignature().getBytes());
+      } catch (SignatureException e) {
+        throw ExceptionUtil.wrapAndLog(log, "Failed to verify signature of JWS: " + jws, e);
+      }
+    } finally {
+      JcaEngines.releaseSignature(signatureVerifier);
     }
   }
 
@@ -156,7 +161,7 @@ class AndroidSafetynetAttestationStatementVerifier
 
     JsonWebSignatureCustom(String jwsCompact) {
       String[] parts = jwsCompact.split("\\.");
-      ObjectMapper json = JacksonCodecs.json();
+      ObjectReader json = JacksonCodecs.jsonReader();
 
       try {
         final ByteArray header = ByteArray.fromBase64Url(parts[0]);
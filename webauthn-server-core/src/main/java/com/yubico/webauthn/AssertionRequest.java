@@ -177,7 +177,7 @@ public class AssertionRequest {
    * @throws JsonProcessingException
    */
   public String toJson() throws JsonProcessingException {
-    return JacksonCodecs.json().writeValueAsString(this);
+    return JacksonCodecs.jsonWriter().writeValueAsString(this);
   }
 
   /**
@@ -191,7 +191,7 @@ public class AssertionRequest {
    * @throws JsonProcessingException
    */
   public static AssertionRequest fromJson(String json) throws JsonProcessingException {
-    return JacksonCodecs.json().readValue(json, AssertionRequest.class);
+    return JacksonCodecs.jsonReaderFor(AssertionRequest.class).readValue(json);
   }
 
   public static AssertionRequestBuilder.MandatoryStages builder() {
@@ -0,0 +1,127 @@
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.ResolvingCredentialRepository.ResolvedUser;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import lombok.NonNull;
+
+/**
+ * A non-blocking variant of {@link CredentialRepository}, where each lookup returns a {@link
+ * CompletionStage} instead of blocking until the result is available.
+ *
+ * <p>This is used by {@link RelyingParty#finishAssertionAsync(FinishAssertionOptions)} and {@link
+ * RelyingParty#finishRegistrationAsync(FinishRegistrationOptions)}. Each method has the same
+ * contract as the {@link CredentialRepository} method of the same name.
+ *
+ * <p>The verification steps that follow the lookups run on the thread that completes the returned
+ * stages. If the stages are completed by threads that should not run CPU-bound work, such as I/O
+ * threads of a database driver, complete them on a suitable executor instead, for example with
+ * {@link CompletionStage#thenApplyAsync(java.util.function.Function, Executor)}.
+ *
+ * @see #fromSync(CredentialRepository, Executor)
+ */
+public interface AsyncCredentialRepository {
+
+  /**
+   * @see CredentialRepository#getCredentialIdsForUsername(String)
+   */
+  CompletionStage<Set<PublicKeyCredentialDescriptor>> getCredentialIdsForUsername(String username);
+
+  /**
+   * @see CredentialRepository#getUserHandleForUsername(String)
+   */
+  CompletionStage<Optional<ByteArray>> getUserHandleForUsername(String username);
+
+  /**
+   * @see CredentialRepository#getUsernameForUserHandle(ByteArray)
+   */
+  CompletionStage<Optional<String>> getUsernameForUserHandle(ByteArray userHandle);
+
+  /**
+   * @see CredentialRepository#lookup(ByteArray, ByteArray)
+   */
+  CompletionStage<Optional<RegisteredCredential>> lookup(
+      ByteArray credentialId, ByteArray userHandle);
+
+  /**
+   * @see CredentialRepository#lookupAll(ByteArray)
+   */
+  CompletionStage<Set<RegisteredCredential>> lookupAll(ByteArray credentialId);
+
+  /**
+   * Look up the user account with the given username, and the credential with the given credential
+   * ID registered to that account.
+   *
+   * <p>The default implementation calls {@link #getUserHandleForUsername(String)} and then {@link
+   * #lookup(ByteArray, ByteArray)}. Override it if the repository can do this in one call.
+   *
+   * @see ResolvingCredentialRepository#resolveUserByUsername(String, ByteArray)
+   */
+  default CompletionStage<Optional<ResolvedUser>> resolveUserByUsername(
+      String username, ByteArray credentialId) {
+    return getUserHandleForUsername(username)
+        .thenCompose(
+            userHandle -> {
+              if (userHandle.isPresent()) {
+                return lookup(credentialId, userHandle.get())
+                    .thenApply(
+                        credential ->
+                            Optional.of(
+                                ResolvedUser.builder()
+                                    .username(username)
+                                    .userHandle(userHandle.get())
+                                    .credential(credential.orElse(null))
+                                    .build()));
+              } else {
+                return CompletableFuture.completedFuture(Optional.empty());
+              }
+            });
+  }
+
+  /**
+   * Look up the user account with the given user handle, and the credential with the given
+   * credential ID registered to that account.
+   *
+   * <p>The default implementation calls {@link #getUsernameForUserHandle(ByteArray)} and {@link
+   * #lookup(ByteArray, ByteArray)} concurrently. Override it if the repository can do this in one
+   * call.
+   *
+   * @see ResolvingCredentialRepository#resolveUserByUserHandle(ByteArray, ByteArray)
+   */
+  default CompletionStage<Optional<ResolvedUser>> resolveUserByUserHandle(
+      ByteArray userHandle, ByteArray credentialId) {
+    return getUsernameForUserHandle(userHandle)
+        .thenCombine(
+            lookup(credentialId, userHandle),
+            (username, credential) ->
+                username.map(
+                    un ->
+                        ResolvedUser.builder()
+                            .username(un)
+                            .userHandle(userHandle)
+                            .credential(credential.orElse(null))
+                            .build()));
+  }
+
+  /**
+   * Adapt a synchronous {@link CredentialRepository} by running each of its lookups as a task on
+   * <code>executor</code>.
+   *
+   * <p>This lets an existing repository implementation be used with {@link
+   * RelyingParty#finishAssertionAsync(FinishAssertionOptions)} and {@link
+   * RelyingParty#finishRegistrationAsync(FinishRegistrationOptions)}. The lookups still block a
+   * thread of <code>executor</code>, but not the caller's thread.
+   *
+   * @param repository the repository to adapt.
+   * @param executor the executor to run lookups on.
+   */
+  static AsyncCredentialRepository fromSync(
+      @NonNull CredentialRepository repository, @NonNull Executor executor) {
+    return new SyncCredentialRepositoryAdapter(repository, executor);
+  }
+}
@@ -0,0 +1,28 @@
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.util.Set;
+
+/**
+ * A {@link CredentialRepository} that can also look up many credentials in one call.
+ *
+ * <p>If the {@link RelyingParty#getCredentialRepository() credential repository} implements this
+ * interface, {@link RelyingParty#finishAssertions(java.util.List, java.util.concurrent.Executor)}
+ * looks up the credentials for a whole batch of assertions with one call to {@link
+ * #lookupBatch(Set)} instead of one call to {@link #lookup(ByteArray, ByteArray)} per assertion.
+ */
+public interface BatchCredentialRepository extends CredentialRepository {
+
+  /**
+   * Look up all credentials whose credential ID is any of the given credential IDs, regardless of
+   * what user they're registered to.
+   *
+   * <p>The result must be consistent with {@link #lookup(ByteArray, ByteArray)}: for each given
+   * credential ID, the returned set must include the credential that {@link #lookup(ByteArray,
+   * ByteArray)} would return for that credential ID and any user handle.
+   *
+   * <p>The returned {@link RegisteredCredential}s are not expected to be long-lived. They may be
+   * read directly from a database or assembled from other components.
+   */
+  Set<RegisteredCredential> lookupBatch(Set<ByteArray> credentialIds);
+}
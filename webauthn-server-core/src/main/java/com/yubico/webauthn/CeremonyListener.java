@@ -0,0 +1,81 @@
+package com.yubico.webauthn;
+
+import java.util.Optional;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Receives an event for each verification step of {@link
+ * RelyingParty#finishRegistration(FinishRegistrationOptions)} and {@link
+ * RelyingParty#finishAssertion(FinishAssertionOptions)}, for example to measure how long each step
+ * takes on live traffic.
+ *
+ * <p>This is called synchronously on the thread running the ceremony, so implementations should
+ * return quickly. Exceptions thrown by the listener are logged and otherwise ignored.
+ *
+ * @see RelyingParty.RelyingPartyBuilder#ceremonyListener(CeremonyListener)
+ */
+@FunctionalInterface
+public interface CeremonyListener {
+
+  /**
+   * Called when a verification step has finished, whether it succeeded or failed.
+   *
+   * <p>If the ceremony fails, this is called with the failing step before the exception propagates
+   * to the caller, and no further steps are run.
+   */
+  void onStepFinished(StepEvent event);
+
+  /** The ceremony that a {@link StepEvent} belongs to. */
+  enum Ceremony {
+    /** {@link RelyingParty#finishRegistration(FinishRegistrationOptions)} */
+    REGISTRATION,
+
+    /** {@link RelyingParty#finishAssertion(FinishAssertionOptions)} */
+    ASSERTION
+  }
+
+  /** The outcome of one verification step of a ceremony. */
+  @Value
+  class StepEvent {
+
+    /** The ceremony this step belongs to. */
+    @NonNull private final Ceremony ceremony;
+
+    /**
+     * The name of the step, for example <code>Step6</code>. Step numbers refer to the corresponding
+     * steps of the verification procedure in the WebAuthn specification.
+     */
+    @NonNull private final String step;
+
+    /**
+     * The time spent in this step, in nanoseconds.
+     *
+     * <p>This includes constructing the step, which is where some steps look up or parse the data
+     * they verify, for example the credential repository lookups in step 6 of {@link
+     * Ceremony#ASSERTION}.
+     */
+    private final long durationNanos;
+
+    /**
+     * The exception that made this step fail, if any.
+     *
+     * <p>An exception thrown while constructing the following step is attributed to this step.
+     */
+    private final Throwable failure;
+
+    /** <code>true</code> if and only if this step succeeded. */
+    public boolean isSuccess() {
+      return failure == null;
+    }
+
+    /**
+     * The exception that made this step fail, if any.
+     *
+     * <p>An exception thrown while constructing the following step is attributed to this step.
+     */
+    public Optional<Throwable> getFailure() {
+      return Optional.ofNullable(failure);
+    }
+  }
+}
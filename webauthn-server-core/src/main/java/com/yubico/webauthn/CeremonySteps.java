@@ -0,0 +1,91 @@
+package com.yubico.webauthn;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The verification step loop shared by {@link FinishAssertionSteps} and {@link
+ * FinishRegistrationSteps}.
+ */
+@Slf4j
+final class CeremonySteps {
+
+  private CeremonySteps() {}
+
+  /**
+   * A verification step of a ceremony with result type <code>R</code>, whose validation may throw a
+   * checked exception of type <code>E</code>.
+   */
+  interface Step<R, E extends Exception> {
+    Step<R, E> nextStep();
+
+    void validate() throws E;
+
+    Optional<R> result();
+  }
+
+  /**
+   * Run the steps from <code>begin</code> until one of them returns a result, and notify <code>
+   * listener</code> of the outcome of each step.
+   *
+   * <p>The duration reported for a step includes the time it took to construct it.
+   */
+  static <R, E extends Exception> R run(
+      CeremonyListener.Ceremony ceremony,
+      CeremonyListener listener,
+      Supplier<? extends Step<R, E>> begin)
+      throws E {
+    long constructionStart = System.nanoTime();
+    Step<R, E> step = begin.get();
+    long constructionNanos = System.nanoTime() - constructionStart;
+
+    while (true) {
+      final long validationStart = System.nanoTime();
+      final Optional<R> result;
+      try {
+        result = step.result();
+        if (!result.isPresent()) {
+          step.validate();
+        }
+      } catch (Exception e) {
+        notifyListener(
+            ceremony, listener, step, constructionNanos + System.nanoTime() - validationStart, e);
+        throw e;
+      }
+      final long validationEnd = System.nanoTime();
+      final long stepNanos = constructionNanos + validationEnd - validationStart;
+
+      if (result.isPresent()) {
+        notifyListener(ceremony, listener, step, stepNanos, null);
+        return result.get();
+      }
+
+      final Step<R, E> next;
+      try {
+        next = step.nextStep();
+      } catch (RuntimeException e) {
+        notifyListener(ceremony, listener, step, stepNanos, e);
+        throw e;
+      }
+      constructionNanos = System.nanoTime() - validationEnd;
+      notifyListener(ceremony, listener, step, stepNanos, null);
+      step = next;
+    }
+  }
+
+  private static void notifyListener(
+      CeremonyListener.Ceremony ceremony,
+      CeremonyListener listener,
+      Step<?, ?> step,
+      long durationNanos,
+      Throwable failure) {
+    try {
+      listener.onStepFinished(
+          new CeremonyListener.StepEvent(
+              ceremony, step.getClass().getSimpleName(), durationNanos, failure));
+    } catch (RuntimeException e) {
+      log.warn("Ceremony listener threw an exception, ignoring it.", e);
+    }
+  }
+}
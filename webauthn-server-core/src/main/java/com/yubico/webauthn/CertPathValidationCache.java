@@ -0,0 +1,256 @@
+package com.yubico.webauthn;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.webauthn.attestation.AttestationTrustSource.TrustRootsResult;
+import com.yubico.webauthn.data.ByteArray;
+import java.security.cert.CertStore;
+import java.security.cert.PolicyNode;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import lombok.Value;
+
+/**
+ * A bounded, thread-safe cache of successful attestation certificate path validations.
+ *
+ * <p>Many authenticators share the same batch attestation certificate chain, so {@link
+ * RelyingParty#finishRegistration(FinishRegistrationOptions)} often runs the same PKIX certificate
+ * path validation over and over. Setting an instance of this class as {@link
+ * RelyingParty.RelyingPartyBuilder#certPathValidationCache(CertPathValidationCache)} lets it skip
+ * the validation if the same certificate chain was recently found to chain to the same set of
+ * {@link TrustRootsResult#getTrustAnchors() trust anchors} with the same {@link
+ * TrustRootsResult#getCertStore() cert store} and {@link TrustRootsResult#getPolicyTreeValidator()
+ * policy tree validator}. Trust anchors are compared by their trusted certificate and name
+ * constraints. The cert store and policy tree validator are compared by identity, not by value.
+ *
+ * <p>A cached result is used only while the {@link RelyingParty#getClock() clock} is within the
+ * validity period of every certificate in the chain, and, if a maximum age is set, for at most that
+ * long after the validation. Failed validations are not cached, and neither are validations with
+ * {@link TrustRootsResult#isEnableRevocationChecking() revocation checking} enabled, since the
+ * revocation status of a certificate may change at any time.
+ *
+ * <p>When the cache is full, the least recently used entries are evicted. An instance may be shared
+ * between multiple {@link RelyingParty} instances.
+ *
+ * @see RelyingParty.RelyingPartyBuilder#certPathValidationCache(CertPathValidationCache)
+ */
+public final class CertPathValidationCache {
+
+  private final Cache<CacheKey, ValidityPeriod> cache;
+
+  /**
+   * Keys of recently seen trust anchor sets, by identity, so that they need not be recomputed for
+   * an attestation trust source that returns the same {@link TrustRootsResult} many times.
+   */
+  private final Cache<Set<TrustAnchor>, TrustAnchorsKey> trustAnchorsKeys;
+
+  private final Optional<Duration> maximumAge;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+
+  private CertPathValidationCache(long maximumSize, Optional<Duration> maximumAge) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    this.trustAnchorsKeys = CacheBuilder.newBuilder().weakKeys().maximumSize(maximumSize).build();
+    this.maximumAge = maximumAge;
+  }
+
+  @Value
+  private static class CacheKey {
+    List<X509Certificate> certPath;
+    TrustAnchorsKey trustAnchors;
+    CertStore certStore;
+    Predicate<PolicyNode> policyTreeValidator;
+  }
+
+  /**
+   * The value of a set of {@link TrustAnchor}s, which do not implement {@link
+   * Object#equals(Object)} themselves. The hash code is computed once, on construction.
+   */
+  private static final class TrustAnchorsKey {
+    private final Set<TrustAnchorKey> trustAnchors;
+    private final int hashCode;
+
+    private TrustAnchorsKey(Set<TrustAnchor> trustAnchors) {
+      final Set<TrustAnchorKey> keys = new HashSet<>(trustAnchors.size());
+      for (TrustAnchor trustAnchor : trustAnchors) {
+        keys.add(new TrustAnchorKey(trustAnchor));
+      }
+      this.trustAnchors = keys;
+      this.hashCode = keys.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o == this
+          || (o instanceof TrustAnchorsKey
+              && ((TrustAnchorsKey) o).hashCode == hashCode
+              && ((TrustAnchorsKey) o).trustAnchors.equals(trustAnchors));
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  @Value
+  private static class TrustAnchorKey {
+    X509Certificate trustedCert;
+    ByteArray nameConstraints;
+
+    private TrustAnchorKey(TrustAnchor trustAnchor) {
+      this.trustedCert = trustAnchor.getTrustedCert();
+      final byte[] nameConstraints = trustAnchor.getNameConstraints();
+      this.nameConstraints = nameConstraints == null ? null : new ByteArray(nameConstraints);
+    }
+  }
+
+  @Value
+  private static class ValidityPeriod {
+    Instant notBefore;
+    Instant notAfter;
+
+    boolean contains(Instant instant) {
+      return !instant.isBefore(notBefore) && !instant.isAfter(notAfter);
+    }
+  }
+
+  /**
+   * Create a cache that holds at most <code>maximumSize</code> validation results. Each result is
+   * used until the earliest expiry time of any certificate in the validated chain.
+   *
+   * @param maximumSize the maximum number of entries. Must not be negative.
+   * @throws IllegalArgumentException if <code>maximumSize</code> is negative.
+   */
+  public static CertPathValidationCache withMaximumSize(long maximumSize) {
+    return create(maximumSize, Optional.empty());
+  }
+
+  /**
+   * Create a cache that holds at most <code>maximumSize</code> validation results. Each result is
+   * used until the earliest expiry time of any certificate in the validated chain, or for at most
+   * <code>maximumAge</code> after the validation, whichever is earlier.
+   *
+   * @param maximumSize the maximum number of entries. Must not be negative.
+   * @param maximumAge the maximum time to use a result for. Must not be negative.
+   * @throws IllegalArgumentException if <code>maximumSize</code> or <code>maximumAge</code> is
+   *     negative.
+   */
+  public static CertPathValidationCache withMaximumSize(long maximumSize, Duration maximumAge) {
+    if (maximumAge.isNegative()) {
+      throw new IllegalArgumentException("maximumAge must not be negative: " + maximumAge);
+    }
+    return create(maximumSize, Optional.of(maximumAge));
+  }
+
+  private static CertPathValidationCache create(long maximumSize, Optional<Duration> maximumAge) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+    }
+    return new CertPathValidationCache(maximumSize, maximumAge);
+  }
+
+  /**
+   * @return the number of lookups that found a usable cached validation result.
+   */
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /**
+   * @return the number of lookups that had to run certificate path validation.
+   */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * @return the approximate number of validation results currently in the cache.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /** Discard all cached validation results. The hit and miss counters are not reset. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return <code>true</code> if <code>certPath</code> was recently found to be trusted by <code>
+   *     trustRoots</code>, and the result is still usable at the current time of <code>clock
+   *     </code>.
+   */
+  boolean isTrusted(List<X509Certificate> certPath, TrustRootsResult trustRoots, Clock clock) {
+    if (trustRoots.isEnableRevocationChecking()) {
+      return false;
+    }
+
+    final CacheKey key = cacheKey(certPath, trustRoots);
+    final ValidityPeriod cached = cache.getIfPresent(key);
+    if (cached != null && cached.contains(clock.instant())) {
+      hitCount.increment();
+      return true;
+    } else {
+      if (cached != null) {
+        cache.invalidate(key);
+      }
+      missCount.increment();
+      return false;
+    }
+  }
+
+  /**
+   * Record that <code>certPath</code> was found to be trusted by <code>trustRoots</code> at the
+   * current time of <code>clock</code>.
+   */
+  void putTrusted(List<X509Certificate> certPath, TrustRootsResult trustRoots, Clock clock) {
+    if (trustRoots.isEnableRevocationChecking() || certPath.isEmpty()) {
+      return;
+    }
+
+    Instant notBefore = Instant.MIN;
+    Instant notAfter = Instant.MAX;
+    for (X509Certificate cert : certPath) {
+      final Instant certNotBefore = cert.getNotBefore().toInstant();
+      final Instant certNotAfter = cert.getNotAfter().toInstant();
+      if (certNotBefore.isAfter(notBefore)) {
+        notBefore = certNotBefore;
+      }
+      if (certNotAfter.isBefore(notAfter)) {
+        notAfter = certNotAfter;
+      }
+    }
+    if (maximumAge.isPresent()) {
+      final Instant now = clock.instant();
+      if (Duration.between(now, notAfter).compareTo(maximumAge.get()) > 0) {
+        notAfter = now.plus(maximumAge.get());
+      }
+    }
+
+    cache.put(cacheKey(certPath, trustRoots), new ValidityPeriod(notBefore, notAfter));
+  }
+
+  private CacheKey cacheKey(List<X509Certificate> certPath, TrustRootsResult trustRoots) {
+    final Set<TrustAnchor> trustAnchors = trustRoots.getTrustAnchors();
+    TrustAnchorsKey trustAnchorsKey = trustAnchorsKeys.getIfPresent(trustAnchors);
+    if (trustAnchorsKey == null) {
+      trustAnchorsKey = new TrustAnchorsKey(trustAnchors);
+      trustAnchorsKeys.put(trustAnchors, trustAnchorsKey);
+    }
+    return new CacheKey(
+        certPath,
+        trustAnchorsKey,
+        trustRoots.getCertStore().orElse(null),
+        trustRoots.getPolicyTreeValidator().orElse(null));
+  }
+}
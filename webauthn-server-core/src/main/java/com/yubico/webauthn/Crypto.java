@@ -30,6 +30,7 @@
 package com.yubico.webauthn;
 
 import com.google.common.hash.Hashing;
+import com.yubico.internal.util.JcaEngines;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 import java.math.BigInteger;
@@ -80,10 +81,11 @@ final class Crypto {
       ByteArray signedBytes,
       ByteArray signatureBytes,
       COSEAlgorithmIdentifier alg) {
+    Signature signature = null;
     try {
-      Signature signature = Signature.getInstance(WebAuthnCodecs.getJavaAlgorithmName(alg));
+      signature = JcaEngines.borrowSignature(WebAuthnCodecs.getJavaAlgorithmName(alg));
       signature.initVerify(publicKey);
-      signature.update(signedBytes.getBytes());
+      signature.update(signedBytes.asReadOnlyByteBuffer());
       return signature.verify(signatureBytes.getBytes());
     } catch (GeneralSecurityException | IllegalArgumentException e) {
       throw new RuntimeException(
@@ -91,19 +93,21 @@ final class Crypto {
               "Failed to verify signature. This could be a problem with your JVM environment, or a bug in webauthn-server-core. Public key: %s, signed data: %s , signature: %s",
               publicKey, signedBytes.getBase64Url(), signatureBytes.getBase64Url()),
           e);
+    } finally {
+      JcaEngines.releaseSignature(signature);
     }
   }
 
   public static ByteArray sha256(ByteArray bytes) {
-    return new ByteArray(Hashing.sha256().hashBytes(bytes.getBytes()).asBytes());
+    return new ByteArray(Hashing.sha256().hashBytes(bytes.asReadOnlyByteBuffer()).asBytes());
   }
 
   public static ByteArray sha384(ByteArray bytes) {
-    return new ByteArray(Hashing.sha384().hashBytes(bytes.getBytes()).asBytes());
+    return new ByteArray(Hashing.sha384().hashBytes(bytes.asReadOnlyByteBuffer()).asBytes());
   }
 
   public static ByteArray sha512(ByteArray bytes) {
-    return new ByteArray(Hashing.sha512().hashBytes(bytes.getBytes()).asBytes());
+    return new ByteArray(Hashing.sha512().hashBytes(bytes.asReadOnlyByteBuffer()).asBytes());
   }
 
   public static ByteArray sha256(String str) {
@@ -111,6 +115,12 @@ final class Crypto {
   }
 
   public static ByteArray sha1(ByteArray bytes) throws NoSuchAlgorithmException {
-    return new ByteArray(MessageDigest.getInstance("SHA-1").digest(bytes.getBytes()));
+    final MessageDigest digest = JcaEngines.borrowMessageDigest("SHA-1");
+    try {
+      digest.update(bytes.asReadOnlyByteBuffer());
+      return new ByteArray(digest.digest());
+    } finally {
+      JcaEngines.releaseMessageDigest(digest);
+    }
   }
 }
@@ -28,6 +28,7 @@ import static com.yubico.internal.util.ExceptionUtil.assertTrue;
 
 import COSE.CoseException;
 import com.yubico.internal.util.OptionalUtil;
+import com.yubico.webauthn.ResolvingCredentialRepository.ResolvedUser;
 import com.yubico.webauthn.data.AuthenticatorAssertionResponse;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
@@ -43,6 +44,8 @@ import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Optional;
 import java.util.Set;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
@@ -59,18 +62,30 @@ final class FinishAssertionSteps {
   private final Set<String> origins;
   private final String rpId;
   private final CredentialRepository credentialRepository;
+  private final Optional<PublicKeyCache> publicKeyCache;
+  private final Optional<CeremonyListener> ceremonyListener;
   private final boolean allowOriginPort;
   private final boolean allowOriginSubdomain;
   private final boolean validateSignatureCounter;
   private final boolean isSecurePaymentConfirmation;
 
   FinishAssertionSteps(RelyingParty rp, FinishAssertionOptions options) {
+    this(rp, options, rp.getCredentialRepository(), rp.getPublicKeyCache());
+  }
+
+  FinishAssertionSteps(
+      RelyingParty rp,
+      FinishAssertionOptions options,
+      CredentialRepository credentialRepository,
+      Optional<PublicKeyCache> publicKeyCache) {
     this.request = options.getRequest();
     this.response = options.getResponse();
     this.callerTokenBindingId = options.getCallerTokenBindingId();
     this.origins = rp.getOrigins();
     this.rpId = rp.getIdentity().getId();
-    this.credentialRepository = rp.getCredentialRepository();
+    this.credentialRepository = credentialRepository;
+    this.publicKeyCache = publicKeyCache;
+    this.ceremonyListener = rp.getCeremonyListener();
     this.allowOriginPort = rp.isAllowOriginPort();
     this.allowOriginSubdomain = rp.isAllowOriginSubdomain();
     this.validateSignatureCounter = rp.isValidateSignatureCounter();
@@ -82,14 +97,35 @@ final class FinishAssertionSteps {
   }
 
   public AssertionResult run() throws InvalidSignatureCountException {
-    return begin().run();
+    if (ceremonyListener.isPresent()) {
+      return CeremonySteps.run(
+          CeremonyListener.Ceremony.ASSERTION, ceremonyListener.get(), this::begin);
+    } else {
+      return begin().run();
+    }
+  }
+
+  /**
+   * The user handle given in the request or the response, if any. If a user handle is given, step 6
+   * resolves the user account by that user handle, otherwise by the username in the request.
+   */
+  static Optional<ByteArray> givenUserHandle(
+      AssertionRequest request,
+      PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs>
+          response) {
+    return OptionalUtil.orElseOptional(
+        request.getUserHandle(), () -> response.getResponse().getUserHandle());
   }
 
-  interface Step<Next extends Step<?>> {
+  interface Step<Next extends Step<?>>
+      extends CeremonySteps.Step<AssertionResult, InvalidSignatureCountException> {
+    @Override
     Next nextStep();
 
+    @Override
     void validate() throws InvalidSignatureCountException;
 
+    @Override
     default Optional<AssertionResult> result() {
       return Optional.empty();
     }
@@ -136,24 +172,88 @@ final class FinishAssertionSteps {
   @Value
   class Step6 implements Step<Step7> {
 
-    private final Optional<ByteArray> userHandle =
-        OptionalUtil.orElseOptional(
-            request.getUserHandle(),
-            () ->
-                OptionalUtil.orElseOptional(
-                    response.getResponse().getUserHandle(),
-                    () ->
-                        request
-                            .getUsername()
-                            .flatMap(credentialRepository::getUserHandleForUsername)));
+    private final Optional<ByteArray> userHandle;
+    private final Optional<String> username;
+    private final Optional<RegisteredCredential> registration;
+
+    /**
+     * The user account resolved in one call, if the credential repository is a {@link
+     * ResolvingCredentialRepository}. The account is identified by the user handle if one is given,
+     * otherwise by the username.
+     */
+    @Getter(AccessLevel.NONE)
+    private final Optional<ResolvedUser> resolvedUser;
+
+    /**
+     * The user handle of the username in the request, if the credential repository is a {@link
+     * ResolvingCredentialRepository} and it needs to be checked against the user handle in the
+     * response. The user account is resolved by username again unless it was already resolved with
+     * exactly the same username, since the repository may match usernames case-insensitively or
+     * after normalization.
+     */
+    @Getter(AccessLevel.NONE)
+    private final Optional<ByteArray> resolvedUserHandleForRequestUsername;
+
+    Step6() {
+      if (credentialRepository instanceof ResolvingCredentialRepository) {
+        final ResolvingCredentialRepository resolver =
+            (ResolvingCredentialRepository) credentialRepository;
+        final Optional<ByteArray> givenUserHandle = givenUserHandle(request, response);
+
+        resolvedUser =
+            givenUserHandle.isPresent()
+                ? resolver.resolveUserByUserHandle(givenUserHandle.get(), response.getId())
+                : request
+                    .getUsername()
+                    .flatMap(un -> resolver.resolveUserByUsername(un, response.getId()));
+        userHandle =
+            OptionalUtil.orElseOptional(
+                givenUserHandle, () -> resolvedUser.map(ResolvedUser::getUserHandle));
+        username =
+            OptionalUtil.orElseOptional(
+                request.getUsername(), () -> resolvedUser.map(ResolvedUser::getUsername));
+        registration = resolvedUser.flatMap(ResolvedUser::getCredential);
+
+        if (request.getUsername().isPresent()
+            && response.getResponse().getUserHandle().isPresent()) {
+          final String requestUsername = request.getUsername().get();
+          resolvedUserHandleForRequestUsername =
+              resolvedUser.isPresent() && resolvedUser.get().getUsername().equals(requestUsername)
+                  ? Optional.of(resolvedUser.get().getUserHandle())
+                  : resolver
+                      .resolveUserByUsername(requestUsername, response.getId())
+                      .map(ResolvedUser::getUserHandle);
+        } else {
+          resolvedUserHandleForRequestUsername = Optional.empty();
+        }
 
-    private final Optional<String> username =
-        OptionalUtil.orElseOptional(
-            request.getUsername(),
-            () -> userHandle.flatMap(credentialRepository::getUsernameForUserHandle));
+      } else {
+        resolvedUser = Optional.empty();
+        resolvedUserHandleForRequestUsername = Optional.empty();
+        userHandle =
+            OptionalUtil.orElseOptional(
+                givenUserHandle(request, response),
+                () ->
+                    request.getUsername().flatMap(credentialRepository::getUserHandleForUsername));
+        username =
+            OptionalUtil.orElseOptional(
+                request.getUsername(),
+                () -> userHandle.flatMap(credentialRepository::getUsernameForUserHandle));
+        registration = userHandle.flatMap(uh -> credentialRepository.lookup(response.getId(), uh));
+      }
+    }
 
-    private final Optional<RegisteredCredential> registration =
-        userHandle.flatMap(uh -> credentialRepository.lookup(response.getId(), uh));
+    /**
+     * Equivalent to {@link CredentialRepository#getUserHandleForUsername(String)} for the username
+     * in the request.
+     */
+    private Optional<ByteArray> getUserHandleForRequestUsername() {
+      if (credentialRepository instanceof ResolvingCredentialRepository) {
+        return resolvedUserHandleForRequestUsername;
+      } else {
+        return credentialRepository.getUserHandleForUsername(request.getUsername().get());
+      }
+    }
 
     @Override
     public Step7 nextStep() {
@@ -200,8 +300,7 @@ final class FinishAssertionSteps {
       final Optional<ByteArray> userHandleFromResponse = response.getResponse().getUserHandle();
       if (usernameFromRequest.isPresent() && userHandleFromResponse.isPresent()) {
         assertTrue(
-            userHandleFromResponse.equals(
-                credentialRepository.getUserHandleForUsername(usernameFromRequest.get())),
+            userHandleFromResponse.equals(getUserHandleForRequestUsername()),
             "User handle %s in response does not match username %s in request",
             userHandleFromResponse,
             usernameFromRequest);
@@ -491,7 +590,7 @@ final class FinishAssertionSteps {
     }
 
     public ByteArray clientDataJsonHash() {
-      return Crypto.sha256(response.getResponse().getClientDataJSON());
+      return response.getResponse().getClientData().getClientDataJsonHash();
     }
   }
 
@@ -507,7 +606,10 @@ final class FinishAssertionSteps {
       final PublicKey key;
 
       try {
-        key = WebAuthnCodecs.importCosePublicKey(cose);
+        key =
+            publicKeyCache.isPresent()
+                ? publicKeyCache.get().importCosePublicKey(cose)
+                : WebAuthnCodecs.importCosePublicKey(cose);
       } catch (CoseException | IOException | InvalidKeySpecException e) {
         throw new IllegalArgumentException(
             String.format(
@@ -30,6 +30,7 @@ import static com.yubico.internal.util.ExceptionUtil.wrapAndLog;
 import COSE.CoseException;
 import com.upokecenter.cbor.CBORObject;
 import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.JcaEngines;
 import com.yubico.internal.util.OptionalUtil;
 import com.yubico.webauthn.attestation.AttestationTrustSource;
 import com.yubico.webauthn.attestation.AttestationTrustSource.TrustRootsResult;
@@ -47,6 +48,7 @@ import com.yubico.webauthn.data.UserVerificationRequirement;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertPathValidatorException;
@@ -55,7 +57,6 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.PKIXCertPathValidatorResult;
 import java.security.cert.PKIXParameters;
 import java.security.cert.PKIXReason;
-import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.sql.Date;
@@ -84,11 +85,27 @@ final class FinishRegistrationSteps {
   private final boolean allowUntrustedAttestation;
   private final Optional<AttestationTrustSource> attestationTrustSource;
   private final CredentialRepository credentialRepository;
+  private final Optional<PublicKeyCache> publicKeyCache;
+  private final Optional<CeremonyListener> ceremonyListener;
+  private final Optional<CertPathValidationCache> certPathValidationCache;
   private final Clock clock;
   private final boolean allowOriginPort;
   private final boolean allowOriginSubdomain;
 
+  /**
+   * The credential public key parsed in {@link Step16}, to be added to {@link #publicKeyCache} once
+   * the ceremony has succeeded.
+   */
+  private PublicKey parsedCredentialPublicKey = null;
+
   FinishRegistrationSteps(RelyingParty rp, FinishRegistrationOptions options) {
+    this(rp, options, rp.getCredentialRepository());
+  }
+
+  FinishRegistrationSteps(
+      RelyingParty rp,
+      FinishRegistrationOptions options,
+      CredentialRepository credentialRepository) {
     this.request = options.getRequest();
     this.response = options.getResponse();
     this.callerTokenBindingId = options.getCallerTokenBindingId();
@@ -96,7 +113,10 @@ final class FinishRegistrationSteps {
     this.rpId = rp.getIdentity().getId();
     this.allowUntrustedAttestation = rp.isAllowUntrustedAttestation();
     this.attestationTrustSource = rp.getAttestationTrustSource();
-    this.credentialRepository = rp.getCredentialRepository();
+    this.credentialRepository = credentialRepository;
+    this.publicKeyCache = rp.getPublicKeyCache();
+    this.ceremonyListener = rp.getCeremonyListener();
+    this.certPathValidationCache = rp.getCertPathValidationCache();
     this.clock = rp.getClock();
     this.allowOriginPort = rp.isAllowOriginPort();
     this.allowOriginSubdomain = rp.isAllowOriginSubdomain();
@@ -107,14 +127,26 @@ final class FinishRegistrationSteps {
   }
 
   public RegistrationResult run() {
-    return begin().run();
+    final RegistrationResult result =
+        ceremonyListener.isPresent()
+            ? CeremonySteps.run(
+                CeremonyListener.Ceremony.REGISTRATION, ceremonyListener.get(), this::begin)
+            : begin().run();
+    if (publicKeyCache.isPresent() && parsedCredentialPublicKey != null) {
+      publicKeyCache.get().put(result.getPublicKeyCose(), parsedCredentialPublicKey);
+    }
+    return result;
   }
 
-  interface Step<Next extends Step<?>> {
+  interface Step<Next extends Step<?>>
+      extends CeremonySteps.Step<RegistrationResult, RuntimeException> {
+    @Override
     Next nextStep();
 
+    @Override
     void validate();
 
+    @Override
     default Optional<RegistrationResult> result() {
       return Optional.empty();
     }
@@ -234,7 +266,7 @@ final class FinishRegistrationSteps {
     }
 
     public ByteArray clientDataJsonHash() {
-      return Crypto.sha256(response.getResponse().getClientDataJSON());
+      return response.getResponse().getClientData().getClientDataJsonHash();
     }
   }
 
@@ -344,7 +376,7 @@ final class FinishRegistrationSteps {
               .map(PublicKeyCredentialParameters::getAlg)
               .collect(Collectors.toList()));
       try {
-        WebAuthnCodecs.importCosePublicKey(publicKeyCose);
+        parsedCredentialPublicKey = WebAuthnCodecs.importCosePublicKey(publicKeyCose);
       } catch (CoseException | IOException | InvalidKeySpecException | NoSuchAlgorithmException e) {
         throw wrapAndLog(log, "Failed to parse credential public key", e);
       }
@@ -544,18 +576,26 @@ final class FinishRegistrationSteps {
     public boolean attestationTrusted() {
       if (attestationTrustPath.isPresent() && attestationTrustSource.isPresent()) {
         try {
-          if (!trustRoots.isPresent() || trustRoots.get().getTrustRoots().isEmpty()) {
+          if (!trustRoots.isPresent() || trustRoots.get().getTrustAnchors().isEmpty()) {
             return false;
 
+          } else if (certPathValidationCache.isPresent()
+              && certPathValidationCache
+                  .get()
+                  .isTrusted(attestationTrustPath.get(), trustRoots.get(), clock)) {
+            return true;
+
           } else {
-            final CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+            final CertPath certPath;
+            final CertificateFactory certFactory = JcaEngines.borrowCertificateFactory("X.509");
+            try {
+              certPath = certFactory.generateCertPath(attestationTrustPath.get());
+            } finally {
+              JcaEngines.releaseCertificateFactory(certFactory);
+            }
             final CertPathValidator cpv = CertPathValidator.getInstance("PKIX");
-            final CertPath certPath = certFactory.generateCertPath(attestationTrustPath.get());
             final PKIXParameters pathParams =
-                new PKIXParameters(
-                    trustRoots.get().getTrustRoots().stream()
-                        .map(rootCert -> new TrustAnchor(rootCert, null))
-                        .collect(Collectors.toSet()));
+                new PKIXParameters(trustRoots.get().getTrustAnchors());
             pathParams.setDate(Date.from(clock.instant()));
             pathParams.setRevocationEnabled(trustRoots.get().isEnableRevocationChecking());
             pathParams.setPolicyQualifiersRejected(
@@ -563,21 +603,27 @@ final class FinishRegistrationSteps {
             trustRoots.get().getCertStore().ifPresent(pathParams::addCertStore);
             final PKIXCertPathValidatorResult result =
                 (PKIXCertPathValidatorResult) cpv.validate(certPath, pathParams);
-            return trustRoots
-                .get()
-                .getPolicyTreeValidator()
-                .map(
-                    policyNodePredicate -> {
-                      if (policyNodePredicate.test(result.getPolicyTree())) {
-                        return true;
-                      } else {
-                        log.info(
-                            "Failed to derive trust in attestation statement: Certificate path policy tree does not satisfy policy tree validator. Attestation object: {}",
-                            response.getResponse().getAttestationObject());
-                        return false;
-                      }
-                    })
-                .orElse(true);
+            final boolean trusted =
+                trustRoots
+                    .get()
+                    .getPolicyTreeValidator()
+                    .map(
+                        policyNodePredicate -> {
+                          if (policyNodePredicate.test(result.getPolicyTree())) {
+                            return true;
+                          } else {
+                            log.info(
+                                "Failed to derive trust in attestation statement: Certificate path policy tree does not satisfy policy tree validator. Attestation object: {}",
+                                response.getResponse().getAttestationObject());
+                            return false;
+                          }
+                        })
+                    .orElse(true);
+            if (trusted) {
+              certPathValidationCache.ifPresent(
+                  cache -> cache.putTrusted(attestationTrustPath.get(), trustRoots.get(), clock));
+            }
+            return trusted;
           }
 
         } catch (CertPathValidatorException e) {
@@ -30,6 +30,7 @@ import com.upokecenter.cbor.CBORObject;
 import com.yubico.internal.util.CertificateParser;
 import com.yubico.internal.util.CollectionUtil;
 import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.internal.util.JcaEngines;
 import com.yubico.webauthn.data.AttestationObject;
 import com.yubico.webauthn.data.AttestationType;
 import com.yubico.webauthn.data.ByteArray;
@@ -204,39 +205,46 @@ final class PackedAttestationStatementVerifier
                     attestationObject.getAuthenticatorData().getBytes().concat(clientDataHash);
 
                 final String signatureAlgorithmName = WebAuthnCodecs.getJavaAlgorithmName(sigAlg);
-                Signature signatureVerifier;
+                final Signature signatureVerifier;
                 try {
-                  signatureVerifier = Signature.getInstance(signatureAlgorithmName);
+                  signatureVerifier = JcaEngines.borrowSignature(signatureAlgorithmName);
                 } catch (NoSuchAlgorithmException e) {
                   throw ExceptionUtil.wrapAndLog(
                       log, "Failed to get a Signature instance for " + signatureAlgorithmName, e);
                 }
+                final boolean signatureValid;
                 try {
-                  signatureVerifier.initVerify(attestationCertificate.getPublicKey());
-                } catch (InvalidKeyException e) {
-                  throw ExceptionUtil.wrapAndLog(
-                      log, "Attestation key is invalid: " + attestationCertificate, e);
-                }
-                try {
-                  signatureVerifier.update(signedData.getBytes());
-                } catch (SignatureException e) {
-                  throw ExceptionUtil.wrapAndLog(
-                      log, "Signature object in invalid state: " + signatureVerifier, e);
-                }
+                  try {
+                    signatureVerifier.initVerify(attestationCertificate.getPublicKey());
+                  } catch (InvalidKeyException e) {
+                    throw ExceptionUtil.wrapAndLog(
+                        log, "Attestation key is invalid: " + attestationCertificate, e);
+                  }
+                  try {
+                    signatureVerifier.update(signedData.asReadOnlyByteBuffer());
+                  } catch (SignatureException e) {
+                    throw ExceptionUtil.wrapAndLog(
+                        log, "Signature object in invalid state: " + signatureVerifier, e);
+                  }
 
-                try {
-                  return (signatureVerifier.verify(signature.getBytes())
-                      && verifyX5cRequirements(
-                          attestationCertificate,
-                          attestationObject
-                              .getAuthenticatorData()
-                              .getAttestedCredentialData()
-                              .get()
-                              .getAaguid()));
-                } catch (SignatureException e) {
-                  throw ExceptionUtil.wrapAndLog(
-                      log, "Failed to verify signature: " + attestationObject, e);
+                  try {
+                    signatureValid = signatureVerifier.verify(signature.getBytes());
+                  } catch (SignatureException e) {
+                    throw ExceptionUtil.wrapAndLog(
+                        log, "Failed to verify signature: " + attestationObject, e);
+                  }
+                } finally {
+                  JcaEngines.releaseSignature(signatureVerifier);
                 }
+
+                return (signatureValid
+                    && verifyX5cRequirements(
+                        attestationCertificate,
+                        attestationObject
+                            .getAuthenticatorData()
+                            .getAttestedCredentialData()
+                            .get()
+                            .getAaguid()));
               } else {
                 throw new IllegalArgumentException(
                     "Field \"sig\" in packed attestation statement must be a binary value.");
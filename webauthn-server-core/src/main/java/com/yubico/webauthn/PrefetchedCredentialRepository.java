@@ -0,0 +1,124 @@
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.NonNull;
+
+/**
+ * A {@link CredentialRepository} that answers {@link #lookup(ByteArray, ByteArray)} from
+ * credentials fetched in advance by a single {@link BatchCredentialRepository#lookupBatch(Set)}
+ * call, and delegates everything else.
+ *
+ * <p>If the delegate is also a {@link ResolvingCredentialRepository}, so is the instance returned
+ * by {@link #prefetch(BatchCredentialRepository, Set)}, so that the ceremony steps can still
+ * resolve each user account in one call.
+ */
+class PrefetchedCredentialRepository implements CredentialRepository {
+
+  final CredentialRepository delegate;
+  private final Map<ByteArray, List<RegisteredCredential>> credentials;
+
+  private PrefetchedCredentialRepository(
+      CredentialRepository delegate, Map<ByteArray, List<RegisteredCredential>> credentials) {
+    this.delegate = delegate;
+    this.credentials = credentials;
+  }
+
+  /**
+   * Fetch all credentials with any of the given <code>credentialIds</code> in one call to <code>
+   * repository</code>.
+   */
+  static PrefetchedCredentialRepository prefetch(
+      @NonNull BatchCredentialRepository repository, @NonNull Set<ByteArray> credentialIds) {
+    final Map<ByteArray, List<RegisteredCredential>> credentials = new HashMap<>();
+    for (ByteArray credentialId : credentialIds) {
+      credentials.put(credentialId, new ArrayList<>(1));
+    }
+    for (RegisteredCredential credential : repository.lookupBatch(credentialIds)) {
+      final List<RegisteredCredential> found = credentials.get(credential.getCredentialId());
+      if (found != null) {
+        found.add(credential);
+      }
+    }
+    if (repository instanceof ResolvingCredentialRepository) {
+      return new Resolving(repository, Collections.unmodifiableMap(credentials));
+    } else {
+      return new PrefetchedCredentialRepository(
+          repository, Collections.unmodifiableMap(credentials));
+    }
+  }
+
+  /** All credentials that were fetched in advance. */
+  List<RegisteredCredential> getPrefetchedCredentials() {
+    final List<RegisteredCredential> result = new ArrayList<>();
+    credentials.values().forEach(result::addAll);
+    return result;
+  }
+
+  @Override
+  public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+    final List<RegisteredCredential> found = credentials.get(credentialId);
+    if (found == null) {
+      return delegate.lookup(credentialId, userHandle);
+    } else {
+      return found.stream()
+          .filter(credential -> credential.getUserHandle().equals(userHandle))
+          .findFirst();
+    }
+  }
+
+  @Override
+  public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+    return delegate.getCredentialIdsForUsername(username);
+  }
+
+  @Override
+  public Optional<ByteArray> getUserHandleForUsername(String username) {
+    return delegate.getUserHandleForUsername(username);
+  }
+
+  @Override
+  public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+    return delegate.getUsernameForUserHandle(userHandle);
+  }
+
+  @Override
+  public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+    return delegate.lookupAll(credentialId);
+  }
+
+  private static final class Resolving extends PrefetchedCredentialRepository
+      implements ResolvingCredentialRepository {
+
+    private Resolving(
+        CredentialRepository delegate, Map<ByteArray, List<RegisteredCredential>> credentials) {
+      super(delegate, credentials);
+    }
+
+    @Override
+    public Optional<ResolvedUser> resolveUserByUsername(String username, ByteArray credentialId) {
+      return ((ResolvingCredentialRepository) delegate)
+          .resolveUserByUsername(username, credentialId);
+    }
+
+    @Override
+    public Optional<ResolvedUser> resolveUserByUserHandle(
+        ByteArray userHandle, ByteArray credentialId) {
+      return ((ResolvingCredentialRepository) delegate)
+          .resolveUserByUserHandle(userHandle, credentialId);
+    }
+
+    @Override
+    public Optional<Set<PublicKeyCredentialDescriptor>> getCredentialIdsForUserHandle(
+        ByteArray userHandle) {
+      return ((ResolvingCredentialRepository) delegate).getCredentialIdsForUserHandle(userHandle);
+    }
+  }
+}
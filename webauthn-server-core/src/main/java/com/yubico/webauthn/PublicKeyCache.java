@@ -0,0 +1,96 @@
+package com.yubico.webauthn;
+
+import COSE.CoseException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+
+/**
+ * A bounded, thread-safe cache of credential public keys parsed from COSE_Key format, keyed by the
+ * COSE_Key bytes.
+ *
+ * <p>Parsing a credential public key involves decoding CBOR and a {@link java.security.KeyFactory}
+ * lookup, but the result never changes once the credential is registered. Setting an instance of
+ * this class as {@link RelyingParty.RelyingPartyBuilder#publicKeyCache(PublicKeyCache)} lets
+ * returning users' assertions skip this work.
+ *
+ * <p>When the cache is full, the least recently used entries are evicted. An instance may be shared
+ * between multiple {@link RelyingParty} instances.
+ *
+ * @see RelyingParty.RelyingPartyBuilder#publicKeyCache(PublicKeyCache)
+ */
+public final class PublicKeyCache {
+
+  private final Cache<ByteArray, PublicKey> cache;
+
+  private PublicKeyCache(long maximumSize) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * Create a cache that holds at most <code>maximumSize</code> public keys.
+   *
+   * @param maximumSize the maximum number of entries. Must not be negative.
+   * @throws IllegalArgumentException if <code>maximumSize</code> is negative.
+   */
+  public static PublicKeyCache withMaximumSize(long maximumSize) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+    }
+    return new PublicKeyCache(maximumSize);
+  }
+
+  /**
+   * @return the number of lookups that found a cached public key.
+   */
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  /**
+   * @return the number of lookups that had to parse the public key.
+   */
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /**
+   * @return the approximate number of public keys currently in the cache.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /** Discard all cached public keys. The hit and miss counters are not reset. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Return the parsed public key for <code>cose</code>, parsing it and adding it to the cache if it
+   * is not already present. Keys that fail to parse are not cached.
+   */
+  PublicKey importCosePublicKey(ByteArray cose)
+      throws CoseException, IOException, InvalidKeySpecException, NoSuchAlgorithmException {
+    final PublicKey cached = cache.getIfPresent(cose);
+    if (cached != null) {
+      return cached;
+    }
+    final PublicKey key = WebAuthnCodecs.importCosePublicKey(cose);
+    put(cose, key);
+    return key;
+  }
+
+  /**
+   * Add <code>key</code> to the cache as the parsed form of <code>cose</code>, for example once a
+   * registration ceremony with the credential has succeeded.
+   */
+  void put(ByteArray cose, PublicKey key) {
+    // Compact the key so that the cache does not retain the buffer a slice was taken from
+    cache.put(cose.compact(), key);
+  }
+}
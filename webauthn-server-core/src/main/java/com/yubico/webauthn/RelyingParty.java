@@ -24,6 +24,7 @@
 
 package com.yubico.webauthn;
 
+import COSE.CoseException;
 import com.yubico.internal.util.CollectionUtil;
 import com.yubico.internal.util.OptionalUtil;
 import com.yubico.webauthn.attestation.AttestationTrustSource;
@@ -34,6 +35,7 @@ import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.CollectedClientData;
 import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
 import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions.PublicKeyCredentialCreationOptionsBuilder;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
 import com.yubico.webauthn.data.PublicKeyCredentialParameters;
 import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
 import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions.PublicKeyCredentialRequestOptionsBuilder;
@@ -43,12 +45,14 @@ import com.yubico.webauthn.exception.AssertionFailedException;
 import com.yubico.webauthn.exception.InvalidSignatureCountException;
 import com.yubico.webauthn.exception.RegistrationFailedException;
 import com.yubico.webauthn.extension.appid.AppId;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Signature;
+import java.security.spec.InvalidKeySpecException;
 import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -56,6 +60,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.Builder;
 import lombok.NonNull;
@@ -140,6 +149,19 @@ public class RelyingParty {
    */
   @NonNull private final CredentialRepository credentialRepository;
 
+  /**
+   * An {@link AsyncCredentialRepository} to use in {@link
+   * #finishAssertionAsync(FinishAssertionOptions) finishAssertionAsync} and {@link
+   * #finishRegistrationAsync(FinishRegistrationOptions) finishRegistrationAsync}.
+   *
+   * <p>By default, this is not set, and those methods call the {@link #getCredentialRepository()
+   * credential repository} directly on the calling thread, which blocks the caller until the
+   * lookups complete.
+   *
+   * @see AsyncCredentialRepository#fromSync(CredentialRepository, Executor)
+   */
+  @NonNull private final Optional<AsyncCredentialRepository> asyncCredentialRepository;
+
   /**
    * The extension input to set for the <code>appid</code> and <code>appidExclude</code> extensions.
    *
@@ -198,6 +220,39 @@ public class RelyingParty {
    */
   @NonNull private final Optional<AttestationTrustSource> attestationTrustSource;
 
+  /**
+   * A {@link PublicKeyCache} to use for parsed credential public keys, to avoid parsing the public
+   * key of the same credential on every authentication ceremony.
+   *
+   * <p>By default, this is not set, and the public key is parsed on every authentication ceremony.
+   *
+   * @see PublicKeyCache#withMaximumSize(long)
+   */
+  @NonNull private final Optional<PublicKeyCache> publicKeyCache;
+
+  /**
+   * A {@link CeremonyListener} to notify of each verification step of {@link
+   * #finishRegistration(FinishRegistrationOptions)} and {@link
+   * #finishAssertion(FinishAssertionOptions)}.
+   *
+   * <p>By default, this is not set, and the verification steps are not instrumented.
+   */
+  @NonNull private final Optional<CeremonyListener> ceremonyListener;
+
+  /**
+   * A {@link CertPathValidationCache} to use for attestation certificate path validation results,
+   * to avoid validating the same attestation certificate chain on every registration ceremony.
+   *
+   * <p>This is relevant only if {@link
+   * RelyingPartyBuilder#attestationTrustSource(AttestationTrustSource)} is set.
+   *
+   * <p>By default, this is not set, and the attestation certificate path is validated on every
+   * registration ceremony.
+   *
+   * @see CertPathValidationCache#withMaximumSize(long)
+   */
+  @NonNull private final Optional<CertPathValidationCache> certPathValidationCache;
+
   /**
    * The argument for the {@link PublicKeyCredentialCreationOptions#getPubKeyCredParams()
    * pubKeyCredParams} parameter in registration operations.
@@ -358,9 +413,13 @@ public class RelyingParty {
       @NonNull RelyingPartyIdentity identity,
       Set<String> origins,
       @NonNull CredentialRepository credentialRepository,
+      @NonNull Optional<AsyncCredentialRepository> asyncCredentialRepository,
       @NonNull Optional<AppId> appId,
       @NonNull Optional<AttestationConveyancePreference> attestationConveyancePreference,
       @NonNull Optional<AttestationTrustSource> attestationTrustSource,
+      @NonNull Optional<PublicKeyCache> publicKeyCache,
+      @NonNull Optional<CeremonyListener> ceremonyListener,
+      @NonNull Optional<CertPathValidationCache> certPathValidationCache,
       List<PublicKeyCredentialParameters> preferredPubkeyParams,
       boolean allowOriginPort,
       boolean allowOriginSubdomain,
@@ -384,9 +443,13 @@ public class RelyingParty {
     }
 
     this.credentialRepository = credentialRepository;
+    this.asyncCredentialRepository = asyncCredentialRepository;
     this.appId = appId;
     this.attestationConveyancePreference = attestationConveyancePreference;
     this.attestationTrustSource = attestationTrustSource;
+    this.publicKeyCache = publicKeyCache;
+    this.ceremonyListener = ceremonyListener;
+    this.certPathValidationCache = certPathValidationCache;
     this.preferredPubkeyParams = filterAvailableAlgorithms(preferredPubkeyParams);
     this.allowOriginPort = allowOriginPort;
     this.allowOriginSubdomain = allowOriginSubdomain;
@@ -499,6 +562,36 @@ public class RelyingParty {
     }
   }
 
+  /**
+   * Verify a registration response without blocking on {@link CredentialRepository} lookups.
+   *
+   * <p>The registration response is verified exactly as by {@link
+   * #finishRegistration(FinishRegistrationOptions)}, except that the credential lookups are made
+   * through the {@link RelyingPartyBuilder#asyncCredentialRepository(AsyncCredentialRepository)
+   * asynchronous credential repository} before any verification steps run. The verification steps
+   * then run on the thread that completes the last lookup.
+   *
+   * @return a future that completes with the {@link RegistrationResult} that {@link
+   *     #finishRegistration(FinishRegistrationOptions)} would return, or exceptionally with the
+   *     {@link RegistrationFailedException} that it would throw. If a lookup fails, the future
+   *     completes exceptionally with the exception from that lookup.
+   * @see #finishRegistration(FinishRegistrationOptions)
+   */
+  public CompletableFuture<RegistrationResult> finishRegistrationAsync(
+      @NonNull FinishRegistrationOptions finishRegistrationOptions) {
+    return verifyAfterLookups(
+        () ->
+            ResolvedCredentialRepository.resolveForRegistration(
+                getAsyncCredentialRepositoryOrAdapter(), finishRegistrationOptions),
+        repository -> {
+          try {
+            return new FinishRegistrationSteps(this, finishRegistrationOptions, repository).run();
+          } catch (IllegalArgumentException e) {
+            throw new RegistrationFailedException(e);
+          }
+        });
+  }
+
   /**
    * This method is NOT part of the public API.
    *
@@ -517,14 +610,14 @@ public class RelyingParty {
             .rpId(identity.getId())
             .allowCredentials(
                 OptionalUtil.orElseOptional(
-                        startAssertionOptions.getUsername(),
+                        startAssertionOptions
+                            .getUsername()
+                            .map(credentialRepository::getCredentialIdsForUsername),
                         () ->
                             startAssertionOptions
                                 .getUserHandle()
-                                .flatMap(credentialRepository::getUsernameForUserHandle))
-                    .map(
-                        un ->
-                            new ArrayList<>(credentialRepository.getCredentialIdsForUsername(un))))
+                                .flatMap(this::getCredentialIdsForUserHandle))
+                    .map(ArrayList::new))
             .extensions(
                 startAssertionOptions
                     .getExtensions()
@@ -540,6 +633,18 @@ public class RelyingParty {
         .build();
   }
 
+  private Optional<Set<PublicKeyCredentialDescriptor>> getCredentialIdsForUserHandle(
+      ByteArray userHandle) {
+    if (credentialRepository instanceof ResolvingCredentialRepository) {
+      return ((ResolvingCredentialRepository) credentialRepository)
+          .getCredentialIdsForUserHandle(userHandle);
+    } else {
+      return credentialRepository
+          .getUsernameForUserHandle(userHandle)
+          .map(credentialRepository::getCredentialIdsForUsername);
+    }
+  }
+
   /**
    * @throws InvalidSignatureCountException if {@link
    *     RelyingPartyBuilder#validateSignatureCounter(boolean) validateSignatureCounter} is <code>
@@ -550,13 +655,206 @@ public class RelyingParty {
    */
   public AssertionResult finishAssertion(FinishAssertionOptions finishAssertionOptions)
       throws AssertionFailedException {
+    return finishAssertion(_finishAssertion(finishAssertionOptions));
+  }
+
+  private static AssertionResult finishAssertion(FinishAssertionSteps steps)
+      throws AssertionFailedException {
     try {
-      return _finishAssertion(finishAssertionOptions).run();
+      return steps.run();
     } catch (IllegalArgumentException e) {
       throw new AssertionFailedException(e);
     }
   }
 
+  /**
+   * Verify an authentication assertion without blocking on {@link CredentialRepository} lookups.
+   *
+   * <p>The assertion is verified exactly as by {@link #finishAssertion(FinishAssertionOptions)},
+   * except that the username, user handle and credential lookups are made through the {@link
+   * RelyingPartyBuilder#asyncCredentialRepository(AsyncCredentialRepository) asynchronous
+   * credential repository} before any verification steps run. Lookups that do not depend on each
+   * other are made concurrently. The verification steps then run on the thread that completes the
+   * last lookup.
+   *
+   * @return a future that completes with the {@link AssertionResult} that {@link
+   *     #finishAssertion(FinishAssertionOptions)} would return, or exceptionally with the {@link
+   *     AssertionFailedException} or {@link InvalidSignatureCountException} that it would throw. If
+   *     a lookup fails, the future completes exceptionally with the exception from that lookup.
+   * @see #finishAssertion(FinishAssertionOptions)
+   */
+  public CompletableFuture<AssertionResult> finishAssertionAsync(
+      @NonNull FinishAssertionOptions finishAssertionOptions) {
+    return verifyAfterLookups(
+        () ->
+            ResolvedCredentialRepository.resolveForAssertion(
+                getAsyncCredentialRepositoryOrAdapter(), finishAssertionOptions),
+        repository ->
+            finishAssertion(
+                new FinishAssertionSteps(
+                    this, finishAssertionOptions, repository, publicKeyCache)));
+  }
+
+  private AsyncCredentialRepository getAsyncCredentialRepositoryOrAdapter() {
+    return asyncCredentialRepository.orElseGet(
+        () -> AsyncCredentialRepository.fromSync(credentialRepository, Runnable::run));
+  }
+
+  @FunctionalInterface
+  private interface CeremonyVerification<T> {
+    T verify(CredentialRepository resolvedRepository) throws Exception;
+  }
+
+  /**
+   * Run <code>verification</code> with the repository produced by <code>lookups</code> once it is
+   * available, and complete the returned future with its outcome.
+   */
+  private static <T> CompletableFuture<T> verifyAfterLookups(
+      Supplier<CompletableFuture<ResolvedCredentialRepository>> lookups,
+      CeremonyVerification<T> verification) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    try {
+      lookups
+          .get()
+          .whenComplete(
+              (repository, lookupFailure) -> {
+                if (lookupFailure != null) {
+                  result.completeExceptionally(
+                      lookupFailure instanceof CompletionException
+                              && lookupFailure.getCause() != null
+                          ? lookupFailure.getCause()
+                          : lookupFailure);
+                } else {
+                  try {
+                    result.complete(verification.verify(repository));
+                  } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                  }
+                }
+              });
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Verify a batch of authentication assertions concurrently.
+   *
+   * <p>Each element of <code>finishAssertionOptions</code> is verified exactly as by {@link
+   * #finishAssertion(FinishAssertionOptions)}, with the following differences:
+   *
+   * <ul>
+   *   <li>If the {@link #getCredentialRepository() credential repository} is a {@link
+   *       BatchCredentialRepository}, the credentials for the whole batch are looked up with a
+   *       single call to {@link BatchCredentialRepository#lookupBatch(Set)}. Other repository
+   *       lookups are still made once per assertion.
+   *   <li>Each distinct credential public key is parsed at most once per batch, using the {@link
+   *       RelyingPartyBuilder#publicKeyCache(PublicKeyCache) public key cache} if one is set.
+   *   <li>The assertions are verified in parallel by tasks submitted to <code>executor</code>.
+   * </ul>
+   *
+   * <p>This method does not block; all work, including repository lookups, runs on <code>executor
+   * </code>.
+   *
+   * @param finishAssertionOptions the assertions to verify.
+   * @param executor the executor to run repository lookups and signature verifications on.
+   * @return one future per element of <code>finishAssertionOptions</code>, in the same order. Each
+   *     future completes with the {@link AssertionResult} that {@link
+   *     #finishAssertion(FinishAssertionOptions)} would return, or exceptionally with the {@link
+   *     AssertionFailedException} or {@link InvalidSignatureCountException} that it would throw. If
+   *     the batch credential lookup fails or <code>executor</code> rejects a task, the affected
+   *     futures complete exceptionally with that exception.
+   * @see #finishAssertion(FinishAssertionOptions)
+   */
+  public List<CompletableFuture<AssertionResult>> finishAssertions(
+      @NonNull List<FinishAssertionOptions> finishAssertionOptions, @NonNull Executor executor) {
+    final List<CompletableFuture<AssertionResult>> results =
+        new ArrayList<>(finishAssertionOptions.size());
+    for (int i = 0; i < finishAssertionOptions.size(); ++i) {
+      results.add(new CompletableFuture<>());
+    }
+    if (!results.isEmpty()) {
+      runAsync(
+          executor,
+          results,
+          () -> {
+            final CredentialRepository batchRepository;
+            final PublicKeyCache batchPublicKeyCache;
+            if (credentialRepository instanceof BatchCredentialRepository) {
+              final PrefetchedCredentialRepository prefetched =
+                  PrefetchedCredentialRepository.prefetch(
+                      (BatchCredentialRepository) credentialRepository,
+                      finishAssertionOptions.stream()
+                          .map(options -> options.getResponse().getId())
+                          .collect(Collectors.toSet()));
+              final List<RegisteredCredential> credentials = prefetched.getPrefetchedCredentials();
+              batchRepository = prefetched;
+              batchPublicKeyCache =
+                  publicKeyCache.orElseGet(
+                      () -> PublicKeyCache.withMaximumSize(Math.max(1, credentials.size())));
+              for (RegisteredCredential credential : credentials) {
+                try {
+                  batchPublicKeyCache.importCosePublicKey(credential.getPublicKeyCose());
+                } catch (CoseException
+                    | IOException
+                    | InvalidKeySpecException
+                    | NoSuchAlgorithmException
+                    | IllegalArgumentException e) {
+                  // Reported by the verification of the assertion that uses this credential
+                }
+              }
+            } else {
+              batchRepository = credentialRepository;
+              batchPublicKeyCache =
+                  publicKeyCache.orElseGet(
+                      () -> PublicKeyCache.withMaximumSize(finishAssertionOptions.size()));
+            }
+
+            for (int i = 0; i < finishAssertionOptions.size(); ++i) {
+              final FinishAssertionSteps steps =
+                  new FinishAssertionSteps(
+                      this,
+                      finishAssertionOptions.get(i),
+                      batchRepository,
+                      Optional.of(batchPublicKeyCache));
+              final CompletableFuture<AssertionResult> result = results.get(i);
+              runAsync(
+                  executor,
+                  Collections.singletonList(result),
+                  () -> {
+                    try {
+                      result.complete(finishAssertion(steps));
+                    } catch (AssertionFailedException e) {
+                      result.completeExceptionally(e);
+                    }
+                  });
+            }
+          });
+    }
+    return results;
+  }
+
+  /**
+   * Run <code>task</code> on <code>executor</code>, and complete all of <code>futures</code>
+   * exceptionally if <code>task</code> throws or <code>executor</code> rejects it.
+   */
+  private static void runAsync(
+      Executor executor, List<? extends CompletableFuture<?>> futures, Runnable task) {
+    try {
+      executor.execute(
+          () -> {
+            try {
+              task.run();
+            } catch (Throwable e) {
+              futures.forEach(future -> future.completeExceptionally(e));
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      futures.forEach(future -> future.completeExceptionally(e));
+    }
+  }
+
   /**
    * This method is NOT part of the public API.
    *
@@ -573,10 +871,15 @@ public class RelyingParty {
   }
 
   public static class RelyingPartyBuilder {
+    private @NonNull Optional<AsyncCredentialRepository> asyncCredentialRepository =
+        Optional.empty();
     private @NonNull Optional<AppId> appId = Optional.empty();
     private @NonNull Optional<AttestationConveyancePreference> attestationConveyancePreference =
         Optional.empty();
     private @NonNull Optional<AttestationTrustSource> attestationTrustSource = Optional.empty();
+    private @NonNull Optional<PublicKeyCache> publicKeyCache = Optional.empty();
+    private @NonNull Optional<CeremonyListener> ceremonyListener = Optional.empty();
+    private @NonNull Optional<CertPathValidationCache> certPathValidationCache = Optional.empty();
 
     public static class MandatoryStages {
       private final RelyingPartyBuilder builder = new RelyingPartyBuilder();
@@ -745,5 +1048,122 @@ public class RelyingParty {
         @NonNull AttestationTrustSource attestationTrustSource) {
       return this.attestationTrustSource(Optional.of(attestationTrustSource));
     }
+
+    /**
+     * A {@link PublicKeyCache} to use for parsed credential public keys, to avoid parsing the
+     * public key of the same credential on every authentication ceremony.
+     *
+     * <p>By default, this is not set, and the public key is parsed on every authentication
+     * ceremony.
+     *
+     * @see PublicKeyCache#withMaximumSize(long)
+     */
+    public RelyingPartyBuilder publicKeyCache(@NonNull Optional<PublicKeyCache> publicKeyCache) {
+      this.publicKeyCache = publicKeyCache;
+      return this;
+    }
+
+    /**
+     * A {@link PublicKeyCache} to use for parsed credential public keys, to avoid parsing the
+     * public key of the same credential on every authentication ceremony.
+     *
+     * <p>By default, this is not set, and the public key is parsed on every authentication
+     * ceremony.
+     *
+     * @see PublicKeyCache#withMaximumSize(long)
+     */
+    public RelyingPartyBuilder publicKeyCache(@NonNull PublicKeyCache publicKeyCache) {
+      return this.publicKeyCache(Optional.of(publicKeyCache));
+    }
+
+    /**
+     * A {@link CeremonyListener} to notify of each verification step of {@link
+     * RelyingParty#finishRegistration(FinishRegistrationOptions)} and {@link
+     * RelyingParty#finishAssertion(FinishAssertionOptions)}.
+     *
+     * <p>By default, this is not set, and the verification steps are not instrumented.
+     */
+    public RelyingPartyBuilder ceremonyListener(
+        @NonNull Optional<CeremonyListener> ceremonyListener) {
+      this.ceremonyListener = ceremonyListener;
+      return this;
+    }
+
+    /**
+     * A {@link CeremonyListener} to notify of each verification step of {@link
+     * RelyingParty#finishRegistration(FinishRegistrationOptions)} and {@link
+     * RelyingParty#finishAssertion(FinishAssertionOptions)}.
+     *
+     * <p>By default, this is not set, and the verification steps are not instrumented.
+     */
+    public RelyingPartyBuilder ceremonyListener(@NonNull CeremonyListener ceremonyListener) {
+      return this.ceremonyListener(Optional.of(ceremonyListener));
+    }
+
+    /**
+     * A {@link CertPathValidationCache} to use for attestation certificate path validation results,
+     * to avoid validating the same attestation certificate chain on every registration ceremony.
+     *
+     * <p>This is relevant only if {@link #attestationTrustSource(AttestationTrustSource)} is set.
+     *
+     * <p>By default, this is not set, and the attestation certificate path is validated on every
+     * registration ceremony.
+     *
+     * @see CertPathValidationCache#withMaximumSize(long)
+     */
+    public RelyingPartyBuilder certPathValidationCache(
+        @NonNull Optional<CertPathValidationCache> certPathValidationCache) {
+      this.certPathValidationCache = certPathValidationCache;
+      return this;
+    }
+
+    /**
+     * A {@link CertPathValidationCache} to use for attestation certificate path validation results,
+     * to avoid validating the same attestation certificate chain on every registration ceremony.
+     *
+     * <p>This is relevant only if {@link #attestationTrustSource(AttestationTrustSource)} is set.
+     *
+     * <p>By default, this is not set, and the attestation certificate path is validated on every
+     * registration ceremony.
+     *
+     * @see CertPathValidationCache#withMaximumSize(long)
+     */
+    public RelyingPartyBuilder certPathValidationCache(
+        @NonNull CertPathValidationCache certPathValidationCache) {
+      return this.certPathValidationCache(Optional.of(certPathValidationCache));
+    }
+
+    /**
+     * An {@link AsyncCredentialRepository} to use in {@link
+     * RelyingParty#finishAssertionAsync(FinishAssertionOptions) finishAssertionAsync} and {@link
+     * RelyingParty#finishRegistrationAsync(FinishRegistrationOptions) finishRegistrationAsync}.
+     *
+     * <p>By default, this is not set, and those methods call the {@link
+     * RelyingPartyBuilder#credentialRepository(CredentialRepository) credential repository}
+     * directly on the calling thread, which blocks the caller until the lookups complete.
+     *
+     * @see AsyncCredentialRepository#fromSync(CredentialRepository, Executor)
+     */
+    public RelyingPartyBuilder asyncCredentialRepository(
+        @NonNull Optional<AsyncCredentialRepository> asyncCredentialRepository) {
+      this.asyncCredentialRepository = asyncCredentialRepository;
+      return this;
+    }
+
+    /**
+     * An {@link AsyncCredentialRepository} to use in {@link
+     * RelyingParty#finishAssertionAsync(FinishAssertionOptions) finishAssertionAsync} and {@link
+     * RelyingParty#finishRegistrationAsync(FinishRegistrationOptions) finishRegistrationAsync}.
+     *
+     * <p>By default, this is not set, and those methods call the {@link
+     * RelyingPartyBuilder#credentialRepository(CredentialRepository) credential repository}
+     * directly on the calling thread, which blocks the caller until the lookups complete.
+     *
+     * @see AsyncCredentialRepository#fromSync(CredentialRepository, Executor)
+     */
+    public RelyingPartyBuilder asyncCredentialRepository(
+        @NonNull AsyncCredentialRepository asyncCredentialRepository) {
+      return this.asyncCredentialRepository(Optional.of(asyncCredentialRepository));
+    }
   }
 }
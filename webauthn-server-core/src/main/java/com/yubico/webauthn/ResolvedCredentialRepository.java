@@ -0,0 +1,194 @@
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link ResolvingCredentialRepository} that answers from the results of {@link
+ * AsyncCredentialRepository} lookups made in advance, so that the ceremony steps need not wait for
+ * a lookup.
+ *
+ * <p>For an authentication ceremony, the user account is resolved in advance through {@link
+ * AsyncCredentialRepository#resolveUserByUserHandle(ByteArray, ByteArray)} or {@link
+ * AsyncCredentialRepository#resolveUserByUsername(String, ByteArray)}, chosen in the same way as
+ * {@link FinishAssertionSteps} chooses between the corresponding {@link
+ * ResolvingCredentialRepository} methods, and also by username if {@link FinishAssertionSteps} will
+ * need that to check the username in the request. A lookup that was not made in advance is
+ * delegated to the {@link AsyncCredentialRepository}, and waited for.
+ */
+@Slf4j
+final class ResolvedCredentialRepository implements ResolvingCredentialRepository {
+
+  private final AsyncCredentialRepository delegate;
+
+  /** Written only before this instance is handed to the ceremony steps. */
+  private final Map<UserKey, Optional<ResolvedUser>> resolvedUsers = new HashMap<>();
+
+  /** Written only before this instance is handed to the ceremony steps. */
+  private final Map<ByteArray, Set<RegisteredCredential>> credentialsById = new HashMap<>();
+
+  private ResolvedCredentialRepository(AsyncCredentialRepository delegate) {
+    this.delegate = delegate;
+  }
+
+  @Value
+  private static class UserKey {
+    String username;
+    ByteArray userHandle;
+    ByteArray credentialId;
+  }
+
+  /** Resolve the user account that step 6 of {@link FinishAssertionSteps} resolves. */
+  static CompletableFuture<ResolvedCredentialRepository> resolveForAssertion(
+      AsyncCredentialRepository repository, FinishAssertionOptions options) {
+    final ResolvedCredentialRepository resolved = new ResolvedCredentialRepository(repository);
+    final ByteArray credentialId = options.getResponse().getId();
+    final Optional<ByteArray> userHandle =
+        FinishAssertionSteps.givenUserHandle(options.getRequest(), options.getResponse());
+    final Optional<String> username = options.getRequest().getUsername();
+
+    if (userHandle.isPresent()) {
+      return resolved
+          .resolveUser(
+              new UserKey(null, userHandle.get(), credentialId),
+              repository.resolveUserByUserHandle(userHandle.get(), credentialId))
+          .thenCompose(
+              r -> {
+                // Step 6 checks the username in the request against the user handle in the
+                // response, and resolves it unless it is exactly the username of the user
+                // account resolved by user handle.
+                final Optional<ResolvedUser> byUserHandle =
+                    r.resolvedUsers.get(new UserKey(null, userHandle.get(), credentialId));
+                if (username.isPresent()
+                    && options.getResponse().getResponse().getUserHandle().isPresent()
+                    && !byUserHandle
+                        .map(ResolvedUser::getUsername)
+                        .filter(username.get()::equals)
+                        .isPresent()) {
+                  return r.resolveUser(
+                      new UserKey(username.get(), null, credentialId),
+                      repository.resolveUserByUsername(username.get(), credentialId));
+                } else {
+                  return CompletableFuture.completedFuture(r);
+                }
+              });
+    } else if (username.isPresent()) {
+      return resolved.resolveUser(
+          new UserKey(username.get(), null, credentialId),
+          repository.resolveUserByUsername(username.get(), credentialId));
+    } else {
+      return CompletableFuture.completedFuture(resolved);
+    }
+  }
+
+  /** Make the lookups that {@link FinishRegistrationSteps} makes for <code>options</code>. */
+  static CompletableFuture<ResolvedCredentialRepository> resolveForRegistration(
+      AsyncCredentialRepository repository, FinishRegistrationOptions options) {
+    final ResolvedCredentialRepository resolved = new ResolvedCredentialRepository(repository);
+    final ByteArray credentialId = options.getResponse().getId();
+    return repository
+        .lookupAll(credentialId)
+        .toCompletableFuture()
+        .thenApply(
+            found -> {
+              resolved.credentialsById.put(credentialId, found);
+              return resolved;
+            });
+  }
+
+  private CompletableFuture<ResolvedCredentialRepository> resolveUser(
+      UserKey key, CompletionStage<Optional<ResolvedUser>> lookup) {
+    return lookup
+        .toCompletableFuture()
+        .thenApply(
+            found -> {
+              resolvedUsers.put(key, found);
+              return this;
+            });
+  }
+
+  /** Wait for a lookup that was not made in advance. */
+  private static <T> T await(CompletionStage<T> lookup, String method) {
+    log.debug("{} was not resolved in advance, waiting for it.", method);
+    try {
+      return lookup.toCompletableFuture().join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public Optional<ResolvedUser> resolveUserByUsername(String username, ByteArray credentialId) {
+    final Optional<ResolvedUser> resolved =
+        resolvedUsers.get(new UserKey(username, null, credentialId));
+    return resolved != null
+        ? resolved
+        : await(delegate.resolveUserByUsername(username, credentialId), "resolveUserByUsername");
+  }
+
+  @Override
+  public Optional<ResolvedUser> resolveUserByUserHandle(
+      ByteArray userHandle, ByteArray credentialId) {
+    final Optional<ResolvedUser> resolved =
+        resolvedUsers.get(new UserKey(null, userHandle, credentialId));
+    return resolved != null
+        ? resolved
+        : await(
+            delegate.resolveUserByUserHandle(userHandle, credentialId), "resolveUserByUserHandle");
+  }
+
+  @Override
+  public Optional<Set<PublicKeyCredentialDescriptor>> getCredentialIdsForUserHandle(
+      ByteArray userHandle) {
+    return await(
+        delegate
+            .getUsernameForUserHandle(userHandle)
+            .thenCompose(
+                username ->
+                    username.isPresent()
+                        ? delegate
+                            .getCredentialIdsForUsername(username.get())
+                            .thenApply(Optional::of)
+                        : CompletableFuture.completedFuture(Optional.empty())),
+        "getCredentialIdsForUserHandle");
+  }
+
+  @Override
+  public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+    return await(delegate.getCredentialIdsForUsername(username), "getCredentialIdsForUsername");
+  }
+
+  @Override
+  public Optional<ByteArray> getUserHandleForUsername(String username) {
+    return await(delegate.getUserHandleForUsername(username), "getUserHandleForUsername");
+  }
+
+  @Override
+  public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+    return await(delegate.getUsernameForUserHandle(userHandle), "getUsernameForUserHandle");
+  }
+
+  @Override
+  public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+    return await(delegate.lookup(credentialId, userHandle), "lookup");
+  }
+
+  @Override
+  public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+    final Set<RegisteredCredential> resolved = credentialsById.get(credentialId);
+    return resolved != null ? resolved : await(delegate.lookupAll(credentialId), "lookupAll");
+  }
+}
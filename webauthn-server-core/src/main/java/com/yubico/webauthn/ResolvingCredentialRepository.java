@@ -0,0 +1,82 @@
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.Optional;
+import java.util.Set;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A {@link CredentialRepository} that can also resolve a user account together with its credentials
+ * in one call.
+ *
+ * <p>If the {@link RelyingParty#getCredentialRepository() credential repository} implements this
+ * interface, {@link RelyingParty#startAssertion(StartAssertionOptions)} and {@link
+ * RelyingParty#finishAssertion(FinishAssertionOptions)} use these methods instead of combining
+ * several calls to {@link #getUserHandleForUsername(String)}, {@link
+ * #getUsernameForUserHandle(ByteArray)}, {@link #getCredentialIdsForUsername(String)} and {@link
+ * #lookup(ByteArray, ByteArray)}. Each authentication ceremony then makes at most one call to this
+ * repository in each of those methods.
+ *
+ * <p>The results MUST be consistent with the other methods of {@link CredentialRepository}.
+ */
+public interface ResolvingCredentialRepository extends CredentialRepository {
+
+  /**
+   * Look up the user account with the given username, and the credential with the given credential
+   * ID registered to that account.
+   *
+   * @return the user account, with {@link ResolvedUser#getCredential() credential} set if the
+   *     account has a credential with ID <code>credentialId</code>, or empty if there is no account
+   *     with the given username.
+   */
+  Optional<ResolvedUser> resolveUserByUsername(String username, ByteArray credentialId);
+
+  /**
+   * Look up the user account with the given user handle, and the credential with the given
+   * credential ID registered to that account.
+   *
+   * @return the user account, with {@link ResolvedUser#getCredential() credential} set if the
+   *     account has a credential with ID <code>credentialId</code>, or empty if there is no account
+   *     with the given user handle.
+   */
+  Optional<ResolvedUser> resolveUserByUserHandle(ByteArray userHandle, ByteArray credentialId);
+
+  /**
+   * Get the credential IDs of all credentials registered to the user with the given user handle.
+   *
+   * @return the same set as {@link #getCredentialIdsForUsername(String)} would return for the
+   *     username of the user with the given user handle, or empty if there is no such user.
+   */
+  Optional<Set<PublicKeyCredentialDescriptor>> getCredentialIdsForUserHandle(ByteArray userHandle);
+
+  /** A user account resolved by a {@link ResolvingCredentialRepository}. */
+  @Value
+  @Builder(toBuilder = true)
+  class ResolvedUser {
+
+    /** The username of the user account. */
+    @NonNull private final String username;
+
+    /** The user handle of the user account. */
+    @NonNull private final ByteArray userHandle;
+
+    /**
+     * The requested credential, if it is registered to this user account.
+     *
+     * <p>The default is not set.
+     */
+    private final RegisteredCredential credential;
+
+    /**
+     * The requested credential, if it is registered to this user account.
+     *
+     * <p>The default is not set.
+     */
+    public Optional<RegisteredCredential> getCredential() {
+      return Optional.ofNullable(credential);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.ResolvingCredentialRepository.ResolvedUser;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import lombok.AllArgsConstructor;
+
+/**
+ * An {@link AsyncCredentialRepository} that runs the lookups of a {@link CredentialRepository} on
+ * an {@link Executor}. If the repository is a {@link ResolvingCredentialRepository}, each user
+ * account is resolved in one call.
+ *
+ * @see AsyncCredentialRepository#fromSync(CredentialRepository, Executor)
+ */
+@AllArgsConstructor
+final class SyncCredentialRepositoryAdapter implements AsyncCredentialRepository {
+
+  private final CredentialRepository repository;
+  private final Executor executor;
+
+  @Override
+  public CompletionStage<Set<PublicKeyCredentialDescriptor>> getCredentialIdsForUsername(
+      String username) {
+    return CompletableFuture.supplyAsync(
+        () -> repository.getCredentialIdsForUsername(username), executor);
+  }
+
+  @Override
+  public CompletionStage<Optional<ByteArray>> getUserHandleForUsername(String username) {
+    return CompletableFuture.supplyAsync(
+        () -> repository.getUserHandleForUsername(username), executor);
+  }
+
+  @Override
+  public CompletionStage<Optional<String>> getUsernameForUserHandle(ByteArray userHandle) {
+    return CompletableFuture.supplyAsync(
+        () -> repository.getUsernameForUserHandle(userHandle), executor);
+  }
+
+  @Override
+  public CompletionStage<Optional<RegisteredCredential>> lookup(
+      ByteArray credentialId, ByteArray userHandle) {
+    return CompletableFuture.supplyAsync(
+        () -> repository.lookup(credentialId, userHandle), executor);
+  }
+
+  @Override
+  public CompletionStage<Set<RegisteredCredential>> lookupAll(ByteArray credentialId) {
+    return CompletableFuture.supplyAsync(() -> repository.lookupAll(credentialId), executor);
+  }
+
+  @Override
+  public CompletionStage<Optional<ResolvedUser>> resolveUserByUsername(
+      String username, ByteArray credentialId) {
+    if (repository instanceof ResolvingCredentialRepository) {
+      return CompletableFuture.supplyAsync(
+          () ->
+              ((ResolvingCredentialRepository) repository)
+                  .resolveUserByUsername(username, credentialId),
+          executor);
+    } else {
+      return AsyncCredentialRepository.super.resolveUserByUsername(username, credentialId);
+    }
+  }
+
+  @Override
+  public CompletionStage<Optional<ResolvedUser>> resolveUserByUserHandle(
+      ByteArray userHandle, ByteArray credentialId) {
+    if (repository instanceof ResolvingCredentialRepository) {
+      return CompletableFuture.supplyAsync(
+          () ->
+              ((ResolvingCredentialRepository) repository)
+                  .resolveUserByUserHandle(userHandle, credentialId),
+          executor);
+    } else {
+      return AsyncCredentialRepository.super.resolveUserByUserHandle(userHandle, credentialId);
+    }
+  }
+}
@@ -38,7 +38,6 @@ import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
@@ -285,8 +284,7 @@ final class TpmAttestationStatementVerifier
           RSAPublicKeySpec spec =
               new RSAPublicKeySpec(
                   new BigInteger(1, unique.bytes.getBytes()), BigInteger.valueOf(params.exponent));
-          KeyFactory kf = KeyFactory.getInstance("RSA");
-          signedCredentialPublicKey = kf.generatePublic(spec);
+          signedCredentialPublicKey = WebAuthnCodecs.generatePublicKey("RSA", spec);
         }
 
         ExceptionUtil.assertTrue(
@@ -28,6 +28,11 @@ import COSE.CoseException;
 import COSE.OneKey;
 import com.google.common.primitives.Bytes;
 import com.upokecenter.cbor.CBORObject;
+import com.yubico.internal.util.BinaryUtil;
+import com.yubico.internal.util.CborReader;
+import com.yubico.internal.util.CborWriter;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.internal.util.JcaEngines;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 import java.io.IOException;
@@ -37,17 +42,47 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import lombok.Value;
 
 final class WebAuthnCodecs {
 
   private static final ByteArray ED25519_CURVE_OID =
       new ByteArray(new byte[] {0x30, 0x05, 0x06, 0x03, 0x2B, 0x65, 0x70});
 
+  /** DER encoding of OID 1.2.840.10045.2.1 (id-ecPublicKey). */
+  private static final ByteArray EC_PUBLIC_KEY_OID =
+      new ByteArray(BinaryUtil.fromHex("06072a8648ce3d0201"));
+
+  /** DER encoding of OID 1.2.840.10045.3.1.7 (secp256r1). */
+  private static final ByteArray P256_CURVE_OID =
+      new ByteArray(BinaryUtil.fromHex("06082a8648ce3d030107"));
+
+  /** DER encoding of OID 1.3.132.0.34 (secp384r1). */
+  private static final ByteArray P384_CURVE_OID =
+      new ByteArray(BinaryUtil.fromHex("06052b81040022"));
+
+  /** DER encoding of OID 1.3.132.0.35 (secp521r1). */
+  private static final ByteArray P521_CURVE_OID =
+      new ByteArray(BinaryUtil.fromHex("06052b81040023"));
+
+  private static final int COSE_LABEL_KTY = 1;
+  private static final int COSE_LABEL_ALG = 3;
+  private static final int COSE_LABEL_CRV = -1;
+  private static final int COSE_LABEL_X = -2;
+  private static final int COSE_LABEL_Y = -3;
+  private static final int COSE_LABEL_RSA_N = -1;
+  private static final int COSE_LABEL_RSA_E = -2;
+
+  private static final int COSE_KTY_OKP = 1;
+  private static final int COSE_KTY_EC2 = 2;
+  private static final int COSE_KTY_RSA = 3;
+
   static ByteArray ecPublicKeyToRaw(ECPublicKey key) {
 
     final int fieldSizeBytes =
@@ -86,9 +121,6 @@ final class WebAuthnCodecs {
     final int start = (len == 64 || len == 96 || len == 132) ? 0 : 1;
     final int coordinateLength = (len - start) / 2;
 
-    final Map<Long, Object> coseKey = new HashMap<>();
-    coseKey.put(1L, 2L); // Key type: EC
-
     final COSEAlgorithmIdentifier coseAlg;
     final int coseCrv;
     switch (len - start) {
@@ -108,71 +140,214 @@ final class WebAuthnCodecs {
         throw new RuntimeException(
             "Failed to determine COSE EC algorithm. This should not be possible, please file a bug report.");
     }
-    coseKey.put(3L, coseAlg.getId());
-    coseKey.put(-1L, coseCrv);
 
-    coseKey.put(-2L, Arrays.copyOfRange(keyBytes, start, start + coordinateLength)); // x
-    coseKey.put(
-        -3L,
-        Arrays.copyOfRange(keyBytes, start + coordinateLength, start + 2 * coordinateLength)); // y
-
-    return new ByteArray(CBORObject.FromObject(coseKey).EncodeToBytes());
+    // Keys in CTAP2 canonical order
+    return new ByteArray(
+        new CborWriter(16 + 2 * coordinateLength)
+            .writeMapHeader(5)
+            .writeInteger(COSE_LABEL_KTY)
+            .writeInteger(COSE_KTY_EC2)
+            .writeInteger(COSE_LABEL_ALG)
+            .writeInteger(coseAlg.getId())
+            .writeInteger(COSE_LABEL_CRV)
+            .writeInteger(coseCrv)
+            .writeInteger(COSE_LABEL_X)
+            .writeByteString(Arrays.copyOfRange(keyBytes, start, start + coordinateLength))
+            .writeInteger(COSE_LABEL_Y)
+            .writeByteString(
+                Arrays.copyOfRange(
+                    keyBytes, start + coordinateLength, start + 2 * coordinateLength))
+            .toByteArray());
   }
 
   static PublicKey importCosePublicKey(ByteArray key)
       throws CoseException, IOException, InvalidKeySpecException, NoSuchAlgorithmException {
-    CBORObject cose = CBORObject.DecodeFromBytes(key.getBytes());
-    final int kty = cose.get(CBORObject.FromObject(1)).AsInt32();
-    switch (kty) {
-      case 1:
-        // COSE-JAVA is hardcoded to ed25519-java provider ("EdDSA") which would require an
-        // additional dependency to parse EdDSA keys via the OneKey constructor
-        return importCoseEdDsaPublicKey(cose);
-      case 2:
-        return importCoseP256PublicKey(cose);
-      case 3:
-        // COSE-JAVA supports RSA in v1.1.0 but not in v1.0.0
-        return importCoseRsaPublicKey(cose);
-      default:
-        throw new IllegalArgumentException("Unsupported key type: " + kty);
+    final CoseKeyParameters cose = CoseKeyParameters.parse(key.getBytes());
+    final long kty = cose.getKty();
+    if (kty == COSE_KTY_OKP) {
+      // COSE-JAVA is hardcoded to ed25519-java provider ("EdDSA") which would require an
+      // additional dependency to parse EdDSA keys via the OneKey constructor
+      return importCoseEdDsaPublicKey(cose);
+    } else if (kty == COSE_KTY_EC2) {
+      return importCoseEcPublicKey(key, cose);
+    } else if (kty == COSE_KTY_RSA) {
+      // COSE-JAVA supports RSA in v1.1.0 but not in v1.0.0
+      return importCoseRsaPublicKey(cose);
+    } else {
+      throw new IllegalArgumentException("Unsupported key type: " + kty);
     }
   }
 
-  private static PublicKey importCoseRsaPublicKey(CBORObject cose)
+  private static PublicKey importCoseRsaPublicKey(CoseKeyParameters cose)
       throws NoSuchAlgorithmException, InvalidKeySpecException {
     RSAPublicKeySpec spec =
         new RSAPublicKeySpec(
-            new BigInteger(1, cose.get(CBORObject.FromObject(-1)).GetByteString()),
-            new BigInteger(1, cose.get(CBORObject.FromObject(-2)).GetByteString()));
-    return KeyFactory.getInstance("RSA").generatePublic(spec);
+            new BigInteger(1, cose.requireBytes(COSE_LABEL_RSA_N, cose.getMinus1Bytes())),
+            new BigInteger(1, cose.requireBytes(COSE_LABEL_RSA_E, cose.getMinus2Bytes())));
+    return generatePublicKey("RSA", spec);
   }
 
-  private static ECPublicKey importCoseP256PublicKey(CBORObject cose) throws CoseException {
-    return (ECPublicKey) new OneKey(cose).AsPublicKey();
+  private static ECPublicKey importCoseEcPublicKey(ByteArray key, CoseKeyParameters cose)
+      throws CoseException, InvalidKeySpecException, NoSuchAlgorithmException {
+    final long crv = cose.getCrv() == null ? 0 : cose.getCrv();
+    final ByteArray curveOid;
+    final int coordinateLength;
+    if (crv == 1) {
+      curveOid = P256_CURVE_OID;
+      coordinateLength = 32;
+    } else if (crv == 2) {
+      curveOid = P384_CURVE_OID;
+      coordinateLength = 48;
+    } else if (crv == 3) {
+      curveOid = P521_CURVE_OID;
+      coordinateLength = 66;
+    } else {
+      curveOid = null;
+      coordinateLength = 0;
+    }
+
+    final byte[] x = cose.getMinus2Bytes();
+    final byte[] y = cose.getMinus3Bytes();
+    if (curveOid == null
+        || x == null
+        || y == null
+        || x.length != coordinateLength
+        || y.length != coordinateLength) {
+      // Leave any unusual encodings (e.g., compressed points) to COSE-JAVA
+      return (ECPublicKey) new OneKey(CBORObject.DecodeFromBytes(key.getBytes())).AsPublicKey();
+    }
+
+    final ByteArray algorithmIdentifier = derSequence(EC_PUBLIC_KEY_OID.concat(curveOid));
+    final ByteArray subjectPublicKey =
+        derElement(
+            0x03,
+            new ByteArray(new byte[] {0, 0x04}).concat(new ByteArray(x)).concat(new ByteArray(y)));
+    final ByteArray x509Key = derSequence(algorithmIdentifier.concat(subjectPublicKey));
+
+    return (ECPublicKey) generatePublicKey("EC", new X509EncodedKeySpec(x509Key.getBytes()));
   }
 
-  private static PublicKey importCoseEdDsaPublicKey(CBORObject cose)
+  private static PublicKey importCoseEdDsaPublicKey(CoseKeyParameters cose)
       throws InvalidKeySpecException, NoSuchAlgorithmException {
-    final int curveId = cose.get(CBORObject.FromObject(-1)).AsInt32();
-    switch (curveId) {
-      case 6:
-        return importCoseEd25519PublicKey(cose);
-      default:
-        throw new IllegalArgumentException("Unsupported EdDSA curve: " + curveId);
+    if (cose.getCrv() == null) {
+      throw new IllegalArgumentException("Missing EdDSA curve");
+    }
+    final long curveId = cose.getCrv();
+    if (curveId == 6) {
+      return importCoseEd25519PublicKey(cose);
+    } else {
+      throw new IllegalArgumentException("Unsupported EdDSA curve: " + curveId);
     }
   }
 
-  private static PublicKey importCoseEd25519PublicKey(CBORObject cose)
+  private static PublicKey importCoseEd25519PublicKey(CoseKeyParameters cose)
       throws InvalidKeySpecException, NoSuchAlgorithmException {
-    final ByteArray rawKey = new ByteArray(cose.get(CBORObject.FromObject(-2)).GetByteString());
+    final ByteArray rawKey = new ByteArray(cose.requireBytes(COSE_LABEL_X, cose.getMinus2Bytes()));
     final ByteArray x509Key =
         new ByteArray(new byte[] {0x30, (byte) (ED25519_CURVE_OID.size() + 3 + rawKey.size())})
             .concat(ED25519_CURVE_OID)
             .concat(new ByteArray(new byte[] {0x03, (byte) (rawKey.size() + 1), 0}))
             .concat(rawKey);
 
-    KeyFactory kFact = KeyFactory.getInstance("EdDSA");
-    return kFact.generatePublic(new X509EncodedKeySpec(x509Key.getBytes()));
+    return generatePublicKey("EdDSA", new X509EncodedKeySpec(x509Key.getBytes()));
+  }
+
+  /** Generate a public key using a pooled {@link KeyFactory} for <code>algorithm</code>. */
+  static PublicKey generatePublicKey(String algorithm, KeySpec spec)
+      throws NoSuchAlgorithmException, InvalidKeySpecException {
+    final KeyFactory keyFactory = JcaEngines.borrowKeyFactory(algorithm);
+    try {
+      return keyFactory.generatePublic(spec);
+    } finally {
+      JcaEngines.releaseKeyFactory(keyFactory);
+    }
+  }
+
+  private static ByteArray derSequence(ByteArray content) {
+    return derElement(0x30, content);
+  }
+
+  private static ByteArray derElement(int tag, ByteArray content) {
+    final int len = content.size();
+    final byte[] header;
+    if (len < 0x80) {
+      header = new byte[] {(byte) tag, (byte) len};
+    } else if (len <= 0xff) {
+      header = new byte[] {(byte) tag, (byte) 0x81, (byte) len};
+    } else {
+      header = new byte[] {(byte) tag, (byte) 0x82, (byte) (len >>> 8), (byte) len};
+    }
+    return new ByteArray(header).concat(content);
+  }
+
+  /**
+   * The parameters of a COSE_Key needed to import it, read in a single pass over the encoded key.
+   * Labels -1, -2 and -3 have different meanings depending on the key type, so they are recorded
+   * as-is and interpreted by the caller.
+   */
+  @Value
+  private static class CoseKeyParameters {
+    long kty;
+    Long crv;
+    byte[] minus1Bytes;
+    byte[] minus2Bytes;
+    byte[] minus3Bytes;
+
+    static CoseKeyParameters parse(byte[] encoded) {
+      final CborReader cbor = new CborReader(encoded);
+      Long kty = null;
+      Long crv = null;
+      byte[] minus1Bytes = null;
+      byte[] minus2Bytes = null;
+      byte[] minus3Bytes = null;
+
+      final int numEntries = cbor.readMapHeader();
+      final Set<Long> seenLabels = new HashSet<>();
+      for (int i = 0; cbor.hasNextItem(numEntries, i); ++i) {
+        final int keyType = cbor.peekMajorType();
+        if (keyType != CborReader.MAJOR_TYPE_UNSIGNED_INTEGER
+            && keyType != CborReader.MAJOR_TYPE_NEGATIVE_INTEGER) {
+          cbor.skipItem();
+          cbor.skipItem();
+          continue;
+        }
+
+        final long label = cbor.readInteger();
+        ExceptionUtil.assertTrue(seenLabels.add(label), "Duplicate COSE key label: %d", label);
+        final int valueType = cbor.peekMajorType();
+        final boolean isInt =
+            valueType == CborReader.MAJOR_TYPE_UNSIGNED_INTEGER
+                || valueType == CborReader.MAJOR_TYPE_NEGATIVE_INTEGER;
+        final boolean isBytes = valueType == CborReader.MAJOR_TYPE_BYTE_STRING;
+
+        if (label == COSE_LABEL_KTY && isInt) {
+          kty = cbor.readInteger();
+        } else if (label == COSE_LABEL_CRV && isInt) {
+          crv = cbor.readInteger();
+        } else if (label == -1 && isBytes) {
+          minus1Bytes = cbor.readByteString();
+        } else if (label == -2 && isBytes) {
+          minus2Bytes = cbor.readByteString();
+        } else if (label == -3 && isBytes) {
+          minus3Bytes = cbor.readByteString();
+        } else {
+          cbor.skipItem();
+        }
+      }
+
+      ExceptionUtil.assertTrue(
+          !cbor.hasRemaining(),
+          "COSE key has %d trailing bytes",
+          cbor.getEnd() - cbor.getPosition());
+      ExceptionUtil.assertTrue(kty != null, "COSE key is missing integer key type (label 1)");
+      return new CoseKeyParameters(kty, crv, minus1Bytes, minus2Bytes, minus3Bytes);
+    }
+
+    byte[] requireBytes(int label, byte[] value) {
+      ExceptionUtil.assertTrue(
+          value != null, "COSE key of type %d is missing byte string parameter %d", kty, label);
+      return value;
+    }
   }
 
   static String getJavaAlgorithmName(COSEAlgorithmIdentifier alg) {
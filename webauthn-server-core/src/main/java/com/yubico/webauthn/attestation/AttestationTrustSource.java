@@ -28,13 +28,19 @@ import com.yubico.internal.util.CollectionUtil;
 import com.yubico.webauthn.data.ByteArray;
 import java.security.cert.CertStore;
 import java.security.cert.PolicyNode;
+import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
+import lombok.ToString;
 import lombok.Value;
 
 /** Abstraction of a repository which can look up trust roots for authenticator attestation. */
@@ -79,7 +85,7 @@ public interface AttestationTrustSource {
    * </ul>
    */
   @Value
-  @Builder(toBuilder = true)
+  @Builder
   class TrustRootsResult {
 
     /**
@@ -132,15 +138,46 @@ public interface AttestationTrustSource {
      */
     @Builder.Default private final Predicate<PolicyNode> policyTreeValidator = null;
 
+    /**
+     * The {@link #getTrustRoots() trust roots} as {@link TrustAnchor} instances, ready for
+     * certificate path validation.
+     *
+     * <p>If these were not precomputed using {@link TrustRootsResultBuilder#trustAnchors(Set)
+     * trustAnchors(Set)}, they are derived from the trust roots with no name constraints.
+     *
+     * <p>This is not included in {@link #equals(Object)}, {@link #hashCode()} or {@link
+     * #toString()}, since {@link TrustAnchor} compares by identity.
+     */
+    @Builder.Default @EqualsAndHashCode.Exclude @ToString.Exclude
+    private final Set<TrustAnchor> trustAnchors = null;
+
     private TrustRootsResult(
         @NonNull Set<X509Certificate> trustRoots,
         CertStore certStore,
         boolean enableRevocationChecking,
-        Predicate<PolicyNode> policyTreeValidator) {
+        Predicate<PolicyNode> policyTreeValidator,
+        Set<TrustAnchor> trustAnchors) {
       this.trustRoots = CollectionUtil.immutableSet(trustRoots);
       this.certStore = certStore;
       this.enableRevocationChecking = enableRevocationChecking;
       this.policyTreeValidator = policyTreeValidator;
+      this.trustAnchors =
+          trustAnchors != null
+              ? CollectionUtil.immutableSet(trustAnchors)
+              : Collections.unmodifiableSet(toTrustAnchors(trustRoots));
+    }
+
+    /**
+     * Convert <code>trustRoots</code> to {@link TrustAnchor} instances with no name constraints.
+     *
+     * <p>Implementations of {@link AttestationTrustSource} that return the same trust roots many
+     * times can use this once when loading their trust roots, and pass the result to {@link
+     * TrustRootsResultBuilder#trustAnchors(Set) trustAnchors(Set)}.
+     */
+    public static Set<TrustAnchor> toTrustAnchors(@NonNull Set<X509Certificate> trustRoots) {
+      return trustRoots.stream()
+          .map(rootCert -> new TrustAnchor(rootCert, null))
+          .collect(Collectors.toSet());
     }
 
     /**
@@ -187,7 +224,27 @@ public interface AttestationTrustSource {
       return new TrustRootsResultBuilder.Step1();
     }
 
+    /**
+     * A builder initialized with the values of this result. Either {@link
+     * TrustRootsResultBuilder#trustRoots(Set) trustRoots(Set)} or {@link
+     * TrustRootsResultBuilder#trustAnchors(Set) trustAnchors(Set)} may be called on it to replace
+     * both the trust roots and the trust anchors.
+     */
+    public TrustRootsResultBuilder toBuilder() {
+      final TrustRootsResultBuilder builder = new TrustRootsResultBuilder();
+      builder.trustRoots = trustRoots;
+      builder.trustAnchors$value = trustAnchors;
+      builder.trustAnchors$set = true;
+      return builder
+          .certStore(certStore)
+          .enableRevocationChecking(enableRevocationChecking)
+          .policyTreeValidator(policyTreeValidator);
+    }
+
     public static class TrustRootsResultBuilder {
+      private boolean trustRootsCalled = false;
+      private boolean trustAnchorsCalled = false;
+
       public static class Step1 {
         /**
          * A set of attestation root certificates trusted to certify the relevant attestation
@@ -197,12 +254,26 @@ public interface AttestationTrustSource {
         public TrustRootsResultBuilder trustRoots(@NonNull Set<X509Certificate> trustRoots) {
           return new TrustRootsResultBuilder().trustRoots(trustRoots);
         }
+
+        /**
+         * A set of precomputed trust anchors trusted to certify the relevant attestation statement.
+         * The {@link TrustRootsResult#getTrustRoots() trust roots} are set to the {@link
+         * TrustAnchor#getTrustedCert() trusted certificates} of these trust anchors.
+         *
+         * @see TrustRootsResultBuilder#trustAnchors(Set)
+         */
+        public TrustRootsResultBuilder trustAnchors(@NonNull Set<TrustAnchor> trustAnchors) {
+          return new TrustRootsResultBuilder().trustAnchors(trustAnchors);
+        }
       }
 
       /**
        * A set of attestation root certificates trusted to certify the relevant attestation
        * statement. If the attestation statement is not trusted, or if no trust roots were found,
        * this should be an empty set.
+       *
+       * @throws IllegalStateException if {@link #trustAnchors(Set)} has been called on this
+       *     builder.
        */
       // TODO: Let this auto-generate (investigate why Lombok fails to copy javadoc)
       public AttestationTrustSource.TrustRootsResult.TrustRootsResultBuilder trustRoots(
@@ -210,7 +281,46 @@ public interface AttestationTrustSource {
         if (trustRoots == null) {
           throw new java.lang.NullPointerException("trustRoots is marked non-null but is null");
         }
+        if (trustAnchorsCalled) {
+          throw new IllegalStateException("trustRoots and trustAnchors must not both be set.");
+        }
+        trustRootsCalled = true;
         this.trustRoots = trustRoots;
+        this.trustAnchors$value = null;
+        trustAnchors$set = false;
+        return this;
+      }
+
+      /**
+       * A set of precomputed trust anchors trusted to certify the relevant attestation statement.
+       * The {@link TrustRootsResult#getTrustRoots() trust roots} are set to the {@link
+       * TrustAnchor#getTrustedCert() trusted certificates} of these trust anchors.
+       *
+       * <p>This lets an {@link AttestationTrustSource} convert its trust roots to {@link
+       * TrustAnchor} instances once, instead of on every registration ceremony. Every trust anchor
+       * MUST have a {@link TrustAnchor#getTrustedCert() trusted certificate}.
+       *
+       * @throws IllegalArgumentException if any trust anchor does not have a trusted certificate.
+       * @throws IllegalStateException if {@link #trustRoots(Set)} has been called on this builder.
+       * @see TrustRootsResult#toTrustAnchors(Set)
+       */
+      public AttestationTrustSource.TrustRootsResult.TrustRootsResultBuilder trustAnchors(
+          @NonNull final Set<TrustAnchor> trustAnchors) {
+        if (trustRootsCalled) {
+          throw new IllegalStateException("trustRoots and trustAnchors must not both be set.");
+        }
+        final Set<X509Certificate> trustRoots = new HashSet<>(trustAnchors.size());
+        for (TrustAnchor trustAnchor : trustAnchors) {
+          if (trustAnchor.getTrustedCert() == null) {
+            throw new IllegalArgumentException(
+                "Trust anchor must have a trusted certificate: " + trustAnchor);
+          }
+          trustRoots.add(trustAnchor.getTrustedCert());
+        }
+        trustAnchorsCalled = true;
+        this.trustRoots = trustRoots;
+        this.trustAnchors$value = trustAnchors;
+        trustAnchors$set = true;
         return this;
       }
 
@@ -288,6 +398,19 @@ public interface AttestationTrustSource {
       return this.trustRoots;
     }
 
+    /**
+     * The {@link #getTrustRoots() trust roots} as {@link TrustAnchor} instances, ready for
+     * certificate path validation.
+     *
+     * <p>If these were not precomputed using {@link TrustRootsResultBuilder#trustAnchors(Set)
+     * trustAnchors(Set)}, they are derived from the trust roots with no name constraints.
+     */
+    // TODO: Let this auto-generate (investigate why Lombok fails to copy javadoc)
+    @NonNull
+    public Set<TrustAnchor> getTrustAnchors() {
+      return this.trustAnchors;
+    }
+
     /** Whether certificate revocation should be checked during certificate path validation. */
     // TODO: Let this auto-generate (investigate why Lombok fails to copy javadoc)
     public boolean isEnableRevocationChecking() {
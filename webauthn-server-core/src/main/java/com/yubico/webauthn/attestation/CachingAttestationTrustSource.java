@@ -0,0 +1,139 @@
+package com.yubico.webauthn.attestation;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.webauthn.data.ByteArray;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * An {@link AttestationTrustSource} that caches the results of another {@link
+ * AttestationTrustSource}.
+ *
+ * <p>Results are cached by the AAGUID and the subject key identifiers of the certificates in the
+ * attestation certificate chain. This is appropriate for trust sources that, like <code>
+ * FidoMetadataService</code> with its default filter, look up trust roots only by the AAGUID and
+ * the attestation certificate key identifiers. It is NOT appropriate for trust sources whose result
+ * depends on other properties of the attestation certificates.
+ *
+ * <p>On a cache hit, {@link #findTrustRoots(List, Optional)} returns the same {@link
+ * TrustRootsResult} instance that the wrapped trust source returned. Exceptions thrown by the
+ * wrapped trust source are not cached.
+ *
+ * <p>Results expire after the configured time to live, and the least recently used results are
+ * evicted when the cache is full. Call {@link #invalidateAll()} to discard all results, for example
+ * after the wrapped trust source has been updated.
+ */
+public final class CachingAttestationTrustSource implements AttestationTrustSource {
+
+  private final AttestationTrustSource delegate;
+  private final Cache<CacheKey, TrustRootsResult> cache;
+
+  @Value
+  private static class CacheKey {
+    Optional<ByteArray> aaguid;
+    List<ByteArray> subjectKeyIdentifiers;
+  }
+
+  private CachingAttestationTrustSource(
+      AttestationTrustSource delegate, long maximumSize, Duration timeToLive, Ticker ticker) {
+    this.delegate = delegate;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive.toNanos(), TimeUnit.NANOSECONDS)
+            .ticker(ticker)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Wrap <code>delegate</code> in a cache that holds at most <code>maximumSize</code> results, each
+   * for at most <code>timeToLive</code>.
+   *
+   * @param delegate the trust source to cache results from.
+   * @param maximumSize the maximum number of cached results. Must not be negative.
+   * @param timeToLive how long to keep each result. Must not be negative.
+   * @throws IllegalArgumentException if <code>maximumSize</code> or <code>timeToLive</code> is
+   *     negative.
+   */
+  public static CachingAttestationTrustSource wrap(
+      @NonNull AttestationTrustSource delegate, long maximumSize, @NonNull Duration timeToLive) {
+    return wrap(delegate, maximumSize, timeToLive, Ticker.systemTicker());
+  }
+
+  static CachingAttestationTrustSource wrap(
+      @NonNull AttestationTrustSource delegate,
+      long maximumSize,
+      @NonNull Duration timeToLive,
+      @NonNull Ticker ticker) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+    }
+    if (timeToLive.isNegative()) {
+      throw new IllegalArgumentException("timeToLive must not be negative: " + timeToLive);
+    }
+    return new CachingAttestationTrustSource(delegate, maximumSize, timeToLive, ticker);
+  }
+
+  @Override
+  public TrustRootsResult findTrustRoots(
+      List<X509Certificate> attestationCertificateChain, Optional<ByteArray> aaguid) {
+    final CacheKey key = new CacheKey(aaguid, subjectKeyIdentifiers(attestationCertificateChain));
+    final TrustRootsResult cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+    final TrustRootsResult result = delegate.findTrustRoots(attestationCertificateChain, aaguid);
+    cache.put(key, result);
+    return result;
+  }
+
+  private static List<ByteArray> subjectKeyIdentifiers(List<X509Certificate> certificates) {
+    final List<ByteArray> result = new ArrayList<>(certificates.size());
+    for (X509Certificate cert : certificates) {
+      try {
+        result.add(new ByteArray(CertificateParser.computeSubjectKeyIdentifier(cert)));
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException("SHA-1 hash algorithm is not available in JCA context.", e);
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /** Discard all cached results. The hit and miss counters are not reset. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return the number of lookups that returned a cached result.
+   */
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  /**
+   * @return the number of lookups that called the wrapped trust source.
+   */
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /**
+   * @return the approximate number of results currently in the cache.
+   */
+  public long size() {
+    return cache.size();
+  }
+}
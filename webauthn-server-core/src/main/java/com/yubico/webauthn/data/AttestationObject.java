@@ -26,10 +26,11 @@ package com.yubico.webauthn.data;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.yubico.internal.util.CborReader;
+import com.yubico.internal.util.ExceptionUtil;
 import com.yubico.internal.util.JacksonCodecs;
 import java.io.IOException;
 import lombok.NonNull;
@@ -101,63 +102,130 @@ public class AttestationObject {
   public AttestationObject(@NonNull ByteArray bytes) throws IOException {
     this.bytes = bytes;
 
-    final JsonNode decoded = JacksonCodecs.cbor().readTree(bytes.getBytes());
-    final ByteArray authDataBytes;
+    final byte[] rawBytes = bytes.backingArray();
+    final int base = bytes.backingArrayOffset();
+    final CborReader cbor = new CborReader(rawBytes, base, bytes.size());
 
-    if (!decoded.isObject()) {
+    if (!cbor.hasRemaining() || cbor.peekMajorType() != CborReader.MAJOR_TYPE_MAP) {
       throw new IllegalArgumentException(
-          String.format("Attestation object must be a CBOR map, was: %s", decoded.getNodeType()));
+          String.format(
+              "Attestation object must be a CBOR map, was: %s",
+              cbor.hasRemaining() ? describeMajorType(cbor.peekMajorType()) : "empty"));
     }
 
-    final JsonNode authData = decoded.get("authData");
-    if (authData == null) {
+    ByteArray authDataBytes = null;
+    String format = null;
+    ObjectNode attestationStatement = null;
+
+    final int numEntries = cbor.readMapHeader();
+    for (int i = 0; cbor.hasNextItem(numEntries, i); ++i) {
+      if (cbor.peekMajorType() != CborReader.MAJOR_TYPE_TEXT_STRING) {
+        cbor.skipItem();
+        cbor.skipItem();
+        continue;
+      }
+
+      final String key = cbor.readTextString();
+      switch (key) {
+        case "authData":
+          ExceptionUtil.assertTrue(
+              authDataBytes == null,
+              "Duplicate property \"authData\" in attestation object: %s",
+              bytes.getBase64Url());
+          if (cbor.peekMajorType() == CborReader.MAJOR_TYPE_BYTE_STRING) {
+            final int authDataLength = cbor.readByteStringHeader();
+            authDataBytes = bytes.slice(cbor.getPosition() - base, authDataLength);
+            cbor.skipBytes(authDataLength);
+          } else {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Property \"authData\" of attestation object must be a CBOR byte array, was: %s. Attestation object: %s",
+                    describeMajorType(cbor.peekMajorType()), bytes.getBase64Url()));
+          }
+          break;
+
+        case "fmt":
+          ExceptionUtil.assertTrue(
+              format == null,
+              "Duplicate property \"fmt\" in attestation object: %s",
+              bytes.getBase64Url());
+          if (cbor.peekMajorType() == CborReader.MAJOR_TYPE_TEXT_STRING) {
+            format = cbor.readTextString();
+          } else {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Property \"fmt\" of attestation object must be a CBOR text value, was: %s. Attestation object: %s",
+                    describeMajorType(cbor.peekMajorType()), bytes.getBase64Url()));
+          }
+          break;
+
+        case "attStmt":
+          ExceptionUtil.assertTrue(
+              attestationStatement == null,
+              "Duplicate property \"attStmt\" in attestation object: %s",
+              bytes.getBase64Url());
+          if (cbor.peekMajorType() == CborReader.MAJOR_TYPE_MAP) {
+            final int attStmtStart = cbor.getPosition();
+            cbor.skipItem();
+            attestationStatement =
+                (ObjectNode)
+                    JacksonCodecs.cborReader()
+                        .readTree(rawBytes, attStmtStart, cbor.getPosition() - attStmtStart);
+          } else {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Property \"attStmt\" of attestation object must be a CBOR map, was: %s. Attestation object: %s",
+                    describeMajorType(cbor.peekMajorType()), bytes.getBase64Url()));
+          }
+          break;
+
+        default:
+          cbor.skipItem();
+          break;
+      }
+    }
+
+    if (authDataBytes == null) {
       throw new IllegalArgumentException(
           "Required property \"authData\" missing from attestation object: "
               + bytes.getBase64Url());
-    } else {
-      if (authData.isBinary()) {
-        authDataBytes = new ByteArray(authData.binaryValue());
-      } else {
-        throw new IllegalArgumentException(
-            String.format(
-                "Property \"authData\" of attestation object must be a CBOR byte array, was: %s. Attestation object: %s",
-                authData.getNodeType(), bytes.getBase64Url()));
-      }
     }
 
-    final JsonNode format = decoded.get("fmt");
     if (format == null) {
       throw new IllegalArgumentException(
           "Required property \"fmt\" missing from attestation object: " + bytes.getBase64Url());
-    } else {
-      if (format.isTextual()) {
-        this.format = decoded.get("fmt").textValue();
-      } else {
-        throw new IllegalArgumentException(
-            String.format(
-                "Property \"fmt\" of attestation object must be a CBOR text value, was: %s. Attestation object: %s",
-                format.getNodeType(), bytes.getBase64Url()));
-      }
     }
+    this.format = format;
 
-    final JsonNode attStmt = decoded.get("attStmt");
-    if (attStmt == null) {
+    if (attestationStatement == null) {
       throw new IllegalArgumentException(
           "Required property \"attStmt\" missing from attestation object: " + bytes.getBase64Url());
-    } else {
-      if (attStmt.isObject()) {
-        this.attestationStatement = (ObjectNode) attStmt;
-      } else {
-        throw new IllegalArgumentException(
-            String.format(
-                "Property \"attStmt\" of attestation object must be a CBOR map, was: %s. Attestation object: %s",
-                attStmt.getNodeType(), bytes.getBase64Url()));
-      }
     }
+    this.attestationStatement = attestationStatement;
 
     authenticatorData = new AuthenticatorData(authDataBytes);
   }
 
+  private static String describeMajorType(int majorType) {
+    switch (majorType) {
+      case CborReader.MAJOR_TYPE_UNSIGNED_INTEGER:
+      case CborReader.MAJOR_TYPE_NEGATIVE_INTEGER:
+        return "integer";
+      case CborReader.MAJOR_TYPE_BYTE_STRING:
+        return "byte string";
+      case CborReader.MAJOR_TYPE_TEXT_STRING:
+        return "text string";
+      case CborReader.MAJOR_TYPE_ARRAY:
+        return "array";
+      case CborReader.MAJOR_TYPE_MAP:
+        return "map";
+      case CborReader.MAJOR_TYPE_TAG:
+        return "tagged item";
+      default:
+        return "simple value";
+    }
+  }
+
   static class JsonSerializer
       extends com.fasterxml.jackson.databind.JsonSerializer<AttestationObject> {
     @Override
@@ -100,10 +100,17 @@ public final class AuthenticatorAssertionExtensionOutputs implements Authenticat
    */
   public static Optional<AuthenticatorAssertionExtensionOutputs> fromAuthenticatorData(
       AuthenticatorData authData) {
-    return authData.getExtensions().flatMap(AuthenticatorAssertionExtensionOutputs::fromCbor);
+    return authData.getExtensionsBytes().flatMap(AuthenticatorAssertionExtensionOutputs::fromCbor);
   }
 
   static Optional<AuthenticatorAssertionExtensionOutputs> fromCbor(CBORObject cbor) {
+    return fromCbor(ByteArray.wrap(cbor.EncodeToBytes()));
+  }
+
+  /**
+   * @param cbor the raw CBOR encoding of an authenticator extension outputs map.
+   */
+  private static Optional<AuthenticatorAssertionExtensionOutputs> fromCbor(ByteArray cbor) {
     AuthenticatorAssertionExtensionOutputs.AuthenticatorAssertionExtensionOutputsBuilder b =
         builder();
 
@@ -30,15 +30,14 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.upokecenter.cbor.CBORException;
 import com.upokecenter.cbor.CBORObject;
-import com.yubico.internal.util.BinaryUtil;
+import com.yubico.internal.util.CborReader;
 import com.yubico.internal.util.ExceptionUtil;
-import com.yubico.internal.util.JacksonCodecs;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.Value;
 
@@ -72,6 +71,13 @@ public class AuthenticatorData {
    */
   @NonNull private final ByteArray bytes;
 
+  /**
+   * The SHA-256 hash of the RP ID the credential is scoped to. This is a view of the first 32 bytes
+   * of {@link #bytes}.
+   */
+  @Getter(AccessLevel.NONE)
+  private final transient ByteArray rpIdHash;
+
   /** The flags bit field. */
   @NonNull private final transient AuthenticatorDataFlags flags;
 
@@ -84,7 +90,18 @@ public class AuthenticatorData {
    */
   @JsonIgnore private final transient AttestedCredentialData attestedCredentialData;
 
-  @JsonIgnore private final transient CBORObject extensions;
+  /**
+   * The raw CBOR encoding of the extension-defined authenticator data, sliced from {@link #bytes}
+   * without re-encoding. This is present if and only if the {@link AuthenticatorDataFlags#ED} flag
+   * is set.
+   */
+  @JsonIgnore
+  @Getter(AccessLevel.NONE)
+  private final transient ByteArray extensions;
+
+  /** The 32-bit unsigned signature counter. */
+  @Getter(AccessLevel.NONE)
+  private final transient long signatureCounter;
 
   private static final int RP_ID_HASH_INDEX = 0;
   private static final int RP_ID_HASH_END = RP_ID_HASH_INDEX + 32;
@@ -110,21 +127,24 @@ public class AuthenticatorData {
 
     this.bytes = bytes;
 
-    final byte[] rawBytes = bytes.getBytes();
-
-    this.flags = new AuthenticatorDataFlags(rawBytes[FLAGS_INDEX]);
+    final byte[] raw = bytes.backingArray();
+    final int base = bytes.backingArrayOffset();
+    this.rpIdHash = bytes.slice(RP_ID_HASH_INDEX, RP_ID_HASH_END - RP_ID_HASH_INDEX).compact();
+    this.flags = new AuthenticatorDataFlags(raw[base + FLAGS_INDEX]);
+    this.signatureCounter =
+        ((raw[base + COUNTER_INDEX] & 0xffL) << 24)
+            | ((raw[base + COUNTER_INDEX + 1] & 0xffL) << 16)
+            | ((raw[base + COUNTER_INDEX + 2] & 0xffL) << 8)
+            | (raw[base + COUNTER_INDEX + 3] & 0xffL);
 
     if (flags.AT) {
       VariableLengthParseResult parseResult =
-          parseAttestedCredentialData(
-              flags, Arrays.copyOfRange(rawBytes, FIXED_LENGTH_PART_END_INDEX, rawBytes.length));
+          parseAttestedCredentialData(flags, bytes, FIXED_LENGTH_PART_END_INDEX);
       attestedCredentialData = parseResult.getAttestedCredentialData();
       extensions = parseResult.getExtensions();
     } else if (flags.ED) {
       attestedCredentialData = null;
-      extensions =
-          parseExtensions(
-              Arrays.copyOfRange(rawBytes, FIXED_LENGTH_PART_END_INDEX, rawBytes.length));
+      extensions = parseExtensions(bytes, FIXED_LENGTH_PART_END_INDEX);
     } else {
       attestedCredentialData = null;
       extensions = null;
@@ -134,73 +154,72 @@ public class AuthenticatorData {
   /** The SHA-256 hash of the RP ID the credential is scoped to. */
   @JsonProperty("rpIdHash")
   public ByteArray getRpIdHash() {
-    return new ByteArray(Arrays.copyOfRange(bytes.getBytes(), RP_ID_HASH_INDEX, RP_ID_HASH_END));
+    return rpIdHash;
   }
 
   /** The 32-bit unsigned signature counter. */
   public long getSignatureCounter() {
-    return BinaryUtil.getUint32(Arrays.copyOfRange(bytes.getBytes(), COUNTER_INDEX, COUNTER_END));
+    return signatureCounter;
   }
 
+  /**
+   * @param bytes the raw authenticator data.
+   * @param offset the index in <code>bytes</code> where the attested credential data begins.
+   */
   private static VariableLengthParseResult parseAttestedCredentialData(
-      AuthenticatorDataFlags flags, byte[] bytes) {
-    final int AAGUID_INDEX = 0;
+      AuthenticatorDataFlags flags, ByteArray bytes, int offset) {
+    final int AAGUID_INDEX = offset;
     final int AAGUID_END = AAGUID_INDEX + 16;
 
     final int CREDENTIAL_ID_LENGTH_INDEX = AAGUID_END;
     final int CREDENTIAL_ID_LENGTH_END = CREDENTIAL_ID_LENGTH_INDEX + 2;
 
     ExceptionUtil.assertTrue(
-        bytes.length >= CREDENTIAL_ID_LENGTH_END,
+        bytes.size() >= CREDENTIAL_ID_LENGTH_END,
         "Attested credential data must contain at least %d bytes, was %d: %s",
-        CREDENTIAL_ID_LENGTH_END,
-        bytes.length,
-        new ByteArray(bytes));
+        CREDENTIAL_ID_LENGTH_END - offset,
+        bytes.size() - offset,
+        bytes.slice(offset, bytes.size() - offset));
 
-    byte[] credentialIdLengthBytes =
-        Arrays.copyOfRange(bytes, CREDENTIAL_ID_LENGTH_INDEX, CREDENTIAL_ID_LENGTH_END);
+    final byte[] raw = bytes.backingArray();
+    final int base = bytes.backingArrayOffset();
 
-    final int L;
-    try {
-      L = BinaryUtil.getUint16(credentialIdLengthBytes);
-    } catch (IllegalArgumentException e) {
-      throw new IllegalArgumentException(
-          "Invalid credential ID length bytes: " + Arrays.asList(credentialIdLengthBytes), e);
-    }
+    final int L =
+        ((raw[base + CREDENTIAL_ID_LENGTH_INDEX] & 0xff) << 8)
+            | (raw[base + CREDENTIAL_ID_LENGTH_INDEX + 1] & 0xff);
 
     final int CREDENTIAL_ID_INDEX = CREDENTIAL_ID_LENGTH_END;
     final int CREDENTIAL_ID_END = CREDENTIAL_ID_INDEX + L;
 
     final int CREDENTIAL_PUBLIC_KEY_INDEX = CREDENTIAL_ID_END;
-    final int CREDENTIAL_PUBLIC_KEY_AND_EXTENSION_DATA_END = bytes.length;
 
     ExceptionUtil.assertTrue(
-        bytes.length >= CREDENTIAL_ID_END,
+        bytes.size() >= CREDENTIAL_ID_END,
         "Expected credential ID of length %d, but attested credential data and extension data is only %d bytes: %s",
-        CREDENTIAL_ID_END,
-        bytes.length,
-        new ByteArray(bytes));
+        CREDENTIAL_ID_END - offset,
+        bytes.size() - offset,
+        bytes.slice(offset, bytes.size() - offset));
 
-    ByteArrayInputStream indefiniteLengthBytes =
-        new ByteArrayInputStream(
-            Arrays.copyOfRange(
-                bytes, CREDENTIAL_PUBLIC_KEY_INDEX, CREDENTIAL_PUBLIC_KEY_AND_EXTENSION_DATA_END));
+    final CborReader cbor =
+        new CborReader(
+            raw, base + CREDENTIAL_PUBLIC_KEY_INDEX, bytes.size() - CREDENTIAL_PUBLIC_KEY_INDEX);
+    try {
+      cbor.skipItem();
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Failed to parse credential public key", e);
+    }
+    final int CREDENTIAL_PUBLIC_KEY_END = cbor.getPosition() - base;
 
-    final CBORObject credentialPublicKey = CBORObject.Read(indefiniteLengthBytes);
-    final CBORObject extensions;
+    final ByteArray extensions;
 
-    if (indefiniteLengthBytes.available() > 0) {
+    if (cbor.hasRemaining()) {
       if (flags.ED) {
-        try {
-          extensions = CBORObject.Read(indefiniteLengthBytes);
-        } catch (CBORException e) {
-          throw new IllegalArgumentException("Failed to parse extension data", e);
-        }
+        extensions = parseExtensions(bytes, CREDENTIAL_PUBLIC_KEY_END);
       } else {
         throw new IllegalArgumentException(
             String.format(
                 "Flags indicate no extension data, but %d bytes remain after attested credential data.",
-                indefiniteLengthBytes.available()));
+                bytes.size() - CREDENTIAL_PUBLIC_KEY_END));
       }
     } else {
       if (flags.ED) {
@@ -211,28 +230,67 @@ public class AuthenticatorData {
       }
     }
 
+    // These are compacted since they end up in long-lived values like RegisteredCredential, and
+    // a slice would keep the whole attestation object reachable.
     return new VariableLengthParseResult(
         AttestedCredentialData.builder()
-            .aaguid(new ByteArray(Arrays.copyOfRange(bytes, AAGUID_INDEX, AAGUID_END)))
-            .credentialId(
-                new ByteArray(Arrays.copyOfRange(bytes, CREDENTIAL_ID_INDEX, CREDENTIAL_ID_END)))
-            .credentialPublicKey(new ByteArray(credentialPublicKey.EncodeToBytes()))
+            .aaguid(bytes.slice(AAGUID_INDEX, AAGUID_END - AAGUID_INDEX).compact())
+            .credentialId(bytes.slice(CREDENTIAL_ID_INDEX, L).compact())
+            .credentialPublicKey(
+                bytes
+                    .slice(
+                        CREDENTIAL_PUBLIC_KEY_INDEX,
+                        CREDENTIAL_PUBLIC_KEY_END - CREDENTIAL_PUBLIC_KEY_INDEX)
+                    .compact())
             .build(),
         extensions);
   }
 
-  private static CBORObject parseExtensions(byte[] bytes) {
+  /**
+   * Validate that <code>bytes</code> from <code>offset</code> to the end consist of exactly one
+   * CBOR map with no duplicate keys, and return a view of those bytes.
+   */
+  private static ByteArray parseExtensions(ByteArray bytes, int offset) {
+    final int base = bytes.backingArrayOffset();
+    final CborReader cbor =
+        new CborReader(bytes.backingArray(), base + offset, bytes.size() - offset);
     try {
-      return CBORObject.DecodeFromBytes(bytes);
-    } catch (CBORException e) {
+      final int numExtensions = cbor.readMapHeader();
+      int[] keyStarts = new int[4];
+      int[] keyLengths = new int[4];
+      for (int i = 0; cbor.hasNextItem(numExtensions, i); ++i) {
+        if (i == keyStarts.length) {
+          keyStarts = Arrays.copyOf(keyStarts, i * 2);
+          keyLengths = Arrays.copyOf(keyLengths, i * 2);
+        }
+        keyStarts[i] = cbor.getPosition() - base;
+        cbor.skipItem();
+        keyLengths[i] = cbor.getPosition() - base - keyStarts[i];
+        for (int j = 0; j < i; ++j) {
+          ExceptionUtil.assertTrue(
+              !(keyLengths[j] == keyLengths[i]
+                  && bytes.regionMatches(keyStarts[j], bytes, keyStarts[i], keyLengths[i])),
+              "Duplicate extension identifier at offset %d",
+              keyStarts[i]);
+        }
+        cbor.skipItem();
+      }
+    } catch (IllegalArgumentException e) {
       throw new IllegalArgumentException("Failed to parse extension data", e);
     }
+    if (cbor.hasRemaining()) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Failed to parse extension data: %d bytes remain after extension data.",
+              cbor.getEnd() - cbor.getPosition()));
+    }
+    return bytes.slice(offset, bytes.size() - offset);
   }
 
   @Value
   private static class VariableLengthParseResult {
     AttestedCredentialData attestedCredentialData;
-    CBORObject extensions;
+    ByteArray extensions;
   }
 
   /**
@@ -256,7 +314,17 @@ public class AuthenticatorData {
    * @see #flags
    */
   public Optional<CBORObject> getExtensions() {
-    return Optional.ofNullable(extensions).map(JacksonCodecs::deepCopy);
+    return getExtensionsBytes().map(ext -> CBORObject.DecodeFromBytes(ext.getBytes()));
+  }
+
+  /**
+   * The raw CBOR encoding of the extension-defined authenticator data, if present, exactly as it
+   * appears in {@link #getBytes()}.
+   *
+   * @see #getExtensions()
+   */
+  Optional<ByteArray> getExtensionsBytes() {
+    return Optional.ofNullable(extensions);
   }
 
   static class JsonSerializer
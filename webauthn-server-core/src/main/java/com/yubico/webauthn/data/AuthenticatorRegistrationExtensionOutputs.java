@@ -101,10 +101,19 @@ public final class AuthenticatorRegistrationExtensionOutputs
    */
   public static Optional<AuthenticatorRegistrationExtensionOutputs> fromAuthenticatorData(
       AuthenticatorData authData) {
-    return authData.getExtensions().flatMap(AuthenticatorRegistrationExtensionOutputs::fromCbor);
+    return authData
+        .getExtensionsBytes()
+        .flatMap(AuthenticatorRegistrationExtensionOutputs::fromCbor);
   }
 
   static Optional<AuthenticatorRegistrationExtensionOutputs> fromCbor(CBORObject cbor) {
+    return fromCbor(ByteArray.wrap(cbor.EncodeToBytes()));
+  }
+
+  /**
+   * @param cbor the raw CBOR encoding of an authenticator extension outputs map.
+   */
+  private static Optional<AuthenticatorRegistrationExtensionOutputs> fromCbor(ByteArray cbor) {
     AuthenticatorRegistrationExtensionOutputsBuilder b = builder();
 
     Extensions.Uvm.parseAuthenticatorExtensionOutput(cbor).ifPresent(b::uvm);
@@ -26,18 +26,22 @@ package com.yubico.webauthn.data;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
-import com.google.common.primitives.Bytes;
 import com.yubico.internal.util.BinaryUtil;
 import com.yubico.webauthn.data.exception.Base64UrlException;
 import com.yubico.webauthn.data.exception.HexException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
-import lombok.EqualsAndHashCode;
 import lombok.NonNull;
-import lombok.ToString;
 
-/** An immutable byte array with support for encoding/decoding to/from various encodings. */
-@EqualsAndHashCode
-@ToString(includeFieldNames = false, onlyExplicitlyIncluded = true)
+/**
+ * An immutable byte array with support for encoding/decoding to/from various encodings.
+ *
+ * <p>Instances may be views over a region of a larger shared buffer (see {@link #slice(int, int)}).
+ * This is safe since the shared buffer is never modified or exposed, but means that a slice retains
+ * the whole buffer it was sliced from. The Base64Url and hexadecimal encodings are computed when
+ * first needed and then cached.
+ */
 public final class ByteArray implements Comparable<ByteArray> {
 
   private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder();
@@ -46,28 +50,42 @@ public final class ByteArray implements Comparable<ByteArray> {
   private static final Base64.Encoder BASE64URL_ENCODER = Base64.getUrlEncoder().withoutPadding();
   private static final Base64.Decoder BASE64URL_DECODER = Base64.getUrlDecoder();
 
-  @NonNull private final byte[] bytes;
+  /** Never modified, and never exposed outside this package. May be shared between instances. */
+  private final byte[] bytes;
 
-  @JsonValue @NonNull private final String base64url;
+  private final int offset;
+  private final int length;
+
+  // Lazily computed caches. Benign data races are harmless here since String is immutable, in the
+  // same way as String.hashCode().
+  private String base64url;
+  private String hex;
+  private int hashCode;
 
   /** Create a new instance by copying the contents of <code>bytes</code>. */
   public ByteArray(@NonNull byte[] bytes) {
-    this.bytes = BinaryUtil.copy(bytes);
-    this.base64url = BASE64URL_ENCODER.encodeToString(this.bytes);
+    this(BinaryUtil.copy(bytes), 0, bytes.length, null);
   }
 
-  private ByteArray(String base64url) throws Base64UrlException {
-    try {
-      this.bytes = BASE64URL_DECODER.decode(base64url);
-    } catch (IllegalArgumentException e) {
-      throw new Base64UrlException("Invalid Base64Url encoding: " + base64url, e);
-    }
+  /** Takes ownership of <code>bytes</code> without copying. */
+  private ByteArray(byte[] bytes, int offset, int length, String base64url) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
     this.base64url = base64url;
   }
 
+  /**
+   * Create a new instance that takes ownership of <code>bytes</code> without copying it. The caller
+   * MUST NOT modify or expose <code>bytes</code> afterwards.
+   */
+  static ByteArray wrap(@NonNull byte[] bytes) {
+    return new ByteArray(bytes, 0, bytes.length, null);
+  }
+
   /** Create a new instance by decoding <code>base64</code> as classic Base64 data. */
   public static ByteArray fromBase64(@NonNull final String base64) {
-    return new ByteArray(BASE64_DECODER.decode(base64));
+    return wrap(BASE64_DECODER.decode(base64));
   }
 
   /**
@@ -77,7 +95,15 @@ public final class ByteArray implements Comparable<ByteArray> {
    */
   @JsonCreator
   public static ByteArray fromBase64Url(@NonNull final String base64url) throws Base64UrlException {
-    return new ByteArray(base64url.split("=")[0]);
+    final int paddingIndex = base64url.indexOf('=');
+    final String unpadded = paddingIndex < 0 ? base64url : base64url.substring(0, paddingIndex);
+    final byte[] decoded;
+    try {
+      decoded = BASE64URL_DECODER.decode(unpadded);
+    } catch (IllegalArgumentException e) {
+      throw new Base64UrlException("Invalid Base64Url encoding: " + unpadded, e);
+    }
+    return new ByteArray(decoded, 0, decoded.length, unpadded);
   }
 
   /**
@@ -87,7 +113,7 @@ public final class ByteArray implements Comparable<ByteArray> {
    */
   public static ByteArray fromHex(@NonNull final String hex) throws HexException {
     try {
-      return new ByteArray(BinaryUtil.fromHex(hex));
+      return wrap(BinaryUtil.fromHex(hex));
     } catch (Exception e) {
       throw new HexException("Invalid hexadecimal encoding: " + hex, e);
     }
@@ -98,7 +124,47 @@ public final class ByteArray implements Comparable<ByteArray> {
    *     </code>.
    */
   public ByteArray concat(@NonNull ByteArray tail) {
-    return new ByteArray(Bytes.concat(this.bytes, tail.bytes));
+    final byte[] result = new byte[length + tail.length];
+    System.arraycopy(bytes, offset, result, 0, length);
+    System.arraycopy(tail.bytes, tail.offset, result, length, tail.length);
+    return wrap(result);
+  }
+
+  /**
+   * Get a view of a region of this byte array, without copying.
+   *
+   * <p>The returned instance shares storage with this instance. This is safe since both are
+   * immutable, but note that the returned instance retains all of this instance's storage.
+   *
+   * @param offset the index of the first byte of the region
+   * @param length the number of bytes in the region
+   * @return a new instance containing the bytes in the range <code>[offset, offset + length)</code>
+   *     of this instance.
+   * @throws IndexOutOfBoundsException if the range is not within this instance.
+   */
+  public ByteArray slice(int offset, int length) {
+    checkRange(offset, length, this.length);
+    if (offset == 0 && length == this.length) {
+      return this;
+    }
+    return new ByteArray(bytes, this.offset + offset, length, null);
+  }
+
+  /**
+   * Get an instance with the same contents as this one that does not retain any larger buffer.
+   *
+   * <p>Use this for values sliced from a larger buffer that are to be kept long after the rest of
+   * the buffer is no longer needed.
+   *
+   * @return this instance if it does not share storage with a larger buffer, otherwise a new
+   *     instance containing a copy of the contents of this instance.
+   * @see #slice(int, int)
+   */
+  public ByteArray compact() {
+    if (offset == 0 && length == bytes.length) {
+      return this;
+    }
+    return new ByteArray(Arrays.copyOfRange(bytes, offset, offset + length), 0, length, base64url);
   }
 
   public boolean isEmpty() {
@@ -106,50 +172,186 @@ public final class ByteArray implements Comparable<ByteArray> {
   }
 
   public int size() {
-    return this.bytes.length;
+    return length;
   }
 
   /**
    * @return a copy of the raw byte contents.
    */
   public byte[] getBytes() {
-    return BinaryUtil.copy(bytes);
+    return Arrays.copyOfRange(bytes, offset, offset + length);
+  }
+
+  /**
+   * @return a read-only view of the raw byte contents, without copying. The returned buffer's
+   *     position is 0 and its limit and capacity are {@link #size()}.
+   */
+  public ByteBuffer asReadOnlyByteBuffer() {
+    return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Copy a region of this byte array into <code>dest</code>.
+   *
+   * @param srcOffset the index in this byte array of the first byte to copy
+   * @param dest the destination array
+   * @param destOffset the index in <code>dest</code> to copy the first byte to
+   * @param length the number of bytes to copy
+   * @throws IndexOutOfBoundsException if either range is out of bounds.
+   */
+  public void copyTo(int srcOffset, @NonNull byte[] dest, int destOffset, int length) {
+    checkRange(srcOffset, length, this.length);
+    checkRange(destOffset, length, dest.length);
+    System.arraycopy(bytes, offset + srcOffset, dest, destOffset, length);
+  }
+
+  /**
+   * Copy the contents of this byte array into <code>dest</code>.
+   *
+   * @param dest the destination array
+   * @param destOffset the index in <code>dest</code> to copy the first byte to
+   * @throws IndexOutOfBoundsException if <code>dest</code> is too short.
+   */
+  public void copyTo(@NonNull byte[] dest, int destOffset) {
+    copyTo(0, dest, destOffset, length);
+  }
+
+  /**
+   * Test if a region of this byte array equals a region of <code>other</code>, without copying
+   * either.
+   *
+   * @param thisOffset the index in this byte array of the first byte to compare
+   * @param other the byte array to compare with
+   * @param otherOffset the index in <code>other</code> of the first byte to compare
+   * @param length the number of bytes to compare
+   * @return <code>true</code> if and only if both regions are within bounds and have equal
+   *     contents.
+   */
+  public boolean regionMatches(
+      int thisOffset, @NonNull ByteArray other, int otherOffset, int length) {
+    if (thisOffset < 0
+        || otherOffset < 0
+        || length < 0
+        || thisOffset > this.length - length
+        || otherOffset > other.length - length) {
+      return false;
+    }
+    final int a = offset + thisOffset;
+    final int b = other.offset + otherOffset;
+    for (int i = 0; i < length; ++i) {
+      if (bytes[a + i] != other.bytes[b + i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
    * @return the content bytes encoded as classic Base64 data.
    */
   public String getBase64() {
-    return BASE64_ENCODER.encodeToString(bytes);
+    return BASE64_ENCODER.encodeToString(contentArray());
   }
 
   /**
    * @return the content bytes encoded as Base64Url data, without padding.
    */
+  @JsonValue
   public String getBase64Url() {
-    return base64url;
+    String result = base64url;
+    if (result == null) {
+      result = BASE64URL_ENCODER.encodeToString(contentArray());
+      base64url = result;
+    }
+    return result;
   }
 
   /**
    * @return the content bytes encoded as hexadecimal data.
    */
-  @ToString.Include
   public String getHex() {
-    return BinaryUtil.toHex(bytes);
+    String result = hex;
+    if (result == null) {
+      result = BinaryUtil.toHex(contentArray());
+      hex = result;
+    }
+    return result;
+  }
+
+  /**
+   * Get the backing array of this instance, without copying. The contents of this instance are the
+   * {@link #size()} bytes starting at {@link #backingArrayOffset()}.
+   *
+   * <p>The returned array MUST NOT be modified or exposed outside this package.
+   */
+  byte[] backingArray() {
+    return bytes;
+  }
+
+  /**
+   * @see #backingArray()
+   */
+  int backingArrayOffset() {
+    return offset;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ByteArray)) {
+      return false;
+    }
+    final ByteArray other = (ByteArray) o;
+    return length == other.length && regionMatches(0, other, 0, length);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = hashCode;
+    if (result == 0) {
+      result = 1;
+      for (int i = offset; i < offset + length; ++i) {
+        result = 31 * result + bytes[i];
+      }
+      hashCode = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "ByteArray(" + getHex() + ")";
   }
 
   @Override
   public int compareTo(ByteArray other) {
-    if (bytes.length != other.bytes.length) {
-      return bytes.length - other.bytes.length;
+    if (length != other.length) {
+      return length - other.length;
     }
 
-    for (int i = 0; i < bytes.length; ++i) {
-      if (bytes[i] != other.bytes[i]) {
-        return bytes[i] - other.bytes[i];
+    for (int i = 0; i < length; ++i) {
+      final byte a = bytes[offset + i];
+      final byte b = other.bytes[other.offset + i];
+      if (a != b) {
+        return a - b;
       }
     }
 
     return 0;
   }
+
+  /** The contents as an array that MUST NOT be modified. Copies only if this is a slice. */
+  private byte[] contentArray() {
+    return offset == 0 && length == bytes.length ? bytes : getBytes();
+  }
+
+  private static void checkRange(int offset, int length, int size) {
+    if (offset < 0 || length < 0 || offset > size - length) {
+      throw new IndexOutOfBoundsException(
+          String.format(
+              "Range [%d, %d + %d) out of bounds for length %d", offset, offset, length, size));
+    }
+  }
 }
@@ -26,19 +26,25 @@ package com.yubico.webauthn.data;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
 import com.yubico.internal.util.ExceptionUtil;
 import com.yubico.internal.util.JacksonCodecs;
 import com.yubico.webauthn.data.exception.Base64UrlException;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.ToString;
 import lombok.Value;
+import lombok.experimental.NonFinal;
 
 /**
  * The client data represents the contextual bindings of both the Relying Party and the client.
@@ -56,9 +62,14 @@ public class CollectedClientData {
   @Getter(AccessLevel.NONE)
   private final ByteArray clientDataJson;
 
+  /**
+   * Locations in {@link #clientDataJson} of the raw values of members other than {@link
+   * #challenge}, {@link #origin} and {@link #type}. These are only decoded on demand.
+   */
   @NonNull
   @Getter(AccessLevel.NONE)
-  private final transient ObjectNode clientData;
+  @ToString.Exclude
+  private final transient Map<String, RawMember> otherMembers;
 
   /**
    * The base64url encoding of the challenge provided by the Relying Party. See the <a
@@ -76,36 +87,106 @@ public class CollectedClientData {
   /** The type of the requested operation, set by the client. */
   @NonNull private final transient String type;
 
+  @NonFinal
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private transient volatile ByteArray clientDataJsonHash;
+
   @JsonCreator
   public CollectedClientData(@NonNull ByteArray clientDataJSON)
       throws IOException, Base64UrlException {
-    JsonNode clientData = JacksonCodecs.json().readTree(clientDataJSON.getBytes());
+    this.clientDataJson = clientDataJSON;
 
-    ExceptionUtil.assertTrue(
-        clientData != null && clientData.isObject(), "Collected client data must be JSON object.");
+    ByteArray challenge = null;
+    String origin = null;
+    String type = null;
+    Map<String, RawMember> otherMembers = null;
 
-    this.clientDataJson = clientDataJSON;
-    this.clientData = (ObjectNode) clientData;
+    try (JsonParser parser =
+        JacksonCodecs.jsonReader()
+            .createParser(
+                clientDataJSON.backingArray(),
+                clientDataJSON.backingArrayOffset(),
+                clientDataJSON.size())) {
+      ExceptionUtil.assertTrue(
+          parser.nextToken() == JsonToken.START_OBJECT,
+          "Collected client data must be JSON object.");
 
-    try {
-      challenge = ByteArray.fromBase64Url(clientData.get("challenge").textValue());
-    } catch (NullPointerException e) {
-      throw new IllegalArgumentException("Missing field: \"challenge\"");
-    } catch (Base64UrlException e) {
-      throw new Base64UrlException("Invalid \"challenge\" value", e);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String fieldName = parser.currentName();
+        final JsonToken valueToken = parser.nextToken();
+
+        switch (fieldName) {
+          case "challenge":
+            ExceptionUtil.assertTrue(challenge == null, "Duplicate field: \"challenge\"");
+            try {
+              challenge = ByteArray.fromBase64Url(readStringField(parser, fieldName));
+            } catch (Base64UrlException e) {
+              throw new Base64UrlException("Invalid \"challenge\" value", e);
+            }
+            break;
+
+          case "origin":
+            ExceptionUtil.assertTrue(origin == null, "Duplicate field: \"origin\"");
+            origin = readStringField(parser, fieldName);
+            break;
+
+          case "type":
+            ExceptionUtil.assertTrue(type == null, "Duplicate field: \"type\"");
+            type = readStringField(parser, fieldName);
+            break;
+
+          default:
+            final int start = (int) parser.currentTokenLocation().getByteOffset();
+            if (valueToken.isStructStart()) {
+              parser.skipChildren();
+            } else {
+              parser.finishToken();
+            }
+            final int end = (int) parser.currentLocation().getByteOffset();
+
+            if (otherMembers == null) {
+              otherMembers = new HashMap<>(4);
+            }
+            ExceptionUtil.assertTrue(
+                otherMembers.put(fieldName, new RawMember(start, end - start)) == null,
+                "Duplicate field: \"%s\"",
+                fieldName);
+            break;
+        }
+      }
+
+      ExceptionUtil.assertTrue(
+          parser.currentToken() == JsonToken.END_OBJECT,
+          "Collected client data must be JSON object.");
     }
 
-    try {
-      origin = clientData.get("origin").textValue();
-    } catch (NullPointerException e) {
+    if (challenge == null) {
+      throw new IllegalArgumentException("Missing field: \"challenge\"");
+    }
+    if (origin == null) {
       throw new IllegalArgumentException("Missing field: \"origin\"");
     }
-
-    try {
-      type = clientData.get("type").textValue();
-    } catch (NullPointerException e) {
+    if (type == null) {
       throw new IllegalArgumentException("Missing field: \"type\"");
     }
+
+    this.challenge = challenge;
+    this.origin = origin;
+    this.type = type;
+    this.otherMembers = otherMembers == null ? Collections.emptyMap() : otherMembers;
+  }
+
+  private static String readStringField(JsonParser parser, String fieldName) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_STRING) {
+      return parser.getText();
+    } else if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      throw new IllegalArgumentException(String.format("Missing field: \"%s\"", fieldName));
+    } else {
+      throw new IllegalArgumentException(
+          String.format(
+              "Field \"%s\" must be a string, was: %s", fieldName, parser.currentToken()));
+    }
   }
 
   /**
@@ -114,29 +195,87 @@ public class CollectedClientData {
    * client doesn't support token binding.
    */
   public final Optional<TokenBindingInfo> getTokenBinding() {
-    return Optional.ofNullable(clientData.get("tokenBinding"))
-        .map(
-            tb -> {
-              if (tb.isObject()) {
-                String status = tb.get("status").textValue();
-                return new TokenBindingInfo(
-                    TokenBindingStatus.fromJsonString(status),
-                    Optional.ofNullable(tb.get("id"))
-                        .map(JsonNode::textValue)
-                        .map(
-                            id -> {
-                              try {
-                                return ByteArray.fromBase64Url(id);
-                              } catch (Base64UrlException e) {
-                                throw new IllegalArgumentException(
-                                    "Property \"id\" is not valid Base64Url data", e);
-                              }
-                            }));
-              } else {
+    final RawMember tokenBinding = otherMembers.get("tokenBinding");
+    if (tokenBinding == null) {
+      return Optional.empty();
+    }
+
+    try (JsonParser parser =
+        JacksonCodecs.jsonReader()
+            .createParser(
+                clientDataJson.backingArray(),
+                clientDataJson.backingArrayOffset() + tokenBinding.getOffset(),
+                tokenBinding.getLength())) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IllegalArgumentException("Property \"tokenBinding\" missing from client data.");
+      }
+
+      String status = null;
+      ByteArray id = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String fieldName = parser.currentName();
+        parser.nextToken();
+        switch (fieldName) {
+          case "status":
+            ExceptionUtil.assertTrue(status == null, "Duplicate field: \"status\"");
+            status = readStringField(parser, "tokenBinding.status");
+            break;
+
+          case "id":
+            ExceptionUtil.assertTrue(id == null, "Duplicate field: \"id\"");
+            if (parser.currentToken() != JsonToken.VALUE_NULL) {
+              try {
+                id = ByteArray.fromBase64Url(readStringField(parser, "tokenBinding.id"));
+              } catch (Base64UrlException e) {
                 throw new IllegalArgumentException(
-                    "Property \"tokenBinding\" missing from client data.");
+                    "Property \"id\" is not valid Base64Url data", e);
               }
-            });
+            }
+            break;
+
+          default:
+            parser.skipChildren();
+            break;
+        }
+      }
+
+      if (status == null) {
+        throw new IllegalArgumentException("Missing field: \"tokenBinding.status\"");
+      }
+      return Optional.of(
+          new TokenBindingInfo(TokenBindingStatus.fromJsonString(status), Optional.ofNullable(id)));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Failed to parse \"tokenBinding\" from client data.", e);
+    }
+  }
+
+  /**
+   * The SHA-256 hash of the raw client data JSON, as used in the signature verification steps of
+   * registration and authentication ceremonies. The hash is computed on first access and cached.
+   *
+   * <p>Users of this library should not need to access this value directly.
+   */
+  public ByteArray getClientDataJsonHash() {
+    ByteArray result = clientDataJsonHash;
+    if (result == null) {
+      result =
+          ByteArray.wrap(
+              Hashing.sha256()
+                  .hashBytes(
+                      clientDataJson.backingArray(),
+                      clientDataJson.backingArrayOffset(),
+                      clientDataJson.size())
+                  .asBytes());
+      clientDataJsonHash = result;
+    }
+    return result;
+  }
+
+  /** The location of a raw JSON value within the client data JSON. */
+  @Value
+  private static class RawMember {
+    int offset;
+    int length;
   }
 
   static class JsonSerializer
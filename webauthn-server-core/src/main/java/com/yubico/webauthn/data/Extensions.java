@@ -4,11 +4,12 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.upokecenter.cbor.CBORObject;
-import com.upokecenter.cbor.CBORType;
+import com.yubico.internal.util.CborReader;
 import com.yubico.webauthn.StartRegistrationOptions;
 import com.yubico.webauthn.extension.uvm.KeyProtectionType;
 import com.yubico.webauthn.extension.uvm.MatcherProtectionType;
 import com.yubico.webauthn.extension.uvm.UserVerificationMethod;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -424,65 +425,126 @@ public class Extensions {
     }
 
     static Optional<List<UvmEntry>> parseAuthenticatorExtensionOutput(CBORObject cbor) {
-      if (validateAuthenticatorExtensionOutput(cbor)) {
-        return Optional.of(
-            cbor.get(EXTENSION_ID).getValues().stream()
-                .map(
-                    uvmEntry ->
-                        new UvmEntry(
-                            UserVerificationMethod.fromValue(uvmEntry.get(0).AsInt32Value()),
-                            KeyProtectionType.fromValue(
-                                uvmEntry.get(1).AsNumber().ToInt16IfExact()),
-                            MatcherProtectionType.fromValue(
-                                uvmEntry.get(2).AsNumber().ToInt16IfExact())))
-                .collect(Collectors.toList()));
-      } else {
-        return Optional.empty();
-      }
+      return parseAuthenticatorExtensionOutput(ByteArray.wrap(cbor.EncodeToBytes()));
     }
 
-    private static boolean validateAuthenticatorExtensionOutput(CBORObject extensions) {
-      if (!extensions.ContainsKey(EXTENSION_ID)) {
-        return false;
-      }
+    /**
+     * @param extensions the raw CBOR encoding of an authenticator extension outputs map.
+     */
+    static Optional<List<UvmEntry>> parseAuthenticatorExtensionOutput(ByteArray extensions) {
+      return readAuthenticatorExtensionOutput(extensions)
+          .map(
+              uvm ->
+                  uvm.stream()
+                      .map(
+                          uvmEntry ->
+                              new UvmEntry(
+                                  UserVerificationMethod.fromValue(Math.toIntExact(uvmEntry[0])),
+                                  KeyProtectionType.fromValue(toShortExact(uvmEntry[1])),
+                                  MatcherProtectionType.fromValue(toShortExact(uvmEntry[2]))))
+                      .collect(Collectors.toList()));
+    }
 
-      CBORObject uvm = extensions.get(EXTENSION_ID);
-      if (uvm.getType() != CBORType.Array) {
-        log.debug(
-            "Invalid CBOR type for \"{}\" extension output: expected array, was: {}",
-            EXTENSION_ID,
-            uvm.getType());
-        return false;
+    /**
+     * Find and validate the <code>uvm</code> extension output in the given authenticator extension
+     * outputs map, without decoding any other extension outputs.
+     *
+     * @return the <code>uvm</code> extension output as a list of 3-element integer arrays, or empty
+     *     if the extension output is absent or malformed.
+     */
+    private static Optional<List<long[]>> readAuthenticatorExtensionOutput(ByteArray extensions) {
+      final CborReader cbor =
+          new CborReader(
+              extensions.backingArray(), extensions.backingArrayOffset(), extensions.size());
+      try {
+        final int numExtensions = cbor.readMapHeader();
+        for (int i = 0; cbor.hasNextItem(numExtensions, i); ++i) {
+          final boolean isUvm;
+          if (cbor.peekMajorType() == CborReader.MAJOR_TYPE_TEXT_STRING) {
+            isUvm = EXTENSION_ID.equals(cbor.readTextString());
+          } else {
+            cbor.skipItem();
+            isUvm = false;
+          }
+
+          if (isUvm) {
+            return readUvm(cbor);
+          } else {
+            cbor.skipItem();
+          }
+        }
+      } catch (IllegalArgumentException e) {
+        log.debug("Failed to parse authenticator extension outputs: {}", e.getMessage());
       }
+      return Optional.empty();
+    }
 
-      if (uvm.size() < 1 || uvm.size() > 3) {
+    private static Optional<List<long[]>> readUvm(CborReader cbor) {
+      if (cbor.peekMajorType() != CborReader.MAJOR_TYPE_ARRAY) {
         log.debug(
-            "Invalid length \"{}\" extension output array: expected 1 to 3 (inclusive), was: {}",
+            "Invalid CBOR type for \"{}\" extension output: expected array, was major type: {}",
             EXTENSION_ID,
-            uvm.size());
-        return false;
+            cbor.peekMajorType());
+        return Optional.empty();
       }
 
-      for (CBORObject entry : uvm.getValues()) {
-        if (entry.getType() != CBORType.Array) {
-          log.debug("Invalid CBOR type for uvmEntry: expected array, was: {}", entry.getType());
-          return false;
+      final int numEntries = cbor.readArrayHeader();
+      final List<long[]> result = new ArrayList<>(3);
+      for (int i = 0; cbor.hasNextItem(numEntries, i); ++i) {
+        if (i >= 3) {
+          log.debug(
+              "Invalid length \"{}\" extension output array: expected 1 to 3 (inclusive), was more",
+              EXTENSION_ID);
+          return Optional.empty();
         }
 
-        if (entry.size() != 3) {
-          log.debug("Invalid length for uvmEntry: expected 3, was: {}", entry.size());
-          return false;
+        if (cbor.peekMajorType() != CborReader.MAJOR_TYPE_ARRAY) {
+          log.debug(
+              "Invalid CBOR type for uvmEntry: expected array, was major type: {}",
+              cbor.peekMajorType());
+          return Optional.empty();
         }
 
-        for (CBORObject i : entry.getValues()) {
-          if (!(i.isNumber() && i.AsNumber().IsInteger())) {
-            log.debug("Invalid type for uvmEntry element: expected integer, was: {}", i.getType());
-            return false;
+        final int entryLength = cbor.readArrayHeader();
+        final long[] entry = new long[3];
+        int j = 0;
+        for (; cbor.hasNextItem(entryLength, j); ++j) {
+          if (j >= 3) {
+            log.debug("Invalid length for uvmEntry: expected 3, was more");
+            return Optional.empty();
           }
+          final int majorType = cbor.peekMajorType();
+          if (majorType != CborReader.MAJOR_TYPE_UNSIGNED_INTEGER
+              && majorType != CborReader.MAJOR_TYPE_NEGATIVE_INTEGER) {
+            log.debug(
+                "Invalid type for uvmEntry element: expected integer, was major type: {}",
+                majorType);
+            return Optional.empty();
+          }
+          entry[j] = cbor.readInteger();
+        }
+        if (j != 3) {
+          log.debug("Invalid length for uvmEntry: expected 3, was: {}", j);
+          return Optional.empty();
         }
+        result.add(entry);
       }
 
-      return true;
+      if (result.isEmpty()) {
+        log.debug(
+            "Invalid length \"{}\" extension output array: expected 1 to 3 (inclusive), was: 0",
+            EXTENSION_ID);
+        return Optional.empty();
+      }
+
+      return Optional.of(result);
+    }
+
+    private static short toShortExact(long value) {
+      if ((short) value != value) {
+        throw new ArithmeticException("short overflow: " + value);
+      }
+      return (short) value;
     }
   }
 }
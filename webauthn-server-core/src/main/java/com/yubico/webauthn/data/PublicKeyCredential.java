@@ -232,12 +232,11 @@ public class PublicKeyCredential<
   public static PublicKeyCredential<
           AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs>
       parseRegistrationResponseJson(String json) throws IOException {
-    return JacksonCodecs.json()
-        .readValue(
-            json,
+    return JacksonCodecs.jsonReaderFor(
             new TypeReference<
                 PublicKeyCredential<
-                    AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs>>() {});
+                    AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs>>() {})
+        .readValue(json);
   }
 
   /**
@@ -287,11 +286,10 @@ public class PublicKeyCredential<
    */
   public static PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs>
       parseAssertionResponseJson(String json) throws IOException {
-    return JacksonCodecs.json()
-        .readValue(
-            json,
+    return JacksonCodecs.jsonReaderFor(
             new TypeReference<
                 PublicKeyCredential<
-                    AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs>>() {});
+                    AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs>>() {})
+        .readValue(json);
   }
 }
@@ -27,8 +27,6 @@ package com.yubico.webauthn.data;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.yubico.internal.util.CollectionUtil;
 import com.yubico.internal.util.JacksonCodecs;
 import com.yubico.webauthn.FinishRegistrationOptions;
@@ -173,10 +171,8 @@ public class PublicKeyCredentialCreationOptions {
    * @throws JsonProcessingException if JSON serialization fails.
    */
   public String toCredentialsCreateJson() throws JsonProcessingException {
-    ObjectMapper json = JacksonCodecs.json();
-    ObjectNode result = json.createObjectNode();
-    result.set("publicKey", json.valueToTree(this));
-    return json.writeValueAsString(result);
+    return JacksonCodecs.jsonWriter()
+        .writeValueAsString(Collections.singletonMap("publicKey", this));
   }
 
   /**
@@ -196,7 +192,7 @@ public class PublicKeyCredentialCreationOptions {
    * @throws JsonProcessingException
    */
   public String toJson() throws JsonProcessingException {
-    return JacksonCodecs.json().writeValueAsString(this);
+    return JacksonCodecs.jsonWriter().writeValueAsString(this);
   }
 
   /**
@@ -213,7 +209,7 @@ public class PublicKeyCredentialCreationOptions {
    */
   public static PublicKeyCredentialCreationOptions fromJson(String json)
       throws JsonProcessingException {
-    return JacksonCodecs.json().readValue(json, PublicKeyCredentialCreationOptions.class);
+    return JacksonCodecs.jsonReaderFor(PublicKeyCredentialCreationOptions.class).readValue(json);
   }
 
   public Optional<Long> getTimeout() {
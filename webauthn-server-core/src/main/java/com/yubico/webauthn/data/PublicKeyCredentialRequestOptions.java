@@ -27,10 +27,9 @@ package com.yubico.webauthn.data;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.yubico.internal.util.CollectionUtil;
 import com.yubico.internal.util.JacksonCodecs;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import lombok.Builder;
@@ -154,10 +153,8 @@ public class PublicKeyCredentialRequestOptions {
    * @throws JsonProcessingException if JSON serialization fails.
    */
   public String toCredentialsGetJson() throws JsonProcessingException {
-    ObjectMapper json = JacksonCodecs.json();
-    ObjectNode result = json.createObjectNode();
-    result.set("publicKey", json.valueToTree(this));
-    return json.writeValueAsString(result);
+    return JacksonCodecs.jsonWriter()
+        .writeValueAsString(Collections.singletonMap("publicKey", this));
   }
 
   public static PublicKeyCredentialRequestOptionsBuilder.MandatoryStages builder() {
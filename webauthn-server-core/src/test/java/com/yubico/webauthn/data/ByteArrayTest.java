@@ -24,12 +24,17 @@
 
 package com.yubico.webauthn.data;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.yubico.webauthn.data.exception.Base64UrlException;
 import com.yubico.webauthn.data.exception.HexException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import org.junit.Test;
 
 public class ByteArrayTest {
@@ -107,4 +112,78 @@ public class ByteArrayTest {
     assertTrue(ByteArray.fromHex("1111").compareTo(ByteArray.fromHex("0000")) > 0);
     assertTrue(ByteArray.fromHex("0011").compareTo(ByteArray.fromHex("0000")) > 0);
   }
+
+  @Test
+  public void constructorCopiesInput() {
+    byte[] input = new byte[] {1, 2, 3};
+    ByteArray ba = new ByteArray(input);
+    input[0] = 9;
+    assertArrayEquals(new byte[] {1, 2, 3}, ba.getBytes());
+    assertNotSame(ba.getBytes(), ba.getBytes());
+  }
+
+  @Test
+  public void sliceHasSameContentsAsCopy() throws HexException {
+    ByteArray parent = ByteArray.fromHex("0001020304050607");
+    ByteArray slice = parent.slice(2, 4);
+
+    assertEquals(ByteArray.fromHex("02030405"), slice);
+    assertEquals(ByteArray.fromHex("02030405").hashCode(), slice.hashCode());
+    assertEquals("02030405", slice.getHex());
+    assertEquals(ByteArray.fromHex("02030405").getBase64Url(), slice.getBase64Url());
+    assertEquals(ByteArray.fromHex("02030405").getBase64(), slice.getBase64());
+    assertEquals(ByteArray.fromHex("02030405").toString(), slice.toString());
+    assertEquals(0, slice.compareTo(ByteArray.fromHex("02030405")));
+    assertEquals(ByteArray.fromHex("030405"), slice.slice(1, 3));
+    assertEquals(ByteArray.fromHex("02030405ff"), slice.concat(ByteArray.fromHex("ff")));
+    assertTrue(slice.slice(4, 0).isEmpty());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void sliceRejectsOutOfBoundsRange() throws HexException {
+    ByteArray.fromHex("00010203").slice(2, 3);
+  }
+
+  @Test
+  public void compactCopiesOnlySlices() throws HexException {
+    ByteArray parent = ByteArray.fromHex("0001020304050607");
+    ByteArray compacted = parent.slice(2, 4).compact();
+
+    assertEquals(ByteArray.fromHex("02030405"), compacted);
+    assertEquals(4, compacted.backingArray().length);
+    assertEquals(0, compacted.backingArrayOffset());
+    assertSame(parent, parent.compact());
+    assertSame(compacted, compacted.compact());
+  }
+
+  @Test
+  public void regionMatchesComparesInPlace() throws HexException {
+    ByteArray a = ByteArray.fromHex("0001020304");
+    ByteArray b = ByteArray.fromHex("ff020304");
+
+    assertTrue(a.regionMatches(2, b, 1, 3));
+    assertTrue(a.regionMatches(2, b, 1, 0));
+    assertFalse(a.regionMatches(1, b, 1, 3));
+    assertFalse(a.regionMatches(2, b, 1, 4));
+    assertFalse(a.regionMatches(-1, b, 1, 1));
+  }
+
+  @Test
+  public void copyToCopiesRegion() throws HexException {
+    byte[] dest = new byte[5];
+    ByteArray.fromHex("00010203").slice(1, 3).copyTo(dest, 1);
+    assertArrayEquals(new byte[] {0, 1, 2, 3, 0}, dest);
+
+    ByteArray.fromHex("0a0b0c").copyTo(1, dest, 0, 2);
+    assertArrayEquals(new byte[] {0x0b, 0x0c, 2, 3, 0}, dest);
+  }
+
+  @Test(expected = ReadOnlyBufferException.class)
+  public void asReadOnlyByteBufferIsReadOnlyView() throws HexException {
+    ByteBuffer buf = ByteArray.fromHex("0001020304").slice(1, 3).asReadOnlyByteBuffer();
+    assertEquals(0, buf.position());
+    assertEquals(3, buf.remaining());
+    assertEquals(1, buf.get(0));
+    buf.put(0, (byte) 9);
+  }
 }
@@ -30,6 +30,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode
 import com.fasterxml.jackson.databind.node.TextNode
 import com.upokecenter.cbor.CBORObject
 import com.yubico.internal.util.JacksonCodecs
+import com.yubico.webauthn.ResolvingCredentialRepository.ResolvedUser
 import com.yubico.webauthn.data.AssertionExtensionInputs
 import com.yubico.webauthn.data.AuthenticatorAssertionResponse
 import com.yubico.webauthn.data.AuthenticatorAttachment
@@ -50,6 +51,7 @@ import com.yubico.webauthn.data.ReexportHelpers
 import com.yubico.webauthn.data.RelyingPartyIdentity
 import com.yubico.webauthn.data.UserIdentity
 import com.yubico.webauthn.data.UserVerificationRequirement
+import com.yubico.webauthn.exception.AssertionFailedException
 import com.yubico.webauthn.exception.InvalidSignatureCountException
 import com.yubico.webauthn.extension.appid.AppId
 import com.yubico.webauthn.extension.uvm.KeyProtectionType
@@ -72,6 +74,15 @@ import java.security.KeyPair
 import java.security.MessageDigest
 import java.security.interfaces.ECPublicKey
 import java.util.Optional
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import scala.jdk.CollectionConverters._
 import scala.jdk.OptionConverters.RichOption
 import scala.jdk.OptionConverters.RichOptional
@@ -182,6 +193,7 @@ class RelyingPartyAssertionSpec
       credentialRepository: Option[CredentialRepository] = None,
       isSecurePaymentConfirmation: Option[Boolean] = None,
       origins: Option[Set[String]] = None,
+      publicKeyCache: Option[PublicKeyCache] = None,
       requestedExtensions: AssertionExtensionInputs =
         Defaults.requestedExtensions,
       rpId: RelyingPartyIdentity = Defaults.rpId,
@@ -278,6 +290,7 @@ class RelyingPartyAssertionSpec
       .validateSignatureCounter(validateSignatureCounter)
 
     origins.map(_.asJava).foreach(builder.origins _)
+    publicKeyCache.foreach(builder.publicKeyCache _)
 
     val fao = FinishAssertionOptions
       .builder()
@@ -817,6 +830,151 @@ class RelyingPartyAssertionSpec
               step.tryNext shouldBe a[Success[_]]
             }
           }
+
+          describe("With a ResolvingCredentialRepository,") {
+            class CountingResolvingRepository
+                extends ResolvingCredentialRepository {
+              val calls = new AtomicInteger(0)
+
+              private def resolve(
+                  username: String,
+                  userHandle: ByteArray,
+                  credentialId: ByteArray,
+              ): Optional[ResolvedUser] = {
+                calls.incrementAndGet()
+                Some(
+                  ResolvedUser
+                    .builder()
+                    .username(username)
+                    .userHandle(userHandle)
+                    .credential(
+                      if (userHandle == owner.userHandle)
+                        credentialRepository.get
+                          .lookup(credentialId, userHandle)
+                          .get
+                      else null
+                    )
+                    .build()
+                ).toJava
+              }
+
+              override def resolveUserByUsername(
+                  username: String,
+                  credentialId: ByteArray,
+              ) =
+                resolve(
+                  username,
+                  credentialRepository.get
+                    .getUserHandleForUsername(username)
+                    .get,
+                  credentialId,
+                )
+              override def resolveUserByUserHandle(
+                  userHandle: ByteArray,
+                  credentialId: ByteArray,
+              ) =
+                resolve(
+                  credentialRepository.get
+                    .getUsernameForUserHandle(userHandle)
+                    .get,
+                  userHandle,
+                  credentialId,
+                )
+              override def getCredentialIdsForUserHandle(
+                  userHandle: ByteArray
+              ) = ???
+              override def getCredentialIdsForUsername(username: String) = ???
+              override def getUserHandleForUsername(username: String) = ???
+              override def getUsernameForUserHandle(userHandle: ByteArray) = ???
+              override def lookup(id: ByteArray, uh: ByteArray) = ???
+              override def lookupAll(id: ByteArray) = ???
+            }
+
+            it("the user and credential are resolved with one repository call.") {
+              for {
+                (
+                  usernameForRequest,
+                  userHandleForRequest,
+                  userHandleForResponse,
+                ) <- List(
+                  (Some(owner.username), None, Some(owner.userHandle)),
+                  (Some(owner.username), None, None),
+                  (None, None, Some(owner.userHandle)),
+                  (None, Some(owner.userHandle), None),
+                )
+              } {
+                val repo = new CountingResolvingRepository
+                val steps = finishAssertion(
+                  credentialRepository = Some(repo),
+                  usernameForRequest = usernameForRequest,
+                  userHandleForRequest = userHandleForRequest,
+                  userHandleForResponse = userHandleForResponse,
+                  userHandleForUser = owner.userHandle,
+                )
+                val step: FinishAssertionSteps#Step6 = steps.begin.next
+
+                step.validations shouldBe a[Success[_]]
+                step.tryNext shouldBe a[Success[_]]
+                step.getUsername.toScala should equal(Some(owner.username))
+                step.getUserHandle.toScala should equal(Some(owner.userHandle))
+                repo.calls.get should equal(1)
+              }
+            }
+
+            it("fails if response.userHandle does not identify the same user as request.username.") {
+              val repo = new CountingResolvingRepository
+              val steps = finishAssertion(
+                credentialRepository = Some(repo),
+                usernameForRequest = Some(nonOwner.username),
+                userHandleForUser = owner.userHandle,
+                userHandleForResponse = Some(owner.userHandle),
+              )
+              val step: FinishAssertionSteps#Step6 = steps.begin.next
+
+              step.validations shouldBe a[Failure[_]]
+              step.validations.failed.get shouldBe an[IllegalArgumentException]
+              step.tryNext shouldBe a[Failure[_]]
+              repo.calls.get should equal(2)
+            }
+
+            it("succeeds if request.username identifies the same user as response.userHandle in a repository that matches usernames case-insensitively.") {
+              val repo = new CountingResolvingRepository {
+                override def resolveUserByUsername(
+                    username: String,
+                    credentialId: ByteArray,
+                ) =
+                  super.resolveUserByUsername(username.toLowerCase, credentialId)
+              }
+              val steps = finishAssertion(
+                credentialRepository = Some(repo),
+                usernameForRequest = Some(owner.username.toUpperCase),
+                userHandleForUser = owner.userHandle,
+                userHandleForResponse = Some(owner.userHandle),
+              )
+              val step: FinishAssertionSteps#Step6 = steps.begin.next
+
+              step.validations shouldBe a[Success[_]]
+              step.tryNext shouldBe a[Success[_]]
+              step.getUserHandle.toScala should equal(Some(owner.userHandle))
+              repo.calls.get should equal(2)
+            }
+
+            it("fails if the credential is not registered to the resolved user.") {
+              val repo = new CountingResolvingRepository
+              val steps = finishAssertion(
+                credentialRepository = Some(repo),
+                usernameForRequest = None,
+                userHandleForUser = owner.userHandle,
+                userHandleForResponse = Some(nonOwner.userHandle),
+              )
+              val step: FinishAssertionSteps#Step6 = steps.begin.next
+
+              step.validations shouldBe a[Failure[_]]
+              step.validations.failed.get shouldBe an[IllegalArgumentException]
+              step.tryNext shouldBe a[Failure[_]]
+              repo.calls.get should equal(1)
+            }
+          }
         }
 
         describe("7. Using credential.id (or credential.rawId, if base64url encoding is inappropriate for your use case), look up the corresponding credential public key and let credentialPublicKey be that credential public key.") {
@@ -1830,6 +1988,59 @@ class RelyingPartyAssertionSpec
             step.signedBytes should not be null
           }
 
+          it("With a PublicKeyCache, the public key is parsed only once.") {
+            val cache = PublicKeyCache.withMaximumSize(10)
+
+            for { i <- 1 to 3 } {
+              val steps = finishAssertion(publicKeyCache = Some(cache))
+              val step: FinishAssertionSteps#Step20 =
+                steps.begin.next.next.next.next.next.next.next.next.next.next.next.next.next.next.next
+
+              step.validations shouldBe a[Success[_]]
+              cache.getMissCount should equal(1)
+              cache.getHitCount should equal(i - 1)
+              cache.size should equal(1)
+            }
+          }
+
+          it("A PublicKeyCache with maximum size 0 retains no public keys.") {
+            val cache = PublicKeyCache.withMaximumSize(0)
+
+            for { i <- 1 to 2 } {
+              val steps = finishAssertion(publicKeyCache = Some(cache))
+              val step: FinishAssertionSteps#Step20 =
+                steps.begin.next.next.next.next.next.next.next.next.next.next.next.next.next.next.next
+
+              step.validations shouldBe a[Success[_]]
+              cache.getMissCount should equal(i)
+              cache.getHitCount should equal(0)
+              cache.size should equal(0)
+            }
+          }
+
+          it("A cached public key does not verify a mutated clientDataJSON.") {
+            val cache = PublicKeyCache.withMaximumSize(10)
+            finishAssertion(publicKeyCache = Some(cache)).run()
+
+            val steps = finishAssertion(
+              clientDataJson = JacksonCodecs.json.writeValueAsString(
+                JacksonCodecs.json
+                  .readTree(Defaults.clientDataJson)
+                  .asInstanceOf[ObjectNode]
+                  .set("foo", jsonFactory.textNode("bar"))
+              ),
+              publicKeyCache = Some(cache),
+            )
+            val step: FinishAssertionSteps#Step20 =
+              steps.begin.next.next.next.next.next.next.next.next.next.next.next.next.next.next.next
+
+            val result = step.validations
+            result shouldBe a[Failure[_]]
+            result.failed.get shouldBe an[IllegalArgumentException]
+            cache.getMissCount should equal(1)
+            cache.getHitCount should equal(1)
+          }
+
           it("A mutated clientDataJSON fails verification.") {
             val steps = finishAssertion(
               clientDataJson = JacksonCodecs.json.writeValueAsString(
@@ -2067,6 +2278,695 @@ class RelyingPartyAssertionSpec
       }
     }
 
+    describe("RelyingParty.finishAssertions") {
+      val credential = RegisteredCredential
+        .builder()
+        .credentialId(Defaults.credentialId)
+        .userHandle(Defaults.userHandle)
+        .publicKeyCose(getPublicKeyBytes(Defaults.credentialKey))
+        .signatureCount(0)
+        .build()
+
+      def options(
+          signature: ByteArray = Defaults.signature
+      ): FinishAssertionOptions =
+        FinishAssertionOptions
+          .builder()
+          .request(
+            AssertionRequest
+              .builder()
+              .publicKeyCredentialRequestOptions(
+                PublicKeyCredentialRequestOptions
+                  .builder()
+                  .challenge(Defaults.challenge)
+                  .rpId(Defaults.rpId.getId)
+                  .build()
+              )
+              .username(Defaults.username)
+              .build()
+          )
+          .response(
+            PublicKeyCredential
+              .builder()
+              .id(Defaults.credentialId)
+              .response(
+                AuthenticatorAssertionResponse
+                  .builder()
+                  .authenticatorData(Defaults.authenticatorData)
+                  .clientDataJSON(Defaults.clientDataJsonBytes)
+                  .signature(signature)
+                  .userHandle(Defaults.userHandle)
+                  .build()
+              )
+              .clientExtensionResults(Defaults.clientExtensionResults)
+              .build()
+          )
+          .build()
+
+      class CountingBatchRepository extends BatchCredentialRepository {
+        val batchLookups = new AtomicInteger(0)
+        val singleLookups = new AtomicInteger(0)
+
+        override def lookupBatch(credentialIds: java.util.Set[ByteArray]) = {
+          batchLookups.incrementAndGet()
+          credentialIds.asScala.toSet
+            .filter(_ == credential.getCredentialId)
+            .map(_ => credential)
+            .asJava
+        }
+        override def lookup(credId: ByteArray, userHandle: ByteArray) = {
+          singleLookups.incrementAndGet()
+          Some(credential)
+            .filter(c =>
+              c.getCredentialId == credId && c.getUserHandle == userHandle
+            )
+            .toJava
+        }
+        override def getUserHandleForUsername(username: String) =
+          getUserHandleIfDefaultUsername(username, Defaults.userHandle)
+        override def getUsernameForUserHandle(userHandle: ByteArray) =
+          getUsernameIfDefaultUserHandle(userHandle, Defaults.username)
+        override def getCredentialIdsForUsername(username: String) = ???
+        override def lookupAll(credentialId: ByteArray) = ???
+      }
+
+      def rp(
+          credentialRepository: CredentialRepository,
+          publicKeyCache: Option[PublicKeyCache] = None,
+      ): RelyingParty = {
+        val builder = RelyingParty
+          .builder()
+          .identity(Defaults.rpId)
+          .credentialRepository(credentialRepository)
+          .preferredPubkeyParams(Nil.asJava)
+        publicKeyCache.foreach(builder.publicKeyCache _)
+        builder.build()
+      }
+
+      def withExecutor[T](f: ExecutorService => T): T = {
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+          f(executor)
+        } finally {
+          executor.shutdown()
+        }
+      }
+
+      it("returns per-item results in input order.") {
+        val invalidSignature = new ByteArray(
+          Defaults.signature.getBytes.updated(10, 0.toByte)
+        )
+        val results = withExecutor { executor =>
+          rp(new CountingBatchRepository)
+            .finishAssertions(
+              List(
+                options(),
+                options(signature = invalidSignature),
+                options(),
+              ).asJava,
+              executor,
+            )
+            .asScala
+            .map(future => Try(future.get(10, TimeUnit.SECONDS)))
+        }
+
+        results should have length 3
+        results(0).get.isSuccess should be(true)
+        results(0).get.getCredential should equal(credential)
+        results(1) shouldBe a[Failure[_]]
+        results(1).failed.get shouldBe an[ExecutionException]
+        results(1).failed.get.getCause shouldBe an[AssertionFailedException]
+        results(2).get.isSuccess should be(true)
+      }
+
+      it("looks up all credentials with one call to a BatchCredentialRepository.") {
+        val repo = new CountingBatchRepository
+        withExecutor { executor =>
+          rp(repo)
+            .finishAssertions(List.fill(5)(options()).asJava, executor)
+            .asScala
+            .foreach(_.get(10, TimeUnit.SECONDS).isSuccess should be(true))
+        }
+
+        repo.batchLookups.get should equal(1)
+        repo.singleLookups.get should equal(0)
+      }
+
+      it("resolves each user account with one call to a BatchCredentialRepository that is also a ResolvingCredentialRepository.") {
+        val repo = new CountingBatchRepository
+          with ResolvingCredentialRepository {
+          val resolveCalls = new AtomicInteger(0)
+          val userLookups = new AtomicInteger(0)
+
+          private def resolve(credentialId: ByteArray) = {
+            resolveCalls.incrementAndGet()
+            Some(
+              ResolvedUser
+                .builder()
+                .username(Defaults.username)
+                .userHandle(Defaults.userHandle)
+                .credential(
+                  Some(credential)
+                    .filter(_.getCredentialId == credentialId)
+                    .orNull
+                )
+                .build()
+            ).toJava
+          }
+          override def resolveUserByUsername(
+              username: String,
+              credentialId: ByteArray,
+          ) = resolve(credentialId)
+          override def resolveUserByUserHandle(
+              userHandle: ByteArray,
+              credentialId: ByteArray,
+          ) = resolve(credentialId)
+          override def getCredentialIdsForUserHandle(userHandle: ByteArray) =
+            ???
+          override def getUserHandleForUsername(username: String) = {
+            userLookups.incrementAndGet()
+            super.getUserHandleForUsername(username)
+          }
+          override def getUsernameForUserHandle(userHandle: ByteArray) = {
+            userLookups.incrementAndGet()
+            super.getUsernameForUserHandle(userHandle)
+          }
+        }
+        withExecutor { executor =>
+          rp(repo)
+            .finishAssertions(List.fill(5)(options()).asJava, executor)
+            .asScala
+            .foreach(_.get(10, TimeUnit.SECONDS).isSuccess should be(true))
+        }
+
+        repo.resolveCalls.get should equal(5)
+        repo.userLookups.get should equal(0)
+        repo.singleLookups.get should equal(0)
+      }
+
+      it("works with a CredentialRepository that does not support batch lookups.") {
+        withExecutor { executor =>
+          rp(Helpers.CredentialRepository.withUser(Defaults.user, credential))
+            .finishAssertions(List.fill(3)(options()).asJava, executor)
+            .asScala
+            .foreach(_.get(10, TimeUnit.SECONDS).isSuccess should be(true))
+        }
+      }
+
+      it("parses each distinct public key only once.") {
+        val cache = PublicKeyCache.withMaximumSize(10)
+        withExecutor { executor =>
+          rp(new CountingBatchRepository, publicKeyCache = Some(cache))
+            .finishAssertions(List.fill(5)(options()).asJava, executor)
+            .asScala
+            .foreach(_.get(10, TimeUnit.SECONDS).isSuccess should be(true))
+        }
+
+        cache.getMissCount should equal(1)
+      }
+
+      it("completes all results exceptionally if the executor rejects tasks.") {
+        val results = rp(new CountingBatchRepository)
+          .finishAssertions(
+            List.fill(2)(options()).asJava,
+            (_: Runnable) => throw new RejectedExecutionException(),
+          )
+          .asScala
+
+        results should have length 2
+        results.foreach { result =>
+          result.isCompletedExceptionally should be(true)
+          Try(result.get).failed.get.getCause shouldBe a[
+            RejectedExecutionException
+          ]
+        }
+      }
+
+      it("returns an empty list for an empty batch.") {
+        rp(new CountingBatchRepository)
+          .finishAssertions(
+            Nil.asJava,
+            (_: Runnable) => fail("Executor should not be used."),
+          ) shouldBe empty
+      }
+    }
+
+    describe("RelyingParty.finishAssertionAsync") {
+      val credential = RegisteredCredential
+        .builder()
+        .credentialId(Defaults.credentialId)
+        .userHandle(Defaults.userHandle)
+        .publicKeyCose(getPublicKeyBytes(Defaults.credentialKey))
+        .signatureCount(0)
+        .build()
+
+      val credentialRepository =
+        Helpers.CredentialRepository.withUser(Defaults.user, credential)
+
+      def options(
+          username: Option[String] = Some(Defaults.username),
+          userHandle: Option[ByteArray] = Some(Defaults.userHandle),
+          signature: ByteArray = Defaults.signature,
+      ): FinishAssertionOptions =
+        FinishAssertionOptions
+          .builder()
+          .request(
+            AssertionRequest
+              .builder()
+              .publicKeyCredentialRequestOptions(
+                PublicKeyCredentialRequestOptions
+                  .builder()
+                  .challenge(Defaults.challenge)
+                  .rpId(Defaults.rpId.getId)
+                  .build()
+              )
+              .username(username.toJava)
+              .build()
+          )
+          .response(
+            PublicKeyCredential
+              .builder()
+              .id(Defaults.credentialId)
+              .response(
+                AuthenticatorAssertionResponse
+                  .builder()
+                  .authenticatorData(Defaults.authenticatorData)
+                  .clientDataJSON(Defaults.clientDataJsonBytes)
+                  .signature(signature)
+                  .userHandle(userHandle.toJava)
+                  .build()
+              )
+              .clientExtensionResults(Defaults.clientExtensionResults)
+              .build()
+          )
+          .build()
+
+      /** Defers every lookup until [[completeAll]] is called. */
+      class DeferredRepository extends AsyncCredentialRepository {
+        private val pending = new ConcurrentLinkedQueue[Runnable]
+        val calls = new AtomicInteger(0)
+
+        private def defer[T](lookup: => T): CompletionStage[T] = {
+          calls.incrementAndGet()
+          val future = new CompletableFuture[T]
+          pending.add(() => { future.complete(lookup); () })
+          future
+        }
+
+        def completeAll(): Unit =
+          while (!pending.isEmpty) {
+            pending.poll().run()
+          }
+
+        override def getCredentialIdsForUsername(username: String) =
+          defer(credentialRepository.getCredentialIdsForUsername(username))
+        override def getUserHandleForUsername(username: String) =
+          defer(credentialRepository.getUserHandleForUsername(username))
+        override def getUsernameForUserHandle(userHandle: ByteArray) =
+          defer(credentialRepository.getUsernameForUserHandle(userHandle))
+        override def lookup(credentialId: ByteArray, userHandle: ByteArray) =
+          defer(credentialRepository.lookup(credentialId, userHandle))
+        override def lookupAll(credentialId: ByteArray) =
+          defer(credentialRepository.lookupAll(credentialId))
+      }
+
+      def rp(
+          asyncCredentialRepository: Option[AsyncCredentialRepository] = None
+      ): RelyingParty = {
+        val builder = RelyingParty
+          .builder()
+          .identity(Defaults.rpId)
+          .credentialRepository(credentialRepository)
+          .preferredPubkeyParams(Nil.asJava)
+        asyncCredentialRepository.foreach(builder.asyncCredentialRepository _)
+        builder.build()
+      }
+
+      it("completes only after the repository lookups complete.") {
+        val repo = new DeferredRepository
+        val result = rp(Some(repo)).finishAssertionAsync(options())
+        result.isDone should be(false)
+
+        repo.completeAll()
+        result.isDone should be(true)
+        result.get.isSuccess should be(true)
+        result.get.getCredential should equal(credential)
+        result.get.getUsername should equal(Defaults.username)
+      }
+
+      it("resolves the username and user handle in the same way as finishAssertion.") {
+        for {
+          (username, userHandle) <- List(
+            (Some(Defaults.username), Some(Defaults.userHandle)),
+            (Some(Defaults.username), None),
+            (None, Some(Defaults.userHandle)),
+          )
+        } {
+          val repo = new DeferredRepository
+          val result = rp(Some(repo))
+            .finishAssertionAsync(options(username, userHandle))
+          repo.completeAll()
+
+          val expected = rp().finishAssertion(options(username, userHandle))
+          result.get.getUsername should equal(expected.getUsername)
+          result.get.getCredential should equal(expected.getCredential)
+        }
+      }
+
+      it("calls the synchronous credential repository if no asynchronous one is set.") {
+        val result = rp().finishAssertionAsync(options())
+        result.isDone should be(true)
+        result.get.isSuccess should be(true)
+      }
+
+      it("works with a synchronous repository adapted to run on an executor.") {
+        val executor = Executors.newFixedThreadPool(2)
+        try {
+          rp(
+            Some(
+              AsyncCredentialRepository.fromSync(credentialRepository, executor)
+            )
+          ).finishAssertionAsync(options())
+            .get(10, TimeUnit.SECONDS)
+            .isSuccess should be(true)
+        } finally {
+          executor.shutdown()
+        }
+      }
+
+      it("completes exceptionally with AssertionFailedException in case of errors.") {
+        val repo = new DeferredRepository
+        val result = rp(Some(repo)).finishAssertionAsync(
+          options(signature =
+            new ByteArray(Defaults.signature.getBytes.updated(10, 0.toByte))
+          )
+        )
+        repo.completeAll()
+
+        Try(result.get).failed.get.getCause shouldBe an[
+          AssertionFailedException
+        ]
+      }
+
+      it("completes exceptionally with the exception from a failed lookup.") {
+        val failure = new IllegalStateException("Database unavailable")
+        val repo = new DeferredRepository {
+          override def lookup(
+              credentialId: ByteArray,
+              userHandle: ByteArray,
+          ) = {
+            val result = new CompletableFuture[Optional[RegisteredCredential]]
+            result.completeExceptionally(failure)
+            result
+          }
+        }
+        val result = rp(Some(repo)).finishAssertionAsync(options())
+        repo.completeAll()
+
+        Try(result.get).failed.get.getCause should be theSameInstanceAs failure
+      }
+
+      it("resolves the user account with one call to a ResolvingCredentialRepository.") {
+        val resolvingRepository = new ResolvingCredentialRepository {
+          val calls = new AtomicInteger(0)
+
+          override def resolveUserByUsername(
+              username: String,
+              credentialId: ByteArray,
+          ) = {
+            calls.incrementAndGet()
+            credentialRepository
+              .getUserHandleForUsername(username)
+              .map(userHandle =>
+                ResolvedUser
+                  .builder()
+                  .username(username)
+                  .userHandle(userHandle)
+                  .credential(
+                    credentialRepository
+                      .lookup(credentialId, userHandle)
+                      .orElse(null)
+                  )
+                  .build()
+              )
+          }
+          override def resolveUserByUserHandle(
+              userHandle: ByteArray,
+              credentialId: ByteArray,
+          ) = {
+            calls.incrementAndGet()
+            credentialRepository
+              .getUsernameForUserHandle(userHandle)
+              .map(username =>
+                ResolvedUser
+                  .builder()
+                  .username(username)
+                  .userHandle(userHandle)
+                  .credential(
+                    credentialRepository
+                      .lookup(credentialId, userHandle)
+                      .orElse(null)
+                  )
+                  .build()
+              )
+          }
+          override def getCredentialIdsForUserHandle(userHandle: ByteArray) =
+            ???
+          override def getCredentialIdsForUsername(username: String) = ???
+          override def getUserHandleForUsername(username: String) = ???
+          override def getUsernameForUserHandle(userHandle: ByteArray) = ???
+          override def lookup(id: ByteArray, uh: ByteArray) = ???
+          override def lookupAll(id: ByteArray) = ???
+        }
+
+        for {
+          (username, userHandle) <- List(
+            (Some(Defaults.username), Some(Defaults.userHandle)),
+            (Some(Defaults.username), None),
+            (None, Some(Defaults.userHandle)),
+          )
+        } {
+          val callsBefore = resolvingRepository.calls.get
+          val result = rp(
+            Some(
+              AsyncCredentialRepository.fromSync(
+                resolvingRepository,
+                (task: Runnable) => task.run(),
+              )
+            )
+          ).finishAssertionAsync(options(username, userHandle))
+
+          result.get.isSuccess should be(true)
+          result.get.getUsername should equal(Defaults.username)
+          resolvingRepository.calls.get - callsBefore should equal(1)
+        }
+      }
+
+      it("accepts a request username that a ResolvingCredentialRepository matches case-insensitively.") {
+        val resolvingRepository = new ResolvingCredentialRepository {
+          val calls = new AtomicInteger(0)
+
+          private def resolve(credentialId: ByteArray) =
+            Some(
+              ResolvedUser
+                .builder()
+                .username(Defaults.username)
+                .userHandle(Defaults.userHandle)
+                .credential(
+                  credentialRepository
+                    .lookup(credentialId, Defaults.userHandle)
+                    .orElse(null)
+                )
+                .build()
+            ).toJava
+
+          override def resolveUserByUsername(
+              username: String,
+              credentialId: ByteArray,
+          ) = {
+            calls.incrementAndGet()
+            if (username.equalsIgnoreCase(Defaults.username))
+              resolve(credentialId)
+            else Optional.empty[ResolvedUser]()
+          }
+          override def resolveUserByUserHandle(
+              userHandle: ByteArray,
+              credentialId: ByteArray,
+          ) = {
+            calls.incrementAndGet()
+            if (userHandle == Defaults.userHandle) resolve(credentialId)
+            else Optional.empty[ResolvedUser]()
+          }
+          override def getCredentialIdsForUserHandle(userHandle: ByteArray) =
+            ???
+          override def getCredentialIdsForUsername(username: String) = ???
+          override def getUserHandleForUsername(username: String) = ???
+          override def getUsernameForUserHandle(userHandle: ByteArray) = ???
+          override def lookup(id: ByteArray, uh: ByteArray) = ???
+          override def lookupAll(id: ByteArray) = ???
+        }
+
+        val result = rp(
+          Some(
+            AsyncCredentialRepository.fromSync(
+              resolvingRepository,
+              (task: Runnable) => task.run(),
+            )
+          )
+        ).finishAssertionAsync(
+          options(
+            username = Some(Defaults.username.toUpperCase),
+            userHandle = Some(Defaults.userHandle),
+          )
+        )
+
+        result.get.isSuccess should be(true)
+        resolvingRepository.calls.get should equal(2)
+      }
+
+      it("waits for lookups that were not made in advance, instead of failing.") {
+        val repo = new DeferredRepository
+        val resolved = ResolvedCredentialRepository.resolveForAssertion(
+          repo,
+          options(username = Some(Defaults.username), userHandle = None),
+        )
+        repo.completeAll()
+
+        val lookup = new CompletableFuture[Optional[String]]
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+          executor.execute(() => {
+            lookup.complete(
+              resolved.get.getUsernameForUserHandle(Defaults.userHandle)
+            )
+            ()
+          })
+          while (!lookup.isDone) {
+            repo.completeAll()
+            Thread.sleep(1)
+          }
+        } finally {
+          executor.shutdown()
+        }
+        lookup.get should equal(Optional.of(Defaults.username))
+      }
+    }
+
+    describe("RelyingParty with a CeremonyListener") {
+      val credential = RegisteredCredential
+        .builder()
+        .credentialId(Defaults.credentialId)
+        .userHandle(Defaults.userHandle)
+        .publicKeyCose(getPublicKeyBytes(Defaults.credentialKey))
+        .signatureCount(0)
+        .build()
+
+      def options(signature: ByteArray = Defaults.signature) =
+        FinishAssertionOptions
+          .builder()
+          .request(
+            AssertionRequest
+              .builder()
+              .publicKeyCredentialRequestOptions(
+                PublicKeyCredentialRequestOptions
+                  .builder()
+                  .challenge(Defaults.challenge)
+                  .rpId(Defaults.rpId.getId)
+                  .build()
+              )
+              .username(Defaults.username)
+              .build()
+          )
+          .response(
+            PublicKeyCredential
+              .builder()
+              .id(Defaults.credentialId)
+              .response(
+                AuthenticatorAssertionResponse
+                  .builder()
+                  .authenticatorData(Defaults.authenticatorData)
+                  .clientDataJSON(Defaults.clientDataJsonBytes)
+                  .signature(signature)
+                  .userHandle(Defaults.userHandle)
+                  .build()
+              )
+              .clientExtensionResults(Defaults.clientExtensionResults)
+              .build()
+          )
+          .build()
+
+      def rp(listener: CeremonyListener): RelyingParty =
+        RelyingParty
+          .builder()
+          .identity(Defaults.rpId)
+          .credentialRepository(
+            Helpers.CredentialRepository.withUser(Defaults.user, credential)
+          )
+          .preferredPubkeyParams(Nil.asJava)
+          .ceremonyListener(listener)
+          .build()
+
+      it("is notified of every step in order.") {
+        val events = new ConcurrentLinkedQueue[CeremonyListener.StepEvent]
+        rp(event => { events.add(event); () })
+          .finishAssertion(options())
+          .isSuccess should be(true)
+
+        val steps = events.asScala.toList
+        steps.map(_.getStep) should equal(
+          List(
+            "Step5",
+            "Step6",
+            "Step7",
+            "Step8",
+            "Step10",
+            "Step11",
+            "Step12",
+            "Step13",
+            "Step14",
+            "Step15",
+            "Step16",
+            "Step17",
+            "PendingStep16",
+            "Step18",
+            "Step19",
+            "Step20",
+            "Step21",
+            "Finished",
+          )
+        )
+        steps.map(_.getCeremony).distinct should equal(
+          List(CeremonyListener.Ceremony.ASSERTION)
+        )
+        steps.forall(_.isSuccess) should be(true)
+        steps.forall(_.getDurationNanos >= 0) should be(true)
+      }
+
+      it("is notified of the failing step, and of no steps after it.") {
+        val events = new ConcurrentLinkedQueue[CeremonyListener.StepEvent]
+        val result = Try(
+          rp(event => { events.add(event); () }).finishAssertion(
+            options(signature =
+              new ByteArray(Defaults.signature.getBytes.updated(10, 0.toByte))
+            )
+          )
+        )
+
+        result.failed.get shouldBe an[AssertionFailedException]
+        val last = events.asScala.last
+        last.getStep should equal("Step20")
+        last.isSuccess should be(false)
+        last.getFailure.get shouldBe an[IllegalArgumentException]
+        events.asScala.init.forall(_.isSuccess) should be(true)
+      }
+
+      it("does not affect the result if the listener throws an exception.") {
+        rp(_ => throw new RuntimeException("Listener failure"))
+          .finishAssertion(options())
+          .isSuccess should be(true)
+      }
+    }
+
     describe("RelyingParty supports authenticating") {
       it("a real RSA key.") {
         val testData = RegistrationTestData.Packed.BasicAttestationRsaReal
@@ -82,6 +82,8 @@ import org.bouncycastle.asn1.x500.X500Name
 import org.bouncycastle.asn1.x509.Extension
 import org.bouncycastle.asn1.x509.GeneralName
 import org.bouncycastle.asn1.x509.GeneralNamesBuilder
+import org.bouncycastle.asn1.x509.GeneralSubtree
+import org.bouncycastle.asn1.x509.NameConstraints
 import org.bouncycastle.cert.jcajce.JcaX500NameUtil
 import org.bouncycastle.jce.provider.BouncyCastleProvider
 import org.junit.runner.RunWith
@@ -107,15 +109,22 @@ import java.security.cert.CRL
 import java.security.cert.CertStore
 import java.security.cert.CollectionCertStoreParameters
 import java.security.cert.PolicyNode
+import java.security.cert.TrustAnchor
 import java.security.cert.X509Certificate
 import java.security.interfaces.ECPublicKey
 import java.security.interfaces.RSAPublicKey
 import java.time.Clock
+import java.time.Duration
 import java.time.Instant
 import java.time.ZoneOffset
 import java.util
 import java.util.Collections
 import java.util.Optional
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import java.util.function.Predicate
 import javax.security.auth.x500.X500Principal
 import scala.jdk.CollectionConverters._
@@ -4860,4 +4869,564 @@ class RelyingPartyRegistrationSpec
     }
   }
 
+  describe("RelyingParty with a PublicKeyCache") {
+    val user = UserIdentity
+      .builder()
+      .name("test")
+      .displayName("Test Testsson")
+      .id(new ByteArray(Array()))
+      .build()
+
+    def rp(
+        cache: PublicKeyCache,
+        allowUntrustedAttestation: Boolean,
+    ): RelyingParty =
+      RelyingParty
+        .builder()
+        .identity(
+          RelyingPartyIdentity
+            .builder()
+            .id("localhost")
+            .name("Test party")
+            .build()
+        )
+        .credentialRepository(Helpers.CredentialRepository.empty)
+        .publicKeyCache(cache)
+        .allowUntrustedAttestation(allowUntrustedAttestation)
+        .build()
+
+    def register(relyingParty: RelyingParty): Try[RegistrationResult] = {
+      val pkcco = relyingParty.startRegistration(
+        StartRegistrationOptions.builder().user(user).build()
+      )
+      Try(
+        relyingParty.finishRegistration(
+          FinishRegistrationOptions
+            .builder()
+            .request(pkcco)
+            .response(
+              TestAuthenticator
+                .createUnattestedCredential(challenge = pkcco.getChallenge)
+                ._1
+            )
+            .build()
+        )
+      )
+    }
+
+    it("is populated with the public key of a successful registration.") {
+      val cache = PublicKeyCache.withMaximumSize(10)
+      val result = register(rp(cache, allowUntrustedAttestation = true))
+
+      result shouldBe a[Success[_]]
+      cache.size should equal(1)
+      cache.getMissCount should equal(0)
+    }
+
+    it("is not populated if the registration fails after the public key is parsed.") {
+      val cache = PublicKeyCache.withMaximumSize(10)
+      val result = register(rp(cache, allowUntrustedAttestation = false))
+
+      result.failed.get shouldBe a[RegistrationFailedException]
+      cache.size should equal(0)
+    }
+  }
+
+  describe("RelyingParty.finishRegistrationAsync") {
+    val user = UserIdentity
+      .builder()
+      .name("test")
+      .displayName("Test Testsson")
+      .id(new ByteArray(Array()))
+      .build()
+
+    def rp(
+        credentialRepository: CredentialRepository =
+          Helpers.CredentialRepository.empty,
+        asyncCredentialRepository: Option[AsyncCredentialRepository] = None,
+    ): RelyingParty = {
+      val builder = RelyingParty
+        .builder()
+        .identity(
+          RelyingPartyIdentity
+            .builder()
+            .id("localhost")
+            .name("Test party")
+            .build()
+        )
+        .credentialRepository(credentialRepository)
+      asyncCredentialRepository.foreach(builder.asyncCredentialRepository _)
+      builder.build()
+    }
+
+    def options(rp: RelyingParty): FinishRegistrationOptions = {
+      val pkcco = rp.startRegistration(
+        StartRegistrationOptions.builder().user(user).build()
+      )
+      FinishRegistrationOptions
+        .builder()
+        .request(pkcco)
+        .response(
+          TestAuthenticator
+            .createUnattestedCredential(challenge = pkcco.getChallenge)
+            ._1
+        )
+        .build()
+    }
+
+    it("completes only after the credential lookup completes.") {
+      val pendingLookup =
+        new CompletableFuture[java.util.Set[RegisteredCredential]]
+      val relyingParty = rp(asyncCredentialRepository =
+        Some(new AsyncCredentialRepository {
+          override def lookupAll(credentialId: ByteArray) = pendingLookup
+          override def getCredentialIdsForUsername(username: String) = ???
+          override def getUserHandleForUsername(username: String) = ???
+          override def getUsernameForUserHandle(userHandle: ByteArray) = ???
+          override def lookup(credentialId: ByteArray, userHandle: ByteArray) =
+            ???
+        })
+      )
+      val fro = options(relyingParty)
+
+      val result = relyingParty.finishRegistrationAsync(fro)
+      result.isDone should be(false)
+
+      pendingLookup.complete(Collections.emptySet())
+      result.isDone should be(true)
+      result.get.getKeyId.getId should equal(fro.getResponse.getId)
+    }
+
+    it("calls the synchronous credential repository if no asynchronous one is set.") {
+      val relyingParty = rp()
+      val result = relyingParty.finishRegistrationAsync(options(relyingParty))
+      result.isDone should be(true)
+      result.isCompletedExceptionally should be(false)
+    }
+
+    it("works with a synchronous repository adapted to run on an executor.") {
+      val executor = Executors.newSingleThreadExecutor()
+      try {
+        val relyingParty = rp(asyncCredentialRepository =
+          Some(
+            AsyncCredentialRepository
+              .fromSync(Helpers.CredentialRepository.empty, executor)
+          )
+        )
+        relyingParty
+          .finishRegistrationAsync(options(relyingParty))
+          .get(10, TimeUnit.SECONDS)
+          .isAttestationTrusted should be(false)
+      } finally {
+        executor.shutdown()
+      }
+    }
+
+    it("completes exceptionally with RegistrationFailedException in case of errors.") {
+      val relyingParty = rp()
+      val result = Try(
+        relyingParty
+          .finishRegistrationAsync(
+            FinishRegistrationOptions
+              .builder()
+              .request(options(relyingParty).getRequest)
+              .response(RegistrationTestData.NoneAttestation.Default.response)
+              .build()
+          )
+          .get(10, TimeUnit.SECONDS)
+      )
+      result.failed.get shouldBe an[ExecutionException]
+      result.failed.get.getCause shouldBe a[RegistrationFailedException]
+      result.failed.get.getCause.getMessage should include(
+        "Incorrect challenge"
+      )
+    }
+
+    it("completes exceptionally with the exception from a failed lookup.") {
+      val failure = new IllegalStateException("Database unavailable")
+      val relyingParty = rp(asyncCredentialRepository =
+        Some(
+          AsyncCredentialRepository.fromSync(
+            new CredentialRepository {
+              override def lookupAll(credentialId: ByteArray) = throw failure
+              override def getCredentialIdsForUsername(username: String) = ???
+              override def getUserHandleForUsername(username: String) = ???
+              override def getUsernameForUserHandle(userHandle: ByteArray) =
+                ???
+              override def lookup(
+                  credentialId: ByteArray,
+                  userHandle: ByteArray,
+              ) = ???
+            },
+            (task: Runnable) => task.run(),
+          )
+        )
+      )
+      val result = relyingParty.finishRegistrationAsync(options(relyingParty))
+      Try(result.get).failed.get.getCause should be theSameInstanceAs failure
+    }
+  }
+
+  describe("RelyingParty with a CeremonyListener") {
+    val user = UserIdentity
+      .builder()
+      .name("test")
+      .displayName("Test Testsson")
+      .id(new ByteArray(Array()))
+      .build()
+
+    def rp(listener: CeremonyListener): RelyingParty =
+      RelyingParty
+        .builder()
+        .identity(
+          RelyingPartyIdentity
+            .builder()
+            .id("localhost")
+            .name("Test party")
+            .build()
+        )
+        .credentialRepository(Helpers.CredentialRepository.empty)
+        .ceremonyListener(listener)
+        .build()
+
+    it("is notified of every step in order.") {
+      val events = new ConcurrentLinkedQueue[CeremonyListener.StepEvent]
+      val relyingParty = rp(event => { events.add(event); () })
+      val pkcco = relyingParty.startRegistration(
+        StartRegistrationOptions.builder().user(user).build()
+      )
+      relyingParty.finishRegistration(
+        FinishRegistrationOptions
+          .builder()
+          .request(pkcco)
+          .response(
+            TestAuthenticator
+              .createUnattestedCredential(challenge = pkcco.getChallenge)
+              ._1
+          )
+          .build()
+      )
+
+      val steps = events.asScala.toList
+      steps.map(_.getStep) should equal(
+        List(
+          "Step6",
+          "Step7",
+          "Step8",
+          "Step9",
+          "Step10",
+          "Step11",
+          "Step12",
+          "Step13",
+          "Step14",
+          "Step15",
+          "Step16",
+          "Step18",
+          "Step19",
+          "Step20",
+          "Step21",
+          "Step22",
+          "Finished",
+        )
+      )
+      steps.map(_.getCeremony).distinct should equal(
+        List(CeremonyListener.Ceremony.REGISTRATION)
+      )
+      steps.forall(_.isSuccess) should be(true)
+    }
+
+    it("is notified of the failing step, and of no steps after it.") {
+      val events = new ConcurrentLinkedQueue[CeremonyListener.StepEvent]
+      val relyingParty = rp(event => { events.add(event); () })
+      val pkcco = relyingParty.startRegistration(
+        StartRegistrationOptions.builder().user(user).build()
+      )
+      val result = Try(
+        relyingParty.finishRegistration(
+          FinishRegistrationOptions
+            .builder()
+            .request(pkcco)
+            .response(RegistrationTestData.NoneAttestation.Default.response)
+            .build()
+        )
+      )
+
+      result.failed.get shouldBe a[RegistrationFailedException]
+      val last = events.asScala.last
+      last.getStep should equal("Step8")
+      last.isSuccess should be(false)
+      events.asScala.init.forall(_.isSuccess) should be(true)
+    }
+  }
+
+  describe("RelyingParty with a CertPathValidationCache") {
+    val testData = RegistrationTestData.FidoU2f.BasicAttestation
+    val crls = testData.attestationCertChain
+      .map({
+        case (cert, key) =>
+          TestAuthenticator.buildCrl(
+            JcaX500NameUtil.getSubject(cert),
+            key,
+            "SHA256withECDSA",
+            TestAuthenticator.Defaults.certValidFrom,
+            TestAuthenticator.Defaults.certValidTo,
+          )
+      })
+      .toSet
+    val certStore = CertStore.getInstance(
+      "Collection",
+      new CollectionCertStoreParameters(crls.asJava),
+    )
+
+    def finish(
+        cache: CertPathValidationCache,
+        now: Instant = TestAuthenticator.Defaults.certValidFrom,
+        enableRevocationChecking: Boolean = false,
+    ): RegistrationResult =
+      RelyingParty
+        .builder()
+        .identity(testData.rpId)
+        .credentialRepository(Helpers.CredentialRepository.empty)
+        .attestationTrustSource(
+          (_: util.List[X509Certificate], _: Optional[ByteArray]) =>
+            TrustRootsResult
+              .builder()
+              .trustRoots(
+                Collections.singleton(testData.attestationCertChain.last._1)
+              )
+              .certStore(certStore)
+              .enableRevocationChecking(enableRevocationChecking)
+              .build()
+        )
+        .certPathValidationCache(cache)
+        .allowUntrustedAttestation(true)
+        .clock(Clock.fixed(now, ZoneOffset.UTC))
+        .build()
+        .finishRegistration(
+          FinishRegistrationOptions
+            .builder()
+            .request(testData.request)
+            .response(testData.response)
+            .build()
+        )
+
+    it("reuses the result of validating the same certificate chain.") {
+      val cache = CertPathValidationCache.withMaximumSize(10)
+
+      finish(cache).isAttestationTrusted should be(true)
+      cache.getMissCount should equal(1)
+      cache.getHitCount should equal(0)
+      cache.size should equal(1)
+
+      finish(cache).isAttestationTrusted should be(true)
+      cache.getMissCount should equal(1)
+      cache.getHitCount should equal(1)
+    }
+
+    it("does not use a cached result for trust anchors with different name constraints.") {
+      val cache = CertPathValidationCache.withMaximumSize(10)
+      val clock =
+        Clock.fixed(TestAuthenticator.Defaults.certValidFrom, ZoneOffset.UTC)
+      val certPath = testData.attestationCertChain.init.map(_._1).asJava
+      val rootCert = testData.attestationCertChain.last._1
+      val nameConstraints = new NameConstraints(
+        Array(
+          new GeneralSubtree(
+            new GeneralName(new X500Name("CN=Nothing, O=Nowhere"))
+          )
+        ),
+        null,
+      )
+      def trustRoots(nameConstraints: Option[NameConstraints]) =
+        TrustRootsResult
+          .builder()
+          .trustAnchors(
+            Set(
+              new TrustAnchor(
+                rootCert,
+                nameConstraints.map(_.getEncoded).orNull,
+              )
+            ).asJava
+          )
+          .enableRevocationChecking(false)
+          .build()
+
+      cache.putTrusted(certPath, trustRoots(None), clock)
+      cache.isTrusted(certPath, trustRoots(None), clock) should be(true)
+      cache.isTrusted(
+        certPath,
+        trustRoots(Some(nameConstraints)),
+        clock,
+      ) should be(false)
+    }
+
+    it("does not use a cached result after a certificate in the chain has expired.") {
+      val cache = CertPathValidationCache.withMaximumSize(10)
+      finish(cache).isAttestationTrusted should be(true)
+
+      finish(
+        cache,
+        now = TestAuthenticator.Defaults.certValidTo.plusSeconds(1),
+      ).isAttestationTrusted should be(false)
+      cache.getHitCount should equal(0)
+      cache.getMissCount should equal(2)
+    }
+
+    it("does not use a cached result older than the maximum age.") {
+      val cache =
+        CertPathValidationCache.withMaximumSize(10, Duration.ofMinutes(1))
+      finish(cache).isAttestationTrusted should be(true)
+
+      finish(
+        cache,
+        now = TestAuthenticator.Defaults.certValidFrom.plusSeconds(30),
+      ).isAttestationTrusted should be(true)
+      cache.getHitCount should equal(1)
+
+      finish(
+        cache,
+        now = TestAuthenticator.Defaults.certValidFrom.plusSeconds(90),
+      ).isAttestationTrusted should be(true)
+      cache.getHitCount should equal(1)
+      cache.getMissCount should equal(2)
+    }
+
+    it("does not cache results with revocation checking enabled.") {
+      val cache = CertPathValidationCache.withMaximumSize(10)
+      for { _ <- 1 to 2 } {
+        finish(
+          cache,
+          enableRevocationChecking = true,
+        ).isAttestationTrusted should be(true)
+      }
+      cache.size should equal(0)
+      cache.getHitCount should equal(0)
+    }
+
+    it("rejects a negative maximum size or age.") {
+      an[IllegalArgumentException] should be thrownBy {
+        CertPathValidationCache.withMaximumSize(-1)
+      }
+      an[IllegalArgumentException] should be thrownBy {
+        CertPathValidationCache.withMaximumSize(10, Duration.ofSeconds(-1))
+      }
+    }
+  }
+
+  describe("TrustRootsResult with precomputed trust anchors") {
+    val testData = RegistrationTestData.FidoU2f.BasicAttestation
+    val rootCert = testData.attestationCertChain.last._1
+
+    it("is used for attestation certificate path validation.") {
+      val trustRootsResult = TrustRootsResult
+        .builder()
+        .trustAnchors(TrustRootsResult.toTrustAnchors(Set(rootCert).asJava))
+        .enableRevocationChecking(false)
+        .build()
+      trustRootsResult.getTrustRoots.asScala should equal(Set(rootCert))
+
+      val result = RelyingParty
+        .builder()
+        .identity(testData.rpId)
+        .credentialRepository(Helpers.CredentialRepository.empty)
+        .attestationTrustSource(
+          (_: util.List[X509Certificate], _: Optional[ByteArray]) =>
+            trustRootsResult
+        )
+        .clock(
+          Clock.fixed(TestAuthenticator.Defaults.certValidFrom, ZoneOffset.UTC)
+        )
+        .build()
+        .finishRegistration(
+          FinishRegistrationOptions
+            .builder()
+            .request(testData.request)
+            .response(testData.response)
+            .build()
+        )
+      result.isAttestationTrusted should be(true)
+    }
+
+    it("replaces the trust anchors when the trust roots are changed.") {
+      val trustRootsResult = TrustRootsResult
+        .builder()
+        .trustAnchors(TrustRootsResult.toTrustAnchors(Set(rootCert).asJava))
+        .build()
+        .toBuilder
+        .trustRoots(Collections.emptySet())
+        .build()
+      trustRootsResult.getTrustAnchors.asScala shouldBe empty
+    }
+
+    it("replaces the trust roots when the trust anchors are changed.") {
+      val trustRootsResult = TrustRootsResult
+        .builder()
+        .trustRoots(Set(rootCert).asJava)
+        .build()
+        .toBuilder
+        .trustAnchors(Collections.emptySet())
+        .build()
+      trustRootsResult.getTrustRoots.asScala shouldBe empty
+    }
+
+    it("keeps the precomputed trust anchors when copied.") {
+      val trustAnchors = Set(
+        new TrustAnchor(rootCert, new NameConstraints(null, null).getEncoded)
+      )
+      val trustRootsResult = TrustRootsResult
+        .builder()
+        .trustAnchors(trustAnchors.asJava)
+        .build()
+        .toBuilder
+        .enableRevocationChecking(false)
+        .build()
+      trustRootsResult.getTrustAnchors.asScala should equal(trustAnchors)
+    }
+
+    it("does not affect equality of results built from the same trust roots.") {
+      def build() =
+        TrustRootsResult
+          .builder()
+          .trustRoots(Set(rootCert).asJava)
+          .enableRevocationChecking(false)
+          .build()
+      val (result1, result2) = (build(), build())
+
+      result1 should equal(result2)
+      result1.hashCode should equal(result2.hashCode)
+    }
+
+    it("cannot be combined with trust roots in the same builder.") {
+      val trustAnchors = TrustRootsResult.toTrustAnchors(Set(rootCert).asJava)
+      an[IllegalStateException] should be thrownBy {
+        TrustRootsResult
+          .builder()
+          .trustAnchors(trustAnchors)
+          .trustRoots(Set(rootCert).asJava)
+      }
+      an[IllegalStateException] should be thrownBy {
+        TrustRootsResult
+          .builder()
+          .trustRoots(Set(rootCert).asJava)
+          .trustAnchors(trustAnchors)
+      }
+    }
+
+    it("rejects trust anchors without a trusted certificate.") {
+      an[IllegalArgumentException] should be thrownBy {
+        TrustRootsResult
+          .builder()
+          .trustAnchors(
+            Set(
+              new TrustAnchor(
+                rootCert.getSubjectX500Principal,
+                rootCert.getPublicKey,
+                null,
+              )
+            ).asJava
+          )
+      }
+    }
+  }
+
 }
@@ -584,6 +584,48 @@ class RelyingPartyStartOperationSpec
       }
     }
 
+    it("sets allowCredentials with one call to a ResolvingCredentialRepository if given a user handle.") {
+      forAll { credentials: Set[PublicKeyCredentialDescriptor] =>
+        val rp = RelyingParty
+          .builder()
+          .identity(rpId)
+          .credentialRepository(new ResolvingCredentialRepository {
+            override def getCredentialIdsForUserHandle(userHandle: ByteArray) =
+              Some(credentials.asJava)
+                .filter(_ => userHandle == userId.getId)
+                .toJava
+            override def resolveUserByUsername(
+                username: String,
+                credentialId: ByteArray,
+            ) = ???
+            override def resolveUserByUserHandle(
+                userHandle: ByteArray,
+                credentialId: ByteArray,
+            ) = ???
+            override def getCredentialIdsForUsername(username: String) = ???
+            override def getUserHandleForUsername(username: String) = ???
+            override def getUsernameForUserHandle(userHandle: ByteArray) = ???
+            override def lookup(
+                credentialId: ByteArray,
+                userHandle: ByteArray,
+            ) = ???
+            override def lookupAll(credentialId: ByteArray) = ???
+          })
+          .build()
+
+        def allowCredentials(userHandle: ByteArray) =
+          rp.startAssertion(
+            StartAssertionOptions.builder().userHandle(userHandle).build()
+          ).getPublicKeyCredentialRequestOptions
+            .getAllowCredentials
+            .toScala
+            .map(_.asScala.toSet)
+
+        allowCredentials(userId.getId) should equal(Some(credentials))
+        allowCredentials(new ByteArray(Array(4, 5, 6, 7))) should be(None)
+      }
+    }
+
     it("passes username through to AssertionRequest.") {
       forAll { username: String =>
         val testCaseUserId = userId.toBuilder.name(username).build()
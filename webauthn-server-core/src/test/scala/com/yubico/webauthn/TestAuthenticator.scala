@@ -545,8 +545,9 @@ object TestAuthenticator {
       KeyPair,
       List[(X509Certificate, PrivateKey)],
   ) = {
-    val (authData, keypair) = createAuthenticatorData(credentialKeypair =
-      Some(generateKeypair(keyAlgorithm))
+    val (authData, keypair) = createAuthenticatorData(
+      credentialKeypair = Some(generateKeypair(keyAlgorithm)),
+      keyAlgorithm = keyAlgorithm,
     )
     val signer = SelfAttestation(keypair, keyAlgorithm)
     createCredential(
@@ -0,0 +1,128 @@
+package com.yubico.webauthn.attestation
+
+import com.google.common.base.Ticker
+import com.yubico.webauthn.TestAuthenticator
+import com.yubico.webauthn.attestation.AttestationTrustSource.TrustRootsResult
+import com.yubico.webauthn.data.ByteArray
+import org.junit.runner.RunWith
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import java.security.cert.X509Certificate
+import java.time.Duration
+import java.util
+import java.util.Collections
+import java.util.Optional
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import scala.jdk.CollectionConverters._
+
+@RunWith(classOf[JUnitRunner])
+class CachingAttestationTrustSourceSpec extends AnyFunSpec with Matchers {
+
+  private val (certA, _) = TestAuthenticator.generateAttestationCertificate()
+  private val (certB, _) = TestAuthenticator.generateAttestationCertificate()
+  private val aaguid =
+    Optional.of(ByteArray.fromHex("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"))
+
+  private class CountingTrustSource extends AttestationTrustSource {
+    val calls = new AtomicInteger(0)
+    override def findTrustRoots(
+        attestationCertificateChain: util.List[X509Certificate],
+        aaguid: Optional[ByteArray],
+    ): TrustRootsResult = {
+      calls.incrementAndGet()
+      TrustRootsResult
+        .builder()
+        .trustRoots(Collections.singleton(attestationCertificateChain.get(0)))
+        .build()
+    }
+  }
+
+  private class FakeTicker extends Ticker {
+    val nanos = new AtomicLong(0)
+    override def read(): Long = nanos.get
+  }
+
+  describe("CachingAttestationTrustSource") {
+    it("returns the same result instance for the same AAGUID and certificate chain.") {
+      val delegate = new CountingTrustSource
+      val source =
+        CachingAttestationTrustSource.wrap(delegate, 10, Duration.ofMinutes(1))
+
+      val result1 = source.findTrustRoots(List(certA).asJava, aaguid)
+      val result2 = source.findTrustRoots(List(certA).asJava, aaguid)
+
+      result2 should be theSameInstanceAs result1
+      delegate.calls.get should equal(1)
+      source.getHitCount should equal(1)
+      source.getMissCount should equal(1)
+    }
+
+    it("calls the wrapped trust source for a different AAGUID or certificate chain.") {
+      val delegate = new CountingTrustSource
+      val source =
+        CachingAttestationTrustSource.wrap(delegate, 10, Duration.ofMinutes(1))
+
+      source.findTrustRoots(List(certA).asJava, aaguid)
+      source.findTrustRoots(List(certA).asJava, Optional.empty())
+      source
+        .findTrustRoots(List(certB).asJava, aaguid)
+        .getTrustRoots
+        .asScala should equal(Set(certB))
+
+      delegate.calls.get should equal(3)
+      source.size should equal(3)
+    }
+
+    it("expires results after the time to live.") {
+      val delegate = new CountingTrustSource
+      val ticker = new FakeTicker
+      val source = CachingAttestationTrustSource.wrap(
+        delegate,
+        10,
+        Duration.ofMinutes(1),
+        ticker,
+      )
+
+      source.findTrustRoots(List(certA).asJava, aaguid)
+      ticker.nanos.addAndGet(Duration.ofSeconds(59).toNanos)
+      source.findTrustRoots(List(certA).asJava, aaguid)
+      delegate.calls.get should equal(1)
+
+      ticker.nanos.addAndGet(Duration.ofSeconds(2).toNanos)
+      source.findTrustRoots(List(certA).asJava, aaguid)
+      delegate.calls.get should equal(2)
+    }
+
+    it("calls the wrapped trust source again after invalidateAll().") {
+      val delegate = new CountingTrustSource
+      val source =
+        CachingAttestationTrustSource.wrap(delegate, 10, Duration.ofMinutes(1))
+
+      source.findTrustRoots(List(certA).asJava, aaguid)
+      source.invalidateAll()
+      source.size should equal(0)
+      source.findTrustRoots(List(certA).asJava, aaguid)
+      delegate.calls.get should equal(2)
+    }
+
+    it("rejects a negative maximum size or time to live.") {
+      an[IllegalArgumentException] should be thrownBy {
+        CachingAttestationTrustSource.wrap(
+          new CountingTrustSource,
+          -1,
+          Duration.ofMinutes(1),
+        )
+      }
+      an[IllegalArgumentException] should be thrownBy {
+        CachingAttestationTrustSource.wrap(
+          new CountingTrustSource,
+          10,
+          Duration.ofMinutes(-1),
+        )
+      }
+    }
+  }
+}
@@ -133,6 +133,22 @@ class AuthenticatorDataSpec
         ).getSignatureCounter should be > Int.MaxValue.toLong
       }
 
+      it("decodes the same values from a slice of a larger byte array.") {
+        val sliced = new AuthenticatorData(
+          ByteArray
+            .fromHex("ffff" + authDataHex + "ffff")
+            .slice(2, authDataHex.length / 2)
+        )
+        sliced should equal(authData)
+        sliced.getRpIdHash should equal(authData.getRpIdHash)
+        sliced.getFlags should equal(authData.getFlags)
+        sliced.getSignatureCounter should equal(authData.getSignatureCounter)
+        sliced.getAttestedCredentialData should equal(
+          authData.getAttestedCredentialData
+        )
+        sliced.getExtensions should equal(authData.getExtensions)
+      }
+
       if (hasAttestation) {
         it("gets the correct attestation data from the raw bytes.") {
           authData.getAttestedCredentialData.toScala shouldBe defined
@@ -154,6 +170,12 @@ class AuthenticatorDataSpec
             ByteArray.fromHex("04DAFE0DE5312BA080A5CCDF6B483B10EF19A2454D1E17A8350311A0B7FF0566EF8EC6324D2C81398D2E80BC985B910B26970A0F408C9DE19BECCF39899A41674D")
           )
         }
+
+        it("returns the credential public key exactly as encoded in the raw bytes.") {
+          authData.getBytes.getHex should include(
+            authData.getAttestedCredentialData.get.getCredentialPublicKey.getHex
+          )
+        }
       }
 
       if (hasExtensions) {
@@ -276,7 +298,10 @@ class AuthenticatorDataSpec
     describe(
       "rejects a byte array with both attestation data and extensions if"
     ) {
-      def authDataBytes(flags: String): ByteArray =
+      def authDataBytes(
+          flags: String,
+          extensions: String = "a163666f6f63626172",
+      ): ByteArray =
         ByteArray.fromHex(
           "49960de5880e8c687434170f6476605b8fe4aeb9a28632c7995cf3ba831d9763" // RP ID hash
             + flags
@@ -285,7 +310,7 @@ class AuthenticatorDataSpec
             + "0020" // Credential ID length
             + "7137c4e57894dce742723f9966c1e71c7c966f14e9429d5b2a2098a68416deec" // Credential ID
             + "a52258208ec6324d2c81398d2e80bc985b910b26970a0f408c9de19beccf39899a41674d03260102215820dafe0de5312ba080a5ccdf6b483b10ef19a2454d1e17a8350311a0b7ff0566ef2001" // Credential public key COSE_key
-            + "a163666f6f63626172" // Extensions
+            + extensions
         )
 
       it("flags indicate only attestation data") {
@@ -301,6 +326,25 @@ class AuthenticatorDataSpec
         authData shouldBe a[Failure[_]]
         authData.failed.get shouldBe an[IllegalArgumentException]
       }
+
+      it("extension data contains duplicate extension identifiers") {
+        val authData = Try(
+          new AuthenticatorData(
+            authDataBytes("c1", "a263666f6f6362617263666f6f6362617a")
+          )
+        )
+
+        authData shouldBe a[Failure[_]]
+        authData.failed.get shouldBe an[IllegalArgumentException]
+      }
+
+      it("bytes remain after extension data") {
+        val authData =
+          Try(new AuthenticatorData(authDataBytes("c1", "a163666f6f6362617200")))
+
+        authData shouldBe a[Failure[_]]
+        authData.failed.get shouldBe an[IllegalArgumentException]
+      }
     }
 
   }
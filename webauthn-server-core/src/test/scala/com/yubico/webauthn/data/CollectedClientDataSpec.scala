@@ -32,6 +32,9 @@ import org.scalatest.funspec.AnyFunSpec
 import org.scalatest.matchers.should.Matchers
 import org.scalatestplus.junit.JUnitRunner
 
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+
 @RunWith(classOf[JUnitRunner])
 class CollectedClientDataSpec extends AnyFunSpec with Matchers {
 
@@ -99,6 +102,70 @@ class CollectedClientDataSpec extends AnyFunSpec with Matchers {
         )
       }
     }
+
+    def parseString(json: String): CollectedClientData =
+      new CollectedClientData(
+        new ByteArray(json.getBytes(StandardCharsets.UTF_8))
+      )
+
+    it("ignores unknown members.") {
+      val cd = parseString("""{
+        "foo": [1, {"bar": "baz"}, null],
+        "challenge": "aaaa",
+        "crossOrigin": false,
+        "origin": "example.org",
+        "type": "webauthn.get",
+        "other_keys_can_be_added_here": "do not compare clientDataJSON against a template."
+      }""")
+
+      cd.getChallenge.getBase64Url should equal("aaaa")
+      cd.getOrigin should equal("example.org")
+      cd.getType should equal("webauthn.get")
+      cd.getTokenBinding.isPresent should be(false)
+    }
+
+    it("decodes tokenBinding regardless of member order.") {
+      val cd = parseString(
+        """{"tokenBinding":{"id":"bbbb","foo":{"a":[1]},"status":"present"},"type":"webauthn.get","challenge":"aaaa","origin":"example.org"}"""
+      )
+      cd.getTokenBinding.get should equal(
+        TokenBindingInfo.present(ByteArray.fromBase64Url("bbbb"))
+      )
+    }
+
+    describe("rejects duplicate") {
+      for { field <- List("challenge", "origin", "type", "tokenBinding") } {
+        it(s"field: ${field}") {
+          an[IllegalArgumentException] should be thrownBy parseString(
+            s"""{"challenge":"aaaa","origin":"example.org","type":"webauthn.get","tokenBinding":{"status":"supported"},"${field}":"x"}"""
+          )
+        }
+      }
+    }
+
+    it("rejects non-string values for challenge, origin and type.") {
+      an[IllegalArgumentException] should be thrownBy parseString(
+        """{"challenge":{"a":"aaaa"},"origin":"example.org","type":"webauthn.get"}"""
+      )
+      an[IllegalArgumentException] should be thrownBy parseString(
+        """{"challenge":"aaaa","origin":["example.org"],"type":"webauthn.get"}"""
+      )
+      an[IllegalArgumentException] should be thrownBy parseString(
+        """{"challenge":"aaaa","origin":"example.org","type":1}"""
+      )
+    }
+
+    it("computes the SHA-256 hash of the raw client data JSON.") {
+      val json = new ByteArray(
+        """{"type":"webauthn.get", "challenge":"aaaa","origin":"example.org"}"""
+          .getBytes(StandardCharsets.UTF_8)
+      )
+      new CollectedClientData(json).getClientDataJsonHash should equal(
+        new ByteArray(
+          MessageDigest.getInstance("SHA-256").digest(json.getBytes)
+        )
+      )
+    }
   }
 
 }
@@ -60,6 +60,12 @@ application {
   applicationDefaultJvmArgs = listOf("-Dcom.sun.security.enableCRLDP=true")
 }
 
+tasks.register<JavaExec>("fidoMetadataSnapshot") {
+  description = "Verifies a FIDO metadata BLOB and writes a FidoMetadataSnapshot of it. Pass arguments with --args."
+  classpath = sourceSets.main.get().runtimeClasspath
+  mainClass.set("demo.webauthn.FidoMetadataSnapshotTool")
+}
+
 for (task in listOf(tasks.installDist, tasks.distZip, tasks.distTar)) {
   val intoDir = if (task == tasks.installDist) { "/" } else { "${project.name}-${project.version}" }
   task {
@@ -61,12 +61,12 @@ public final class YubicoJsonMetadataService implements AttestationTrustSource,
 
   private final Collection<MetadataObject> metadataObjects;
   private final Map<String, DeviceMatcher> matchers;
-  private final Set<X509Certificate> trustRootCertificates;
+  private final TrustRootsResult trustRootsResult;
 
   private YubicoJsonMetadataService(
       @NonNull Collection<MetadataObject> metadataObjects,
       @NonNull Map<String, DeviceMatcher> matchers) {
-    this.trustRootCertificates =
+    final Set<X509Certificate> trustRootCertificates =
         Collections.unmodifiableSet(
             metadataObjects.stream()
                 .flatMap(metadataObject -> metadataObject.getTrustedCertificates().stream())
@@ -81,6 +81,11 @@ public final class YubicoJsonMetadataService implements AttestationTrustSource,
                     })
                 .filter(Objects::nonNull)
                 .collect(Collectors.toSet()));
+    this.trustRootsResult =
+        TrustRootsResult.builder()
+            .trustAnchors(TrustRootsResult.toTrustAnchors(trustRootCertificates))
+            .enableRevocationChecking(false)
+            .build();
     this.metadataObjects = metadataObjects;
     this.matchers = CollectionUtil.immutableMap(matchers);
   }
@@ -160,9 +165,6 @@ public final class YubicoJsonMetadataService implements AttestationTrustSource,
   @Override
   public TrustRootsResult findTrustRoots(
       List<X509Certificate> attestationCertificateChain, Optional<ByteArray> aaguid) {
-    return TrustRootsResult.builder()
-        .trustRoots(trustRootCertificates)
-        .enableRevocationChecking(false)
-        .build();
+    return trustRootsResult;
   }
 }
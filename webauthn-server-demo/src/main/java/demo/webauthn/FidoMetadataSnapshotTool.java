@@ -0,0 +1,89 @@
+package demo.webauthn;
+
+import com.yubico.fido.metadata.FidoMetadataDownloader;
+import com.yubico.fido.metadata.FidoMetadataSnapshot;
+import com.yubico.fido.metadata.MetadataBLOB;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.JcaEngines;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Command line tool that verifies a metadata BLOB and writes a {@link FidoMetadataSnapshot} of it.
+ *
+ * <p>Usage: <code>
+ * FidoMetadataSnapshotTool &lt;blob.jwt&gt; &lt;trust-root.crt&gt; &lt;legal-header&gt;
+ * &lt;key-file&gt; &lt;output-file&gt; [crl-file...]</code>
+ *
+ * <p>The BLOB is verified using {@link FidoMetadataDownloader} with the given trust root
+ * certificate (PEM or DER) and CRLs, and its <code>"legalHeader"</code> must equal the given legal
+ * header. The snapshot is written only if verification succeeds, and is authenticated with the
+ * HMAC-SHA256 key whose raw bytes are the contents of the key file.
+ *
+ * <p>Run it with <code>
+ * ./gradlew :webauthn-server-demo:fidoMetadataSnapshot --args="..."</code>.
+ *
+ * @see FidoMetadataSnapshot
+ */
+public final class FidoMetadataSnapshotTool {
+
+  private FidoMetadataSnapshotTool() {}
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 5) {
+      System.err.println(
+          "Usage: FidoMetadataSnapshotTool <blob.jwt> <trust-root.crt> <legal-header> <key-file> <output-file> [crl-file...]");
+      System.exit(2);
+      return;
+    }
+
+    final Path blobFile = Paths.get(args[0]);
+    final Path trustRootFile = Paths.get(args[1]);
+    final String legalHeader = args[2];
+    final SecretKey key = new SecretKeySpec(Files.readAllBytes(Paths.get(args[3])), "HmacSHA256");
+    final Path outputFile = Paths.get(args[4]);
+
+    final X509Certificate trustRoot;
+    try (InputStream in = Files.newInputStream(trustRootFile)) {
+      trustRoot = CertificateParser.parseDer(in);
+    }
+    final List<CRL> crls = new ArrayList<>();
+    final CertificateFactory certFactory = JcaEngines.borrowCertificateFactory("X.509");
+    try {
+      for (int i = 5; i < args.length; ++i) {
+        try (InputStream in = Files.newInputStream(Paths.get(args[i]))) {
+          crls.addAll(certFactory.generateCRLs(in));
+        }
+      }
+    } finally {
+      JcaEngines.releaseCertificateFactory(certFactory);
+    }
+
+    final ByteArray blobJwt = new ByteArray(Files.readAllBytes(blobFile));
+    final MetadataBLOB blob =
+        FidoMetadataDownloader.builder()
+            .expectLegalHeader(legalHeader)
+            .useTrustRoot(trustRoot)
+            .useBlob(new String(blobJwt.getBytes(), StandardCharsets.UTF_8))
+            .useCrls(crls)
+            .build()
+            .loadCachedBlob();
+
+    final FidoMetadataSnapshot snapshot = FidoMetadataSnapshot.create(blob, blobJwt);
+    snapshot.write(outputFile, key);
+    System.out.printf(
+        "Wrote snapshot of metadata BLOB no. %d with %d entries to %s%n",
+        snapshot.getBlobNo(), blob.getPayload().getEntries().size(), outputFile);
+  }
+}
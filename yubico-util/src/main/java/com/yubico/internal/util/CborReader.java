@@ -0,0 +1,418 @@
+package com.yubico.internal.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal CBOR decoder for the subset of CBOR used by CTAP2 and WebAuthn.
+ *
+ * <p>The reader is a cursor over a byte array. It does not copy the input or build an intermediate
+ * tree; instead it exposes the current offset into the original array, so that callers can slice
+ * encoded data items (for example a COSE key or an extensions map) out of the input without
+ * re-encoding them.
+ *
+ * <p>Structured reads accept both definite-length and indefinite-length maps and arrays, since
+ * encoders other than CTAP2 authenticators (for example Jackson) may emit the latter. Callers
+ * iterate over container items with {@link #hasNextItem(int, int)}, which handles both forms. Byte
+ * strings and text strings must have definite length, so that their content can be sliced. {@link
+ * #skipItem()} accepts any well-formed data item, including tags, floating-point numbers and simple
+ * values, so that unrecognized data can be stepped over.
+ *
+ * <p>All methods throw {@link IllegalArgumentException} if the input is malformed, truncated or of
+ * an unexpected type. Instances are not thread safe.
+ *
+ * @see <a
+ *     href="https://fidoalliance.org/specs/fido-v2.0-ps-20190130/fido-client-to-authenticator-protocol-v2.0-ps-20190130.html#ctap2-canonical-cbor-encoding-form">CTAP2
+ *     canonical CBOR encoding form</a>
+ */
+public final class CborReader {
+
+  public static final int MAJOR_TYPE_UNSIGNED_INTEGER = 0;
+  public static final int MAJOR_TYPE_NEGATIVE_INTEGER = 1;
+  public static final int MAJOR_TYPE_BYTE_STRING = 2;
+  public static final int MAJOR_TYPE_TEXT_STRING = 3;
+  public static final int MAJOR_TYPE_ARRAY = 4;
+  public static final int MAJOR_TYPE_MAP = 5;
+  public static final int MAJOR_TYPE_TAG = 6;
+  public static final int MAJOR_TYPE_SIMPLE = 7;
+
+  /**
+   * Returned by {@link #readMapHeader()} and {@link #readArrayHeader()} for indefinite-length
+   * containers.
+   */
+  public static final int INDEFINITE_LENGTH = -1;
+
+  private static final int ADDITIONAL_INFO_INDEFINITE = 31;
+  private static final int BREAK = 0xff;
+  private static final int SIMPLE_FALSE = 0xf4;
+  private static final int SIMPLE_TRUE = 0xf5;
+
+  private final byte[] bytes;
+  private final int end;
+  private int position;
+
+  /**
+   * Create a reader over all of <code>bytes</code>. The array is not copied, and MUST NOT be
+   * modified while the reader is in use.
+   */
+  public CborReader(byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Create a reader over <code>length</code> bytes of <code>bytes</code> starting at <code>offset
+   * </code>. The array is not copied, and MUST NOT be modified while the reader is in use.
+   */
+  public CborReader(byte[] bytes, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > bytes.length - length) {
+      throw new IndexOutOfBoundsException(
+          String.format(
+              "Invalid range: offset %d, length %d, array length %d",
+              offset, length, bytes.length));
+    }
+    this.bytes = bytes;
+    this.position = offset;
+    this.end = offset + length;
+  }
+
+  /**
+   * @return the offset into the underlying array of the next byte to be read.
+   */
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * @return the offset into the underlying array just past the last readable byte.
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * @return <code>true</code> if and only if there are unread bytes left in the input.
+   */
+  public boolean hasRemaining() {
+    return position < end;
+  }
+
+  /**
+   * @return the major type (0 to 7) of the next data item, without consuming it.
+   * @throws IllegalArgumentException if there are no more bytes to read.
+   */
+  public int peekMajorType() {
+    requireRemaining(1);
+    return (bytes[position] & 0xff) >>> 5;
+  }
+
+  /**
+   * Read an unsigned or negative integer.
+   *
+   * @throws IllegalArgumentException if the next data item is not an integer, or its value does not
+   *     fit in a <code>long</code>.
+   */
+  public long readInteger() {
+    final int majorType = peekMajorType();
+    if (majorType != MAJOR_TYPE_UNSIGNED_INTEGER && majorType != MAJOR_TYPE_NEGATIVE_INTEGER) {
+      throw unexpectedType("integer", majorType);
+    }
+    final long argument = readArgument(bytes[position++] & 0x1f);
+    if (argument < 0) {
+      throw new IllegalArgumentException(
+          String.format("CBOR integer out of range at offset %d", position));
+    }
+    return majorType == MAJOR_TYPE_UNSIGNED_INTEGER ? argument : -1 - argument;
+  }
+
+  /**
+   * Read the header of a map.
+   *
+   * @return the number of key-value pairs in the map, or {@link #INDEFINITE_LENGTH}.
+   * @see #hasNextItem(int, int)
+   */
+  public int readMapHeader() {
+    return readContainerHeader(MAJOR_TYPE_MAP, "map");
+  }
+
+  /**
+   * Read the header of an array.
+   *
+   * @return the number of elements in the array, or {@link #INDEFINITE_LENGTH}.
+   * @see #hasNextItem(int, int)
+   */
+  public int readArrayHeader() {
+    return readContainerHeader(MAJOR_TYPE_ARRAY, "array");
+  }
+
+  /**
+   * Determine whether a map or array has more items, consuming the terminating break if the
+   * container has indefinite length. Intended for loops like:
+   *
+   * <pre>
+   * final int length = reader.readMapHeader();
+   * for (int i = 0; reader.hasNextItem(length, i); ++i) {
+   *   // read key and value
+   * }
+   * </pre>
+   *
+   * @param length the value returned by {@link #readMapHeader()} or {@link #readArrayHeader()}.
+   * @param index the number of items (or key-value pairs) already read from the container.
+   */
+  public boolean hasNextItem(int length, int index) {
+    if (length == INDEFINITE_LENGTH) {
+      requireRemaining(1);
+      if ((bytes[position] & 0xff) == BREAK) {
+        ++position;
+        return false;
+      } else {
+        return true;
+      }
+    } else {
+      return index < length;
+    }
+  }
+
+  /**
+   * Read the header of a definite-length byte string, leaving the reader positioned at the first
+   * byte of the content. The content occupies the range <code>[getPosition(), getPosition() +
+   * length)</code> of the underlying array, and can be skipped with {@link #skipBytes(int)}.
+   *
+   * @return the length of the byte string content.
+   */
+  public int readByteStringHeader() {
+    final int length = readDefiniteLengthHeader(MAJOR_TYPE_BYTE_STRING, "byte string");
+    requireRemaining(length);
+    return length;
+  }
+
+  /**
+   * Read a definite-length byte string.
+   *
+   * @return a copy of the byte string content.
+   */
+  public byte[] readByteString() {
+    final int length = readByteStringHeader();
+    final byte[] result = Arrays.copyOfRange(bytes, position, position + length);
+    position += length;
+    return result;
+  }
+
+  /** Read a definite-length UTF-8 text string. */
+  public String readTextString() {
+    final int length = readDefiniteLengthHeader(MAJOR_TYPE_TEXT_STRING, "text string");
+    requireRemaining(length);
+    final String result = new String(bytes, position, length, StandardCharsets.UTF_8);
+    position += length;
+    return result;
+  }
+
+  /** Read a boolean simple value. */
+  public boolean readBoolean() {
+    requireRemaining(1);
+    final int initialByte = bytes[position] & 0xff;
+    if (initialByte == SIMPLE_FALSE || initialByte == SIMPLE_TRUE) {
+      ++position;
+      return initialByte == SIMPLE_TRUE;
+    } else {
+      throw unexpectedType("boolean", initialByte >>> 5);
+    }
+  }
+
+  /** Advance the reader past <code>length</code> raw bytes. */
+  public void skipBytes(int length) {
+    if (length < 0) {
+      throw new IllegalArgumentException("Length must not be negative: " + length);
+    }
+    requireRemaining(length);
+    position += length;
+  }
+
+  /**
+   * Advance the reader past the next complete data item, including all nested data items.
+   *
+   * <p>The encoded item occupies the range between {@link #getPosition()} before and after this
+   * call. Unlike the other read methods, this accepts any well-formed CBOR data item.
+   */
+  public void skipItem() {
+    // Explicit stack of remaining item counts per open container, so that deeply nested input
+    // cannot overflow the call stack. -1 marks an indefinite-length container.
+    int[] remaining = new int[8];
+    int depth = 0;
+    remaining[depth++] = 1;
+
+    while (depth > 0) {
+      final int top = remaining[depth - 1];
+      if (top == 0) {
+        --depth;
+        continue;
+      }
+
+      requireRemaining(1);
+      final int initialByte = bytes[position] & 0xff;
+      if (top < 0) {
+        if (initialByte == BREAK) {
+          ++position;
+          --depth;
+          continue;
+        }
+      } else {
+        remaining[depth - 1] = top - 1;
+      }
+
+      ++position;
+      final int majorType = initialByte >>> 5;
+      final int additionalInfo = initialByte & 0x1f;
+
+      final int push;
+      switch (majorType) {
+        case MAJOR_TYPE_UNSIGNED_INTEGER:
+        case MAJOR_TYPE_NEGATIVE_INTEGER:
+          readArgument(additionalInfo);
+          push = 0;
+          break;
+
+        case MAJOR_TYPE_BYTE_STRING:
+        case MAJOR_TYPE_TEXT_STRING:
+          if (additionalInfo == ADDITIONAL_INFO_INDEFINITE) {
+            push = -1;
+          } else {
+            skipBytes(toLength(readArgument(additionalInfo)));
+            push = 0;
+          }
+          break;
+
+        case MAJOR_TYPE_ARRAY:
+          push =
+              additionalInfo == ADDITIONAL_INFO_INDEFINITE
+                  ? -1
+                  : toLength(readArgument(additionalInfo));
+          break;
+
+        case MAJOR_TYPE_MAP:
+          if (additionalInfo == ADDITIONAL_INFO_INDEFINITE) {
+            push = -1;
+          } else {
+            final int entries = toLength(readArgument(additionalInfo));
+            if (entries > Integer.MAX_VALUE / 2) {
+              throw new IllegalArgumentException(
+                  String.format("CBOR map too large at offset %d", position));
+            }
+            push = entries * 2;
+          }
+          break;
+
+        case MAJOR_TYPE_TAG:
+          readArgument(additionalInfo);
+          push = 1;
+          break;
+
+        case MAJOR_TYPE_SIMPLE:
+        default:
+          if (additionalInfo == ADDITIONAL_INFO_INDEFINITE) {
+            throw new IllegalArgumentException(
+                String.format("Unexpected CBOR break at offset %d", position - 1));
+          }
+          readArgument(additionalInfo);
+          push = 0;
+          break;
+      }
+
+      if (push != 0) {
+        if (depth == remaining.length) {
+          remaining = Arrays.copyOf(remaining, depth * 2);
+        }
+        remaining[depth++] = push;
+      }
+    }
+  }
+
+  private int readContainerHeader(int expectedMajorType, String typeName) {
+    final int majorType = peekMajorType();
+    if (majorType != expectedMajorType) {
+      throw unexpectedType(typeName, majorType);
+    }
+    final int additionalInfo = bytes[position++] & 0x1f;
+    if (additionalInfo == ADDITIONAL_INFO_INDEFINITE) {
+      return INDEFINITE_LENGTH;
+    } else {
+      return toLength(readArgument(additionalInfo));
+    }
+  }
+
+  private int readDefiniteLengthHeader(int expectedMajorType, String typeName) {
+    final int majorType = peekMajorType();
+    if (majorType != expectedMajorType) {
+      throw unexpectedType(typeName, majorType);
+    }
+    final int additionalInfo = bytes[position++] & 0x1f;
+    if (additionalInfo == ADDITIONAL_INFO_INDEFINITE) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Indefinite-length CBOR %s not supported at offset %d", typeName, position - 1));
+    }
+    return toLength(readArgument(additionalInfo));
+  }
+
+  /**
+   * Read the argument of a data item whose initial byte has already been consumed.
+   *
+   * @return the argument value, interpreted as unsigned. This is negative if the argument does not
+   *     fit in a signed <code>long</code>.
+   */
+  private long readArgument(int additionalInfo) {
+    if (additionalInfo < 24) {
+      return additionalInfo;
+    }
+
+    final int size;
+    switch (additionalInfo) {
+      case 24:
+        size = 1;
+        break;
+      case 25:
+        size = 2;
+        break;
+      case 26:
+        size = 4;
+        break;
+      case 27:
+        size = 8;
+        break;
+      default:
+        throw new IllegalArgumentException(
+            String.format(
+                "Invalid CBOR additional information %d at offset %d",
+                additionalInfo, position - 1));
+    }
+
+    requireRemaining(size);
+    long result = 0;
+    for (int i = 0; i < size; ++i) {
+      result = (result << 8) | (bytes[position++] & 0xff);
+    }
+    return result;
+  }
+
+  private int toLength(long argument) {
+    if (argument < 0 || argument > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          String.format("CBOR length out of range at offset %d", position));
+    }
+    return (int) argument;
+  }
+
+  private void requireRemaining(int length) {
+    if (end - position < length) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Unexpected end of CBOR input: needed %d bytes at offset %d, but only %d remain",
+              length, position, end - position));
+    }
+  }
+
+  private IllegalArgumentException unexpectedType(String expected, int majorType) {
+    return new IllegalArgumentException(
+        String.format(
+            "Expected CBOR %s at offset %d, was major type %d", expected, position, majorType));
+  }
+}
@@ -0,0 +1,148 @@
+package com.yubico.internal.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal CBOR encoder for the subset of CBOR used by CTAP2 and WebAuthn.
+ *
+ * <p>All data item headers are written in the shortest possible form, and only definite-length
+ * items are supported, as required by the CTAP2 canonical CBOR encoding form. The caller is
+ * responsible for writing map keys in canonical order and for writing the number of items declared
+ * in each map and array header.
+ *
+ * <p>Instances are not thread safe.
+ *
+ * @see CborReader
+ */
+public final class CborWriter {
+
+  private byte[] buffer;
+  private int size = 0;
+
+  public CborWriter() {
+    this(64);
+  }
+
+  /**
+   * @param initialCapacity the initial size of the output buffer. The buffer grows as needed.
+   */
+  public CborWriter(int initialCapacity) {
+    this.buffer = new byte[initialCapacity];
+  }
+
+  /** Write an unsigned or negative integer. */
+  public CborWriter writeInteger(long value) {
+    if (value >= 0) {
+      writeHeader(CborReader.MAJOR_TYPE_UNSIGNED_INTEGER, value);
+    } else {
+      writeHeader(CborReader.MAJOR_TYPE_NEGATIVE_INTEGER, -1 - value);
+    }
+    return this;
+  }
+
+  /**
+   * Write the header of a definite-length map. The header MUST be followed by <code>entries</code>
+   * key-value pairs.
+   */
+  public CborWriter writeMapHeader(int entries) {
+    writeHeader(CborReader.MAJOR_TYPE_MAP, requireNonNegative(entries));
+    return this;
+  }
+
+  /**
+   * Write the header of a definite-length array. The header MUST be followed by <code>elements
+   * </code> data items.
+   */
+  public CborWriter writeArrayHeader(int elements) {
+    writeHeader(CborReader.MAJOR_TYPE_ARRAY, requireNonNegative(elements));
+    return this;
+  }
+
+  /** Write a definite-length byte string. */
+  public CborWriter writeByteString(byte[] value) {
+    writeHeader(CborReader.MAJOR_TYPE_BYTE_STRING, value.length);
+    writeRaw(value);
+    return this;
+  }
+
+  /** Write a definite-length UTF-8 text string. */
+  public CborWriter writeTextString(String value) {
+    final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+    writeHeader(CborReader.MAJOR_TYPE_TEXT_STRING, utf8.length);
+    writeRaw(utf8);
+    return this;
+  }
+
+  /** Write a boolean simple value. */
+  public CborWriter writeBoolean(boolean value) {
+    ensureCapacity(1);
+    buffer[size++] = (byte) (value ? 0xf5 : 0xf4);
+    return this;
+  }
+
+  /**
+   * Write <code>encoded</code> verbatim. The argument MUST be a complete, well-formed CBOR data
+   * item.
+   */
+  public CborWriter writeEncoded(byte[] encoded) {
+    writeRaw(encoded);
+    return this;
+  }
+
+  /**
+   * @return a copy of the bytes written so far.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+
+  private void writeHeader(int majorType, long argument) {
+    final int typeBits = majorType << 5;
+    if (argument < 24) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) (typeBits | (int) argument);
+    } else if (argument <= 0xffL) {
+      ensureCapacity(2);
+      buffer[size++] = (byte) (typeBits | 24);
+      buffer[size++] = (byte) argument;
+    } else if (argument <= 0xffffL) {
+      ensureCapacity(3);
+      buffer[size++] = (byte) (typeBits | 25);
+      writeBigEndian(argument, 2);
+    } else if (argument <= 0xffffffffL) {
+      ensureCapacity(5);
+      buffer[size++] = (byte) (typeBits | 26);
+      writeBigEndian(argument, 4);
+    } else {
+      ensureCapacity(9);
+      buffer[size++] = (byte) (typeBits | 27);
+      writeBigEndian(argument, 8);
+    }
+  }
+
+  private void writeBigEndian(long value, int numBytes) {
+    for (int i = numBytes - 1; i >= 0; --i) {
+      buffer[size++] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  private void writeRaw(byte[] value) {
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, buffer, size, value.length);
+    size += value.length;
+  }
+
+  private void ensureCapacity(int additional) {
+    if (buffer.length - size < additional) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+    }
+  }
+
+  private static int requireNonNegative(int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("Count must not be negative: " + count);
+    }
+    return count;
+  }
+}
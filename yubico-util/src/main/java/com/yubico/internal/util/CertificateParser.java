@@ -70,8 +70,7 @@ public class CertificateParser {
   }
 
   public static X509Certificate parseDer(InputStream is) throws CertificateException {
-    X509Certificate cert =
-        (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+    X509Certificate cert = generateCertificate(is);
     // Some known certs have an incorrect "unused bits" value, which causes problems on newer
     // versions of BouncyCastle.
     if (FIXSIG.contains(cert.getSubjectX500Principal().getName())) {
@@ -87,14 +86,20 @@ public class CertificateParser {
                 UNUSED_BITS_BYTE_INDEX_FROM_END, encoded.length, cert));
       }
 
-      cert =
-          (X509Certificate)
-              CertificateFactory.getInstance("X.509")
-                  .generateCertificate(new ByteArrayInputStream(encoded));
+      cert = generateCertificate(new ByteArrayInputStream(encoded));
     }
     return cert;
   }
 
+  private static X509Certificate generateCertificate(InputStream is) throws CertificateException {
+    final CertificateFactory certFactory = JcaEngines.borrowCertificateFactory("X.509");
+    try {
+      return (X509Certificate) certFactory.generateCertificate(is);
+    } finally {
+      JcaEngines.releaseCertificateFactory(certFactory);
+    }
+  }
+
   /**
    * Compute a Subject Key Identifier as defined as method (1) in RFC 5280 section 4.2.1.2.
    *
@@ -116,8 +121,13 @@ public class CertificateParser {
     // this is not included in the content to hash for a Subject Key Identifier.
     final int spkBitsStart = 2 + 2 + 2 + algLength + 1;
 
-    return MessageDigest.getInstance("SHA-1")
-        .digest(Arrays.copyOfRange(spki, spkBitsStart, spki.length));
+    final MessageDigest digest = JcaEngines.borrowMessageDigest("SHA-1");
+    try {
+      digest.update(spki, spkBitsStart, spki.length - spkBitsStart);
+      return digest.digest();
+    } finally {
+      JcaEngines.releaseMessageDigest(digest);
+    }
   }
 
   /**
@@ -2,8 +2,12 @@ package com.yubico.internal.util;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
@@ -11,13 +15,58 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.upokecenter.cbor.CBORObject;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class JacksonCodecs {
 
+  /**
+   * Shared mappers backing the {@link ObjectReader} and {@link ObjectWriter} registry below. These
+   * MUST NOT be exposed to callers, since {@link ObjectMapper} instances are mutable.
+   */
+  private static final ObjectMapper SHARED_JSON = json();
+
+  private static final ObjectMapper SHARED_CBOR = cbor();
+
+  private static final ObjectReader JSON_READER = SHARED_JSON.reader();
+  private static final ObjectWriter JSON_WRITER = SHARED_JSON.writer();
+  private static final ObjectReader CBOR_READER = SHARED_CBOR.reader();
+  private static final ObjectWriter CBOR_WRITER = SHARED_CBOR.writer();
+
+  private static final ConcurrentMap<JavaType, ObjectReader> JSON_READERS =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Create a new CBOR {@link ObjectMapper}.
+   *
+   * <p>Prefer {@link #cborReader()} and {@link #cborWriter()} unless the caller needs to further
+   * configure the mapper, since constructing a new mapper is expensive.
+   */
   public static ObjectMapper cbor() {
     return new ObjectMapper(new CBORFactory()).setBase64Variant(Base64Variants.MODIFIED_FOR_URL);
   }
 
+  /**
+   * Create a new CBOR {@link ObjectMapper} with the same settings and modules as {@link #json()}.
+   *
+   * <p>Unlike {@link #cbor()}, this supports the same value types as {@link #json()}, such as
+   * {@link java.util.Optional} and {@link java.time.LocalDate}.
+   */
+  public static ObjectMapper cborLikeJson() {
+    return new ObjectMapper(new CBORFactory())
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, true)
+        .setSerializationInclusion(Include.NON_ABSENT)
+        .setBase64Variant(Base64Variants.MODIFIED_FOR_URL)
+        .registerModule(new Jdk8Module())
+        .registerModule(new JavaTimeModule());
+  }
+
+  /**
+   * Create a new JSON {@link ObjectMapper}.
+   *
+   * <p>Prefer {@link #jsonReader()}, {@link #jsonReaderFor(Class)} and {@link #jsonWriter()} unless
+   * the caller needs to further configure the mapper, since constructing a new mapper is expensive.
+   */
   public static ObjectMapper json() {
     return JsonMapper.builder()
         .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, true)
@@ -28,13 +77,64 @@ public class JacksonCodecs {
         .build();
   }
 
+  /**
+   * @return a shared, immutable CBOR reader configured like {@link #cbor()}.
+   */
+  public static ObjectReader cborReader() {
+    return CBOR_READER;
+  }
+
+  /**
+   * @return a shared, immutable CBOR writer configured like {@link #cbor()}.
+   */
+  public static ObjectWriter cborWriter() {
+    return CBOR_WRITER;
+  }
+
+  /**
+   * @return a shared, immutable JSON reader configured like {@link #json()}, suitable for {@link
+   *     ObjectReader#readTree(String)} or for use with {@link ObjectReader#forType(Class)}.
+   */
+  public static ObjectReader jsonReader() {
+    return JSON_READER;
+  }
+
+  /**
+   * @return a shared, immutable JSON writer configured like {@link #json()}.
+   */
+  public static ObjectWriter jsonWriter() {
+    return JSON_WRITER;
+  }
+
+  /**
+   * @return a shared, immutable JSON reader configured like {@link #json()} and pre-bound to the
+   *     given <code>type</code>. Instances are cached, so repeated calls for the same type return
+   *     the same reader.
+   */
+  public static ObjectReader jsonReaderFor(Class<?> type) {
+    return jsonReaderFor(SHARED_JSON.constructType(type));
+  }
+
+  /**
+   * @return a shared, immutable JSON reader configured like {@link #json()} and pre-bound to the
+   *     given <code>type</code>. Instances are cached, so repeated calls for the same type return
+   *     the same reader.
+   */
+  public static ObjectReader jsonReaderFor(TypeReference<?> type) {
+    return jsonReaderFor(SHARED_JSON.constructType(type));
+  }
+
+  private static ObjectReader jsonReaderFor(JavaType type) {
+    return JSON_READERS.computeIfAbsent(type, SHARED_JSON::readerFor);
+  }
+
   public static CBORObject deepCopy(CBORObject a) {
     return CBORObject.DecodeFromBytes(a.EncodeToBytes());
   }
 
   public static ObjectNode deepCopy(ObjectNode a) {
     try {
-      return (ObjectNode) json().readTree(json().writeValueAsString(a));
+      return (ObjectNode) JSON_READER.readTree(JSON_WRITER.writeValueAsString(a));
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -0,0 +1,236 @@
+package com.yubico.internal.util;
+
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Pools of JCA engine instances, so that hot paths need not look up a provider and instantiate a
+ * new engine for every use.
+ *
+ * <p>Engines are borrowed with one of the <code>borrow</code> methods and MUST be handed back with
+ * the corresponding <code>release</code> method when the caller is done with them, typically in a
+ * <code>finally</code> block. A borrowed engine is used by only one thread at a time. The pools are
+ * lock-free and not tied to threads, so they are also suitable for virtual threads.
+ *
+ * <p>Each pool is keyed by algorithm name and provider. An engine is created with the <code>
+ * getInstance</code> method that takes only an algorithm name, and is pooled only if its provider
+ * is the one that the current {@link Security} provider configuration prefers for the algorithm.
+ * Engines whose provider was chosen by delayed provider selection, for example a {@link Signature}
+ * bound to a hardware token by the key it was initialized with, are therefore never handed to a
+ * caller that may use a different key.
+ *
+ * <p>The provider configuration is compared with the one the pools were created for at most once
+ * per {@link #PROVIDER_CHECK_INTERVAL_NANOS}, and not on every borrow, since {@link
+ * Security#getProviders()} takes a global lock. If it has changed, all pooled engines are discarded
+ * so that new engines are created from the new preferred providers. Call {@link #invalidate()}
+ * after changing the provider configuration to discard them immediately.
+ */
+public final class JcaEngines {
+
+  /** The maximum number of idle engines kept per algorithm. */
+  private static final int MAX_IDLE_PER_ALGORITHM =
+      Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  /** The minimum time between checks for changes in the security provider configuration. */
+  static final long PROVIDER_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static volatile Generation generation = new Generation(Security.getProviders());
+
+  /** The {@link System#nanoTime()} after which to next check the provider configuration. */
+  private static final AtomicLong nextProviderCheck =
+      new AtomicLong(System.nanoTime() + PROVIDER_CHECK_INTERVAL_NANOS);
+
+  private JcaEngines() {}
+
+  /**
+   * Borrow a {@link Signature} instance for <code>algorithm</code>. The caller MUST initialize it
+   * with <code>initVerify</code> or <code>initSign</code> before use, and MUST hand it back with
+   * {@link #releaseSignature(Signature)} when done.
+   */
+  public static Signature borrowSignature(String algorithm) throws NoSuchAlgorithmException {
+    final Signature pooled = currentGeneration().signatures.poll(algorithm);
+    return pooled != null ? pooled : Signature.getInstance(algorithm);
+  }
+
+  public static void releaseSignature(Signature signature) {
+    if (signature != null) {
+      generation.signatures.offer(signature.getAlgorithm(), signature.getProvider(), signature);
+    }
+  }
+
+  /**
+   * Borrow a {@link MessageDigest} instance for <code>algorithm</code>, in its reset state. The
+   * caller MUST hand it back with {@link #releaseMessageDigest(MessageDigest)} when done.
+   */
+  public static MessageDigest borrowMessageDigest(String algorithm)
+      throws NoSuchAlgorithmException {
+    final MessageDigest pooled = currentGeneration().messageDigests.poll(algorithm);
+    return pooled != null ? pooled : MessageDigest.getInstance(algorithm);
+  }
+
+  public static void releaseMessageDigest(MessageDigest digest) {
+    if (digest != null) {
+      digest.reset();
+      generation.messageDigests.offer(digest.getAlgorithm(), digest.getProvider(), digest);
+    }
+  }
+
+  /**
+   * Borrow a {@link KeyFactory} instance for <code>algorithm</code>. The caller MUST hand it back
+   * with {@link #releaseKeyFactory(KeyFactory)} when done.
+   */
+  public static KeyFactory borrowKeyFactory(String algorithm) throws NoSuchAlgorithmException {
+    final KeyFactory pooled = currentGeneration().keyFactories.poll(algorithm);
+    return pooled != null ? pooled : KeyFactory.getInstance(algorithm);
+  }
+
+  public static void releaseKeyFactory(KeyFactory keyFactory) {
+    if (keyFactory != null) {
+      generation.keyFactories.offer(
+          keyFactory.getAlgorithm(), keyFactory.getProvider(), keyFactory);
+    }
+  }
+
+  /**
+   * Borrow a {@link CertificateFactory} instance for certificate type <code>type</code>. The caller
+   * MUST hand it back with {@link #releaseCertificateFactory(CertificateFactory)} when done.
+   */
+  public static CertificateFactory borrowCertificateFactory(String type)
+      throws CertificateException {
+    final CertificateFactory pooled = currentGeneration().certificateFactories.poll(type);
+    return pooled != null ? pooled : CertificateFactory.getInstance(type);
+  }
+
+  public static void releaseCertificateFactory(CertificateFactory certificateFactory) {
+    if (certificateFactory != null) {
+      generation.certificateFactories.offer(
+          certificateFactory.getType(), certificateFactory.getProvider(), certificateFactory);
+    }
+  }
+
+  /**
+   * Discard all pooled engines, so that engines borrowed after this returns are created from the
+   * current security provider configuration.
+   */
+  public static void invalidate() {
+    nextProviderCheck.set(System.nanoTime() + PROVIDER_CHECK_INTERVAL_NANOS);
+    generation = new Generation(Security.getProviders());
+  }
+
+  /**
+   * Return the current pools, first replacing them with empty ones if it is time to check the
+   * security provider configuration and it has changed since they were created.
+   *
+   * <p>An engine borrowed just before a configuration change may still be released into the new
+   * pools. This is harmless, since it is pooled only if its provider is still the preferred one.
+   */
+  private static Generation currentGeneration() {
+    final Generation current = generation;
+    final long next = nextProviderCheck.get();
+    final long now = System.nanoTime();
+    if (now - next < 0
+        || !nextProviderCheck.compareAndSet(next, now + PROVIDER_CHECK_INTERVAL_NANOS)) {
+      return current;
+    }
+
+    final Provider[] providers = Security.getProviders();
+    if (current.hasProviders(providers)) {
+      return current;
+    } else {
+      final Generation replacement = new Generation(providers);
+      generation = replacement;
+      return replacement;
+    }
+  }
+
+  /**
+   * @return the name of the provider that the security provider configuration prefers for <code>
+   *     algorithm</code> of engine type <code>type</code>, or <code>null</code> if no provider
+   *     supports it.
+   */
+  private static String preferredProviderName(String type, String algorithm) {
+    final Provider[] providers = Security.getProviders(type + "." + algorithm);
+    return providers == null || providers.length == 0 ? null : providers[0].getName();
+  }
+
+  private static final class Generation {
+    private final Provider[] providers;
+    private final Pool<Signature> signatures = new Pool<>("Signature");
+    private final Pool<MessageDigest> messageDigests = new Pool<>("MessageDigest");
+    private final Pool<KeyFactory> keyFactories = new Pool<>("KeyFactory");
+    private final Pool<CertificateFactory> certificateFactories = new Pool<>("CertificateFactory");
+
+    private Generation(Provider[] providers) {
+      this.providers = providers;
+    }
+
+    private boolean hasProviders(Provider[] other) {
+      if (other.length != providers.length) {
+        return false;
+      }
+      for (int i = 0; i < providers.length; ++i) {
+        if (other[i] != providers[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Pool<T> {
+    private final ConcurrentHashMap<String, Idle<T>> idle = new ConcurrentHashMap<>();
+    private final Function<String, Idle<T>> newIdle;
+
+    private Pool(String type) {
+      this.newIdle = algorithm -> new Idle<>(preferredProviderName(type, algorithm));
+    }
+
+    private T poll(String algorithm) {
+      final Idle<T> engines = idle.get(algorithm);
+      if (engines == null) {
+        return null;
+      }
+      final T engine = engines.queue.poll();
+      if (engine != null) {
+        engines.size.decrementAndGet();
+      }
+      return engine;
+    }
+
+    private void offer(String algorithm, Provider provider, T engine) {
+      final Idle<T> engines = idle.computeIfAbsent(algorithm, newIdle);
+      if (engines.providerName == null || !engines.providerName.equals(provider.getName())) {
+        return;
+      }
+      if (engines.size.incrementAndGet() <= MAX_IDLE_PER_ALGORITHM) {
+        engines.queue.offer(engine);
+      } else {
+        engines.size.decrementAndGet();
+      }
+    }
+  }
+
+  /** The idle engines of one algorithm and provider. */
+  private static final class Idle<T> {
+    private final String providerName;
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private Idle(String providerName) {
+      this.providerName = providerName;
+    }
+  }
+}
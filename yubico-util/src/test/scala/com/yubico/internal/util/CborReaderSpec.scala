@@ -0,0 +1,303 @@
+package com.yubico.internal.util
+
+import com.upokecenter.cbor.CBORObject
+import org.junit.runner.RunWith
+import org.scalacheck.Arbitrary.arbitrary
+import org.scalacheck.Gen
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+@RunWith(classOf[JUnitRunner])
+class CborReaderSpec
+    extends AnyFunSpec
+    with Matchers
+    with ScalaCheckDrivenPropertyChecks {
+
+  private def reader(hex: String): CborReader =
+    new CborReader(BinaryUtil.fromHex(hex))
+
+  private def cborObjects(depth: Int): Gen[CBORObject] = {
+    val leaves: Gen[CBORObject] = Gen.oneOf(
+      arbitrary[Long].map(CBORObject.FromObject(_)),
+      arbitrary[Array[Byte]].map(CBORObject.FromObject(_)),
+      Gen.alphaNumStr.map(CBORObject.FromObject(_)),
+      arbitrary[Boolean].map(CBORObject.FromObject(_)),
+      arbitrary[Double].map(CBORObject.FromObject(_)),
+      Gen.const(CBORObject.Null),
+    )
+    if (depth <= 0) {
+      leaves
+    } else {
+      Gen.frequency(
+        3 -> leaves,
+        1 -> Gen
+          .listOfN(3, cborObjects(depth - 1))
+          .map(items => {
+            val arr = CBORObject.NewArray()
+            items.foreach(arr.Add)
+            arr
+          }),
+        1 -> Gen
+          .listOfN(3, Gen.zip(Gen.alphaNumStr, cborObjects(depth - 1)))
+          .map(entries => {
+            val map = CBORObject.NewMap()
+            entries.foreach({ case (k, v) => map.set(k, v) })
+            map
+          }),
+        1 -> Gen
+          .zip(Gen.choose(0, 1000), cborObjects(depth - 1))
+          .map({ case (tag, item) => CBORObject.FromObjectAndTag(item, tag) }),
+      )
+    }
+  }
+
+  describe("CborReader") {
+
+    it("reads integers of all argument sizes.") {
+      reader("00").readInteger() should equal(0)
+      reader("17").readInteger() should equal(23)
+      reader("1818").readInteger() should equal(24)
+      reader("1903e8").readInteger() should equal(1000)
+      reader("1a000f4240").readInteger() should equal(1000000)
+      reader("1b000000e8d4a51000").readInteger() should equal(1000000000000L)
+      reader("20").readInteger() should equal(-1)
+      reader("3863").readInteger() should equal(-100)
+      reader("3b7fffffffffffffff").readInteger() should equal(Long.MinValue)
+    }
+
+    it("reads arbitrary integers encoded by another library.") {
+      forAll { i: Long =>
+        reader(
+          BinaryUtil.toHex(CBORObject.FromObject(i).EncodeToBytes())
+        ).readInteger() should equal(i)
+      }
+    }
+
+    it("rejects integers that do not fit in a long.") {
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("1bffffffffffffffff").readInteger()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("3bffffffffffffffff").readInteger()
+      }
+    }
+
+    it("reads text strings, byte strings and booleans.") {
+      reader("6449455446").readTextString() should equal("IETF")
+      reader("4401020304").readByteString() should equal(
+        Array[Byte](1, 2, 3, 4)
+      )
+      reader("f5").readBoolean() should be(true)
+      reader("f4").readBoolean() should be(false)
+    }
+
+    it("leaves the reader at the start of byte string content.") {
+      val r = reader("00420a0b01")
+      r.readInteger()
+      r.readByteStringHeader() should equal(2)
+      r.getPosition should equal(2)
+      r.skipBytes(2)
+      r.readInteger() should equal(1)
+      r.hasRemaining should be(false)
+    }
+
+    it("reads definite-length map and array headers.") {
+      val r = reader("a201820203036161")
+      r.readMapHeader() should equal(2)
+      r.readInteger() should equal(1)
+      r.readArrayHeader() should equal(2)
+      r.readInteger() should equal(2)
+      r.readInteger() should equal(3)
+      r.readInteger() should equal(3)
+      r.readTextString() should equal("a")
+      r.hasRemaining should be(false)
+    }
+
+    it("iterates over definite-length and indefinite-length containers.") {
+      for { hex <- List("a3010203040506", "bf010203040506ff") } {
+        val r = reader(hex + "07")
+        val length = r.readMapHeader()
+        var i = 0
+        while (r.hasNextItem(length, i)) {
+          r.readInteger() should equal(2 * i + 1)
+          r.readInteger() should equal(2 * i + 2)
+          i += 1
+        }
+        i should equal(3)
+        r.readInteger() should equal(7)
+      }
+
+      val r = reader("9fff")
+      r.readArrayHeader() should equal(CborReader.INDEFINITE_LENGTH)
+      r.hasNextItem(CborReader.INDEFINITE_LENGTH, 0) should be(false)
+      r.hasRemaining should be(false)
+    }
+
+    it("rejects indefinite-length strings.") {
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("5f4101ff").readByteString()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("7f6161ff").readTextString()
+      }
+    }
+
+    it("rejects items of the wrong type.") {
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("6161").readInteger()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("01").readTextString()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("a0").readArrayHeader()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("f6").readBoolean()
+      }
+    }
+
+    it("rejects truncated input.") {
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("").peekMajorType()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("19ff").readInteger()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("440102").readByteString()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("a20102").skipItem()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("9f0102").skipItem()
+      }
+    }
+
+    it("rejects reserved additional information values and stray breaks.") {
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("1c").readInteger()
+      }
+      an[IllegalArgumentException] shouldBe thrownBy {
+        reader("ff").skipItem()
+      }
+    }
+
+    it("does not read past the end of the given range.") {
+      val bytes = BinaryUtil.fromHex("ff4201020000")
+      val r = new CborReader(bytes, 1, 2)
+      an[IllegalArgumentException] shouldBe thrownBy {
+        r.readByteString()
+      }
+      new CborReader(bytes, 1, 3).readByteString() should equal(
+        Array[Byte](1, 2)
+      )
+    }
+
+    it("skips indefinite-length items, tags and floats.") {
+      val r = reader(
+        "bf6161f9 3c00 6162 9f c1 1a 514b67b0 5f 4101 ff ff ff 07"
+          .replace(" ", "")
+      )
+      r.skipItem()
+      r.readInteger() should equal(7)
+      r.hasRemaining should be(false)
+    }
+
+    it("skips deeply nested items without overflowing the call stack.") {
+      val depth = 100000
+      val bytes = Array.fill[Byte](depth)(0x81.toByte) :+ 0x00.toByte
+      val r = new CborReader(bytes)
+      r.skipItem()
+      r.hasRemaining should be(false)
+    }
+
+    it("skips exactly one item of arbitrary CBOR encoded by another library.") {
+      forAll(cborObjects(3), arbitrary[Array[Byte]]) { (item, suffix) =>
+        val encoded = item.EncodeToBytes()
+        val r = new CborReader(encoded ++ suffix)
+        r.skipItem()
+        r.getPosition should equal(encoded.length)
+      }
+    }
+  }
+
+  describe("CborWriter") {
+
+    it("writes integers in the shortest form.") {
+      for {
+        i <- List(
+          0L,
+          23L,
+          24L,
+          255L,
+          256L,
+          65535L,
+          65536L,
+          4294967295L,
+          4294967296L,
+          Long.MaxValue,
+          -1L,
+          -24L,
+          -25L,
+          -256L,
+          -257L,
+          Long.MinValue,
+        )
+      } {
+        new CborWriter().writeInteger(i).toByteArray should equal(
+          CBORObject.FromObject(i).EncodeToBytes()
+        )
+      }
+    }
+
+    it("writes output that CborReader can read back.") {
+      forAll(
+        arbitrary[Long],
+        arbitrary[Array[Byte]],
+        Gen.alphaNumStr,
+        arbitrary[Boolean],
+      ) { (i, b, s, bool) =>
+        val encoded = new CborWriter(1)
+          .writeMapHeader(1)
+          .writeTextString(s)
+          .writeArrayHeader(3)
+          .writeInteger(i)
+          .writeByteString(b)
+          .writeBoolean(bool)
+          .toByteArray
+
+        val r = new CborReader(encoded)
+        r.readMapHeader() should equal(1)
+        r.readTextString() should equal(s)
+        r.readArrayHeader() should equal(3)
+        r.readInteger() should equal(i)
+        r.readByteString() should equal(b)
+        r.readBoolean() should equal(bool)
+        r.hasRemaining should be(false)
+      }
+    }
+
+    it("writes output equal to that of another library.") {
+      forAll(arbitrary[Long], arbitrary[Array[Byte]], Gen.alphaNumStr) {
+        (i, b, s) =>
+        val encoded = new CborWriter()
+          .writeArrayHeader(3)
+          .writeInteger(i)
+          .writeByteString(b)
+          .writeTextString(s)
+          .toByteArray
+
+        val arr = CBORObject.NewArray()
+        arr.Add(i)
+        arr.Add(b)
+        arr.Add(s)
+        encoded should equal(arr.EncodeToBytes())
+      }
+    }
+  }
+
+}
@@ -0,0 +1,162 @@
+package com.yubico.internal.util
+
+import org.junit.runner.RunWith
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import java.nio.charset.StandardCharsets
+import java.security.KeyPairGenerator
+import java.security.MessageDigest
+import java.security.NoSuchAlgorithmException
+import java.security.Provider
+import java.security.Security
+
+@RunWith(classOf[JUnitRunner])
+class JcaEnginesSpec extends AnyFunSpec with Matchers {
+
+  describe("JcaEngines") {
+
+    it("reuses released engines.") {
+      val digest = JcaEngines.borrowMessageDigest("SHA-384")
+      JcaEngines.releaseMessageDigest(digest)
+      val digest2 = JcaEngines.borrowMessageDigest("SHA-384")
+      JcaEngines.releaseMessageDigest(digest2)
+
+      digest2 should be theSameInstanceAs digest
+    }
+
+    it("does not hand out the same engine twice at the same time.") {
+      val digest1 = JcaEngines.borrowMessageDigest("SHA-384")
+      val digest2 = JcaEngines.borrowMessageDigest("SHA-384")
+      JcaEngines.releaseMessageDigest(digest1)
+      JcaEngines.releaseMessageDigest(digest2)
+
+      digest2 should not be theSameInstanceAs(digest1)
+    }
+
+    it("resets message digests when they are released.") {
+      val data = "foo".getBytes(StandardCharsets.UTF_8)
+
+      val digest = JcaEngines.borrowMessageDigest("SHA-384")
+      digest.update(0x42.toByte)
+      JcaEngines.releaseMessageDigest(digest)
+
+      val digest2 = JcaEngines.borrowMessageDigest("SHA-384")
+      try {
+        digest2.digest(data) should equal(
+          MessageDigest.getInstance("SHA-384").digest(data)
+        )
+      } finally {
+        JcaEngines.releaseMessageDigest(digest2)
+      }
+    }
+
+    it("returns working signature engines after reuse.") {
+      val keyGen = KeyPairGenerator.getInstance("EC")
+      val data = "foo".getBytes(StandardCharsets.UTF_8)
+
+      for { _ <- 1 to 3 } {
+        val keypair = keyGen.generateKeyPair()
+        val signer = JcaEngines.borrowSignature("SHA256withECDSA")
+        val sig =
+          try {
+            signer.initSign(keypair.getPrivate)
+            signer.update(data)
+            signer.sign()
+          } finally {
+            JcaEngines.releaseSignature(signer)
+          }
+
+        val verifier = JcaEngines.borrowSignature("SHA256withECDSA")
+        try {
+          verifier.initVerify(keypair.getPublic)
+          verifier.update(data)
+          verifier.verify(sig) should be(true)
+        } finally {
+          JcaEngines.releaseSignature(verifier)
+        }
+      }
+    }
+
+    it("reuses released certificate factories.") {
+      val factory = JcaEngines.borrowCertificateFactory("X.509")
+      JcaEngines.releaseCertificateFactory(factory)
+      val factory2 = JcaEngines.borrowCertificateFactory("X.509")
+      JcaEngines.releaseCertificateFactory(factory2)
+
+      factory2 should be theSameInstanceAs factory
+    }
+
+    it("discards pooled engines when the security providers change.") {
+      val digest = JcaEngines.borrowMessageDigest("SHA-384")
+      JcaEngines.releaseMessageDigest(digest)
+
+      val provider = new Provider("JcaEnginesSpec", 1.0, "Test provider") {}
+      Security.addProvider(provider)
+      try {
+        val deadline = System.nanoTime() +
+          5 * JcaEngines.PROVIDER_CHECK_INTERVAL_NANOS
+        var digest2 = digest
+        while (
+          (digest2 eq digest) && System.nanoTime() - deadline < 0
+        ) {
+          Thread.sleep(50)
+          digest2 = JcaEngines.borrowMessageDigest("SHA-384")
+          JcaEngines.releaseMessageDigest(digest2)
+        }
+        digest2 should not be theSameInstanceAs(digest)
+      } finally {
+        Security.removeProvider(provider.getName)
+      }
+    }
+
+    it("discards pooled engines immediately when invalidated.") {
+      val digest = JcaEngines.borrowMessageDigest("SHA-384")
+      JcaEngines.releaseMessageDigest(digest)
+
+      JcaEngines.invalidate()
+
+      val digest2 = JcaEngines.borrowMessageDigest("SHA-384")
+      JcaEngines.releaseMessageDigest(digest2)
+      digest2 should not be theSameInstanceAs(digest)
+    }
+
+    it("does not pool engines from other providers than the preferred one.") {
+      val sun = Security.getProvider("SUN")
+      val preferred = JcaEngines.borrowMessageDigest("SHA-384")
+      JcaEngines.releaseMessageDigest(preferred)
+      preferred.getProvider should be theSameInstanceAs sun
+
+      val provider = new Provider("JcaEnginesSpec", 1.0, "Test provider") {
+        put("MessageDigest.SHA-384", sun.getProperty("MessageDigest.SHA-384"))
+      }
+      val other = MessageDigest.getInstance("SHA-384", provider)
+      JcaEngines.releaseMessageDigest(other)
+
+      for { _ <- 1 to 2 } {
+        val digest = JcaEngines.borrowMessageDigest("SHA-384")
+        try {
+          digest should not be theSameInstanceAs(other)
+          digest.getProvider should be theSameInstanceAs sun
+        } finally {
+          JcaEngines.releaseMessageDigest(digest)
+        }
+      }
+    }
+
+    it("throws NoSuchAlgorithmException for unknown algorithms.") {
+      a[NoSuchAlgorithmException] should be thrownBy {
+        JcaEngines.borrowSignature("foo")
+      }
+    }
+
+    it("ignores null when releasing.") {
+      JcaEngines.releaseSignature(null)
+      JcaEngines.releaseMessageDigest(null)
+      JcaEngines.releaseKeyFactory(null)
+      JcaEngines.releaseCertificateFactory(null)
+    }
+  }
+
+}